@@ -0,0 +1,31 @@
+package edu.westminsteru.jasm;
+
+import java.util.List;
+
+/**
+ * The outcome of assembling jasm code with a {@link JasmEngine}.
+ * @param status        {@link Status#Success} if assembly succeeded, or {@link Status#Failure} if there was an error in the code
+ * @param bytecodes     the assembled classes (empty if assembly failed)
+ * @param errorMessages the errors that occurred, in order of line number (empty if assembly succeeded)
+ */
+public record AssemblyResult(Status status, List<Bytecode> bytecodes, List<ErrorMessage> errorMessages) {
+
+    /**
+     * Creates a new {@code AssemblyResult}, copying the lists so that it cannot be modified.
+     * @param status        the status of the assembly
+     * @param bytecodes     the assembled classes
+     * @param errorMessages the errors that occurred
+     */
+    public AssemblyResult {
+        bytecodes = List.copyOf(bytecodes);
+        errorMessages = List.copyOf(errorMessages);
+    }
+
+    /**
+     * Returns whether assembly succeeded.
+     * @return whether the status is {@link Status#Success}
+     */
+    public boolean isSuccess() {
+        return status == Status.Success;
+    }
+}
@@ -0,0 +1,233 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Assembles many input files at once for {@link Main}, on a work-stealing {@link ForkJoinPool}.
+ * The files are given as paths, directories (which are searched for {@code .jasm} files in parallel), or glob patterns such as {@code src/**.jasm}. The largest files are started first, so that a few large files at the end do not leave the other workers idle, but the errors are reported grouped by file and in the order the files were given.
+ */
+final class Batch {
+
+    /**
+     * An input file.
+     * @param path the path of the file
+     * @param size the size of the file in bytes (0 if it is unknown)
+     */
+    record Input(Path path, long size) {}
+
+    /**
+     * The outcome of assembling one input file.
+     * @param success whether the file was assembled and its classes were saved
+     * @param report the errors to print, formatted (empty if there were none)
+     */
+    record Outcome(boolean success, String report) {}
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private Batch() {}
+
+    /**
+     * Where the files an argument stands for are found.
+     * @param directory the directory in which (or, unless the argument names a single file, under which) the files are
+     * @param filter which files in or under the directory the argument stands for
+     * @param file the file the argument names, or {@code null} if it is a directory or a pattern
+     */
+    record Root(Path directory, Predicate<Path> filter, Path file) {}
+
+    /**
+     * Returns where the files an argument stands for are found. A directory stands for the {@code .jasm} files in it and its subdirectories, and an argument with any of the characters {@code *?[{} is a glob pattern, which is matched against the paths of the files under the directory its pattern starts at.
+     * @param argument a path, directory, or pattern
+     * @return the root of the argument
+     */
+    static Root root(String argument) {
+        int glob = indexOfGlob(argument);
+        if (glob >= 0) {
+            // search from the last directory before the first wildcard
+            int separator = Math.max(argument.lastIndexOf('/', glob), argument.lastIndexOf(java.io.File.separatorChar, glob));
+            Path base = Path.of((separator < 0) ? "." : argument.substring(0, separator + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument.substring(separator + 1));
+            return new Root(base, p -> matcher.matches(base.relativize(p)), null);
+        }
+
+        Path path = Path.of(argument);
+        if (Files.isDirectory(path))
+            return new Root(path, p -> p.getFileName().toString().endsWith(".jasm"), null);
+        Path file = path.normalize();
+        return new Root(
+            Objects.requireNonNullElse(path.getParent(), Path.of(".")),
+            p -> p.normalize().equals(file),
+            path
+        );
+    }
+
+    /**
+     * Finds the input files given on the command line (see {@link #root(String)}).
+     * The files are in the order of the arguments, and those of a directory or pattern are sorted by path; a file given more than once is only included the first time.
+     * @param arguments the paths, directories, and patterns
+     * @param pool the pool on which to search directories
+     * @param err where to report arguments that stand for no files
+     * @return the input files
+     */
+    static List<Input> inputs(List<String> arguments, ForkJoinPool pool, PrintStream err) {
+        var inputs = new LinkedHashSet<Input>();
+        for (String argument : arguments) {
+            var root = root(argument);
+            List<Input> found;
+            if (root.file() != null)
+                found = List.of(new Input(root.file(), size(root.file())));
+            else if (Files.isDirectory(root.directory()))
+                found = pool.invoke(new Search(root.directory(), root.filter()));
+            else
+                found = List.of();
+
+            if (found.isEmpty())
+                err.printf("No input files in %s\n", argument);
+            inputs.addAll(found);
+        }
+        return List.copyOf(inputs);
+    }
+
+    private static int indexOfGlob(String argument) {
+        for (int i = 0; i < argument.length(); ++i) {
+            if (GLOB_CHARACTERS.indexOf(argument.charAt(i)) >= 0)
+                return i;
+        }
+        return -1;
+    }
+
+    static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException _) {
+            return 0;
+        }
+    }
+
+    /** Searches a directory for files, forking a task for each subdirectory; symbolic links to directories are not followed */
+    private static final class Search extends RecursiveTask<List<Input>> {
+        private final Path directory;
+        private final Predicate<Path> filter;
+
+        Search(Path directory, Predicate<Path> filter) {
+            this.directory = directory;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<Input> compute() {
+            var files = new ArrayList<Input>();
+            var subdirectories = new ArrayList<Search>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    var attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory())
+                        subdirectories.add(new Search(entry, filter));
+                    else if (filter.test(entry) && Files.isRegularFile(entry))
+                        files.add(new Input(entry, attributes.isSymbolicLink() ? size(entry) : attributes.size()));
+                }
+            } catch (IOException _) {
+                // an unreadable directory has no inputs
+            }
+
+            ForkJoinTask.invokeAll(subdirectories);
+            for (var search : subdirectories)
+                files.addAll(search.join());
+            files.sort(Comparator.comparing(Input::path));
+            return files;
+        }
+    }
+
+    /**
+     * Assembles the input files and saves the classes of each file as soon as it has been assembled, then prints the errors of each file in order. The files are submitted to the pool largest first, so that saving the classes of one file overlaps with assembling the others.
+     * The classes of a file are only given to its sink if the whole file was assembled, so a file with errors leaves no classes behind, and does not replace those saved from it before.
+     * @param inputs the input files
+     * @param assembler how to assemble a file, giving its classes to a sink, such as {@link JasmEngine#assemble(Path, BytecodeSink)}
+     * @param sinks the sink to save the classes of each file with, such as {@link BytecodeSink#toDirectory(Path)}
+     * @param pool the pool on which to assemble the files
+     * @param err where to print errors
+     * @param headers whether to print the path of each file before its errors
+     * @return the outcome for each file, in the order of the inputs
+     */
+    static List<Outcome> assemble(List<Input> inputs, BiFunction<Path, BytecodeSink, AssemblyResult> assembler, Function<Path, BytecodeSink> sinks, ForkJoinPool pool, PrintStream err, boolean headers) {
+        var order = new ArrayList<Integer>(inputs.size());
+        for (int i = 0; i < inputs.size(); ++i)
+            order.add(i);
+        order.sort(Comparator.comparing((Integer i) -> inputs.get(i).size()).reversed());
+
+        @SuppressWarnings("unchecked")
+        ForkJoinTask<Outcome>[] tasks = new ForkJoinTask[inputs.size()];
+        for (int i : order) {
+            var input = inputs.get(i);
+            tasks[i] = pool.submit(() -> assemble(input.path(), assembler, sinks.apply(input.path()), headers));
+        }
+
+        var outcomes = new ArrayList<Outcome>(tasks.length);
+        for (var task : tasks) {
+            var outcome = task.join();
+            err.print(outcome.report());
+            err.flush();
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+
+    private static Outcome assemble(Path path, BiFunction<Path, BytecodeSink, AssemblyResult> assembler, BytecodeSink sink, boolean withHeader) {
+        var report = new StringBuilder();
+        if (withHeader)
+            report.append(path).append(":\n");
+        int headerLength = report.length();
+
+        // a later class of the file may still have errors, so none of them is saved until all have been assembled
+        var assembled = BytecodeSink.inMemory();
+        boolean success = false;
+        try {
+            var result = assembler.apply(path, assembled);
+            if (result.isSuccess())
+                success = save(assembled.getBytecodes(), sink, report);
+            else {
+                for (var message : result.errorMessages())
+                    report.append(message.format()).append('\n');
+            }
+        } catch (UncheckedIOException ex) {
+            report.append(String.format("Unable to read %s: %s\n", path, ex.getCause().getMessage()));
+        }
+
+        if (report.length() == headerLength)
+            report.setLength(0);
+        return new Outcome(success, report.toString());
+    }
+
+    /** Saves the classes of a file, returning whether all were saved; a class that cannot be saved is reported with the file's errors, and the other classes are saved all the same */
+    private static boolean save(List<Bytecode> bytecodes, BytecodeSink sink, StringBuilder report) {
+        boolean saved = true;
+        for (var bytecode : bytecodes) {
+            try {
+                sink.accept(bytecode);
+            } catch (IOException ex) {
+                report.append(String.format("Unable to save %s: %s\n", bytecode.className(), ex.getMessage()));
+                saved = false;
+            }
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,115 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Receives classes as soon as they have been assembled, so that they can be written out while the rest of the input is still being assembled rather than all at the end (see {@link JasmEngine#assemble(Path, BytecodeSink)}).
+ * Only the classes that have been assembled but not yet given to the sink are kept in memory, rather than the bytecode of every class of the input.
+ * <p>
+ * The classes of one assembly are given to the sink one at a time, in the order they were declared, though not necessarily on the same thread. If a class has errors, the classes declared after it are not given to the sink; those before it may already have been.
+ */
+@FunctionalInterface
+public interface BytecodeSink {
+
+    /**
+     * Receives an assembled class.
+     * @param bytecode the class
+     * @throws IOException if the class cannot be written, which stops assembly
+     */
+    void accept(Bytecode bytecode) throws IOException;
+
+    /**
+     * Returns a sink that gives each class to this sink and then to another.
+     * @param next the other sink
+     * @return the combined sink
+     */
+    default BytecodeSink andThen(BytecodeSink next) {
+        return bytecode -> {
+            accept(bytecode);
+            next.accept(bytecode);
+        };
+    }
+
+    /**
+     * Returns a sink that saves each class as a .class file in a directory, creating subdirectories for packages as needed. The sink may be shared by assemblies running at the same time.
+     * @param directory the directory
+     * @return the sink
+     */
+    static BytecodeSink toDirectory(Path directory) {
+        return bytecode -> {
+            Path destPath = directory.resolve(bytecode.className() + ".class");
+            Files.createDirectories(destPath.getParent());
+            Files.write(destPath, bytecode.data());
+        };
+    }
+
+    /**
+     * Returns a sink that writes each class to a channel: the length of the UTF-8 encoded class name as a big-endian int, the name, the length of the bytecode as a big-endian int, and the bytecode. The sink may be shared by assemblies running at the same time; each class is written whole. The channel is not closed.
+     * @param channel the channel
+     * @return the sink
+     */
+    static BytecodeSink toChannel(WritableByteChannel channel) {
+        var lock = new Object();
+        return bytecode -> {
+            byte[] name = bytecode.className().getBytes(StandardCharsets.UTF_8);
+            var buffers = new ByteBuffer[] {
+                ByteBuffer.allocate(8 + name.length).putInt(name.length).put(name).putInt(bytecode.data().length).flip(),
+                ByteBuffer.wrap(bytecode.data())
+            };
+            synchronized (lock) {
+                for (var buffer : buffers) {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a sink that passes each class to a callback.
+     * @param callback the callback
+     * @return the sink
+     */
+    static BytecodeSink of(Consumer<? super Bytecode> callback) {
+        return callback::accept;
+    }
+
+    /**
+     * Returns a sink that keeps the classes in memory.
+     * @return the sink
+     */
+    static InMemory inMemory() {
+        return new InMemory();
+    }
+
+    /**
+     * A sink that keeps the classes in memory, in the order it received them. It may be shared by assemblies running at the same time.
+     */
+    final class InMemory implements BytecodeSink {
+
+        private final List<Bytecode> bytecodes = new ArrayList<>();
+
+        private InMemory() {}
+
+        @Override
+        public synchronized void accept(Bytecode bytecode) {
+            bytecodes.add(bytecode);
+        }
+
+        /**
+         * Returns the classes received so far.
+         * @return a list of the classes
+         */
+        public synchronized List<Bytecode> getBytecodes() {
+            return List.copyOf(bytecodes);
+        }
+    }
+}
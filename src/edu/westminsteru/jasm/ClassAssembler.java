@@ -0,0 +1,417 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.SourceFileAttribute;
+import java.lang.classfile.attribute.StackMapFrameInfo;
+import java.lang.classfile.attribute.StackMapTableAttribute;
+import java.lang.constant.ClassDesc;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Assembles a single class from its {@link DefaultJasmParserListener.ClassSpec}. A {@code ClassAssembler} holds the state of one assembly (the errors found so far), so it is used for one class only and never shared between threads; {@link JasmEngine} creates one for each class it assembles.
+ * <p>
+ * The code of each method is built in two stages. First it is {@linkplain Instructions#lower lowered}: operands are parsed and resolved to symbols and values, which is where most of the work is. This stage does not involve a {@code CodeBuilder}, so the methods of a large class can be lowered in parallel. Then the lowered instructions are fed to the (single-threaded) {@code CodeBuilder} in order.
+ * {@linkplain StackFrame Frames} given by {@code .stack} directives are lowered along with the instructions and written to the {@code StackMapTable} attribute as the code is emitted.
+ * A class with such frames is built without stack map generation, so that they are kept as given; if some of its methods have none, those methods are built with generation on their own and put in place of the ones without frames, so that stack maps are decided for each method.
+ * With the {@link JasmEngine.Backend#Direct direct} backend, a simple class is first offered to the {@link DirectClassWriter}; only if it cannot write the class is the class built as above.
+ * <p>
+ * Both stages check every so often whether the thread that started the assembly has been interrupted, or the assembler has been {@linkplain #cancel() cancelled}, on whichever thread they run, so that even a single large class is {@linkplain JasmEngine cancelled} promptly.
+ */
+final class ClassAssembler {
+
+    @FunctionalInterface
+    private interface Failable {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Lowering {
+        Instructions.Lowered lower() throws AssemblyException;
+    }
+
+    /**
+     * The code of a method after lowering.
+     * @param items the lowered instructions (and label bindings and stack frames), in order
+     * @param errors the errors found while lowering
+     */
+    private record LoweredCode(List<Instructions.Lowered> items, List<ErrorMessage> errors) {}
+
+    /** The least number of instructions in a class for its methods to be lowered in parallel */
+    private static final int PARALLEL_LOWERING_THRESHOLD = 2048;
+    /** How many instructions are lowered or emitted between checks for cancellation */
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+
+    private final ClassFile classFile;
+    private final ClassFile framesClassFile;
+    private final JasmEngine.Backend backend;
+    private final int majorVersion;
+    private final StringView sourceName;
+    private final DefaultJasmParserListener.ClassSpec spec;
+    private final Executor executor;
+    private final Thread caller;
+    private final List<ErrorMessage> errorMessages = new ArrayList<>();
+    /** The lowered code of each method (in the order of {@code spec.methods()}), or {@code null} for a method with no code */
+    private LoweredCode[] loweredCodes;
+    private boolean incomplete;
+    /** Whether the assembly has been cancelled; set by any thread */
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a {@code ClassAssembler}.
+     * @param classFile the {@code ClassFile} context to build the class with
+     * @param framesClassFile the context to build a class with {@code .stack} frames with, which must not generate stack maps; unless it is {@code classFile} itself, the methods without frames are then built again with {@code classFile}, which generates them
+     * @param backend how to write the class file
+     * @param majorVersion the major version of the class file
+     * @param sourceName the name from the {@code .source} directive, or {@code null}
+     * @param spec the class to assemble
+     * @param executor the executor on which to lower methods in parallel, or {@code null} to lower them on the calling thread
+     * @param caller the thread whose interruption cancels the assembly
+     */
+    ClassAssembler(ClassFile classFile, ClassFile framesClassFile, JasmEngine.Backend backend, int majorVersion, StringView sourceName, DefaultJasmParserListener.ClassSpec spec, Executor executor, Thread caller) {
+        this.classFile = classFile;
+        this.framesClassFile = framesClassFile;
+        this.backend = backend;
+        this.majorVersion = majorVersion;
+        this.sourceName = sourceName;
+        this.spec = spec;
+        this.executor = executor;
+        this.caller = caller;
+    }
+
+    /**
+     * Assembles the class.
+     * @return the bytecode of the class, or {@code null} if there were errors (see {@link #getErrorMessages()})
+     * @throws CancellationException if the calling thread of the assembly was interrupted, or the assembler was cancelled
+     */
+    Bytecode assemble() {
+        try {
+            checkCancelled();
+            String className = SymbolTable.shared().intern(spec.className());
+            if (backend == JasmEngine.Backend.Direct) {
+                byte[] data = DirectClassWriter.write(spec, majorVersion, sourceName);
+                if (data != null)
+                    return new Bytecode(className, data);
+            }
+
+            loweredCodes = lowerMethods();
+            var classDesc = DescriptorCache.shared().internalName(className);
+            boolean framesGiven = false, framesNeeded = false;
+            for (var code : spec.methodCodes().values()) {
+                framesGiven |= code.hasFrames();
+                framesNeeded |= !code.hasFrames();
+            }
+            if (!framesGiven)
+                return new Bytecode(className, classFile.build(classDesc, this::buildClass));
+
+            byte[] data = framesClassFile.build(classDesc, this::buildClass);
+            if (framesNeeded && framesClassFile != classFile)
+                data = withGeneratedFrames(classDesc, data);
+            return new Bytecode(className, data);
+        } catch (AbortClassfileGenerationException _) {
+            return null;
+        } catch (ClassHierarchy.IncompleteException _) {
+            incomplete = true;
+            return null;
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            errorMessages.add(new ErrorMessage(ex.getMessage()));
+            return null;
+        } finally {
+            loweredCodes = null;
+        }
+    }
+
+    /**
+     * Returns whether the class could not be assembled because the hierarchy of the classes being assembled was not complete yet (see {@link ClassHierarchy#growing()}). If so, there are no error messages, and the class must be assembled again once the hierarchy is complete.
+     * @return whether the class must be assembled again
+     */
+    boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Returns the errors found while assembling the class.
+     * @return the error messages (empty if there were none)
+     */
+    List<ErrorMessage> getErrorMessages() {
+        return errorMessages;
+    }
+
+    private void buildClass(ClassBuilder cb) {
+        buildClass(cb, _ -> true);
+    }
+
+    /** Builds the class with only some of its methods, by index */
+    private void buildClass(ClassBuilder cb, IntPredicate methods) {
+        int flags = Flags.flags(spec.classFlags().stream().map(StringView::toString).toList());
+        switch (spec.classId().toString()) {
+            case "class" -> {}
+            case "interface" -> flags |= ClassFile.ACC_INTERFACE;
+            case "enum" -> flags |= ClassFile.ACC_ENUM;
+        }
+
+        cb.withVersion(majorVersion, 0);
+
+        if (sourceName != null)
+            catchError(
+                () -> cb.with(SourceFileAttribute.of(sourceName.toString())),
+                "Invalid .source: "
+            );
+
+        final String superclassName = (spec.superclassName() == null) ? "java/lang/Object" : SymbolTable.shared().intern(spec.superclassName());
+        catchError(
+            () -> cb.withSuperclass(DescriptorCache.shared().internalName(superclassName)),
+            "Invalid .super: "
+        );
+
+        final int finalFlags = flags;
+        catchError(
+            () -> cb.withFlags(finalFlags),
+            "Invalid flags: "
+        );
+
+        catchError(
+            () -> cb.withInterfaceSymbols(spec.superinterfaceNames().stream()
+                .map(SymbolTable.shared()::intern)
+                .map(DescriptorCache.shared()::internalName)
+                .toList()
+            ),
+            "Invalid .interface: "
+        );
+
+
+        for (var field : spec.fields()) {
+            catchError(
+                () -> cb.withField(
+                        SymbolTable.shared().intern(field.fieldName()),
+                        field.fieldType(),
+                        Flags.flags(field.flags().stream().map(StringView::toString).toList())
+                ),
+                "Invalid .field: "
+            );
+        }
+
+        for (int i = 0; i < spec.methods().size(); ++i) {
+            if (!methods.test(i))
+                continue;
+            var method = spec.methods().get(i);
+            var code = loweredCodes[i];
+            catchError(
+                () -> cb.withMethod(
+                        SymbolTable.shared().intern(method.methodName()),
+                        method.methodType(),
+                        Flags.flags(method.flags().stream().map(StringView::toString).toList()),
+                        mb -> buildMethod(code, mb)
+                ),
+                "Invalid .method: "
+            );
+        }
+
+        if (!errorMessages.isEmpty())
+            throw new AbortClassfileGenerationException();
+    }
+
+    private void catchError(Failable f, String messagePrefix) {
+        try {
+            f.run();
+        } catch (ClassHierarchy.IncompleteException | CancellationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            errorMessages.add(new ErrorMessage(messagePrefix + ex.getMessage()));
+        }
+    }
+
+    private void buildMethod(LoweredCode code, MethodBuilder mb) {
+        if (code != null)
+            mb.withCode(cb -> buildMethodCode(code, cb));
+    }
+
+    private void buildMethodCode(LoweredCode code, CodeBuilder cb) {
+        errorMessages.addAll(code.errors());
+        Map<String, Label> labels = new HashMap<>();
+        List<StackMapFrameInfo> frames = new ArrayList<>();
+        var items = code.items();
+        for (int i = 0; i < items.size(); ++i) {
+            if (i % CANCELLATION_CHECK_INTERVAL == 0)
+                checkCancelled();
+            switch (items.get(i)) {
+                case Instructions.Emitter emitter -> emitter.emit(cb, labels);
+                case StackFrame frame -> frames.add(frame.resolve(cb, labels));
+            }
+        }
+        if (!frames.isEmpty())
+            cb.with(StackMapTableAttribute.of(frames));
+    }
+
+    /** Returns whether a method has code without {@code .stack} frames */
+    private boolean needsGeneratedFrames(int method) {
+        var code = spec.methodCodes().get(spec.methods().get(method));
+        return code != null && !code.hasFrames();
+    }
+
+    /**
+     * Puts methods with generated stack maps in place of those without {@code .stack} frames in a class built without generation.
+     * The code of a class file without stack maps cannot be built again as it is, since its branch targets are only found from its stack maps; so the methods are built again from their lowered code, and the methods with frames are copied as they are, sharing the constant pool.
+     */
+    private byte[] withGeneratedFrames(ClassDesc classDesc, byte[] data) {
+        var generated = classFile.parse(classFile.build(classDesc, cb -> buildClass(cb, this::needsGeneratedFrames))).methods().iterator();
+        var index = new int[1];
+        return classFile.transformClass(classFile.parse(data), (cb, element) -> {
+            if (element instanceof MethodModel && needsGeneratedFrames(index[0]++))
+                cb.with(generated.next());
+            else
+                cb.with(element);
+        });
+    }
+
+    private LoweredCode[] lowerMethods() {
+        var methods = spec.methods();
+        var lowered = new LoweredCode[methods.size()];
+        int instructions = 0;
+        for (var code : spec.methodCodes().values())
+            instructions += code.size();
+
+        if (executor == null || methods.size() < 2 || instructions < PARALLEL_LOWERING_THRESHOLD) {
+            for (int i = 0; i < lowered.length; ++i)
+                lowered[i] = lower(spec.methodCodes().get(methods.get(i)));
+            return lowered;
+        }
+
+        // Helpers on the executor and the calling thread take methods one at a time until none are left. The calling
+        // thread then waits only for methods already being lowered, so it cannot deadlock on a busy executor.
+        var next = new AtomicInteger();
+        var done = new CountDownLatch(lowered.length);
+        var failure = new RuntimeException[1];
+        Runnable helper = () -> {
+            for (int i; (i = next.getAndIncrement()) < lowered.length; ) {
+                try {
+                    lowered[i] = lower(spec.methodCodes().get(methods.get(i)));
+                } catch (RuntimeException ex) {
+                    synchronized (failure) {
+                        failure[0] = ex;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(lowered.length, Runtime.getRuntime().availableProcessors()) - 1;
+        for (int i = 0; i < helpers; ++i)
+            executor.execute(helper);
+        helper.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException _) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        synchronized (failure) {
+            if (failure[0] != null)
+                throw failure[0];
+        }
+        return lowered;
+    }
+
+    private LoweredCode lower(MethodCode code) {
+        if (code == null)
+            return null;
+
+        var items = new ArrayList<Instructions.Lowered>(code.size());
+        var errors = new ArrayList<ErrorMessage>();
+        boolean stopped = false;
+        for (int i = 0; i < code.size() && !stopped; ++i) {
+            if (i % CANCELLATION_CHECK_INTERVAL == 0)
+                checkCancelled();
+            if (code.isFrame(i)) {
+                var operands = code.frameOperands(i);
+                stopped = lower(() -> StackFrame.lower(operands), code, i, items, errors);
+                continue;
+            }
+
+            if (code.isTable(i)) {
+                errors.add(new ErrorMessage(
+                    "Table not expected",
+                    null, ErrorMessage.UNSPECIFIC, ErrorMessage.UNSPECIFIC
+                ));
+                continue;
+            }
+
+            var opc = code.opcode(i);
+            if (opc == Opcode.lookupswitch || opc == Opcode.tableswitch) {
+                if (i + 1 == code.size() || !code.isTable(i + 1)) {
+                    errors.add(new ErrorMessage(
+                        String.format("Expected .table after opcode %s", code.opcodeText(i)),
+                        code.sourceLine(i), code.lineNumber(i), ErrorMessage.UNSPECIFIC
+                    ));
+                    continue;
+                }
+
+                var table = new Table(code.tableEntries(i + 1));
+                var opcode = code.opcodeText(i);
+                var operands = code.operands(i);
+                stopped = lower(() -> Instructions.lowerTableInstruction(opc, opcode, operands, table), code, i, items, errors);
+                ++i;
+            } else {
+                for (var name : code.labels(i))
+                    items.add((Instructions.Emitter)(cb, labels) -> cb.labelBinding(labels.computeIfAbsent(name, _ -> cb.newLabel())));
+                var opcode = code.opcodeText(i);
+                var operands = code.operands(i);
+                stopped = lower(() -> Instructions.lower(opc, opcode, operands), code, i, items, errors);
+            }
+        }
+
+        return new LoweredCode(items, errors);
+    }
+
+    /**
+     * Cancels the assembly, e.g. because another class of the same assembly failed and its result will not be used. The assembly stops with a {@link CancellationException} at its next check, or as soon as it starts. Unlike the other methods, this one may be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /** Stops assembly if it has been cancelled or the thread that started it has been interrupted (see {@link JasmEngine#checkInterrupted()}) */
+    private void checkCancelled() {
+        if (cancelled)
+            throw new CancellationException("Assembly was cancelled");
+        else if (caller.isInterrupted())
+            throw new CancellationException("Assembly was interrupted");
+    }
+
+    /** Lowers one instruction, returning whether lowering of the method must stop */
+    private static boolean lower(Lowering lowering, MethodCode code, int instruction, List<Instructions.Lowered> items, List<ErrorMessage> errors) {
+        try {
+            items.add(lowering.lower());
+            return false;
+        } catch (AssemblyException ex) {
+            String message = (ex.getCause() != null && ex.getCause().getMessage() != null)
+                ? ex.getMessage() + "\n" + ex.getCause().getMessage()
+                : ex.getMessage();
+            errors.add(new ErrorMessage(
+                message, code.sourceLine(instruction),
+                code.lineNumber(instruction), ex.getTarget().map(code::column).orElse(ErrorMessage.UNSPECIFIC)
+            ));
+            return false;
+        } catch (RuntimeException ex) {
+            // an invalid symbol (e.g. from ClassDesc.ofInternalName) fails the whole method when it is emitted
+            items.add((Instructions.Emitter)(cb, labels) -> { throw ex; });
+            return true;
+        }
+    }
+}
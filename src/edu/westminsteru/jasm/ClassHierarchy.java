@@ -0,0 +1,115 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the class hierarchy that stack map generation needs, without loading any classes. The classes being assembled are resolved from their {@link DefaultJasmParserListener.ClassSpec}s, so classes that refer to one another resolve correctly even though none of them exists yet; classes of the JDK are resolved from the {@link JdkHierarchyIndex}; and any others are resolved by parsing their class files from the class path.
+ */
+final class ClassHierarchy implements ClassHierarchyResolver {
+
+    private static final ClassHierarchyResolver CLASS_PATH = ClassHierarchyResolver.ofResourceParsing(ClassLoader.getSystemClassLoader()).cached();
+
+    /**
+     * Thrown when a class cannot be resolved while the classes being assembled are not all known yet, because it may be one of those still to be parsed.
+     * {@link ClassAssembler} lets it through, and the class is assembled again once the whole input has been parsed.
+     */
+    static final class IncompleteException extends RuntimeException {
+        IncompleteException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** What the hierarchy needs of a class being assembled */
+    private record Header(boolean isInterface, StringView superclassName) {}
+
+    /** The classes being assembled, by internal name */
+    private final Map<String, Header> classes;
+    /** Whether all the classes being assembled are known */
+    private volatile boolean complete;
+
+    private ClassHierarchy(Map<String, Header> classes, boolean complete) {
+        this.classes = classes;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns a resolver for assembling the given classes.
+     * @param specs the classes being assembled
+     * @return the resolver
+     */
+    static ClassHierarchyResolver of(List<DefaultJasmParserListener.ClassSpec> specs) {
+        var hierarchy = new ClassHierarchy(new HashMap<>(specs.size() * 2), true);
+        specs.forEach(hierarchy::add);
+        return hierarchy.resolver();
+    }
+
+    /**
+     * Returns a hierarchy without any classes, for classes that are assembled while the input is still being parsed. Classes are {@linkplain #add added} as they are parsed; until the hierarchy is {@linkplain #complete() complete}, its {@linkplain #resolver() resolver} throws {@link IncompleteException} for a class it cannot resolve.
+     * @return the hierarchy
+     */
+    static ClassHierarchy growing() {
+        return new ClassHierarchy(new ConcurrentHashMap<>(), false);
+    }
+
+    /**
+     * Adds a class being assembled. If several classes have the same name, the first one counts.
+     * @param spec the class
+     */
+    void add(DefaultJasmParserListener.ClassSpec spec) {
+        if (spec.className() != null)
+            classes.putIfAbsent(
+                SymbolTable.shared().intern(spec.className()),
+                new Header(spec.classId().toString().equals("interface"), spec.superclassName())
+            );
+    }
+
+    /**
+     * Marks that all the classes being assembled have been added.
+     */
+    void complete() {
+        complete = true;
+    }
+
+    /**
+     * Returns the resolver for the classes of this hierarchy, then the classes of the JDK, then those on the class path.
+     * @return the resolver
+     */
+    ClassHierarchyResolver resolver() {
+        var resolver = orElse(JdkHierarchyIndex.shared()).orElse(CLASS_PATH);
+        return complete ? resolver : resolver.orElse(this::notYetParsed);
+    }
+
+    private ClassHierarchyInfo notYetParsed(ClassDesc classDesc) {
+        if (!complete)
+            throw new IncompleteException();
+        // the class may have been added after this hierarchy was searched, but before it was completed
+        return getClassInfo(classDesc);
+    }
+
+    @Override
+    public ClassHierarchyInfo getClassInfo(ClassDesc classDesc) {
+        if (!classDesc.isClassOrInterface())
+            return null;
+        String descriptor = classDesc.descriptorString();
+        var header = classes.get(descriptor.substring(1, descriptor.length() - 1));
+        if (header == null)
+            return null;
+        if (header.isInterface())
+            return ClassHierarchyInfo.ofInterface();
+        // as in ClassAssembler, a class without .super extends Object
+        ClassDesc superclass = (header.superclassName() == null)
+            ? ConstantDescs.CD_Object
+            : DescriptorCache.shared().internalName(SymbolTable.shared().intern(header.superclassName()));
+        return ClassHierarchyInfo.ofClass(superclass);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.westminsteru.jasm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Assembles code on a {@link Server}, for {@link Main}'s {@code -connect} option: the results are the same as those of assembling the code in this JVM, without paying for warming it up.
+ * Each call opens a connection of its own, so a {@code Client} can be used from any number of threads at the same time.
+ */
+final class Client {
+
+    private final String address;
+    private final SocketAddress socketAddress;
+    private final int targetVersion;
+    private final boolean dropStackMaps;
+    private final long deadlineMillis;
+
+    /**
+     * Creates a {@code Client}.
+     * @param address the port number or path of the server's socket (see {@link Protocol#address(String)})
+     * @param targetVersion the major version of the class files to write
+     * @param dropStackMaps whether to write class files without stack map frames
+     * @param deadlineMillis how long the server may take for each request, in milliseconds, or 0 for no limit
+     */
+    Client(String address, int targetVersion, boolean dropStackMaps, long deadlineMillis) {
+        this.address = address;
+        this.socketAddress = Protocol.address(address);
+        this.targetVersion = targetVersion;
+        this.dropStackMaps = dropStackMaps;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Checks that the server can be reached.
+     * @throws IOException if it cannot
+     */
+    void ping() throws IOException {
+        SocketChannel.open(socketAddress).close();
+    }
+
+    /**
+     * Assembles code on the server.
+     * @param code the code
+     * @return the result of assembly
+     * @throws IOException if the server cannot be reached or does not answer
+     */
+    AssemblyResult assemble(String code) throws IOException {
+        try (var channel = SocketChannel.open(socketAddress)) {
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            Protocol.writeRequest(out, new Protocol.Request(code, targetVersion, dropStackMaps, deadlineMillis));
+            return Protocol.readResult(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+        }
+    }
+
+    /**
+     * Assembles a UTF-8 encoded file on the server. If the server cannot be reached, the result is a failure saying so.
+     * @param file the file
+     * @return the result of assembly
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    AssemblyResult assemble(Path file) {
+        String code;
+        try {
+            code = Files.readString(file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        try {
+            return assemble(code);
+        } catch (IOException ex) {
+            return new AssemblyResult(Status.Failure, List.of(), List.of(
+                new ErrorMessage(String.format("Unable to reach the server at %s: %s", address, ex.getMessage()))
+            ));
+        }
+    }
+
+    /**
+     * Assembles a UTF-8 encoded file on the server, giving the classes to a sink once the server has answered. If the server cannot be reached, the result is a failure saying so.
+     * @param file the file
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     * @throws UncheckedIOException if the file cannot be read, or the sink cannot take a class
+     */
+    AssemblyResult assemble(Path file, BytecodeSink sink) {
+        var result = assemble(file);
+        if (!result.isSuccess())
+            return result;
+        try {
+            for (var bytecode : result.bytecodes())
+                sink.accept(bytecode);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return new AssemblyResult(Status.Success, List.of(), List.of());
+    }
+}
@@ -1,5 +0,0 @@
-package edu.westminsteru.jasm;
-
-sealed interface CodeItem
-    permits Instruction, Table
-{ }
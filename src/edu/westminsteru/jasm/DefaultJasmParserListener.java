@@ -4,11 +4,14 @@ import edu.westminsteru.jasm.parser.JasmParser;
 import edu.westminsteru.jasm.parser.JasmParserListener;
 import edu.westminsteru.jasm.parser.JasmSyntaxException;
 import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+import edu.westminsteru.jasm.parser.TokenCursor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 class DefaultJasmParserListener implements JasmParserListener {
 
@@ -21,10 +24,21 @@ class DefaultJasmParserListener implements JasmParserListener {
         Map<MethodDefinition, MethodCode> methodCodes
     ) {}
 
+    /**
+     * Where the code of a method came from: the class it belongs to (an index into the class specs) and the lines of its {@code .code} and {@code .end code} directives.
+     */
+    record CodeBlock(int classIndex, MethodDefinition method, int codeLine, int endLine) {}
+
     // global stuff
     private StringView sourceName;
+    private String sourceLine;
+    private int sourceLineNumber;
     private List<ErrorMessage> errors = new ArrayList<>();
     private List<ClassSpec> classSpecs = new ArrayList<>();
+    private List<CodeBlock> codeBlocks = new ArrayList<>();
+    private boolean codeBlocksIndependent = true;
+    /** Where finished classes go instead of the class specs, or {@code null} to keep them */
+    private Consumer<ClassSpec> classConsumer;
 
     // per-class stuff
     private StringView classId;
@@ -35,10 +49,36 @@ class DefaultJasmParserListener implements JasmParserListener {
     private List<MethodDefinition> methods = new ArrayList<>();
     private Map<MethodDefinition, MethodCode> methodCodes = new HashMap<>();
     private List<Table.Entry> tableEntries;
+    private int tableLine;
 
     // per-method stuff
-    private List<CodeItem> currentMethodCodeItems = null;
-    private List<StringView> instructionLabels = new ArrayList<>();
+    private MethodCode.Builder currentMethodCode = null;
+    /** The labels waiting for the next instruction, interned */
+    private List<String> instructionLabels = new ArrayList<>();
+    private int codeLine;
+
+    DefaultJasmParserListener() {}
+
+    /**
+     * Creates a listener holding the results of an earlier parse.
+     * @param sourceName the name from the {@code .source} directive, or {@code null}
+     * @param errors the errors found while parsing
+     * @param classSpecs the class specs
+     */
+    DefaultJasmParserListener(StringView sourceName, List<ErrorMessage> errors, List<ClassSpec> classSpecs) {
+        this.sourceName = sourceName;
+        this.errors = new ArrayList<>(errors);
+        this.classSpecs = new ArrayList<>(classSpecs);
+    }
+
+    /**
+     * Hands each class to the given consumer as soon as it is finished (at the next {@code .class}/{@code .interface}/{@code .enum} directive or the end of the input) instead of keeping it in the class specs, so that it can be assembled while the rest of the input is parsed.
+     * The consumer is called on the parsing thread, with classes in the order they were declared.
+     * @param consumer the consumer of finished classes
+     */
+    void streamClassSpecs(Consumer<ClassSpec> consumer) {
+        this.classConsumer = consumer;
+    }
 
     @Override
     public void exceptionOccurred(JasmParser parser, JasmSyntaxException ex) {
@@ -55,8 +95,11 @@ class DefaultJasmParserListener implements JasmParserListener {
                 "Duplicate .source directive", parser.getCurrentLine(),
                 parser.getCurrentLineNumber(), ErrorMessage.UNSPECIFIC
             ));
-        else
+        else {
             this.sourceName = source;
+            this.sourceLine = parser.getCurrentLine();
+            this.sourceLineNumber = parser.getCurrentLineNumber();
+        }
     }
 
     @Override
@@ -87,60 +130,76 @@ class DefaultJasmParserListener implements JasmParserListener {
 
     @Override
     public void fieldDirective(JasmParser parser, List<StringView> flags, StringView name, StringView descriptor) {
-        this.fields.add(new FieldDefinition(flags, name, descriptor));
+        this.fields.add(new FieldDefinition(flags, name, descriptor, parser.getCurrentTypeDescriptor()));
     }
 
     @Override
     public void methodDirective(JasmParser parser, List<StringView> flags, StringView name, StringView descriptor) {
-        this.methods.add(new MethodDefinition(flags, name, descriptor));
+        this.methods.add(new MethodDefinition(flags, name, descriptor, parser.getCurrentMethodTypeDescriptor()));
     }
 
     @Override
     public void codeDirective(JasmParser parser) {
-        if (this.currentMethodCodeItems != null)
+        if (this.currentMethodCode != null)
             errors.add(new ErrorMessage(
                 "Duplicate .code directive", parser.getCurrentLine(),
                 parser.getCurrentLineNumber(), ErrorMessage.UNSPECIFIC
             ));
-        else
-            this.currentMethodCodeItems = new ArrayList<>();
+        else {
+            this.currentMethodCode = new MethodCode.Builder();
+            this.codeLine = parser.getCurrentLineNumber();
+        }
     }
 
     @Override
-    public void codeLabel(JasmParser parser, StringView labelName) {
-        if (this.instructionLabels.contains(labelName)) {
+    public void codeLabel(JasmParser parser, TokenCursor tokens, int label) {
+        String name = SymbolTable.shared().intern(tokens.line(), tokens.start(label), tokens.end(label) - 1);
+        if (this.instructionLabels.contains(name)) {
             errors.add(new ErrorMessage(
                 "Duplicate label definition", parser.getCurrentLine(),
                 parser.getCurrentLineNumber(), ErrorMessage.UNSPECIFIC
             ));
         } else
-            this.instructionLabels.add(labelName);
+            this.instructionLabels.add(name);
     }
 
     @Override
-    public void codeInstruction(JasmParser parser, StringView opcode, List<StringView> operands) {
-        this.currentMethodCodeItems.add(
-            new Instruction(new ArrayList<>(instructionLabels), opcode, operands, parser.getCurrentLine(), parser.getCurrentLineNumber())
+    public void codeInstruction(JasmParser parser, TokenCursor tokens, int opcode) {
+        this.currentMethodCode.instruction(
+            instructionLabels, Opcode.lookup(tokens, opcode),
+            tokens, opcode, parser.getCurrentLineNumber()
         );
         instructionLabels.clear();
     }
 
+    @Override
+    public void stackDirective(JasmParser parser, TokenCursor tokens) {
+        this.currentMethodCode.frame(tokens, parser.getCurrentLineNumber());
+    }
+
     @Override
     public void endCodeDirective(JasmParser parser) {
-        if (currentMethodCodeItems == null)
+        if (currentMethodCode == null)
             errors.add(new ErrorMessage(
                 ".end code directive not expected here", parser.getCurrentLine(),
                 parser.getCurrentLineNumber(), ErrorMessage.UNSPECIFIC
             ));
         else if (!methods.isEmpty()) {
-            methodCodes.put(methods.getLast(), new MethodCode(currentMethodCodeItems));
-            currentMethodCodeItems = null;
-        }
+            var method = methods.getLast();
+            if (methodCodes.put(method, currentMethodCode.build()) != null)
+                codeBlocksIndependent = false; // two blocks for the same method
+            if (!instructionLabels.isEmpty())
+                codeBlocksIndependent = false; // these labels carry over into the next block
+            codeBlocks.add(new CodeBlock(classSpecs.size(), method, codeLine, parser.getCurrentLineNumber()));
+            currentMethodCode = null;
+        } else
+            codeBlocksIndependent = false; // the code stays open, with nowhere to go
     }
 
     @Override
     public void tableDirective(JasmParser parser) {
         tableEntries = new ArrayList<>();
+        tableLine = parser.getCurrentLineNumber();
     }
 
     @Override
@@ -150,7 +209,7 @@ class DefaultJasmParserListener implements JasmParserListener {
 
     @Override
     public void endTableDirective(JasmParser parser) {
-        currentMethodCodeItems.add(new Table(tableEntries));
+        currentMethodCode.table(tableEntries, tableLine);
         tableEntries = null;
     }
 
@@ -168,7 +227,10 @@ class DefaultJasmParserListener implements JasmParserListener {
             methods,
             methodCodes
         );
-        classSpecs.add(spec);
+        if (classConsumer != null)
+            classConsumer.accept(spec);
+        else
+            classSpecs.add(spec);
 
         classId = className = superclassName = null;
         superinterfaceNames = new ArrayList<>();
@@ -178,6 +240,60 @@ class DefaultJasmParserListener implements JasmParserListener {
         methodCodes = new HashMap<>();
     }
 
+    /**
+     * Returns whether parsing stopped in a state where nothing carries over into the next class: the last class had a name, and there is no unfinished code, table, or label.
+     * If so, a listener that parsed the following input separately can be {@linkplain #append(DefaultJasmParserListener) appended} to this one.
+     */
+    boolean endsAtClassBoundary() {
+        return !hasUnfinishedCode() && !classSpecs.isEmpty() && classSpecs.getLast().className() != null;
+    }
+
+    /**
+     * Returns whether parsing stopped with unfinished code, table, or labels.
+     */
+    boolean hasUnfinishedCode() {
+        return currentMethodCode != null || tableEntries != null || !instructionLabels.isEmpty();
+    }
+
+    /**
+     * Starts a method as if a {@code .method} directive had been parsed, so that a {@code .code} block can be parsed on its own.
+     * @param method the method
+     */
+    void beginMethod(MethodDefinition method) {
+        methods.add(method);
+    }
+
+    /**
+     * Adds the results of a listener that parsed the input following that parsed by this one.
+     * @param next the listener for the following input
+     */
+    void append(DefaultJasmParserListener next) {
+        if (next.sourceName != null && this.sourceName != null) {
+            // next's .source is a duplicate; report it where a single listener would have
+            int at = 0;
+            while (at < next.errors.size() && next.errors.get(at).lineNumber() <= next.sourceLineNumber)
+                ++at;
+            errors.addAll(next.errors.subList(0, at));
+            errors.add(new ErrorMessage(
+                "Duplicate .source directive", next.sourceLine,
+                next.sourceLineNumber, ErrorMessage.UNSPECIFIC
+            ));
+            errors.addAll(next.errors.subList(at, next.errors.size()));
+        } else {
+            if (next.sourceName != null) {
+                this.sourceName = next.sourceName;
+                this.sourceLine = next.sourceLine;
+                this.sourceLineNumber = next.sourceLineNumber;
+            }
+            errors.addAll(next.errors);
+        }
+        int classOffset = classSpecs.size();
+        for (var block : next.codeBlocks)
+            codeBlocks.add(new CodeBlock(classOffset + block.classIndex(), block.method(), block.codeLine(), block.endLine()));
+        codeBlocksIndependent &= next.codeBlocksIndependent;
+        classSpecs.addAll(next.classSpecs);
+    }
+
     public StringView getSourceName() {
         return sourceName;
     }
@@ -189,4 +305,18 @@ class DefaultJasmParserListener implements JasmParserListener {
     public List<ClassSpec> getClassSpecs() {
         return classSpecs;
     }
+
+    /**
+     * Returns the {@code .code} blocks of all methods, in source order.
+     */
+    List<CodeBlock> getCodeBlocks() {
+        return codeBlocks;
+    }
+
+    /**
+     * Returns whether each {@code .code} block can be parsed on its own with the same result, i.e. no parser or listener state carries from one block to another and each method has at most one block.
+     */
+    boolean areCodeBlocksIndependent() {
+        return codeBlocksIndependent;
+    }
 }
@@ -0,0 +1,1059 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+
+import java.lang.classfile.ClassFile;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a class file straight into a byte array, without going through the {@code java.lang.classfile} builders. This is the {@link JasmEngine.Backend#Direct direct} backend.
+ * Only simple classes are supported: fields, and methods whose code runs straight through (no labels, branches, or switches) and ends in a return or {@code athrow}. Such code needs no stack map frames, so the constant pool, fields, methods, and code are all written in a single pass, with the maximum stack depth and number of locals worked out along the way.
+ * <p>
+ * {@link #write} returns {@code null} for a class it does not support, and for a class with any error in it; the class is then built with the {@code ClassFile} API, which reports the errors as usual. The types in the local variables and on the stack are worked out along with the stack depth and checked as the verifier would, and code that might not verify is not supported either, so a class written directly always verifies, and comes out as it would from the {@code ClassFile} API.
+ */
+final class DirectClassWriter {
+
+    /** Thrown when a class cannot be written directly */
+    private static final class Unsupported extends Exception {
+        private static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final int WIDE = 0xc4;
+
+    /** The bytecode of each opcode (by ordinal), or -1 for those not supported */
+    private static final int[] BYTECODES = new int[Opcode.values().length];
+    /** The types each opcode with a fixed effect on the stack takes off it and pushes onto it (by ordinal), or {@code null} */
+    private static final Signature[] SIGNATURES = new Signature[Opcode.values().length];
+
+    static {
+        for (var opc : Opcode.values()) {
+            BYTECODES[opc.ordinal()] = switch (opc) {
+                case ldc__Int, ldc__Float, ldc__String -> java.lang.classfile.Opcode.LDC.bytecode();
+                case ldc2__Long, ldc2__Double -> java.lang.classfile.Opcode.LDC2_W.bytecode();
+                case lookupswitch, tableswitch -> -1;
+                default -> isBranch(opc) ? -1 : java.lang.classfile.Opcode.valueOf(opc.getName().toUpperCase()).bytecode();
+            };
+            SIGNATURES[opc.ordinal()] = signature(opc);
+        }
+    }
+
+    private static boolean isBranch(Opcode opc) {
+        return opc == Opcode.goto_ || opc.getName().startsWith("if");
+    }
+
+    /**
+     * The types an instruction takes off the stack, and the type it pushes.
+     * @param push the type pushed, or {@code null} for none
+     * @param pops the types taken off the stack, the last one from the top
+     */
+    private record Signature(Type push, Type... pops) {}
+
+    private static Signature signature(Opcode opc) {
+        final Type I = Type.INT, J = Type.LONG, F = Type.FLOAT, D = Type.DOUBLE;
+        return switch (opc) {
+            case nop -> new Signature(null);
+            case aconst_null -> new Signature(Type.NULL);
+            case iconst_m1, iconst_0, iconst_1, iconst_2, iconst_3, iconst_4, iconst_5, bipush, sipush -> new Signature(I);
+            case lconst_0, lconst_1 -> new Signature(J);
+            case fconst_0, fconst_1, fconst_2 -> new Signature(F);
+            case dconst_0, dconst_1 -> new Signature(D);
+            case iadd, isub, imul, idiv, irem, iand, ior, ixor, ishl, ishr, iushr -> new Signature(I, I, I);
+            case ladd, lsub, lmul, ldiv, lrem, land, lor, lxor -> new Signature(J, J, J);
+            case lshl, lshr, lushr -> new Signature(J, J, I);
+            case fadd, fsub, fmul, fdiv, frem -> new Signature(F, F, F);
+            case dadd, dsub, dmul, ddiv, drem -> new Signature(D, D, D);
+            case ineg, i2b, i2c, i2s -> new Signature(I, I);
+            case lneg -> new Signature(J, J);
+            case fneg -> new Signature(F, F);
+            case dneg -> new Signature(D, D);
+            case i2l -> new Signature(J, I);
+            case i2f -> new Signature(F, I);
+            case i2d -> new Signature(D, I);
+            case l2i -> new Signature(I, J);
+            case l2f -> new Signature(F, J);
+            case l2d -> new Signature(D, J);
+            case f2i -> new Signature(I, F);
+            case f2l -> new Signature(J, F);
+            case f2d -> new Signature(D, F);
+            case d2i -> new Signature(I, D);
+            case d2l -> new Signature(J, D);
+            case d2f -> new Signature(F, D);
+            case lcmp -> new Signature(I, J, J);
+            case fcmpl, fcmpg -> new Signature(I, F, F);
+            case dcmpl, dcmpg -> new Signature(I, D, D);
+            default -> null; // including those whose effect depends on their operands or on the types on the stack
+        };
+    }
+
+    private DirectClassWriter() {}
+
+    /**
+     * Writes a class.
+     * @param spec the class
+     * @param majorVersion the major version of the class file
+     * @param sourceName the name from the {@code .source} directive, or {@code null}
+     * @return the class file, or {@code null} if the class cannot be written directly (or has errors)
+     */
+    static byte[] write(DefaultJasmParserListener.ClassSpec spec, int majorVersion, StringView sourceName) {
+        try {
+            return new Writer(spec, majorVersion, sourceName).write();
+        } catch (Unsupported | AssemblyException | IllegalArgumentException _) {
+            return null;
+        }
+    }
+
+    private static final class Writer {
+        private final DefaultJasmParserListener.ClassSpec spec;
+        private final int majorVersion;
+        private final StringView sourceName;
+        private final ConstantPool pool = new ConstantPool();
+        private final ByteSink body = new ByteSink(1024);
+        private String thisName, superName;
+
+        private Writer(DefaultJasmParserListener.ClassSpec spec, int majorVersion, StringView sourceName) {
+            this.spec = spec;
+            this.majorVersion = majorVersion;
+            this.sourceName = sourceName;
+        }
+
+        private byte[] write() throws Unsupported, AssemblyException {
+            int flags = Flags.flags(spec.classFlags().stream().map(StringView::toString).toList());
+            switch (spec.classId().toString()) {
+                case "class" -> {}
+                case "interface" -> flags |= ClassFile.ACC_INTERFACE;
+                case "enum" -> flags |= ClassFile.ACC_ENUM;
+            }
+            thisName = internalName(spec.className());
+            superName = (spec.superclassName() == null) ? "java/lang/Object" : internalName(spec.superclassName());
+            body.u2(flags);
+            body.u2(pool.classEntry(thisName));
+            body.u2(pool.classEntry(superName));
+            body.u2(spec.superinterfaceNames().size());
+            for (var name : spec.superinterfaceNames())
+                body.u2(pool.classEntry(internalName(name)));
+
+            body.u2(spec.fields().size());
+            for (var field : spec.fields()) {
+                body.u2(Flags.flags(field.flags().stream().map(StringView::toString).toList()));
+                body.u2(pool.utf8(SymbolTable.shared().intern(field.fieldName())));
+                body.u2(pool.utf8(field.fieldType().descriptorString()));
+                body.u2(0);
+            }
+
+            body.u2(spec.methods().size());
+            for (var method : spec.methods()) {
+                int methodFlags = Flags.flags(method.flags().stream().map(StringView::toString).toList());
+                String methodName = SymbolTable.shared().intern(method.methodName());
+                body.u2(methodFlags);
+                body.u2(pool.utf8(methodName));
+                body.u2(pool.utf8(method.methodType().descriptorString()));
+                var code = spec.methodCodes().get(method);
+                if (code == null)
+                    body.u2(0);
+                else {
+                    body.u2(1);
+                    writeCode(code, methodName, method.methodType(), (methodFlags & ClassFile.ACC_STATIC) != 0);
+                }
+            }
+
+            if (sourceName != null) {
+                body.u2(1);
+                body.u2(pool.utf8("SourceFile"));
+                body.u4(2);
+                body.u2(pool.utf8(sourceName.toString()));
+            } else
+                body.u2(0);
+
+            var out = new ByteSink(pool.bytes.size() + body.size() + 10);
+            out.u4(0xcafebabe);
+            out.u2(0);
+            out.u2(majorVersion);
+            out.u2(pool.count);
+            out.bytes(pool.bytes);
+            out.bytes(body);
+            return out.toByteArray();
+        }
+
+        private static String internalName(StringView name) {
+            String internalName = SymbolTable.shared().intern(name);
+            DescriptorCache.shared().internalName(internalName); // validates the name
+            return internalName;
+        }
+
+        private static String className(Operand op) {
+            String internalName = ((Operand.ClassName)op).value();
+            DescriptorCache.shared().internalName(internalName);
+            return internalName;
+        }
+
+        private void writeCode(MethodCode code, String methodName, MethodTypeDesc type, boolean isStatic) throws Unsupported, AssemblyException {
+            int size = code.size();
+            if (size == 0)
+                throw Unsupported.INSTANCE;
+
+            body.u2(pool.utf8("Code"));
+            int attributeLength = body.reserve(4);
+            int maxStackAt = body.reserve(2);
+            body.u2(0); // max locals, patched below
+            int codeLengthAt = body.reserve(4);
+            int codeStart = body.size();
+
+            var types = new TypeState(thisName, superName, methodName, type, isStatic);
+            for (int i = 0; i < size; ++i) {
+                if (code.isTable(i) || code.isFrame(i) || !code.labels(i).isEmpty())
+                    throw Unsupported.INSTANCE;
+                var opc = code.opcode(i);
+                if (opc == null || BYTECODES[opc.ordinal()] < 0)
+                    throw Unsupported.INSTANCE;
+                boolean last = i == size - 1;
+                if (last != isEnd(opc))
+                    throw Unsupported.INSTANCE; // code after a return, or code that runs off the end
+
+                int offset = body.size() - codeStart;
+                var operands = code.operands(i);
+                if (opc.isLdc())
+                    types.push(ldc(operands));
+                else if (opc.isLdc2())
+                    types.push(ldc2(operands));
+                else {
+                    var ops = Instructions.checkAndParseOperands(code.opcodeText(i), opc, operands);
+                    switch (opc) {
+                        case iload, lload, fload, dload, aload, istore, lstore, fstore, dstore, astore -> {
+                            int local = index(ops[0], 0xffff);
+                            localInstruction(opc, local);
+                            types.access(opc, local);
+                        }
+                        case iinc -> {
+                            int local = index(ops[0], 0xffff);
+                            int increment = ((Operand.Int)ops[1]).value();
+                            if (local <= 0xff && increment == (byte)increment) {
+                                body.u1(BYTECODES[opc.ordinal()]);
+                                body.u1(local);
+                                body.u1(increment);
+                            } else if (increment == (short)increment) {
+                                body.u1(WIDE);
+                                body.u1(BYTECODES[opc.ordinal()]);
+                                body.u2(local);
+                                body.u2(increment);
+                            } else
+                                throw Unsupported.INSTANCE;
+                            types.increment(local);
+                        }
+                        case bipush -> {
+                            int value = ((Operand.Int)ops[0]).value();
+                            if (value != (byte)value)
+                                throw Unsupported.INSTANCE;
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u1(value);
+                            types.execute(opc);
+                        }
+                        case sipush -> {
+                            int value = ((Operand.Int)ops[0]).value();
+                            if (value != (short)value)
+                                throw Unsupported.INSTANCE;
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(value);
+                            types.execute(opc);
+                        }
+                        case getstatic, putstatic, getfield, putfield -> {
+                            var fieldType = ((Operand.Descriptor)ops[2]).desc();
+                            String owner = className(ops[0]);
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(pool.memberRef(
+                                ConstantPool.FIELDREF, owner, ((Operand.Identifier)ops[1]).value(), fieldType.descriptorString()
+                            ));
+                            types.field(opc, owner, fieldType);
+                        }
+                        case invokevirtual, invokespecial, invokestatic, invokeinterface -> {
+                            var methodType = ((Operand.MethodDescriptor)ops[2]).desc();
+                            String owner = className(ops[0]), name = ((Operand.Identifier)ops[1]).value();
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(pool.memberRef(
+                                (opc == Opcode.invokeinterface) ? ConstantPool.INTERFACE_METHODREF : ConstantPool.METHODREF,
+                                owner, name, methodType.descriptorString()
+                            ));
+                            if (opc == Opcode.invokeinterface) {
+                                body.u1(slots(methodType) + 1);
+                                body.u1(0);
+                            }
+                            types.invoke(opc, owner, name, methodType);
+                        }
+                        case new_ -> {
+                            String className = className(ops[0]);
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(pool.classEntry(className));
+                            types.newObject(className, offset);
+                        }
+                        case anewarray, checkcast, instanceOf -> {
+                            var classType = ((Operand.Descriptor)ops[0]).desc();
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(pool.classEntry(classType));
+                            types.typeInstruction(opc, classType);
+                        }
+                        case multianewarray -> {
+                            var arrayType = ((Operand.Descriptor)ops[0]).desc();
+                            int dimensions = ((Operand.Int)ops[1]).value();
+                            if (!arrayType.isArray() || dimensions < 1 || dimensions > arrayType.descriptorString().lastIndexOf('[') + 1)
+                                throw Unsupported.INSTANCE;
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u2(pool.classEntry(arrayType));
+                            body.u1(dimensions);
+                            types.newMultiArray(arrayType, dimensions);
+                        }
+                        case newarray -> {
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            body.u1(switch ((Operand.ArrayType)ops[0]) {
+                                case Boolean -> 4;
+                                case Char -> 5;
+                                case Float -> 6;
+                                case Double -> 7;
+                                case Byte -> 8;
+                                case Short -> 9;
+                                case Int -> 10;
+                                case Long -> 11;
+                            });
+                            types.newArray((Operand.ArrayType)ops[0]);
+                        }
+                        default -> {
+                            if (ops.length != 0)
+                                throw Unsupported.INSTANCE;
+                            body.u1(BYTECODES[opc.ordinal()]);
+                            int local = localIndex(opc);
+                            if (local >= 0)
+                                types.access(opc, local);
+                            else
+                                types.execute(opc);
+                        }
+                    }
+                }
+            }
+
+            int codeLength = body.size() - codeStart;
+            if (codeLength > 0xffff || types.maxLocals() > 0xffff)
+                throw Unsupported.INSTANCE;
+            body.u2(0); // exception table
+            body.u2(0); // attributes
+
+            body.putU4(attributeLength, body.size() - attributeLength - 4);
+            body.putU2(maxStackAt, types.maxStack());
+            body.putU2(maxStackAt + 2, types.maxLocals());
+            body.putU4(codeLengthAt, codeLength);
+        }
+
+        private void localInstruction(Opcode opc, int index) {
+            if (index <= 3) {
+                // the form with the index in the opcode, e.g. iload_0
+                body.u1(java.lang.classfile.Opcode.valueOf(opc.getName().toUpperCase() + "_0").bytecode() + index);
+            } else if (index <= 0xff) {
+                body.u1(BYTECODES[opc.ordinal()]);
+                body.u1(index);
+            } else {
+                body.u1(WIDE);
+                body.u1(BYTECODES[opc.ordinal()]);
+                body.u2(index);
+            }
+        }
+
+        /** Writes an {@code ldc} instruction and returns the type of its constant */
+        private Type ldc(List<StringView> operands) throws Unsupported, AssemblyException {
+            if (operands.size() != 1)
+                throw Unsupported.INSTANCE;
+            var op = operands.getFirst();
+            int index;
+            Type type;
+            if (!op.isEmpty() && op.codePointAt(0) == '"') {
+                index = pool.string(Operands.parseString(op).value());
+                type = Type.STRING;
+            } else {
+                switch (LiteralScanner.scan(op)) {
+                    case Operand.Int i -> {
+                        index = pool.integer(i.value());
+                        type = Type.INT;
+                    }
+                    case Operand.Float f -> {
+                        index = pool.floatEntry(f.value());
+                        type = Type.FLOAT;
+                    }
+                    default -> throw Unsupported.INSTANCE;
+                }
+            }
+            if (index <= 0xff) {
+                body.u1(java.lang.classfile.Opcode.LDC.bytecode());
+                body.u1(index);
+            } else {
+                body.u1(java.lang.classfile.Opcode.LDC_W.bytecode());
+                body.u2(index);
+            }
+            return type;
+        }
+
+        /** Writes an {@code ldc2_w} instruction and returns the type of its constant */
+        private Type ldc2(List<StringView> operands) throws Unsupported, AssemblyException {
+            if (operands.size() != 1)
+                throw Unsupported.INSTANCE;
+            body.u1(java.lang.classfile.Opcode.LDC2_W.bytecode());
+            switch (LiteralScanner.scan(operands.getFirst())) {
+                case Operand.Long l -> {
+                    body.u2(pool.longEntry(l.value()));
+                    return Type.LONG;
+                }
+                case Operand.Double d -> {
+                    body.u2(pool.doubleEntry(d.value()));
+                    return Type.DOUBLE;
+                }
+                default -> throw Unsupported.INSTANCE;
+            }
+        }
+    }
+
+    private static boolean isEnd(Opcode opc) {
+        return switch (opc) {
+            case return_, ireturn, lreturn, freturn, dreturn, areturn, athrow -> true;
+            default -> false;
+        };
+    }
+
+    /** Returns the index of the local variable used by an opcode with the index in its name (e.g. 2 for {@code iload_2}), or -1 */
+    private static int localIndex(Opcode opc) {
+        String name = opc.getName();
+        int underscore = name.length() - 2;
+        return (underscore > 0 && name.charAt(underscore) == '_' && (name.contains("load") || name.contains("store"))
+                && Character.isDigit(name.charAt(underscore + 1)))
+            ? name.charAt(underscore + 1) - '0'
+            : -1;
+    }
+
+    private static int index(Operand op, int max) throws Unsupported {
+        int index = ((Operand.Int)op).value();
+        if (index < 0 || index > max)
+            throw Unsupported.INSTANCE;
+        return index;
+    }
+
+    private static int slots(ClassDesc type) {
+        return type.equals(ConstantDescs.CD_void) ? 0
+            : (type.equals(ConstantDescs.CD_long) || type.equals(ConstantDescs.CD_double)) ? 2
+            : 1;
+    }
+
+    private static int slots(MethodTypeDesc type) {
+        int slots = 0;
+        for (int i = 0; i < type.parameterCount(); ++i)
+            slots += slots(type.parameterType(i));
+        return slots;
+    }
+
+    /**
+     * The type of a value as the verifier sees it.
+     * @param tag {@code I}, {@code J}, {@code F}, or {@code D} for a primitive type (with {@code int} standing for the smaller integer types), {@code L} for a class or array type, {@code N} for {@code null}, {@code U} for an object not yet initialized, or {@code T} for none (an unset local variable, or the second slot of a {@code long} or {@code double})
+     * @param descriptor the descriptor of a class or array type, or of the class of an object not yet initialized
+     * @param offset for an object not yet initialized, the offset of the {@code new} instruction that created it, or -1 for {@code this} in a constructor
+     */
+    private record Type(char tag, String descriptor, int offset) {
+        private static final Type TOP = new Type('T', null, -1), INT = new Type('I', null, -1), LONG = new Type('J', null, -1),
+            FLOAT = new Type('F', null, -1), DOUBLE = new Type('D', null, -1), NULL = new Type('N', null, -1),
+            OBJECT = reference("Ljava/lang/Object;"), STRING = reference("Ljava/lang/String;"), THROWABLE = reference("Ljava/lang/Throwable;");
+
+        /** Returns the type of a value of a field, parameter, or return type */
+        private static Type of(ClassDesc type) throws Unsupported {
+            String descriptor = type.descriptorString();
+            return switch (descriptor.charAt(0)) {
+                case 'Z', 'B', 'C', 'S', 'I' -> INT;
+                case 'J' -> LONG;
+                case 'F' -> FLOAT;
+                case 'D' -> DOUBLE;
+                case 'L', '[' -> reference(descriptor);
+                default -> throw Unsupported.INSTANCE;
+            };
+        }
+
+        private static Type reference(String descriptor) {
+            return new Type('L', descriptor, -1);
+        }
+
+        private static Type uninitialized(String descriptor, int offset) {
+            return new Type('U', descriptor, offset);
+        }
+
+        /** Returns whether this is an initialized reference, including {@code null} */
+        private boolean isReference() {
+            return tag == 'L' || tag == 'N';
+        }
+
+        private boolean isWide() {
+            return tag == 'J' || tag == 'D';
+        }
+    }
+
+    /**
+     * The types in the local variables and on the stack of a method as its code runs straight through, worked out the way the verifier does.
+     * Each instruction is checked against the types it finds, and anything the verifier might reject throws {@link Unsupported}. That includes anything that takes the class hierarchy to decide: a reference is only taken where it is of the very type expected, is {@code null}, is expected as an {@code Object}, or is {@code this} expected as its superclass.
+     * As in the verifier, a {@code long} or {@code double} takes two slots, the second of which is {@link Type#TOP}.
+     */
+    private static final class TypeState {
+        private final String thisType, superType;
+        private final ClassDesc returnType;
+        private final List<Type> locals = new ArrayList<>(), stack = new ArrayList<>();
+        private int maxStack = 0;
+        /** Whether this is a constructor that has not yet called another constructor on {@code this} */
+        private boolean thisUninitialized;
+
+        private TypeState(String thisName, String superName, String methodName, MethodTypeDesc methodType, boolean isStatic) throws Unsupported {
+            thisType = "L" + thisName + ";";
+            superType = "L" + superName + ";";
+            returnType = methodType.returnType();
+            boolean constructor = methodName.equals("<init>");
+            if (constructor && (isStatic || !returnType.equals(ConstantDescs.CD_void)))
+                throw Unsupported.INSTANCE;
+            if (!isStatic) {
+                thisUninitialized = constructor && !thisName.equals("java/lang/Object");
+                locals.add(thisUninitialized ? Type.uninitialized(thisType, -1) : Type.reference(thisType));
+            }
+            for (var parameter : methodType.parameterList())
+                setLocal(locals.size(), Type.of(parameter));
+        }
+
+        private int maxStack() {
+            return maxStack;
+        }
+
+        private int maxLocals() {
+            return locals.size();
+        }
+
+        private void push(Type type) {
+            stack.add(type);
+            if (type.isWide())
+                stack.add(Type.TOP);
+            maxStack = Math.max(maxStack, stack.size());
+        }
+
+        private Type pop() throws Unsupported {
+            if (stack.isEmpty())
+                throw Unsupported.INSTANCE; // stack underflow, which the ClassFile API reports
+            return stack.removeLast();
+        }
+
+        /** Takes a value of the given type, or one that can be used as one, off the stack */
+        private void pop(Type expected) throws Unsupported {
+            if (expected.isWide() && !pop().equals(Type.TOP))
+                throw Unsupported.INSTANCE;
+            if (!assignable(pop(), expected))
+                throw Unsupported.INSTANCE;
+        }
+
+        private Type popReference() throws Unsupported {
+            var type = pop();
+            if (!type.isReference())
+                throw Unsupported.INSTANCE;
+            return type;
+        }
+
+        /**
+         * Takes an array (or {@code null}) off the stack.
+         * @param components the first letters of the descriptors of the component types allowed
+         * @return the component type of the array, or {@code null} for a {@code null} array
+         */
+        private Type popArray(String components) throws Unsupported {
+            var array = popReference();
+            if (array.equals(Type.NULL))
+                return Type.NULL;
+            String descriptor = array.descriptor();
+            if (descriptor.charAt(0) != '[' || components.indexOf(descriptor.charAt(1)) < 0)
+                throw Unsupported.INSTANCE;
+            return Type.of(ClassDesc.ofDescriptor(descriptor.substring(1)));
+        }
+
+        /** Returns whether a value of one type can be used as another, as far as can be told without the class hierarchy */
+        private boolean assignable(Type value, Type expected) {
+            if (value.equals(expected))
+                return true;
+            if (!value.isReference() || expected.tag() != 'L')
+                return false;
+            return value.equals(Type.NULL) || expected.equals(Type.OBJECT)
+                || (value.descriptor().equals(thisType) && expected.descriptor().equals(superType));
+        }
+
+        private void setLocal(int index, Type type) {
+            int end = index + (type.isWide() ? 2 : 1);
+            while (locals.size() < end)
+                locals.add(Type.TOP);
+            if (index > 0 && locals.get(index - 1).isWide())
+                locals.set(index - 1, Type.TOP); // the first half of a long or double is overwritten
+            locals.set(index, type);
+            if (type.isWide())
+                locals.set(index + 1, Type.TOP);
+        }
+
+        /** Checks that there is a value (rather than the second slot of a {@code long} or {@code double}) at each of the given depths of the stack, counted in slots from the top, for an instruction that moves whole slots */
+        private void values(int... depths) throws Unsupported {
+            for (int depth : depths)
+                if (stack.size() < depth || stack.get(stack.size() - depth).equals(Type.TOP))
+                    throw Unsupported.INSTANCE;
+        }
+
+        /** Puts a copy of the given number of slots from the top of the stack at the given depth */
+        private void copy(int slots, int depth) {
+            int size = stack.size();
+            stack.addAll(size - depth, List.copyOf(stack.subList(size - slots, size)));
+            maxStack = Math.max(maxStack, stack.size());
+        }
+
+        /** Runs a load or store of a local variable */
+        private void access(Opcode opc, int index) throws Unsupported {
+            var type = valueType(opc);
+            if (opc.getName().contains("store")) {
+                if (type == null)
+                    type = popReference();
+                else
+                    pop(type);
+                setLocal(index, type);
+            } else {
+                var local = (index < locals.size()) ? locals.get(index) : Type.TOP;
+                if ((type == null) ? !local.isReference() && local.tag() != 'U' : !local.equals(type))
+                    throw Unsupported.INSTANCE;
+                push(local);
+            }
+        }
+
+        private void increment(int index) throws Unsupported {
+            if (index >= locals.size() || !locals.get(index).equals(Type.INT))
+                throw Unsupported.INSTANCE;
+        }
+
+        /** Runs an instruction without operands, or with operands that do not affect the types */
+        private void execute(Opcode opc) throws Unsupported {
+            var signature = SIGNATURES[opc.ordinal()];
+            if (signature != null) {
+                for (int i = signature.pops().length - 1; i >= 0; --i)
+                    pop(signature.pops()[i]);
+                if (signature.push() != null)
+                    push(signature.push());
+                return;
+            }
+            switch (opc) {
+                case iaload, laload, faload, daload, baload, caload, saload -> {
+                    pop(Type.INT);
+                    popArray(arrayComponents(opc));
+                    push(valueType(opc));
+                }
+                case aaload -> {
+                    pop(Type.INT);
+                    push(popArray(arrayComponents(opc)));
+                }
+                case iastore, lastore, fastore, dastore, aastore, bastore, castore, sastore -> {
+                    var type = valueType(opc);
+                    if (type == null)
+                        popReference();
+                    else
+                        pop(type);
+                    pop(Type.INT);
+                    popArray(arrayComponents(opc));
+                }
+                case arraylength -> {
+                    popArray("ZBCSIJFDL[");
+                    push(Type.INT);
+                }
+                case pop -> {
+                    values(1);
+                    stack.removeLast();
+                }
+                case pop2 -> {
+                    values(2);
+                    stack.removeLast();
+                    stack.removeLast();
+                }
+                case dup -> {
+                    values(1);
+                    copy(1, 1);
+                }
+                case dup_x1 -> {
+                    values(1, 2);
+                    copy(1, 2);
+                }
+                case dup_x2 -> {
+                    values(1, 3);
+                    copy(1, 3);
+                }
+                case dup2 -> {
+                    values(2);
+                    copy(2, 2);
+                }
+                case dup2_x1 -> {
+                    values(2, 3);
+                    copy(2, 3);
+                }
+                case dup2_x2 -> {
+                    values(2, 4);
+                    copy(2, 4);
+                }
+                case swap -> {
+                    values(1, 2);
+                    stack.add(stack.size() - 1, stack.removeLast());
+                }
+                case monitorenter, monitorexit -> popReference();
+                case athrow -> pop(Type.THROWABLE);
+                case ireturn, lreturn, freturn, dreturn, areturn -> {
+                    if (returnType.equals(ConstantDescs.CD_void))
+                        throw Unsupported.INSTANCE;
+                    var type = Type.of(returnType);
+                    var returned = valueType(opc);
+                    if ((returned == null) ? type.tag() != 'L' : !returned.equals(type))
+                        throw Unsupported.INSTANCE;
+                    pop(type);
+                }
+                case return_ -> {
+                    if (!returnType.equals(ConstantDescs.CD_void) || thisUninitialized)
+                        throw Unsupported.INSTANCE;
+                }
+                default -> throw Unsupported.INSTANCE;
+            }
+        }
+
+        private void field(Opcode opc, String owner, ClassDesc fieldType) throws Unsupported {
+            if (owner.charAt(0) == '[')
+                throw Unsupported.INSTANCE;
+            var type = Type.of(fieldType);
+            var ownerType = Type.reference("L" + owner + ";");
+            switch (opc) {
+                case getstatic -> push(type);
+                case putstatic -> pop(type);
+                case getfield -> {
+                    pop(ownerType);
+                    push(type);
+                }
+                default -> {
+                    pop(type);
+                    pop(ownerType);
+                }
+            }
+        }
+
+        private void invoke(Opcode opc, String owner, String name, MethodTypeDesc methodType) throws Unsupported {
+            if (owner.charAt(0) == '[')
+                throw Unsupported.INSTANCE;
+            String ownerType = "L" + owner + ";";
+            boolean constructor = name.equals("<init>");
+            if (name.startsWith("<") && !(constructor && opc == Opcode.invokespecial))
+                throw Unsupported.INSTANCE;
+            if (constructor && !methodType.returnType().equals(ConstantDescs.CD_void))
+                throw Unsupported.INSTANCE;
+            for (int i = methodType.parameterCount() - 1; i >= 0; --i)
+                pop(Type.of(methodType.parameterType(i)));
+            if (constructor)
+                initialize(pop(), ownerType);
+            else if (opc == Opcode.invokespecial) {
+                // a private method or a method of the superclass, which the verifier only lets be called on this class
+                if (!ownerType.equals(thisType) && !ownerType.equals(superType))
+                    throw Unsupported.INSTANCE;
+                pop(Type.reference(thisType));
+            } else if (opc != Opcode.invokestatic)
+                pop(Type.reference(ownerType));
+            if (!methodType.returnType().equals(ConstantDescs.CD_void))
+                push(Type.of(methodType.returnType()));
+        }
+
+        /** Calls a constructor of the given class on an object not yet initialized, which initializes every copy of it */
+        private void initialize(Type object, String ownerType) throws Unsupported {
+            if (object.tag() != 'U')
+                throw Unsupported.INSTANCE;
+            boolean isThis = object.offset() < 0;
+            if (isThis ? !ownerType.equals(thisType) && !ownerType.equals(superType) : !ownerType.equals(object.descriptor()))
+                throw Unsupported.INSTANCE;
+            var initialized = Type.reference(object.descriptor());
+            stack.replaceAll(type -> type.equals(object) ? initialized : type);
+            locals.replaceAll(type -> type.equals(object) ? initialized : type);
+            if (isThis)
+                thisUninitialized = false;
+        }
+
+        private void newObject(String className, int offset) throws Unsupported {
+            if (className.charAt(0) == '[')
+                throw Unsupported.INSTANCE;
+            push(Type.uninitialized("L" + className + ";", offset));
+        }
+
+        /** Runs {@code anewarray}, {@code checkcast}, or {@code instanceof} */
+        private void typeInstruction(Opcode opc, ClassDesc classType) throws Unsupported {
+            String descriptor = classType.descriptorString();
+            switch (opc) {
+                case anewarray -> {
+                    if (descriptor.lastIndexOf('[') >= 254)
+                        throw Unsupported.INSTANCE; // more than 255 dimensions
+                    pop(Type.INT);
+                    push(Type.reference("[" + descriptor));
+                }
+                case checkcast -> {
+                    popReference();
+                    push(Type.reference(descriptor));
+                }
+                default -> {
+                    popReference();
+                    push(Type.INT);
+                }
+            }
+        }
+
+        private void newMultiArray(ClassDesc arrayType, int dimensions) throws Unsupported {
+            for (int i = 0; i < dimensions; ++i)
+                pop(Type.INT);
+            push(Type.reference(arrayType.descriptorString()));
+        }
+
+        private void newArray(Operand.ArrayType componentType) throws Unsupported {
+            pop(Type.INT);
+            push(Type.reference(switch (componentType) {
+                case Boolean -> "[Z";
+                case Char -> "[C";
+                case Float -> "[F";
+                case Double -> "[D";
+                case Byte -> "[B";
+                case Short -> "[S";
+                case Int -> "[I";
+                case Long -> "[J";
+            }));
+        }
+    }
+
+    /** Returns the type of the values a load, store, return, or array instruction works with, by the first letter of its name, or {@code null} for a reference */
+    private static Type valueType(Opcode opc) {
+        return switch (opc.getName().charAt(0)) {
+            case 'i', 'b', 'c', 's' -> Type.INT;
+            case 'l' -> Type.LONG;
+            case 'f' -> Type.FLOAT;
+            case 'd' -> Type.DOUBLE;
+            default -> null;
+        };
+    }
+
+    /** Returns the first letters of the descriptors of the component types of the arrays an array instruction works with */
+    private static String arrayComponents(Opcode opc) {
+        return switch (opc.getName().charAt(0)) {
+            case 'i' -> "I";
+            case 'l' -> "J";
+            case 'f' -> "F";
+            case 'd' -> "D";
+            case 'b' -> "BZ";
+            case 'c' -> "C";
+            case 's' -> "S";
+            default -> "L[";
+        };
+    }
+
+    /** The constant pool of a class being written, with each distinct constant entered once */
+    private static final class ConstantPool {
+        private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+            FIELDREF = 9, METHODREF = 10, INTERFACE_METHODREF = 11, NAME_AND_TYPE = 12;
+
+        private record Key(int tag, Object a, Object b, Object c) {}
+
+        private final Map<Key, Integer> indexes = new HashMap<>();
+        private final ByteSink bytes = new ByteSink(1024);
+        /** The index of the next entry */
+        private int count = 1;
+
+        private int utf8(String value) throws Unsupported {
+            var key = new Key(UTF8, value, null, null);
+            var index = indexes.get(key);
+            if (index != null)
+                return index;
+            index = add(key, 1);
+            bytes.u1(UTF8);
+            int lengthAt = bytes.reserve(2);
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                // modified UTF-8: no zero bytes, and surrogates encoded one by one
+                if (c != 0 && c < 0x80)
+                    bytes.u1(c);
+                else if (c < 0x800) {
+                    bytes.u1(0xc0 | (c >> 6));
+                    bytes.u1(0x80 | (c & 0x3f));
+                } else {
+                    bytes.u1(0xe0 | (c >> 12));
+                    bytes.u1(0x80 | ((c >> 6) & 0x3f));
+                    bytes.u1(0x80 | (c & 0x3f));
+                }
+            }
+            int length = bytes.size() - lengthAt - 2;
+            if (length > 0xffff)
+                throw Unsupported.INSTANCE;
+            bytes.putU2(lengthAt, length);
+            return index;
+        }
+
+        private int classEntry(String internalName) throws Unsupported {
+            var key = new Key(CLASS, internalName, null, null);
+            var index = indexes.get(key);
+            if (index == null) {
+                int name = utf8(internalName);
+                index = add(key, 1);
+                bytes.u1(CLASS);
+                bytes.u2(name);
+            }
+            return index;
+        }
+
+        private int classEntry(ClassDesc type) throws Unsupported {
+            if (type.isPrimitive())
+                throw Unsupported.INSTANCE;
+            String descriptor = type.descriptorString();
+            return classEntry(type.isArray() ? descriptor : descriptor.substring(1, descriptor.length() - 1));
+        }
+
+        private int string(String value) throws Unsupported {
+            var key = new Key(STRING, value, null, null);
+            var index = indexes.get(key);
+            if (index == null) {
+                int utf8 = utf8(value);
+                index = add(key, 1);
+                bytes.u1(STRING);
+                bytes.u2(utf8);
+            }
+            return index;
+        }
+
+        private int integer(int value) throws Unsupported {
+            return number(INTEGER, value, 1);
+        }
+
+        private int floatEntry(float value) throws Unsupported {
+            return number(FLOAT, Float.floatToRawIntBits(value), 1);
+        }
+
+        private int longEntry(long value) throws Unsupported {
+            return number(LONG, value, 2);
+        }
+
+        private int doubleEntry(double value) throws Unsupported {
+            return number(DOUBLE, Double.doubleToRawLongBits(value), 2);
+        }
+
+        private int number(int tag, long bits, int slots) throws Unsupported {
+            var key = new Key(tag, bits, null, null);
+            var index = indexes.get(key);
+            if (index == null) {
+                index = add(key, slots);
+                bytes.u1(tag);
+                if (slots == 2)
+                    bytes.u4((int)(bits >>> 32));
+                bytes.u4((int)bits);
+            }
+            return index;
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) throws Unsupported {
+            var key = new Key(tag, owner, name, descriptor);
+            var index = indexes.get(key);
+            if (index == null) {
+                int ownerIndex = classEntry(owner);
+                int nameAndType = nameAndType(name, descriptor);
+                index = add(key, 1);
+                bytes.u1(tag);
+                bytes.u2(ownerIndex);
+                bytes.u2(nameAndType);
+            }
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor) throws Unsupported {
+            var key = new Key(NAME_AND_TYPE, name, descriptor, null);
+            var index = indexes.get(key);
+            if (index == null) {
+                int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+                index = add(key, 1);
+                bytes.u1(NAME_AND_TYPE);
+                bytes.u2(nameIndex);
+                bytes.u2(descriptorIndex);
+            }
+            return index;
+        }
+
+        private int add(Key key, int slots) throws Unsupported {
+            int index = count;
+            count += slots;
+            if (count > 0xffff)
+                throw Unsupported.INSTANCE;
+            indexes.put(key, index);
+            return index;
+        }
+    }
+
+    /** A growable array of bytes, written big-endian as in a class file */
+    private static final class ByteSink {
+        private byte[] data;
+        private int size = 0;
+
+        private ByteSink(int capacity) {
+            data = new byte[capacity];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void ensure(int more) {
+            if (size + more > data.length)
+                data = Arrays.copyOf(data, Math.max(size + more, data.length * 2));
+        }
+
+        private void u1(int value) {
+            ensure(1);
+            data[size++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            ensure(2);
+            data[size++] = (byte)(value >>> 8);
+            data[size++] = (byte)value;
+        }
+
+        private void u4(int value) {
+            ensure(4);
+            data[size++] = (byte)(value >>> 24);
+            data[size++] = (byte)(value >>> 16);
+            data[size++] = (byte)(value >>> 8);
+            data[size++] = (byte)value;
+        }
+
+        private void bytes(ByteSink other) {
+            ensure(other.size);
+            System.arraycopy(other.data, 0, data, size, other.size);
+            size += other.size;
+        }
+
+        /** Skips over the given number of bytes, to be filled in later; returns their position */
+        private int reserve(int length) {
+            ensure(length);
+            int position = size;
+            size += length;
+            return position;
+        }
+
+        private void putU2(int position, int value) {
+            data[position] = (byte)(value >>> 8);
+            data[position + 1] = (byte)value;
+        }
+
+        private void putU4(int position, int value) {
+            putU2(position, value >>> 16);
+            putU2(position + 2, value);
+        }
+
+        private byte[] toByteArray() {
+            return (size == data.length) ? data : Arrays.copyOf(data, size);
+        }
+    }
+}
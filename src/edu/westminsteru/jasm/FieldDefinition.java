@@ -2,7 +2,8 @@ package edu.westminsteru.jasm;
 
 import edu.westminsteru.jasm.parser.StringView;
 
+import java.lang.constant.ClassDesc;
 import java.util.List;
 
-record FieldDefinition(List<StringView> flags, StringView fieldName, StringView fieldDescriptor) {
+record FieldDefinition(List<StringView> flags, StringView fieldName, StringView fieldDescriptor, ClassDesc fieldType) {
 }
@@ -1,5 +1,6 @@
 package edu.westminsteru.jasm;
 
+import edu.westminsteru.jasm.parser.DescriptorCache;
 import edu.westminsteru.jasm.parser.StringView;
 
 import java.lang.classfile.CodeBuilder;
@@ -8,8 +9,10 @@ import java.lang.classfile.TypeKind;
 import java.lang.classfile.instruction.SwitchCase;
 import java.lang.constant.ClassDesc;
 import java.lang.constant.MethodTypeDesc;
-import java.lang.reflect.Method;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.regex.*;
 
 class Instructions {
@@ -18,197 +21,314 @@ class Instructions {
         "^[adfil](load|store)(_[0123])?$"
     );
 
-    private static EnumMap<Opcode, Method> codeBuilderMethods = new EnumMap<>(Opcode.class);
+    /** Encoders for the instructions that take no operands */
+    private static final EnumMap<Opcode, Consumer<CodeBuilder>> NO_OPERAND_ENCODERS = new EnumMap<>(Opcode.class);
+    /** Encoders for the instructions that take a local variable index */
+    private static final EnumMap<Opcode, ObjIntConsumer<CodeBuilder>> LOCAL_VARIABLE_ENCODERS = new EnumMap<>(Opcode.class);
+    /** Encoders for the branch instructions */
+    private static final EnumMap<Opcode, BiConsumer<CodeBuilder, Label>> BRANCH_ENCODERS = new EnumMap<>(Opcode.class);
 
-    private static final Map<String, Opcode> OPCODES;
+    static {
+        var n = NO_OPERAND_ENCODERS;
+        n.put(Opcode.aaload, CodeBuilder::aaload);
+        n.put(Opcode.aastore, CodeBuilder::aastore);
+        n.put(Opcode.aconst_null, CodeBuilder::aconst_null);
+        n.put(Opcode.areturn, CodeBuilder::areturn);
+        n.put(Opcode.arraylength, CodeBuilder::arraylength);
+        n.put(Opcode.athrow, CodeBuilder::athrow);
+        n.put(Opcode.baload, CodeBuilder::baload);
+        n.put(Opcode.bastore, CodeBuilder::bastore);
+        n.put(Opcode.caload, CodeBuilder::caload);
+        n.put(Opcode.castore, CodeBuilder::castore);
+        n.put(Opcode.d2f, CodeBuilder::d2f);
+        n.put(Opcode.d2i, CodeBuilder::d2i);
+        n.put(Opcode.d2l, CodeBuilder::d2l);
+        n.put(Opcode.dadd, CodeBuilder::dadd);
+        n.put(Opcode.daload, CodeBuilder::daload);
+        n.put(Opcode.dastore, CodeBuilder::dastore);
+        n.put(Opcode.dcmpg, CodeBuilder::dcmpg);
+        n.put(Opcode.dcmpl, CodeBuilder::dcmpl);
+        n.put(Opcode.dconst_0, CodeBuilder::dconst_0);
+        n.put(Opcode.dconst_1, CodeBuilder::dconst_1);
+        n.put(Opcode.ddiv, CodeBuilder::ddiv);
+        n.put(Opcode.dmul, CodeBuilder::dmul);
+        n.put(Opcode.dneg, CodeBuilder::dneg);
+        n.put(Opcode.drem, CodeBuilder::drem);
+        n.put(Opcode.dreturn, CodeBuilder::dreturn);
+        n.put(Opcode.dsub, CodeBuilder::dsub);
+        n.put(Opcode.dup, CodeBuilder::dup);
+        n.put(Opcode.dup_x1, CodeBuilder::dup_x1);
+        n.put(Opcode.dup_x2, CodeBuilder::dup_x2);
+        n.put(Opcode.dup2, CodeBuilder::dup2);
+        n.put(Opcode.dup2_x1, CodeBuilder::dup2_x1);
+        n.put(Opcode.dup2_x2, CodeBuilder::dup2_x2);
+        n.put(Opcode.f2d, CodeBuilder::f2d);
+        n.put(Opcode.f2i, CodeBuilder::f2i);
+        n.put(Opcode.f2l, CodeBuilder::f2l);
+        n.put(Opcode.fadd, CodeBuilder::fadd);
+        n.put(Opcode.faload, CodeBuilder::faload);
+        n.put(Opcode.fastore, CodeBuilder::fastore);
+        n.put(Opcode.fcmpg, CodeBuilder::fcmpg);
+        n.put(Opcode.fcmpl, CodeBuilder::fcmpl);
+        n.put(Opcode.fconst_0, CodeBuilder::fconst_0);
+        n.put(Opcode.fconst_1, CodeBuilder::fconst_1);
+        n.put(Opcode.fconst_2, CodeBuilder::fconst_2);
+        n.put(Opcode.fdiv, CodeBuilder::fdiv);
+        n.put(Opcode.fmul, CodeBuilder::fmul);
+        n.put(Opcode.fneg, CodeBuilder::fneg);
+        n.put(Opcode.frem, CodeBuilder::frem);
+        n.put(Opcode.freturn, CodeBuilder::freturn);
+        n.put(Opcode.fsub, CodeBuilder::fsub);
+        n.put(Opcode.i2b, CodeBuilder::i2b);
+        n.put(Opcode.i2c, CodeBuilder::i2c);
+        n.put(Opcode.i2d, CodeBuilder::i2d);
+        n.put(Opcode.i2f, CodeBuilder::i2f);
+        n.put(Opcode.i2l, CodeBuilder::i2l);
+        n.put(Opcode.i2s, CodeBuilder::i2s);
+        n.put(Opcode.iadd, CodeBuilder::iadd);
+        n.put(Opcode.iaload, CodeBuilder::iaload);
+        n.put(Opcode.iand, CodeBuilder::iand);
+        n.put(Opcode.iastore, CodeBuilder::iastore);
+        n.put(Opcode.iconst_0, CodeBuilder::iconst_0);
+        n.put(Opcode.iconst_1, CodeBuilder::iconst_1);
+        n.put(Opcode.iconst_2, CodeBuilder::iconst_2);
+        n.put(Opcode.iconst_3, CodeBuilder::iconst_3);
+        n.put(Opcode.iconst_4, CodeBuilder::iconst_4);
+        n.put(Opcode.iconst_5, CodeBuilder::iconst_5);
+        n.put(Opcode.iconst_m1, CodeBuilder::iconst_m1);
+        n.put(Opcode.idiv, CodeBuilder::idiv);
+        n.put(Opcode.imul, CodeBuilder::imul);
+        n.put(Opcode.ineg, CodeBuilder::ineg);
+        n.put(Opcode.ior, CodeBuilder::ior);
+        n.put(Opcode.irem, CodeBuilder::irem);
+        n.put(Opcode.ireturn, CodeBuilder::ireturn);
+        n.put(Opcode.ishl, CodeBuilder::ishl);
+        n.put(Opcode.ishr, CodeBuilder::ishr);
+        n.put(Opcode.isub, CodeBuilder::isub);
+        n.put(Opcode.iushr, CodeBuilder::iushr);
+        n.put(Opcode.ixor, CodeBuilder::ixor);
+        n.put(Opcode.l2d, CodeBuilder::l2d);
+        n.put(Opcode.l2f, CodeBuilder::l2f);
+        n.put(Opcode.l2i, CodeBuilder::l2i);
+        n.put(Opcode.ladd, CodeBuilder::ladd);
+        n.put(Opcode.laload, CodeBuilder::laload);
+        n.put(Opcode.land, CodeBuilder::land);
+        n.put(Opcode.lastore, CodeBuilder::lastore);
+        n.put(Opcode.lcmp, CodeBuilder::lcmp);
+        n.put(Opcode.lconst_0, CodeBuilder::lconst_0);
+        n.put(Opcode.lconst_1, CodeBuilder::lconst_1);
+        n.put(Opcode.ldiv, CodeBuilder::ldiv);
+        n.put(Opcode.lmul, CodeBuilder::lmul);
+        n.put(Opcode.lneg, CodeBuilder::lneg);
+        n.put(Opcode.lor, CodeBuilder::lor);
+        n.put(Opcode.lrem, CodeBuilder::lrem);
+        n.put(Opcode.lreturn, CodeBuilder::lreturn);
+        n.put(Opcode.lshl, CodeBuilder::lshl);
+        n.put(Opcode.lshr, CodeBuilder::lshr);
+        n.put(Opcode.lsub, CodeBuilder::lsub);
+        n.put(Opcode.lushr, CodeBuilder::lushr);
+        n.put(Opcode.lxor, CodeBuilder::lxor);
+        n.put(Opcode.monitorenter, CodeBuilder::monitorenter);
+        n.put(Opcode.monitorexit, CodeBuilder::monitorexit);
+        n.put(Opcode.nop, CodeBuilder::nop);
+        n.put(Opcode.pop, CodeBuilder::pop);
+        n.put(Opcode.pop2, CodeBuilder::pop2);
+        n.put(Opcode.return_, CodeBuilder::return_);
+        n.put(Opcode.saload, CodeBuilder::saload);
+        n.put(Opcode.sastore, CodeBuilder::sastore);
+        n.put(Opcode.swap, CodeBuilder::swap);
+
+        // loads and stores with the index in the opcode
+        n.put(Opcode.aload_0, cb -> cb.aload(0));
+        n.put(Opcode.aload_1, cb -> cb.aload(1));
+        n.put(Opcode.aload_2, cb -> cb.aload(2));
+        n.put(Opcode.aload_3, cb -> cb.aload(3));
+        n.put(Opcode.astore_0, cb -> cb.astore(0));
+        n.put(Opcode.astore_1, cb -> cb.astore(1));
+        n.put(Opcode.astore_2, cb -> cb.astore(2));
+        n.put(Opcode.astore_3, cb -> cb.astore(3));
+        n.put(Opcode.dload_0, cb -> cb.dload(0));
+        n.put(Opcode.dload_1, cb -> cb.dload(1));
+        n.put(Opcode.dload_2, cb -> cb.dload(2));
+        n.put(Opcode.dload_3, cb -> cb.dload(3));
+        n.put(Opcode.dstore_0, cb -> cb.dstore(0));
+        n.put(Opcode.dstore_1, cb -> cb.dstore(1));
+        n.put(Opcode.dstore_2, cb -> cb.dstore(2));
+        n.put(Opcode.dstore_3, cb -> cb.dstore(3));
+        n.put(Opcode.fload_0, cb -> cb.fload(0));
+        n.put(Opcode.fload_1, cb -> cb.fload(1));
+        n.put(Opcode.fload_2, cb -> cb.fload(2));
+        n.put(Opcode.fload_3, cb -> cb.fload(3));
+        n.put(Opcode.fstore_0, cb -> cb.fstore(0));
+        n.put(Opcode.fstore_1, cb -> cb.fstore(1));
+        n.put(Opcode.fstore_2, cb -> cb.fstore(2));
+        n.put(Opcode.fstore_3, cb -> cb.fstore(3));
+        n.put(Opcode.iload_0, cb -> cb.iload(0));
+        n.put(Opcode.iload_1, cb -> cb.iload(1));
+        n.put(Opcode.iload_2, cb -> cb.iload(2));
+        n.put(Opcode.iload_3, cb -> cb.iload(3));
+        n.put(Opcode.istore_0, cb -> cb.istore(0));
+        n.put(Opcode.istore_1, cb -> cb.istore(1));
+        n.put(Opcode.istore_2, cb -> cb.istore(2));
+        n.put(Opcode.istore_3, cb -> cb.istore(3));
+        n.put(Opcode.lload_0, cb -> cb.lload(0));
+        n.put(Opcode.lload_1, cb -> cb.lload(1));
+        n.put(Opcode.lload_2, cb -> cb.lload(2));
+        n.put(Opcode.lload_3, cb -> cb.lload(3));
+        n.put(Opcode.lstore_0, cb -> cb.lstore(0));
+        n.put(Opcode.lstore_1, cb -> cb.lstore(1));
+        n.put(Opcode.lstore_2, cb -> cb.lstore(2));
+        n.put(Opcode.lstore_3, cb -> cb.lstore(3));
+
+        var lv = LOCAL_VARIABLE_ENCODERS;
+        lv.put(Opcode.aload, CodeBuilder::aload);
+        lv.put(Opcode.astore, CodeBuilder::astore);
+        lv.put(Opcode.dload, CodeBuilder::dload);
+        lv.put(Opcode.dstore, CodeBuilder::dstore);
+        lv.put(Opcode.fload, CodeBuilder::fload);
+        lv.put(Opcode.fstore, CodeBuilder::fstore);
+        lv.put(Opcode.iload, CodeBuilder::iload);
+        lv.put(Opcode.istore, CodeBuilder::istore);
+        lv.put(Opcode.lload, CodeBuilder::lload);
+        lv.put(Opcode.lstore, CodeBuilder::lstore);
+
+        var b = BRANCH_ENCODERS;
+        b.put(Opcode.goto_, CodeBuilder::goto_);
+        b.put(Opcode.if_acmpeq, CodeBuilder::if_acmpeq);
+        b.put(Opcode.if_acmpne, CodeBuilder::if_acmpne);
+        b.put(Opcode.if_icmpeq, CodeBuilder::if_icmpeq);
+        b.put(Opcode.if_icmpne, CodeBuilder::if_icmpne);
+        b.put(Opcode.if_icmplt, CodeBuilder::if_icmplt);
+        b.put(Opcode.if_icmpge, CodeBuilder::if_icmpge);
+        b.put(Opcode.if_icmpgt, CodeBuilder::if_icmpgt);
+        b.put(Opcode.if_icmple, CodeBuilder::if_icmple);
+        b.put(Opcode.ifeq, CodeBuilder::ifeq);
+        b.put(Opcode.ifne, CodeBuilder::ifne);
+        b.put(Opcode.iflt, CodeBuilder::iflt);
+        b.put(Opcode.ifge, CodeBuilder::ifge);
+        b.put(Opcode.ifgt, CodeBuilder::ifgt);
+        b.put(Opcode.ifle, CodeBuilder::ifle);
+        b.put(Opcode.ifnonnull, CodeBuilder::ifnonnull);
+        b.put(Opcode.ifnull, CodeBuilder::ifnull);
+    }
+
+    /**
+     * An item of code after lowering: either an instruction (or label binding) to emit, or a {@linkplain StackFrame stack map frame} to write to the {@code StackMapTable} attribute.
+     */
+    sealed interface Lowered permits Emitter, StackFrame {}
+
+    /**
+     * An instruction whose operands have been parsed and resolved, ready to be emitted. Emitting is cheap: all that is left is to look up (or create) branch target labels and call the {@code CodeBuilder}.
+     */
+    @FunctionalInterface
+    non-sealed interface Emitter extends Lowered {
+        /**
+         * Emits the instruction.
+         * @param cb the {@code CodeBuilder} to emit to
+         * @param labels the labels of the method so far, by name
+         */
+        void emit(CodeBuilder cb, Map<String, Label> labels);
+    }
+
+    private static final EnumMap<Opcode, Emitter> NO_OPERAND_EMITTERS = new EnumMap<>(Opcode.class);
 
     static {
-        OPCODES = new HashMap<>();
-        for (var opcode : Opcode.values()) {
-            String name = opcode.getName();
-            if (!name.equals("ldc") && !name.equals("ldc2")) {
-                OPCODES.put(name, opcode);
-            }
-        }
+        NO_OPERAND_ENCODERS.forEach((opc, encoder) -> NO_OPERAND_EMITTERS.put(opc, (cb, labels) -> encoder.accept(cb)));
     }
 
-    public static void enter(StringView opcode, List<StringView> operands, Map<String, Label> labels, CodeBuilder cb) throws AssemblyException {
-        String opcodeString = opcode.toString();
-        if (opcodeString.equals("ldc")) {
-            enterLdc(opcode, operands, cb);
-            return;
-        } else if (opcodeString.equals("ldc2")) {
-            enterLdc2(opcode, operands, cb);
-            return;
-        }
+    /**
+     * Parses and emits an instruction in one step; this is the same as {@code lower(opc, opcode, operands).emit(cb, labels)}.
+     */
+    public static void enter(Opcode opc, StringView opcode, List<StringView> operands, Map<String, Label> labels, CodeBuilder cb) throws AssemblyException {
+        lower(opc, opcode, operands).emit(cb, labels);
+    }
 
-        Opcode opc = OPCODES.getOrDefault(opcodeString, null);
+    /**
+     * Parses the operands of an instruction and resolves them to the symbols and values the {@code CodeBuilder} takes. Lowering does not touch a {@code CodeBuilder}, so the instructions of different methods can be lowered in parallel.
+     * @param opc the opcode, or {@code null} if the opcode text is not a valid opcode
+     * @param opcode the text of the opcode
+     * @param operands the text of the operands
+     * @return the lowered instruction
+     * @throws AssemblyException if the opcode or operands are invalid
+     */
+    static Emitter lower(Opcode opc, StringView opcode, List<StringView> operands) throws AssemblyException {
         if (opc == null)
             throw new AssemblyException(
                 "Invalid opcode", opcode
             );
+        else if (opc.isLdc())
+            return lowerLdc(opcode, operands);
+        else if (opc.isLdc2())
+            return lowerLdc2(opcode, operands);
 
         var ops = checkAndParseOperands(opcode, opc, operands);
 
-        switch (opc) {
-            // opcodes without arguments whose enum names match method names in CodeBuilder
-            case aaload, aastore, areturn, arraylength, athrow,
-                 baload, bastore,
-                 caload, castore,
-                 d2f, d2i, d2l, dadd, daload, dastore, dcmpg, dcmpl,
-                 dconst_0, dconst_1, ddiv, dmul, dneg, drem, dreturn, dsub,
-                 dup, dup_x1, dup_x2, dup2, dup2_x1, dup2_x2,
-                 f2d, f2i, f2l, fadd, faload, fastore, fcmpg, fcmpl,
-                 fconst_0, fconst_1, fconst_2, fdiv, fmul, fneg, frem, freturn, fsub,
-                 i2b, i2c, i2d, i2f, i2l, i2s, iadd, iaload, iand, iastore,
-                 iconst_0, iconst_1, iconst_2, iconst_3, iconst_4, iconst_5, iconst_m1,
-                 idiv, imul, ineg, ior, irem, ireturn, ishl,
-                 ishr, isub, iushr, ixor,
-                 l2d, l2f, l2i, ladd, laload, land, lastore, lcmp, lconst_0, lconst_1,
-                 ldiv, lmul, lneg, lor, lrem, lreturn, lshl, lshr, lsub, lushr, lxor,
-                 monitorenter, monitorexit,
-                 nop,
-                 pop, pop2,
-                 return_,
-                 saload, sastore, swap -> {
-                try {
-                    Method method;
-                    if (codeBuilderMethods.containsKey(opc))
-                        method = codeBuilderMethods.get(opc);
-                    else {
-                        method = CodeBuilder.class.getMethod(opc.name());
-                        codeBuilderMethods.put(opc, method);
-                    }
-                    method.invoke(cb);
-                } catch (ReflectiveOperationException ex) {
-                    throw new AssemblyException("Internal assembler error (please report)", ex);
-                }
-            }
-
-            // loads and stores
-            case aload -> cb.aload(_int(ops[0]));
-            case aload_0 -> cb.aload(0);
-            case aload_1 -> cb.aload(1);
-            case aload_2 -> cb.aload(2);
-            case aload_3 -> cb.aload(3);
-            case astore -> cb.astore(_int(ops[0]));
-            case astore_0 -> cb.astore(0);
-            case astore_1 -> cb.astore(1);
-            case astore_2 -> cb.astore(2);
-            case astore_3 -> cb.astore(3);
-
-            case dload -> cb.dload(_int(ops[0]));
-            case dload_0 -> cb.dload(0);
-            case dload_1 -> cb.dload(1);
-            case dload_2 -> cb.dload(2);
-            case dload_3 -> cb.dload(3);
-            case dstore -> cb.dstore(_int(ops[0]));
-            case dstore_0 -> cb.dstore(0);
-            case dstore_1 -> cb.dstore(1);
-            case dstore_2 -> cb.dstore(2);
-            case dstore_3 -> cb.dstore(3);
-
-            case fload -> cb.fload(_int(ops[0]));
-            case fload_0 -> cb.fload(0);
-            case fload_1 -> cb.fload(1);
-            case fload_2 -> cb.fload(2);
-            case fload_3 -> cb.fload(3);
-            case fstore -> cb.fstore(_int(ops[0]));
-            case fstore_0 -> cb.fstore(0);
-            case fstore_1 -> cb.fstore(1);
-            case fstore_2 -> cb.fstore(2);
-            case fstore_3 -> cb.fstore(3);
-
-            case iload -> cb.iload(_int(ops[0]));
-            case iload_0 -> cb.iload(0);
-            case iload_1 -> cb.iload(1);
-            case iload_2 -> cb.iload(2);
-            case iload_3 -> cb.iload(3);
-            case istore -> cb.istore(_int(ops[0]));
-            case istore_0 -> cb.istore(0);
-            case istore_1 -> cb.istore(1);
-            case istore_2 -> cb.istore(2);
-            case istore_3 -> cb.istore(3);
-
-            case lload -> cb.lload(_int(ops[0]));
-            case lload_0 -> cb.lload(0);
-            case lload_1 -> cb.lload(1);
-            case lload_2 -> cb.lload(2);
-            case lload_3 -> cb.lload(3);
-            case lstore -> cb.lstore(_int(ops[0]));
-            case lstore_0 -> cb.lstore(0);
-            case lstore_1 -> cb.lstore(1);
-            case lstore_2 -> cb.lstore(2);
-            case lstore_3 -> cb.lstore(3);
-
+        var noOperandEmitter = NO_OPERAND_EMITTERS.get(opc);
+        if (noOperandEmitter != null)
+            return noOperandEmitter;
+        var localVariableEncoder = LOCAL_VARIABLE_ENCODERS.get(opc);
+        if (localVariableEncoder != null) {
+            int index = _int(ops[0]);
+            return (cb, labels) -> localVariableEncoder.accept(cb, index);
+        }
+        var branchEncoder = BRANCH_ENCODERS.get(opc);
+        if (branchEncoder != null) {
+            String target = ((Operand.BranchTarget)ops[0]).text();
+            return (cb, labels) -> branchEncoder.accept(cb, labels.computeIfAbsent(
+                target,
+                l -> cb.newLabel()
+            ));
+        }
 
+        return switch (opc) {
             // fields and methods
-            case getfield -> cb.getfield(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _typeDesc(ops[2])
-            );
-            case getstatic -> cb.getstatic(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _typeDesc(ops[2])
-            );
-            case putfield -> cb.putfield(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _typeDesc(ops[2])
-            );
-            case putstatic -> cb.putstatic(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _typeDesc(ops[2])
-            );
-            case invokeinterface -> cb.invokeinterface(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _methodDesc(ops[2])
-            );
-            case invokespecial -> cb.invokespecial(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _methodDesc(ops[2])
-            );
-            case invokestatic -> cb.invokestatic(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _methodDesc(ops[2])
-            );
-            case invokevirtual -> cb.invokevirtual(
-                _classDesc(ops[0]),
-                _id(ops[1]),
-                _methodDesc(ops[2])
-            );
-
-            // branches
-            case goto_,
-                 if_acmpeq, if_acmpne,
-                 if_icmpeq, if_icmpne, if_icmplt, if_icmpge, if_icmpgt, if_icmple,
-                 ifeq, ifne, iflt, ifge, ifgt, ifle,
-                 ifnonnull, ifnull -> {
-                var target = labels.computeIfAbsent(
-                    ((Operand.BranchTarget)ops[0]).text(),
-                    l -> cb.newLabel()
-                );
-
-                try {
-                    Method method;
-
-                    if (codeBuilderMethods.containsKey(opc))
-                        method = codeBuilderMethods.get(opc);
-                    else {
-                        method = CodeBuilder.class.getMethod(opc.name(), Label.class);
-                        codeBuilderMethods.put(opc, method);
-                    }
-
-                    method.invoke(cb, target);
-                } catch (ReflectiveOperationException ex) {
-                    throw new AssemblyException("Internal error (please report)", ex);
-                }
+            case getfield -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _typeDesc(ops[2]);
+                yield (cb, labels) -> cb.getfield(owner, name, type);
+            }
+            case getstatic -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _typeDesc(ops[2]);
+                yield (cb, labels) -> cb.getstatic(owner, name, type);
+            }
+            case putfield -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _typeDesc(ops[2]);
+                yield (cb, labels) -> cb.putfield(owner, name, type);
+            }
+            case putstatic -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _typeDesc(ops[2]);
+                yield (cb, labels) -> cb.putstatic(owner, name, type);
+            }
+            case invokeinterface -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _methodDesc(ops[2]);
+                yield (cb, labels) -> cb.invokeinterface(owner, name, type);
+            }
+            case invokespecial -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _methodDesc(ops[2]);
+                yield (cb, labels) -> cb.invokespecial(owner, name, type);
+            }
+            case invokestatic -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _methodDesc(ops[2]);
+                yield (cb, labels) -> cb.invokestatic(owner, name, type);
+            }
+            case invokevirtual -> {
+                var owner = _classDesc(ops[0]);
+                var name = _id(ops[1]);
+                var type = _methodDesc(ops[2]);
+                yield (cb, labels) -> cb.invokevirtual(owner, name, type);
             }
 
             // miscellaneous
@@ -216,63 +336,99 @@ class Instructions {
                 var desc = _typeDesc(ops[0]);
                 if (desc.isPrimitive())
                     throw new AssemblyException("Invalid operand", operands.getFirst());
-                cb.anewarray(desc);
+                yield (cb, labels) -> cb.anewarray(desc);
             }
 
-            case bipush -> cb.bipush(_int(ops[0]));
-            case checkcast -> cb.checkcast(_typeDesc(ops[0]));
-            case iinc -> cb.iinc(_int(ops[0]), _int(ops[1]));
-            case instanceOf -> cb.instanceOf(_typeDesc(ops[0]));
+            case bipush -> {
+                int value = _int(ops[0]);
+                yield (cb, labels) -> cb.bipush(value);
+            }
+            case checkcast -> {
+                var desc = _typeDesc(ops[0]);
+                yield (cb, labels) -> cb.checkcast(desc);
+            }
+            case iinc -> {
+                int index = _int(ops[0]), increment = _int(ops[1]);
+                yield (cb, labels) -> cb.iinc(index, increment);
+            }
+            case instanceOf -> {
+                var desc = _typeDesc(ops[0]);
+                yield (cb, labels) -> cb.instanceOf(desc);
+            }
 
             case multianewarray -> {
                 var desc = _typeDesc(ops[0]);
                 if (!desc.isArray())
                     throw new AssemblyException("Invalid operand", operands.getFirst());
-                cb.multianewarray(desc, _int(ops[1]));
+                int dimensions = _int(ops[1]);
+                yield (cb, labels) -> cb.multianewarray(desc, dimensions);
             }
 
-            case new_ -> cb.new_(_classDesc(ops[0]));
-            case newarray -> cb.newarray(_typeKind(ops[0]));
-            case sipush -> cb.sipush(_int(ops[0]));
+            case new_ -> {
+                var desc = _classDesc(ops[0]);
+                yield (cb, labels) -> cb.new_(desc);
+            }
+            case newarray -> {
+                var kind = _typeKind(ops[0]);
+                yield (cb, labels) -> cb.newarray(kind);
+            }
+            case sipush -> {
+                int value = _int(ops[0]);
+                yield (cb, labels) -> cb.sipush(value);
+            }
 
             default ->
                 throw new AssemblyException("Internal error (please report): unhandled opcode " + opc);
-        }
+        };
    }
 
-   public static void enterTableInstruction(StringView opcode, List<StringView> operands, Table table, Map<String, Label> labels, CodeBuilder cb) throws AssemblyException {
-       Opcode opc = switch (opcode.toString()) {
-           case "lookupswitch" -> Opcode.lookupswitch;
-           case "tableswitch" -> Opcode.tableswitch;
-           default -> throw new AssemblyException(String.format(
-               "Internal error (please report): %s handled as a table instruction", opcode.toString()
+   /**
+    * Lowers a {@code lookupswitch} or {@code tableswitch} instruction together with its table (see {@link #lower}).
+    * @param opc the opcode
+    * @param opcode the text of the opcode
+    * @param operands the text of the operands
+    * @param table the table following the instruction
+    * @return the lowered instruction
+    * @throws AssemblyException if the operands or the table are invalid
+    */
+   static Emitter lowerTableInstruction(Opcode opc, StringView opcode, List<StringView> operands, Table table) throws AssemblyException {
+       if (opc != Opcode.lookupswitch && opc != Opcode.tableswitch)
+           throw new AssemblyException(String.format(
+               "Internal error (please report): %s handled as a table instruction", opcode
            ), opcode);
-       };
 
        var ops = checkAndParseOperands(opcode, opc, operands);
-       switch (opc) {
-           case lookupswitch -> {
-               var defaultTarget = labels.computeIfAbsent(
-                   ((Operand.BranchTarget)ops[0]).text(),
-                   l -> cb.newLabel()
+       var entries = table.entries();
+       int[] values = new int[entries.size()];
+       String[] targets = new String[entries.size()];
+       for (int i = 0; i < values.length; ++i) {
+           try {
+               values[i] = Integer.parseInt(entries.get(i).label().toString());
+               targets[i] = entries.get(i).target().toString();
+           } catch (NumberFormatException _) {
+               throw new AssemblyException(
+                   "Invalid integer", entries.get(i).label()
                );
-               cb.lookupswitch(defaultTarget, parseTable(table, labels, cb));
            }
+       }
 
-           case tableswitch -> {
-               var defaultTarget = labels.computeIfAbsent(
-                   ((Operand.BranchTarget)ops[2]).text(),
-                   l -> cb.newLabel()
-               );
-               cb.tableswitch(
-                   _int(ops[0]), _int(ops[1]), defaultTarget,
-                   parseTable(table, labels, cb)
-               );
-           }
+       if (opc == Opcode.lookupswitch) {
+           String defaultTarget = ((Operand.BranchTarget)ops[0]).text();
+           return (cb, labels) -> {
+               var defaultLabel = labels.computeIfAbsent(defaultTarget, l -> cb.newLabel());
+               cb.lookupswitch(defaultLabel, switchCases(values, targets, labels, cb));
+           };
+       } else {
+           int low = _int(ops[0]), high = _int(ops[1]);
+           String defaultTarget = ((Operand.BranchTarget)ops[2]).text();
+           return (cb, labels) -> {
+               var defaultLabel = labels.computeIfAbsent(defaultTarget, l -> cb.newLabel());
+               cb.tableswitch(low, high, defaultLabel, switchCases(values, targets, labels, cb));
+           };
        }
    }
 
-   private static Operand[] checkAndParseOperands(StringView opcode, Opcode opc, List<StringView> operands) throws AssemblyException {
+   static Operand[] checkAndParseOperands(StringView opcode, Opcode opc, List<StringView> operands) throws AssemblyException {
        var opcOperands = opc.getOperandTypes();
        if (opcOperands.length == 0 && !operands.isEmpty())
            throw new AssemblyException(
@@ -296,7 +452,7 @@ class Instructions {
     }
 
     private static ClassDesc _classDesc(Operand op) {
-        return ClassDesc.ofInternalName(((Operand.ClassName)op).value());
+        return DescriptorCache.shared().internalName(((Operand.ClassName)op).value());
     }
 
     private static String _id(Operand op) {
@@ -304,11 +460,11 @@ class Instructions {
     }
 
     private static ClassDesc _typeDesc(Operand op) {
-        return ClassDesc.ofDescriptor(((Operand.Descriptor)op).text());
+        return ((Operand.Descriptor)op).desc();
     }
 
     private static MethodTypeDesc _methodDesc(Operand op) {
-        return MethodTypeDesc.ofDescriptor(((Operand.MethodDescriptor)op).text());
+        return ((Operand.MethodDescriptor)op).desc();
     }
 
     private static TypeKind _typeKind(Operand op) {
@@ -324,7 +480,7 @@ class Instructions {
         };
     }
 
-    private static void enterLdc(StringView opcode, List<StringView> operands, CodeBuilder cb) throws AssemblyException {
+    private static Emitter lowerLdc(StringView opcode, List<StringView> operands) throws AssemblyException {
         // Possible operands:
         //   int value
         //   float value
@@ -333,42 +489,45 @@ class Instructions {
         if (operands.size() != 1)
             throw new AssemblyException("Opcode ldc takes one operand", opcode);
         StringView op = operands.getFirst();
-        String ops = op.toString();
-        if (ops.toLowerCase().endsWith("f") || ops.toLowerCase().endsWith("fb")) {
-            var fop = Operands.parseFloat(op);
-            cb.ldc(fop.value());
-        } else if (ops.startsWith("\"")) {
-            var sop = Operands.parseString(op);
-            cb.ldc(sop.value());
-        } else {
-            try {
-                var iop = Operands.parseInt(op);
-                cb.ldc(iop.value());
-            } catch (AssemblyException _) {
-                throw new AssemblyException("Invalid operand", op);
-            }
+        if (!op.isEmpty() && op.codePointAt(0) == '"') {
+            String value = Operands.parseString(op).value();
+            return (cb, labels) -> cb.ldc(value);
         }
+        return switch (LiteralScanner.scan(op)) {
+            case Operand.Int iop -> {
+                int value = iop.value();
+                yield (cb, labels) -> cb.ldc(value);
+            }
+            case Operand.Float fop -> {
+                float value = fop.value();
+                yield (cb, labels) -> cb.ldc(value);
+            }
+            default -> throw new AssemblyException(
+                "Operand of ldc must be an int, float, or String (use ldc2 for long and double)", op
+            );
+        };
     }
 
-    private static void enterLdc2(StringView opcode, List<StringView> operands, CodeBuilder cb) throws AssemblyException {
+    private static Emitter lowerLdc2(StringView opcode, List<StringView> operands) throws AssemblyException {
         // Possible operands:
         //   long value
         //   double value
         if (operands.size() != 1)
             throw new AssemblyException("Opcode ldc2 takes one operand", opcode);
         StringView op = operands.getFirst();
-        String ops = op.toString();
-        if (ops.toLowerCase().endsWith("db") || ops.contains(".") || ops.toLowerCase().contains("e")) {
-            var dop = Operands.parseDouble(op);
-            cb.ldc(dop.value());
-        } else {
-            try {
-                var lop = Operands.parseLong(op);
-                cb.ldc(lop.value());
-            } catch (AssemblyException _) {
-                throw new AssemblyException("Invalid operand", op);
+        return switch (LiteralScanner.scan(op)) {
+            case Operand.Long lop -> {
+                long value = lop.value();
+                yield (cb, labels) -> cb.ldc(value);
             }
-        }
+            case Operand.Double dop -> {
+                double value = dop.value();
+                yield (cb, labels) -> cb.ldc(value);
+            }
+            default -> throw new AssemblyException(
+                "Operand of ldc2 must be a long (with an L suffix) or double", op
+            );
+        };
     }
 
     private static Operand[] parseOperands(List<StringView> operands, OperandType[] opTypes) throws AssemblyException {
@@ -380,23 +539,10 @@ class Instructions {
         return ops;
     }
 
-    private static List<SwitchCase> parseTable(Table table, Map<String, Label> labels, CodeBuilder cb) throws AssemblyException {
-        var cases = new ArrayList<SwitchCase>(table.entries().size());
-        for (var entry : table.entries()) {
-            try {
-                int value = Integer.parseInt(entry.label().toString());
-                var target = labels.computeIfAbsent(
-                    entry.target().toString(),
-                    l -> cb.newLabel()
-                );
-                cases.add(SwitchCase.of(value, target));
-            } catch (NumberFormatException _) {
-                throw new AssemblyException(
-                    "Invalid integer", entry.label()
-                );
-            }
-        }
-
+    private static List<SwitchCase> switchCases(int[] values, String[] targets, Map<String, Label> labels, CodeBuilder cb) {
+        var cases = new ArrayList<SwitchCase>(values.length);
+        for (int i = 0; i < values.length; ++i)
+            cases.add(SwitchCase.of(values[i], labels.computeIfAbsent(targets[i], l -> cb.newLabel())));
         return cases;
     }
 }
@@ -0,0 +1,314 @@
+package edu.westminsteru.jasm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link BytecodeSink} that writes the classes straight into a jar file, with a manifest, in a single pass.
+ * Each class is compressed on its own as soon as it arrives, on an executor, so that many classes are compressed at the same time; the compressed entries are then appended to the file, in the order they are finished, and the central directory is written when the jar is {@linkplain #commit() committed}.
+ * The jar is written to a temporary file next to it, which replaces the jar only when it is committed, so that a build that fails leaves any previous jar as it was.
+ * When too many classes are waiting to be compressed, the thread handing over a class compresses it itself, so that no more than a bounded number of classes are held in memory.
+ * <p>
+ * The jar is written without ZIP64 extensions, so it may hold up to 65535 classes and 4 GB.
+ */
+public final class JarSink implements BytecodeSink, Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034B50;
+    private static final int CENTRAL_HEADER = 0x02014B50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    /** The version of the zip format needed to extract the entries (2.0, for deflate) */
+    private static final int ZIP_VERSION = 20;
+    /** The flag for names encoded in UTF-8 */
+    private static final int UTF8_NAMES = 0x800;
+    private static final int STORED = 0, DEFLATED = 8;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+    /** Each thread's deflater, which is reset after each class */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    /** An entry of the central directory */
+    private record Entry(byte[] name, int method, int crc, int compressedSize, int size, long offset) {}
+
+    private final Path file;
+    /** The temporary file being written, which becomes the jar when it is committed */
+    private final Path temp;
+    private final FileChannel channel;
+    private final boolean store;
+    private final Executor executor;
+    private final int maxPending;
+    /** The places left for classes waiting to be compressed on the executor */
+    private final Semaphore places;
+    private final int dosTime, dosDate;
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    /** The entries written so far, guarded by itself along with the channel */
+    private final List<Entry> entries = new ArrayList<>();
+    private long offset;
+    /** Why an entry could not be written, or {@code null} */
+    private volatile IOException failure;
+    private boolean closed;
+
+    private JarSink(Path file, Path temp, FileChannel channel, boolean store, Executor executor, int maxPending) {
+        this.file = file;
+        this.temp = temp;
+        this.channel = channel;
+        this.store = store;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.places = new Semaphore(maxPending);
+        var now = LocalDateTime.now();
+        this.dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        this.dosDate = ((Math.max(now.getYear(), 1980) - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    /**
+     * Starts a jar file and writes its manifest. The jar file itself is only written, replacing any file of the same name, when the sink is {@linkplain #commit() committed}.
+     * @param file the path of the jar file
+     * @param store whether to store the classes without compressing them, which is faster but makes a larger jar
+     * @param executor the executor on which to compress classes
+     * @return the sink
+     * @throws IOException if the file cannot be written
+     */
+    public static JarSink open(Path file, boolean store, Executor executor) throws IOException {
+        file = file.toAbsolutePath();
+        // not a file from Files.createTempFile, which would be readable by its owner only once it became the jar
+        Path temp;
+        FileChannel channel;
+        while (true) {
+            temp = file.resolveSibling("." + file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException _) {
+                // try another name
+            }
+        }
+
+        var sink = new JarSink(file, temp, channel, store, executor, 4 * Runtime.getRuntime().availableProcessors());
+        try {
+            String manifest = "Manifest-Version: 1.0\r\nCreated-By: jasm " + JasmAssembler.JASM_VERSION + "\r\n\r\n";
+            sink.names.add("META-INF/MANIFEST.MF");
+            sink.write("META-INF/MANIFEST.MF", manifest.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            sink.close();
+            throw ex;
+        }
+        return sink;
+    }
+
+    /**
+     * Adds a class to the jar. It may be compressed and written after this method returns; an error in doing so is reported by a later call or by {@link #commit()}.
+     * @param bytecode the class
+     * @throws IOException if a class of the same name has already been added, or if the jar could not be written
+     */
+    @Override
+    public void accept(Bytecode bytecode) throws IOException {
+        checkFailure();
+        String name = bytecode.className() + ".class";
+        if (!names.add(name))
+            throw new IOException("Duplicate class " + bytecode.className());
+
+        if (places.tryAcquire()) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        write(name, bytecode.data());
+                    } catch (IOException ex) {
+                        failure = ex;
+                    } finally {
+                        places.release();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException _) {
+                places.release();
+            }
+        }
+        write(name, bytecode.data());
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException(failure.getMessage(), failure);
+    }
+
+    /** Compresses an entry on the calling thread, then appends it to the file */
+    private void write(String name, byte[] data) throws IOException {
+        var crc = new CRC32();
+        crc.update(data);
+        int method = STORED;
+        byte[] compressed = data;
+        int compressedSize = data.length;
+        if (!store) {
+            var deflater = DEFLATERS.get();
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                var buffer = new byte[Math.max(64, data.length / 2)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buffer.length)
+                        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+                // a class too small to shrink is stored as is
+                if (length < data.length) {
+                    method = DEFLATED;
+                    compressed = buffer;
+                    compressedSize = length;
+                }
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        var header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(LOCAL_HEADER)
+            .putShort((short)ZIP_VERSION)
+            .putShort((short)UTF8_NAMES)
+            .putShort((short)method)
+            .putShort((short)dosTime)
+            .putShort((short)dosDate)
+            .putInt((int)crc.getValue())
+            .putInt(compressedSize)
+            .putInt(data.length)
+            .putShort((short)nameBytes.length)
+            .putShort((short)0)
+            .put(nameBytes)
+            .flip();
+        var buffers = new ByteBuffer[] { header, ByteBuffer.wrap(compressed, 0, compressedSize) };
+
+        synchronized (entries) {
+            checkFailure();
+            if (entries.size() == MAX_ENTRIES || offset + header.remaining() + compressedSize > MAX_OFFSET)
+                throw new IOException("Too many classes for a jar");
+            entries.add(new Entry(nameBytes, method, (int)crc.getValue(), compressedSize, data.length, offset));
+            offset += writeFully(buffers);
+        }
+    }
+
+    private long writeFully(ByteBuffer[] buffers) throws IOException {
+        long written = 0;
+        for (var buffer : buffers) {
+            while (buffer.hasRemaining())
+                written += channel.write(buffers);
+        }
+        return written;
+    }
+
+    /**
+     * Waits until all the classes have been written, then writes the central directory and replaces the jar file with the finished jar. Classes must not be added while the sink is being committed.
+     * @throws IOException if the jar could not be written, in which case the jar file is left as it was
+     * @throws IllegalStateException if the sink has already been committed or closed
+     */
+    public void commit() throws IOException {
+        if (closed)
+            throw new IllegalStateException("commit() called after close()");
+        closed = true;
+        places.acquireUninterruptibly(maxPending);
+        try {
+            try (channel) {
+                synchronized (entries) {
+                    checkFailure();
+                    writeCentralDirectory();
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException _) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Discards the jar if it has not been {@linkplain #commit() committed}, leaving the jar file as it was; otherwise does nothing. Classes must not be added while the sink is being closed.
+     * @throws IOException if the temporary file could not be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        places.acquireUninterruptibly(maxPending);
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        int size = END_SIZE;
+        for (var entry : entries)
+            size += CENTRAL_HEADER_SIZE + entry.name().length;
+        var directory = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (var entry : entries) {
+            directory.putInt(CENTRAL_HEADER)
+                .putShort((short)ZIP_VERSION)
+                .putShort((short)ZIP_VERSION)
+                .putShort((short)UTF8_NAMES)
+                .putShort((short)entry.method())
+                .putShort((short)dosTime)
+                .putShort((short)dosDate)
+                .putInt(entry.crc())
+                .putInt(entry.compressedSize())
+                .putInt(entry.size())
+                .putShort((short)entry.name().length)
+                .putShort((short)0)
+                .putShort((short)0)
+                .putShort((short)0)
+                .putShort((short)0)
+                .putInt(0)
+                .putInt((int)entry.offset())
+                .put(entry.name());
+        }
+        int directorySize = size - END_SIZE;
+        if (offset + directorySize > MAX_OFFSET)
+            throw new IOException("Too many classes for a jar");
+        directory.putInt(END_OF_CENTRAL_DIRECTORY)
+            .putShort((short)0)
+            .putShort((short)0)
+            .putShort((short)entries.size())
+            .putShort((short)entries.size())
+            .putInt(directorySize)
+            .putInt((int)offset)
+            .putShort((short)0)
+            .flip();
+        writeFully(new ByteBuffer[] { directory });
+    }
+}
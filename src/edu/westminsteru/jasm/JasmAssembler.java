@@ -1,23 +1,19 @@
 package edu.westminsteru.jasm;
 
-import edu.westminsteru.jasm.parser.JasmParser;
-import edu.westminsteru.jasm.parser.StringView;
-
 import java.io.*;
-import java.lang.classfile.*;
-import java.lang.classfile.attribute.SourceFileAttribute;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * Assembler for jasm files. The usual process for using this class looks like
  * <ol>
- *     <li>Use the {@link #reading(String) String} or {@link #reading(Reader) Reader} overload of the static {@code reading} method to obtain an instance that reads from the given input.</li>
+ *     <li>Use the {@link #reading(String) String}, {@link #reading(Reader) Reader}, {@link #reading(Path) Path}, or {@link #reading(JasmDocument) JasmDocument} overload of the static {@code reading} method to obtain an instance that reads from the given input.</li>
  *     <li>Call {@link #assemble()} to attempt assembly of the input code. This method returns {@link Status}.{@code Success} or {@code .Failure} to signify success or failure of assembly.</li>
  *     <li>If {@code assemble()} failed, use {@link #getErrorMessages()} to obtain a list of {@link ErrorMessage}s describing the errors that occurred.</li>
  *     <li>Otherwise, the {@link #getAssembledBytecodes()} returns {@link Bytecode} objects, each consisting of a class name and its assembled bytecode (as a {@code byte[]}). These bytes are suitable to be written to a .class file or given to a {@link ClassLoader}.</li>
  * </ol>
+ * Alternatively, {@link #assemble(BytecodeSink)} gives each class to a {@link BytecodeSink} as soon as it has been assembled, such as one that saves it in a directory, so that the bytecode of all the classes is never held in memory at once.
+ * A {@code JasmAssembler} assembles its input only once. To assemble many inputs, possibly from several threads at once, use a {@link JasmEngine}, which this class delegates to.
  */
 public class JasmAssembler {
 
@@ -26,22 +22,16 @@ public class JasmAssembler {
      */
     public static final String JASM_VERSION = "0.2";
 
-    @FunctionalInterface
-    private interface Failable {
-        void run() throws Exception;
-    }
-
-    private BufferedReader in;
-    private JasmParser parser;
-    private DefaultJasmParserListener listener;
-    private ClassFile classFile;
-    private ClassBuilder cb;
-    private List<ErrorMessage> errorMessages = new ArrayList<>();
-    private List<Bytecode> assembledBytecodes = null;
-    private boolean haveAssembled = false;
+    private final Source source;
+    private final JasmDocument document;
+    private JasmEngine engine = JasmEngine.create();
+    private AssemblyResult result = null;
+    /** Whether the classes were given to a sink rather than kept */
+    private boolean sunk = false;
 
-    private JasmAssembler(BufferedReader in) {
-        this.in = in;
+    private JasmAssembler(Source source, JasmDocument document) {
+        this.source = source;
+        this.document = document;
     }
 
     /**
@@ -51,7 +41,7 @@ public class JasmAssembler {
      */
     public static JasmAssembler reading(Reader in) {
         BufferedReader buffered = (in instanceof BufferedReader br) ? br : new BufferedReader(in);
-        return new JasmAssembler(buffered);
+        return new JasmAssembler(new Source.Chars(buffered), null);
     }
 
     /**
@@ -60,80 +50,151 @@ public class JasmAssembler {
      * @return a {@code JasmAssembler}
      */
     public static JasmAssembler reading(String input) {
-        return new JasmAssembler(
-            new BufferedReader(
-                new StringReader(input)
-            )
-        );
+        return new JasmAssembler(new Source.Text(input), null);
+    }
+
+    /**
+     * Creates a {@code JasmAssembler} that reads code from a UTF-8 encoded file. The file is memory-mapped and lexed in place rather than read line by line through a {@code Reader}, which is considerably cheaper for large inputs.
+     * @param file the file to read code from
+     * @return a {@code JasmAssembler}
+     */
+    public static JasmAssembler reading(Path file) {
+        return new JasmAssembler(new Source.File(file), null);
+    }
+
+    /**
+     * Creates a {@code JasmAssembler} that assembles an already parsed {@link JasmDocument}, so that the code is not parsed again.
+     * @param document the document to assemble
+     * @return a {@code JasmAssembler}
+     */
+    public static JasmAssembler reading(JasmDocument document) {
+        return new JasmAssembler(null, document);
+    }
+
+    /**
+     * Sets whether the input should be parsed in parallel. If so, the input is split at its {@code .class}/{@code .interface}/{@code .enum} directives and each class is parsed on a separate {@link java.util.concurrent.ForkJoinPool} worker.
+     * The results (including any error messages) are the same as those of sequential parsing, but input holding many classes is parsed faster. Input from a {@code Reader} is read completely into memory first.
+     * This method must be called before {@link #assemble()}.
+     * @param parallel whether to parse in parallel (the default is {@code false})
+     * @return this {@code JasmAssembler}
+     */
+    public JasmAssembler withParallelParsing(boolean parallel) {
+        if (result != null)
+            throw new IllegalStateException("withParallelParsing() called after assemble()");
+        this.engine = engine.withParallelParsing(parallel);
+        return this;
+    }
+
+    /**
+     * Sets whether the classes of the input should be assembled in parallel, each on a separate {@link java.util.concurrent.ForkJoinPool} worker. The results are the same as those of sequential assembly, with the bytecodes in the order the classes were declared.
+     * This method must be called before {@link #assemble()}.
+     * @param parallel whether to assemble in parallel (the default is {@code false})
+     * @return this {@code JasmAssembler}
+     */
+    public JasmAssembler withParallelAssembly(boolean parallel) {
+        if (result != null)
+            throw new IllegalStateException("withParallelAssembly() called after assemble()");
+        this.engine = engine.withParallelAssembly(parallel);
+        return this;
+    }
+
+    /**
+     * Sets the backend with which class files are written (see {@link JasmEngine.Backend}).
+     * This method must be called before {@link #assemble()}.
+     * @param backend the backend (the default is {@link JasmEngine.Backend#ClassFileApi})
+     * @return this {@code JasmAssembler}
+     */
+    public JasmAssembler withBackend(JasmEngine.Backend backend) {
+        if (result != null)
+            throw new IllegalStateException("withBackend() called after assemble()");
+        this.engine = engine.withBackend(backend);
+        return this;
+    }
+
+    /**
+     * Sets the major version of the class files to write (see {@link JasmEngine#withTargetVersion(int)}).
+     * This method must be called before {@link #assemble()}.
+     * @param majorVersion the major version (the default is {@link java.lang.classfile.ClassFile#latestMajorVersion()})
+     * @return this {@code JasmAssembler}
+     * @throws IllegalArgumentException if the version is out of range
+     */
+    public JasmAssembler withTargetVersion(int majorVersion) {
+        if (result != null)
+            throw new IllegalStateException("withTargetVersion() called after assemble()");
+        this.engine = engine.withTargetVersion(majorVersion);
+        return this;
+    }
+
+    /**
+     * Sets whether to write class files without stack map frames (see {@link JasmEngine#withDropStackMaps(boolean)}).
+     * This method must be called before {@link #assemble()}.
+     * @param drop whether to drop stack map frames (the default is {@code false})
+     * @return this {@code JasmAssembler}
+     */
+    public JasmAssembler withDropStackMaps(boolean drop) {
+        if (result != null)
+            throw new IllegalStateException("withDropStackMaps() called after assemble()");
+        this.engine = engine.withDropStackMaps(drop);
+        return this;
+    }
+
+    /**
+     * Sets whether to assemble classes while the input is parsed, and how many parsed classes may wait to be assembled (see {@link JasmEngine#withStreaming(int)}).
+     * This method must be called before {@link #assemble()}.
+     * @param queueDepth the queue depth, or 0 to assemble after parsing (the default)
+     * @return this {@code JasmAssembler}
+     * @throws IllegalArgumentException if the depth is negative
+     */
+    public JasmAssembler withStreaming(int queueDepth) {
+        if (result != null)
+            throw new IllegalStateException("withStreaming() called after assemble()");
+        this.engine = engine.withStreaming(queueDepth);
+        return this;
     }
 
     /**
      * Attempts to assemble the code obtained from whatever input source was given when the {@code JasmAssembler} was created. This method should be called only once.
      * @return {@link Status#Success} if assembly succeeded, or {@link Status#Failure} if there was an error in the code
+     * @throws UncheckedIOException if the input cannot be read
      */
     public Status assemble() {
-        if (haveAssembled)
+        if (result != null)
             throw new IllegalStateException("assemble() has already been called");
-        haveAssembled = true;
-
-        // first phase: parsing
-        listener = new DefaultJasmParserListener();
-        parser = new JasmParser(in, listener);
-        parser.parse();
-        errorMessages.addAll(listener.getErrors());
-        errorMessages.sort(
-            Comparator.comparing(ErrorMessage::lineNumber).thenComparing(ErrorMessage::columnNumber)
-        );
-
-        if (!errorMessages.isEmpty())
-            return Status.Failure;
 
-        // second phase: assembling
-        boolean success = true;
-        List<Bytecode> bytecodes = new ArrayList<>();
-
-        for (var classSpec : listener.getClassSpecs()) {
-            if (classSpec.className() == null || classSpec.className().isBlank()) {
-                errorMessages.add(new ErrorMessage("Missing .class/.interface/.enum directive"));
-                success = false;
-                break;
-            }
+        result = (document != null) ? engine.assemble(document) : engine.assemble(source);
+        return result.status();
+    }
 
-            try {
-                byte[] data = ClassFile.of(
-                    ClassFile.ShortJumpsOption.FIX_SHORT_JUMPS
-                ).build(
-                    ClassDesc.ofInternalName(classSpec.className().toString()),
-                    classBuilder -> this.buildClass(listener, classSpec, classBuilder)
-                );
-                bytecodes.add(new Bytecode(classSpec.className().toString(), data));
-            } catch (AbortClassfileGenerationException _) {
-                success = false;
-            } catch (Exception ex) {
-                errorMessages.add(new ErrorMessage(ex.getMessage()));
-                success = false;
-            }
-        }
+    /**
+     * Attempts to assemble the code like {@link #assemble()}, but gives each class to a sink as soon as it has been assembled rather than keeping it for {@link #getAssembledBytecodes()}. If there is an error in a class, the classes declared before it may already have been given to the sink. This method should be called only once.
+     * @param sink where to give the classes
+     * @return {@link Status#Success} if assembly succeeded, or {@link Status#Failure} if there was an error in the code
+     * @throws UncheckedIOException if the input cannot be read, or the sink cannot take a class
+     */
+    public Status assemble(BytecodeSink sink) {
+        if (result != null)
+            throw new IllegalStateException("assemble() has already been called");
 
-        if (success) {
-            this.assembledBytecodes = bytecodes;
-            return Status.Success;
-        } else
-            return Status.Failure;
+        result = (document != null) ? engine.assemble(document, sink) : engine.assemble(source, sink);
+        sunk = true;
+        return result.status();
     }
 
     /**
      * Returns the bytecodes resulting from a previous successful call to {@link #assemble()}.
      * @return a list of the bytecodes
      * @throws IllegalArgumentException if this method is called before {@link #assemble()}, or if {@code assemble()} returned {@link Status#Failure}
+     * @throws IllegalStateException if the classes were given to a {@link BytecodeSink}
      */
     public List<Bytecode> getAssembledBytecodes() {
-        if (!haveAssembled)
+        if (result == null)
             throw new IllegalArgumentException("getAssembledBytecodes() called before assemble()");
-        else if (assembledBytecodes == null)
+        else if (!result.isSuccess())
             throw new IllegalStateException("getAssembledBytecodes() called after assembly failed");
+        else if (sunk)
+            throw new IllegalStateException("getAssembledBytecodes() called after assemble(BytecodeSink)");
 
-        return assembledBytecodes;
+        return result.bytecodes();
     }
 
     /**
@@ -142,152 +203,8 @@ public class JasmAssembler {
      * @throws IllegalStateException if this method is called before {@link #assemble()}
      */
     public List<ErrorMessage> getErrorMessages() {
-        if (!haveAssembled)
+        if (result == null)
             throw new IllegalArgumentException("getErrorMessages() called before assemble()");
-        return errorMessages;
+        return result.errorMessages();
     }
-
-    private void buildClass(DefaultJasmParserListener listener, DefaultJasmParserListener.ClassSpec spec, ClassBuilder cb) {
-        int flags = Flags.flags(spec.classFlags().stream().map(StringView::toString).toList());
-        switch (spec.classId().toString()) {
-            case "class" -> {}
-            case "interface" -> flags |= ClassFile.ACC_INTERFACE;
-            case "enum" -> flags |= ClassFile.ACC_ENUM;
-        }
-
-        if (listener.getSourceName() != null)
-            catchError(
-                () -> cb.with(SourceFileAttribute.of(listener.getSourceName().toString())),
-                "Invalid .source: "
-            );
-
-        final String superclassName = (spec.superclassName() == null) ? "java/lang/Object" : spec.superclassName().toString();
-        catchError(
-            () -> cb.withSuperclass(ClassDesc.ofInternalName(superclassName)),
-            "Invalid .super: "
-        );
-
-        final int finalFlags = flags;
-        catchError(
-            () -> cb.withFlags(finalFlags),
-            "Invalid flags: "
-        );
-
-        catchError(
-            () -> cb.withInterfaceSymbols(spec.superinterfaceNames().stream()
-                .map(StringView::toString)
-                .map(ClassDesc::ofInternalName)
-                .toList()
-            ),
-            "Invalid .interface: "
-        );
-
-
-        for (var field : spec.fields()) {
-            catchError(
-                () -> cb.withField(
-                        field.fieldName().toString(),
-                        ClassDesc.ofDescriptor(field.fieldDescriptor().toString()),
-                        Flags.flags(field.flags().stream().map(StringView::toString).toList())
-                ),
-                "Invalid .field: "
-            );
-        }
-
-        for (var method : spec.methods()) {
-            catchError(
-                () -> cb.withMethod(
-                        method.methodName().toString(),
-                        MethodTypeDesc.ofDescriptor(method.descriptor().toString()),
-                        Flags.flags(method.flags().stream().map(StringView::toString).toList()),
-                        mb -> buildMethod(method, spec.methodCodes().get(method), mb)
-                ),
-                "Invalid .method: "
-            );
-        }
-
-        if (!errorMessages.isEmpty())
-            throw new AbortClassfileGenerationException();
-    }
-
-    private void catchError(Failable f, String messagePrefix) {
-        try {
-            f.run();
-        } catch (Exception ex) {
-            errorMessages.add(new ErrorMessage(messagePrefix + ex.getMessage()));
-        }
-    }
-
-    private void buildMethod(MethodDefinition definition, MethodCode code, MethodBuilder mb) {
-        if (code != null)
-            mb.withCode(cb -> buildMethodCode(code, cb));
-    }
-
-    private void buildMethodCode(MethodCode code, CodeBuilder cb) {
-        Map<String, Label> labels = new HashMap<>();
-
-        ListIterator<CodeItem> it = code.codeItems().listIterator();
-        while (it.hasNext()) {
-            var item = it.next();
-
-            switch (item) {
-                case Instruction instr
-                    when (instr.opcode().toString().equals("lookupswitch")
-                        || instr.opcode().toString().equals("tableswitch")) -> {
-                    if (!it.hasNext()) {
-                        errorMessages.add(new ErrorMessage(
-                            String.format("Expected .table after opcode %s", instr.opcode()),
-                            instr.text(), instr.line(), ErrorMessage.UNSPECIFIC
-                        ));
-                        continue;
-                    }
-
-                    if (!(it.next() instanceof Table table)) {
-                        it.previous();
-                        errorMessages.add(new ErrorMessage(
-                            String.format("Expected .table after opcode %s", instr.opcode()),
-                            instr.text(), instr.line(), ErrorMessage.UNSPECIFIC
-                        ));
-                    } else {
-                        try {
-                            Instructions.enterTableInstruction(instr.opcode(), instr.operands(), table, labels, cb);
-                        } catch (AssemblyException ex) {
-                            String message = (ex.getCause() != null && ex.getCause().getMessage() != null)
-                                ? ex.getMessage() + "\n" + ex.getCause().getMessage()
-                                : ex.getMessage();
-                            errorMessages.add(new ErrorMessage(
-                                message, instr.text(),
-                                instr.line(), ex.getTarget().map(sv -> sv.start() + 1).orElse(ErrorMessage.UNSPECIFIC)
-                            ));
-                        }
-                    }
-                }
-
-                case Instruction instr -> {
-                    instr.labels().forEach(l ->
-                        cb.labelBinding(labels.computeIfAbsent(l.toString(), _ -> cb.newLabel()))
-                    );
-                    try {
-                        Instructions.enter(instr.opcode(), instr.operands(), labels, cb);
-                    } catch (AssemblyException ex) {
-                        String message = (ex.getCause() != null && ex.getCause().getMessage() != null)
-                            ? ex.getMessage() + "\n" + ex.getCause().getMessage()
-                            : ex.getMessage();
-                        errorMessages.add(new ErrorMessage(
-                            message, instr.text(),
-                            instr.line(), ex.getTarget().map(sv -> sv.start() + 1).orElse(ErrorMessage.UNSPECIFIC)
-                        ));
-                    }
-                }
-
-                case Table table -> {
-                    errorMessages.add(new ErrorMessage(
-                        "Table not expected",
-                        null, ErrorMessage.UNSPECIFIC, ErrorMessage.UNSPECIFIC
-                    ));
-                }
-            }
-        }
-    }
-
 }
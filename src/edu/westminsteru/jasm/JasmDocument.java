@@ -0,0 +1,380 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.JasmParser;
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The parsed form of a jasm source text that can be edited incrementally, as in an editor. A {@code JasmDocument} is immutable: {@link #edit(int, int, String)} returns a new document and leaves the old one untouched.
+ * <p>
+ * An edit that falls strictly within a {@code .code} block (i.e. leaves its {@code .code} and {@code .end code} lines alone) re-parses only that block; the code of every other method and every other class is reused as is. Any other edit, or one that changes the structure of the block (for instance by typing another {@code .end code}), re-parses the whole text.
+ * <p>
+ * The lines are kept in a {@link LineTree}, and the code blocks, and the errors outside them, are kept as marks on their first lines, so they move along with the lines when an edit inserts or removes some before them. So an edit that re-parses a block takes time in proportion to the size of the block, and to the logarithm of the size of the text, however large the text.
+ * The code and errors in the marks keep the line numbers they were parsed with, and are never rewritten: the line of a mark is found from the tree as its code or errors are read, and their line numbers are moved by as much as the mark has moved. The errors of an edited document are a view of the marks, each found in time logarithmic in the size of the text, and the class specs bring the code of a class up to date only when that class is asked for.
+ * <p>
+ * The result is always the same as parsing the edited text from scratch. A document can be assembled with {@link JasmAssembler#reading(JasmDocument)}.
+ */
+public final class JasmDocument {
+
+    /** What is kept at a line of the text */
+    private sealed interface Mark {
+        /** The errors, with the line numbers they were found with */
+        List<ErrorMessage> errors();
+
+        /** The line number of the marked line when it was parsed */
+        int parsedLine();
+    }
+
+    /**
+     * A code block, at its {@code .code} line.
+     * @param lineCount the number of lines of the block, from {@code .code} to {@code .end code}
+     * @param code the code, with the line numbers it was parsed with
+     * @param errors the errors in the block, with the line numbers they were found with
+     * @param parsedLine the line number of the {@code .code} line when the block was parsed
+     */
+    private record Block(MethodDefinition method, int lineCount, MethodCode code, List<ErrorMessage> errors, int parsedLine) implements Mark {}
+
+    /**
+     * The errors on a line outside the code blocks.
+     * @param errors the errors, with the line number they were found with
+     * @param parsedLine the line number of the line when the errors were found
+     */
+    private record LineErrors(List<ErrorMessage> errors, int parsedLine) implements Mark {}
+
+    /** The lines of the text, each including its line terminator (except the last, which has none and may be empty); if the blocks can be re-parsed on their own, marked with them and with the errors outside them */
+    private final LineTree<Mark> lines;
+    private final StringView sourceName;
+    /** The class specs from the last time the whole text was parsed; the code of their methods is superseded by that of the blocks */
+    private final List<DefaultJasmParserListener.ClassSpec> parsedSpecs;
+    /** For each class, the ordinals of the marks of its blocks (the number of marks before each); edits within blocks leave these as they are */
+    private final List<int[]> blockMarks;
+    /** Whether the lines are marked with the blocks */
+    private final boolean marked;
+
+    /** The errors and class specs, as views of the marks once first asked for */
+    private volatile List<ErrorMessage> errors;
+    private volatile List<DefaultJasmParserListener.ClassSpec> classSpecs;
+
+    private JasmDocument(
+        LineTree<Mark> lines, boolean marked, StringView sourceName, List<DefaultJasmParserListener.ClassSpec> parsedSpecs,
+        List<int[]> blockMarks, List<ErrorMessage> errors, List<DefaultJasmParserListener.ClassSpec> classSpecs
+    ) {
+        this.lines = lines;
+        this.marked = marked;
+        this.sourceName = sourceName;
+        this.parsedSpecs = parsedSpecs;
+        this.blockMarks = blockMarks;
+        this.errors = errors;
+        this.classSpecs = classSpecs;
+    }
+
+    /**
+     * Parses a text.
+     * @param text the jasm code
+     * @return the parsed document
+     */
+    public static JasmDocument parse(String text) {
+        var listener = new DefaultJasmParserListener();
+        new JasmParser(new BufferedReader(new StringReader(text)), listener).parse();
+        var lineList = splitLines(text);
+        var errors = List.copyOf(listener.getErrors());
+        var specs = List.copyOf(listener.getClassSpecs());
+
+        var blocks = listener.getCodeBlocks();
+        var marks = listener.areCodeBlocksIndependent() ? marks(blocks, errors, specs, lineList.size()) : null;
+        if (marks == null)
+            return new JasmDocument(LineTree.of(lineList, _ -> null), false, listener.getSourceName(), specs, List.of(), errors, specs);
+
+        var blockMarks = new ArrayList<List<Integer>>();
+        for (int i = 0; i < specs.size(); ++i)
+            blockMarks.add(new ArrayList<>());
+        int ordinal = 0;
+        for (var mark : marks.entrySet()) {
+            if (mark.getValue() instanceof Block) {
+                // the block mark at line index i is that of the block whose .code line number is i + 1
+                int block = blockAt(blocks, mark.getKey() + 1);
+                blockMarks.get(blocks.get(block).classIndex()).add(ordinal);
+            }
+            ++ordinal;
+        }
+        return new JasmDocument(
+            LineTree.of(lineList, marks::get, mark -> mark.errors().size()), true,
+            listener.getSourceName(), specs,
+            blockMarks.stream().map(list -> list.stream().mapToInt(Integer::intValue).toArray()).toList(),
+            errors, specs
+        );
+    }
+
+    /** Returns the marks for the blocks and errors of a text, by line index in order, or {@code null} if an error has no line in the text */
+    private static SortedMap<Integer, Mark> marks(List<DefaultJasmParserListener.CodeBlock> blocks, List<ErrorMessage> errors, List<DefaultJasmParserListener.ClassSpec> specs, int lineCount) {
+        var blockErrors = new HashMap<Integer, List<ErrorMessage>>();
+        var lineErrors = new HashMap<Integer, List<ErrorMessage>>();
+        for (var error : errors) {
+            int line = error.lineNumber();
+            if (line < 1 || line > lineCount)
+                return null;
+            int block = blockAt(blocks, line);
+            if (block >= 0)
+                blockErrors.computeIfAbsent(block, _ -> new ArrayList<>()).add(error);
+            else
+                lineErrors.computeIfAbsent(line, _ -> new ArrayList<>()).add(error);
+        }
+
+        // line numbers count from 1, and line indexes from 0
+        var marks = new TreeMap<Integer, Mark>();
+        lineErrors.forEach((line, list) -> marks.put(line - 1, new LineErrors(List.copyOf(list), line)));
+        for (int i = 0; i < blocks.size(); ++i) {
+            var block = blocks.get(i);
+            marks.put(block.codeLine() - 1, new Block(
+                block.method(), block.endLine() - block.codeLine() + 1,
+                specs.get(block.classIndex()).methodCodes().get(block.method()),
+                List.copyOf(blockErrors.getOrDefault(i, List.of())), block.codeLine()
+            ));
+        }
+        return marks;
+    }
+
+    /** Returns the index of the block holding a line, or -1 */
+    private static int blockAt(List<DefaultJasmParserListener.CodeBlock> blocks, int line) {
+        int lo = 0, hi = blocks.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            var block = blocks.get(mid);
+            if (block.endLine() < line)
+                lo = mid + 1;
+            else if (block.codeLine() > line)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Applies an edit to the text, replacing {@code length} characters at {@code offset} by {@code replacement}, and parses the result.
+     * @param offset the offset within the text at which the edit begins
+     * @param length the number of characters replaced (0 for an insertion)
+     * @param replacement the new text (empty for a deletion)
+     * @return the edited document
+     * @throws IndexOutOfBoundsException if {@code offset} and {@code length} do not describe a range of the text
+     */
+    public JasmDocument edit(int offset, int length, String replacement) {
+        int textLength = lines.length();
+        if (offset < 0 || length < 0 || offset + length > textLength)
+            throw new IndexOutOfBoundsException(String.format(
+                "Invalid edit range for text of length %d: offset=%d, length=%d", textLength, offset, length
+            ));
+
+        // the lines touched by the edit, with neighbors whose \r could join a \n to become \r\n
+        int editFirst = lines.lineOf(offset), editLast = lines.lineOf(offset + length);
+        int first = editFirst, last = editLast;
+        if (first > 0 && lines.line(first - 1).endsWith("\r"))
+            --first;
+        if (last + 1 < lines.size() && lines.line(last).endsWith("\r"))
+            ++last;
+
+        var edited = new StringBuilder();
+        lines.appendTo(edited, first, editFirst);
+        String firstLine = lines.line(editFirst), lastLine = lines.line(editLast);
+        edited.append(firstLine, 0, offset - lines.start(editFirst))
+            .append(replacement)
+            .append(lastLine, offset + length - lines.start(editLast), lastLine.length());
+        lines.appendTo(edited, editLast + 1, last + 1);
+        List<String> editedLines = splitLines(edited.toString());
+        if (last + 1 < lines.size())
+            editedLines.removeLast(); // the empty remainder after the last line's terminator
+
+        var newLines = lines.replace(first, last + 1, editedLines);
+        int codeLine = marked ? enclosingBlock(first, last) : -1;
+        if (codeLine >= 0) {
+            var result = reparseBlock(newLines, codeLine, newLines.size() - lines.size());
+            if (result != null)
+                return result;
+        }
+
+        return parse(newLines.toString());
+    }
+
+    /** Returns the index of the {@code .code} line of the block strictly containing the given lines (so its .code and .end code lines are not among them), or -1 */
+    private int enclosingBlock(int first, int last) {
+        // the lines of a block have no marks but its first
+        int codeLine = lines.previousMark(first);
+        return (codeLine >= 0 && codeLine < first && lines.mark(codeLine) instanceof Block block && last < codeLine + block.lineCount() - 1)
+            ? codeLine : -1;
+    }
+
+    /** Parses the block at the given line of the edited text on its own, returning {@code null} if the result could differ from parsing the whole text */
+    private JasmDocument reparseBlock(LineTree<Mark> newLines, int codeLine, int lineDelta) {
+        var block = (Block)lines.mark(codeLine);
+        int endLine = codeLine + block.lineCount() - 1 + lineDelta;
+
+        var blockText = new StringBuilder();
+        newLines.appendTo(blockText, codeLine, endLine + 1);
+        byte[] bytes = blockText.toString().getBytes(StandardCharsets.UTF_8);
+
+        // line numbers count from 1
+        var listener = new DefaultJasmParserListener();
+        listener.beginMethod(block.method());
+        var parser = new JasmParser(
+            MemorySegment.ofArray(bytes),
+            new JasmParser.Region(0, bytes.length, codeLine + 1),
+            listener
+        );
+        parser.parse();
+
+        var blocks = listener.getCodeBlocks();
+        if (parser.getState() == JasmParser.State.Aborted || listener.hasUnfinishedCode()
+                || !listener.areCodeBlocksIndependent()
+                || blocks.size() != 1 || blocks.getFirst().endLine() != endLine + 1)
+            return null;
+        var code = listener.getClassSpecs().getFirst().methodCodes().get(block.method());
+
+        // the blocks and errors that follow move along with their lines
+        var newBlock = new Block(block.method(), endLine - codeLine + 1, code, List.copyOf(listener.getErrors()), codeLine + 1);
+        return new JasmDocument(newLines.withMark(codeLine, newBlock), true, sourceName, parsedSpecs, blockMarks, null, null);
+    }
+
+    /** Returns an error of a mark now at the given line index, with its line number moved as far as the mark has moved since it was parsed */
+    private static ErrorMessage moved(ErrorMessage error, Mark mark, int index) {
+        int lineDelta = index + 1 - mark.parsedLine();
+        return (lineDelta == 0) ? error : new ErrorMessage(
+            error.message(), error.sourceLine(), error.lineNumber() + lineDelta, error.columnNumber()
+        );
+    }
+
+    /** The errors of the marked lines, in order, with their current line numbers */
+    private final class MarkedErrors extends AbstractList<ErrorMessage> {
+        @Override
+        public ErrorMessage get(int index) {
+            Objects.checkIndex(index, size());
+            var item = lines.item(index);
+            return moved(item.mark().errors().get(item.item()), item.mark(), item.index());
+        }
+
+        @Override
+        public int size() {
+            return lines.itemCount();
+        }
+    }
+
+    /** The class specs with the code of the marked blocks, with their current line numbers; each class is worked out when first asked for, and one whose code is unchanged is reused as is */
+    private final class MarkedClassSpecs extends AbstractList<DefaultJasmParserListener.ClassSpec> {
+        private final DefaultJasmParserListener.ClassSpec[] specs = new DefaultJasmParserListener.ClassSpec[parsedSpecs.size()];
+
+        @Override
+        public DefaultJasmParserListener.ClassSpec get(int index) {
+            // a spec is immutable, so one worked out twice by racing threads is as good as the other
+            var spec = specs[index];
+            if (spec == null)
+                specs[index] = spec = markedClassSpec(index);
+            return spec;
+        }
+
+        @Override
+        public int size() {
+            return specs.length;
+        }
+    }
+
+    private DefaultJasmParserListener.ClassSpec markedClassSpec(int classIndex) {
+        var spec = parsedSpecs.get(classIndex);
+        Map<MethodDefinition, MethodCode> codes = null;
+        for (int ordinal : blockMarks.get(classIndex)) {
+            int index = lines.markIndex(ordinal);
+            var block = (Block)lines.mark(index);
+            var code = block.code().withLineOffset(index + 1 - block.parsedLine());
+            if (code != spec.methodCodes().get(block.method())) {
+                if (codes == null)
+                    codes = new HashMap<>(spec.methodCodes());
+                codes.put(block.method(), code);
+            }
+        }
+        return (codes == null) ? spec : new DefaultJasmParserListener.ClassSpec(
+            spec.classId(), spec.className(), spec.superclassName(), spec.superinterfaceNames(),
+            spec.classFlags(), spec.fields(), spec.methods(), codes
+        );
+    }
+
+    /** Splits text after each line terminator (\n, \r, or \r\n, as in {@link BufferedReader}), so that the last piece, possibly empty, has no terminator */
+    private static List<String> splitLines(String text) {
+        var lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+                ++i;
+            if (c == '\n' || c == '\r') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        lines.add(text.substring(start));
+        return lines;
+    }
+
+    /**
+     * Returns the text of the document.
+     * @return the text
+     */
+    public String getText() {
+        return lines.toString();
+    }
+
+    /**
+     * Returns the errors found while parsing the text, in the order in which they occur.
+     * @return the errors (empty if there were none)
+     */
+    public List<ErrorMessage> getErrors() {
+        var errors = this.errors;
+        if (errors == null)
+            this.errors = errors = new MarkedErrors();
+        return errors;
+    }
+
+    /**
+     * Returns the errors on some of the lines of the text, in the order in which they occur. Unless the whole text was re-parsed, this takes time in proportion to the number of errors near the lines, and to the logarithm of the size of the text.
+     * @param firstLine the line number of the first line (counting from 1)
+     * @param lastLine the line number of the last line
+     * @return the errors on the lines from {@code firstLine} to {@code lastLine} (empty if there were none)
+     */
+    public List<ErrorMessage> getErrors(int firstLine, int lastLine) {
+        // the errors of a document that was parsed as a whole are not in the order of the marks
+        var errors = marked ? new MarkedErrors() : getErrors();
+        int from = 0, to = errors.size();
+        if (marked && firstLine <= lastLine) {
+            // line indexes count from 0; the errors of a block are kept at its .code line, which may come before the lines
+            int first = Math.clamp(firstLine - 1, 0, lines.size()), last = Math.clamp(lastLine - 1, -1, lines.size() - 1);
+            int codeLine = lines.previousMark(first);
+            if (codeLine >= 0 && lines.mark(codeLine) instanceof Block block && codeLine + block.lineCount() > first)
+                first = codeLine;
+            from = lines.itemsBefore(first);
+            to = lines.itemsBefore(last + 1);
+        }
+        return errors.subList(from, Math.max(from, to)).stream()
+            .filter(error -> error.lineNumber() >= firstLine && error.lineNumber() <= lastLine)
+            .toList();
+    }
+
+    StringView getSourceName() {
+        return sourceName;
+    }
+
+    List<DefaultJasmParserListener.ClassSpec> getClassSpecs() {
+        var classSpecs = this.classSpecs;
+        if (classSpecs == null)
+            this.classSpecs = classSpecs = new MarkedClassSpecs();
+        return classSpecs;
+    }
+}
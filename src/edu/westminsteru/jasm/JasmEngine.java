@@ -0,0 +1,523 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.JasmParser;
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.classfile.ClassFile;
+import java.lang.foreign.Arena;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A reusable assembler for jasm code. A {@code JasmEngine} is immutable and safe to share between threads: every call to one of the {@code assemble} methods works on its own state and returns an immutable {@link AssemblyResult}, so one long-lived engine can run any number of assemblies at the same time.
+ * <pre>{@code
+ * var engine = JasmEngine.create().withParallelParsing(true).withParallelAssembly(true);
+ * var result = engine.assemble(Path.of("Hello.jasm"));
+ * if (result.isSuccess())
+ *     result.bytecodes().forEach(...);
+ * else
+ *     result.errorMessages().forEach(...);
+ * }</pre>
+ * Each {@code assemble} method also has a form that gives the classes to a {@link BytecodeSink} as soon as they have been assembled, rather than collecting them all in the result, e.g. to save them in a directory with {@link BytecodeSink#toDirectory(Path)}.
+ * The opcode, encoder, and symbol tables that assembly relies on are shared by all engines.
+ * <p>
+ * An assembly can be cancelled by interrupting the thread that runs it: it stops with a {@link java.util.concurrent.CancellationException} when it next finishes parsing a class, or within a few hundred instructions while assembling one, and the thread stays interrupted.
+ * <p>
+ * When the code of a class needs stack map frames, the class hierarchy they depend on is resolved from the classes being assembled and from an index of the classes of the running JDK, which is built the first time it is needed and kept in {@code ~/.cache/jasm}; no classes are loaded to work out the frames.
+ */
+public final class JasmEngine {
+
+    /**
+     * The ways an engine can write class files.
+     */
+    public enum Backend {
+        /** Build every class with the {@code java.lang.classfile} API */
+        ClassFileApi,
+        /** Write simple classes (plain fields, and methods whose code has no labels, branches, or switches) straight into a byte array, and build the others with the {@code java.lang.classfile} API. The direct writer type-checks the code as it goes and leaves any class it cannot be sure verifies to the API, so the results are the same either way. */
+        Direct
+    }
+
+    private static final JasmEngine DEFAULT = new JasmEngine(false, false, null, Backend.ClassFileApi, ClassFile.latestMajorVersion(), false, 0);
+
+    private final boolean parallelParsing;
+    private final boolean parallelAssembly;
+    /** The executor for parallel assembly, or {@code null} for the common {@link ForkJoinPool} */
+    private final Executor executor;
+    private final Backend backend;
+    private final int targetVersion;
+    private final boolean dropStackMaps;
+    /** The depth of the queue of classes waiting to be assembled while parsing, or 0 if classes are assembled after parsing */
+    private final int streamingDepth;
+    private final ClassFile classFile;
+    /** The context for classes that are built without stack map generation (those with {@code .stack} frames, whose other methods are then given generated frames, or all of them if stack maps are dropped or the target is older than Java 7) */
+    private final ClassFile noStackMapsClassFile;
+
+    private JasmEngine(boolean parallelParsing, boolean parallelAssembly, Executor executor, Backend backend, int targetVersion, boolean dropStackMaps, int streamingDepth) {
+        this.parallelParsing = parallelParsing;
+        this.parallelAssembly = parallelAssembly;
+        this.executor = executor;
+        this.backend = backend;
+        this.targetVersion = targetVersion;
+        this.dropStackMaps = dropStackMaps;
+        this.streamingDepth = streamingDepth;
+        this.noStackMapsClassFile = ClassFile.of(ClassFile.ShortJumpsOption.FIX_SHORT_JUMPS, ClassFile.StackMapsOption.DROP_STACK_MAPS);
+        this.classFile = generatesStackMaps() ? ClassFile.of(ClassFile.ShortJumpsOption.FIX_SHORT_JUMPS) : noStackMapsClassFile;
+    }
+
+    /** Returns whether stack map frames are computed for code without {@code .stack} frames: only for Java 7 and later, since older JVMs can verify code without them, and not if they are dropped */
+    private boolean generatesStackMaps() {
+        return !dropStackMaps && targetVersion >= ClassFile.JAVA_7_VERSION;
+    }
+
+    /**
+     * Returns an engine with the default settings.
+     * @return a {@code JasmEngine}
+     */
+    public static JasmEngine create() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns an engine like this one that parses its input in parallel or not. If so, the input is split at its {@code .class}/{@code .interface}/{@code .enum} directives and each class is parsed on a separate {@link java.util.concurrent.ForkJoinPool} worker.
+     * The results (including any error messages) are the same as those of sequential parsing, but input holding many classes is parsed faster. Input from a {@code Reader} is read completely into memory first.
+     * @param parallel whether to parse in parallel (the default is {@code false})
+     * @return a {@code JasmEngine} with the given setting
+     */
+    public JasmEngine withParallelParsing(boolean parallel) {
+        return (parallel == parallelParsing) ? this : new JasmEngine(parallel, parallelAssembly, executor, backend, targetVersion, dropStackMaps, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that assembles the classes of its input in parallel or not. If so, each class is built as a separate task on the {@linkplain #withExecutor(Executor) executor}, and the operands of the methods of large classes are parsed and resolved in parallel before the code is emitted.
+     * The results are the same as those of sequential assembly: the bytecodes are byte-for-byte identical and in the order the classes were declared, and the errors are in the same order. Input holding many classes is assembled faster.
+     * @param parallel whether to assemble in parallel (the default is {@code false})
+     * @return a {@code JasmEngine} with the given setting
+     */
+    public JasmEngine withParallelAssembly(boolean parallel) {
+        return (parallel == parallelAssembly) ? this : new JasmEngine(parallelParsing, parallel, executor, backend, targetVersion, dropStackMaps, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that runs parallel assembly (see {@link #withParallelAssembly(boolean)}) on the given executor.
+     * @param executor the executor, or {@code null} for the common {@link ForkJoinPool} (the default)
+     * @return a {@code JasmEngine} with the given executor
+     */
+    public JasmEngine withExecutor(Executor executor) {
+        return (executor == this.executor) ? this : new JasmEngine(parallelParsing, parallelAssembly, executor, backend, targetVersion, dropStackMaps, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that writes class files with the given backend.
+     * @param backend the backend (the default is {@link Backend#ClassFileApi})
+     * @return a {@code JasmEngine} with the given backend
+     */
+    public JasmEngine withBackend(Backend backend) {
+        Objects.requireNonNull(backend);
+        return (backend == this.backend) ? this : new JasmEngine(parallelParsing, parallelAssembly, executor, backend, targetVersion, dropStackMaps, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that writes class files of the given major version. The version only sets the header of the class files; the instructions are not checked against it.
+     * Stack map frames are generated (unless {@linkplain #withDropStackMaps(boolean) dropped}) only for version 51 (Java 7) and later, which cannot be verified without them; class files for Java 6 and older are written without a {@code StackMapTable} (apart from frames given by {@code .stack} directives) and assembled without that cost, since their verifier infers the types itself.
+     * @param majorVersion the major version, from 45 (Java 1.1) up to {@link ClassFile#latestMajorVersion()} (the default)
+     * @return a {@code JasmEngine} with the given target version
+     * @throws IllegalArgumentException if the version is out of range
+     */
+    public JasmEngine withTargetVersion(int majorVersion) {
+        if (majorVersion < ClassFile.JAVA_1_VERSION || majorVersion > ClassFile.latestMajorVersion())
+            throw new IllegalArgumentException("Unsupported class file version: " + majorVersion);
+        return (majorVersion == targetVersion) ? this : new JasmEngine(parallelParsing, parallelAssembly, executor, backend, majorVersion, dropStackMaps, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that writes class files without stack map frames or not. Computing frames is the most expensive part of building code with branches, but class files without them only load with the split verifier turned off (or with verification turned off altogether).
+     * Frames given by {@code .stack} directives are written either way; a method with any of them is always built without computing frames.
+     * @param drop whether to drop stack map frames (the default is {@code false})
+     * @return a {@code JasmEngine} with the given setting
+     */
+    public JasmEngine withDropStackMaps(boolean drop) {
+        return (drop == dropStackMaps) ? this : new JasmEngine(parallelParsing, parallelAssembly, executor, backend, targetVersion, drop, streamingDepth);
+    }
+
+    /**
+     * Returns an engine like this one that assembles classes while it parses its input or not. If so, each class is handed over to be assembled as soon as it has been parsed, through a queue of the given depth, so that parsing and assembly overlap and only the bytecode of a class is kept once it has been assembled.
+     * When the queue is full, parsing waits for assembly to catch up, so the memory taken by input holding many classes depends on the queue depth rather than on the size of the input. Classes are assembled one at a time, on the {@linkplain #withExecutor(Executor) executor}, or several at a time with {@linkplain #withParallelAssembly(boolean) parallel assembly}.
+     * The results are the same as those of assembling after parsing, except that the constant pool of a class declared before the {@code .source} directive may be laid out differently.
+     * Classes are given to a {@link BytecodeSink} while the input is parsed only once its {@code .source} directive has been parsed, since until then the classes lack their {@code SourceFile} attribute; the classes of an input without one are all given to the sink at the end, so the directive should come before the first class.
+     * Streaming does not apply to {@linkplain #withParallelParsing(boolean) parallel parsing}, which needs the whole input anyway, or to {@link JasmDocument}s.
+     * @param queueDepth how many parsed classes may wait to be assembled, or 0 to assemble after parsing (the default)
+     * @return a {@code JasmEngine} with the given setting
+     * @throws IllegalArgumentException if the depth is negative
+     */
+    public JasmEngine withStreaming(int queueDepth) {
+        if (queueDepth < 0)
+            throw new IllegalArgumentException("Negative queue depth: " + queueDepth);
+        return (queueDepth == streamingDepth) ? this : new JasmEngine(parallelParsing, parallelAssembly, executor, backend, targetVersion, dropStackMaps, queueDepth);
+    }
+
+    /**
+     * Returns whether this engine parses its input in parallel.
+     * @return whether parsing is parallel
+     */
+    public boolean isParallelParsing() {
+        return parallelParsing;
+    }
+
+    /**
+     * Returns whether this engine assembles classes in parallel.
+     * @return whether assembly is parallel
+     */
+    public boolean isParallelAssembly() {
+        return parallelAssembly;
+    }
+
+    /**
+     * Returns the backend with which this engine writes class files.
+     * @return the backend
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the major version of the class files this engine writes.
+     * @return the major version
+     */
+    public int getTargetVersion() {
+        return targetVersion;
+    }
+
+    /**
+     * Returns whether this engine writes class files without stack map frames.
+     * @return whether frames are dropped
+     */
+    public boolean isDropStackMaps() {
+        return dropStackMaps;
+    }
+
+    /**
+     * Returns the depth of the queue of classes waiting to be assembled while this engine parses its input.
+     * @return the queue depth, or 0 if classes are assembled after parsing
+     */
+    public int getStreamingDepth() {
+        return streamingDepth;
+    }
+
+    /**
+     * Assembles code from a {@code String}.
+     * @param input the code
+     * @return the result of assembly
+     */
+    public AssemblyResult assemble(String input) {
+        return assemble(new Source.Text(input));
+    }
+
+    /**
+     * Assembles code from a {@code String}, giving the classes to a sink as they are assembled.
+     * @param input the code
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     * @throws UncheckedIOException if the sink cannot take a class
+     */
+    public AssemblyResult assemble(String input, BytecodeSink sink) {
+        return assemble(new Source.Text(input), sink);
+    }
+
+    /**
+     * Assembles code from a {@code Reader}, which is read to the end but not closed.
+     * @param in the reader to read code from
+     * @return the result of assembly
+     * @throws UncheckedIOException if the input cannot be read
+     */
+    public AssemblyResult assemble(Reader in) {
+        return assemble(new Source.Chars((in instanceof BufferedReader br) ? br : new BufferedReader(in)));
+    }
+
+    /**
+     * Assembles code from a {@code Reader}, which is read to the end but not closed, giving the classes to a sink as they are assembled.
+     * @param in the reader to read code from
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     * @throws UncheckedIOException if the input cannot be read, or the sink cannot take a class
+     */
+    public AssemblyResult assemble(Reader in, BytecodeSink sink) {
+        return assemble(new Source.Chars((in instanceof BufferedReader br) ? br : new BufferedReader(in)), sink);
+    }
+
+    /**
+     * Assembles code from a UTF-8 encoded file. The file is memory-mapped and lexed in place.
+     * @param file the file to read code from
+     * @return the result of assembly
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public AssemblyResult assemble(Path file) {
+        return assemble(new Source.File(file));
+    }
+
+    /**
+     * Assembles code from a UTF-8 encoded file, giving the classes to a sink as they are assembled. The file is memory-mapped and lexed in place.
+     * @param file the file to read code from
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     * @throws UncheckedIOException if the file cannot be read, or the sink cannot take a class
+     */
+    public AssemblyResult assemble(Path file, BytecodeSink sink) {
+        return assemble(new Source.File(file), sink);
+    }
+
+    /**
+     * Assembles an already parsed {@link JasmDocument}, so that the code is not parsed again.
+     * @param document the document
+     * @return the result of assembly
+     */
+    public AssemblyResult assemble(JasmDocument document) {
+        return collect(sink -> assemble(document, sink));
+    }
+
+    /**
+     * Assembles an already parsed {@link JasmDocument}, giving the classes to a sink as they are assembled.
+     * @param document the document
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     * @throws UncheckedIOException if the sink cannot take a class
+     */
+    public AssemblyResult assemble(JasmDocument document, BytecodeSink sink) {
+        return assemble(new DefaultJasmParserListener(
+            document.getSourceName(), document.getErrors(), document.getClassSpecs()
+        ), sink);
+    }
+
+    AssemblyResult assemble(Source source) {
+        return collect(sink -> assemble(source, sink));
+    }
+
+    /** Runs an assembly with a sink that keeps the classes, and returns them in the result */
+    private static AssemblyResult collect(Function<BytecodeSink, AssemblyResult> assembly) {
+        var sink = BytecodeSink.inMemory();
+        var result = assembly.apply(sink);
+        return result.isSuccess() ? new AssemblyResult(Status.Success, sink.getBytecodes(), List.of()) : result;
+    }
+
+    AssemblyResult assemble(Source source, BytecodeSink sink) {
+        DefaultJasmParserListener listener;
+        if (streamingDepth > 0 && !parallelParsing)
+            return assembleStreaming(source, sink);
+        else if (parallelParsing) {
+            try (var arena = Arena.ofShared()) {
+                listener = ParallelParse.parse(source.bytes(arena));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        } else {
+            listener = new CancellableListener();
+            source.parser(listener).parse();
+        }
+        return assemble(listener, sink);
+    }
+
+    /** A listener that stops parsing, by throwing a {@link CancellationException} at the next class directive or the end of the input, if the thread has been interrupted */
+    private static final class CancellableListener extends DefaultJasmParserListener {
+
+        @Override
+        public void classDirective(JasmParser parser, StringView classId, List<StringView> flags, StringView className) {
+            checkInterrupted();
+            super.classDirective(parser, classId, flags, className);
+        }
+
+        @Override
+        public void endOfInput(JasmParser parser) {
+            checkInterrupted();
+            super.endOfInput(parser);
+        }
+    }
+
+    /**
+     * Assembles the classes of parsed code, unless there were errors while parsing.
+     * @param listener the listener that received the parsed code
+     * @param sink where to give the classes
+     * @return the result of assembly, without the classes
+     */
+    AssemblyResult assemble(DefaultJasmParserListener listener, BytecodeSink sink) {
+        var errorMessages = new ArrayList<>(listener.getErrors());
+        errorMessages.sort(
+            Comparator.comparing(ErrorMessage::lineNumber).thenComparing(ErrorMessage::columnNumber)
+        );
+        if (!errorMessages.isEmpty())
+            return new AssemblyResult(Status.Failure, List.of(), errorMessages);
+
+        // classes after one with no name are not assembled
+        var classSpecs = listener.getClassSpecs();
+        int count = 0;
+        while (count < classSpecs.size()
+                && classSpecs.get(count).className() != null && !classSpecs.get(count).className().isBlank())
+            ++count;
+
+        // stack maps are generated with the hierarchy of these very classes
+        var classFile = generatesStackMaps()
+            ? this.classFile.withOptions(ClassFile.ClassHierarchyResolverOption.of(ClassHierarchy.of(classSpecs)))
+            : this.classFile;
+        var caller = Thread.currentThread();
+        var assemblers = new ClassAssembler[count];
+        for (int i = 0; i < count; ++i)
+            assemblers[i] = new ClassAssembler(
+                classFile, noStackMapsClassFile, backend, targetVersion, listener.getSourceName(), classSpecs.get(i),
+                parallelAssembly ? executor() : null, caller
+            );
+        boolean assembled = (parallelAssembly && count > 1) ? assembleInParallel(assemblers, sink) : assembleInOrder(assemblers, sink);
+        return result(errorMessages, assembled, count, i -> assemblers[i].getErrorMessages(), count < classSpecs.size());
+    }
+
+    private AssemblyResult assembleStreaming(Source source, BytecodeSink sink) {
+        // stack maps are generated with the hierarchy of the classes parsed so far, until it is complete
+        var hierarchy = ClassHierarchy.growing();
+        var classFile = generatesStackMaps()
+            ? this.classFile.withOptions(ClassFile.ClassHierarchyResolverOption.of(hierarchy.resolver()))
+            : this.classFile;
+        // classes are assembled on other threads, but are cancelled along with the parsing thread
+        var caller = Thread.currentThread();
+        var stream = new StreamingAssembly(
+            streamingDepth,
+            parallelAssembly ? Math.min(streamingDepth, Runtime.getRuntime().availableProcessors()) : 1,
+            executor(),
+            (spec, sourceName) -> new ClassAssembler(
+                classFile, noStackMapsClassFile, backend, targetVersion, sourceName, spec,
+                parallelAssembly ? executor() : null, caller
+            ),
+            sink
+        );
+
+        var listener = new DefaultJasmParserListener();
+        listener.streamClassSpecs(spec -> {
+            hierarchy.add(spec);
+            stream.submit(spec, listener.getSourceName());
+        });
+        try {
+            source.parser(listener).parse();
+        } catch (RuntimeException | Error ex) {
+            stream.cancel();
+            throw ex;
+        }
+        hierarchy.complete();
+
+        var errorMessages = new ArrayList<>(listener.getErrors());
+        errorMessages.sort(
+            Comparator.comparing(ErrorMessage::lineNumber).thenComparing(ErrorMessage::columnNumber)
+        );
+        if (!errorMessages.isEmpty()) {
+            stream.cancel();
+            return new AssemblyResult(Status.Failure, List.of(), errorMessages);
+        }
+
+        boolean assembled = stream.finish(listener.getSourceName());
+        return result(errorMessages, assembled, stream.getClassCount(), stream::getErrorMessages, stream.isMissingClass());
+    }
+
+    /**
+     * Collects the results of assembling classes, whose bytecode has been given to a sink.
+     * @param errorMessages the errors so far
+     * @param assembled whether every class was assembled
+     * @param classCount how many classes there were
+     * @param classErrors the errors of each class, by index
+     * @param missingClass whether the classes were followed by one without a name, which was not assembled
+     * @return the result of assembly, without the classes
+     */
+    private static AssemblyResult result(List<ErrorMessage> errorMessages, boolean assembled, int classCount, IntFunction<List<ErrorMessage>> classErrors, boolean missingClass) {
+        for (int i = 0; i < classCount; ++i)
+            errorMessages.addAll(classErrors.apply(i));
+        if (missingClass) {
+            errorMessages.add(new ErrorMessage("Missing .class/.interface/.enum directive"));
+            assembled = false;
+        }
+
+        return assembled
+            ? new AssemblyResult(Status.Success, List.of(), List.of())
+            : new AssemblyResult(Status.Failure, List.of(), errorMessages);
+    }
+
+    private static boolean assembleInOrder(ClassAssembler[] assemblers, BytecodeSink sink) {
+        boolean assembled = true;
+        for (var assembler : assemblers) {
+            checkInterrupted();
+            var bytecode = assembler.assemble();
+            if (bytecode == null)
+                assembled = false;
+            else if (assembled)
+                deliver(bytecode, sink);
+        }
+        return assembled;
+    }
+
+    private static void deliver(Bytecode bytecode, BytecodeSink sink) {
+        try {
+            sink.accept(bytecode);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Stops assembly if the current thread has been interrupted, without clearing its interrupt status.
+     * @throws CancellationException if the thread has been interrupted
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Assembly was interrupted");
+    }
+
+    private Executor executor() {
+        return (executor == null) ? ForkJoinPool.commonPool() : executor;
+    }
+
+    private boolean assembleInParallel(ClassAssembler[] assemblers, BytecodeSink sink) {
+        var pool = executor();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Bytecode>[] futures = new CompletableFuture[assemblers.length];
+        for (int i = 0; i < assemblers.length; ++i)
+            futures[i] = CompletableFuture.supplyAsync(assemblers[i]::assemble, pool);
+
+        // the classes are given to the sink in order while the later ones are still being assembled
+        boolean assembled = true, finished = false;
+        try {
+            for (int i = 0; i < assemblers.length; ++i) {
+                var bytecode = futures[i].join();
+                futures[i] = null;
+                if (bytecode == null)
+                    assembled = false;
+                else if (assembled)
+                    deliver(bytecode, sink);
+            }
+            finished = true;
+        } catch (CompletionException ex) {
+            // ClassAssembler reports errors in the code itself, so this is a cancellation or a bug; rethrow it as is
+            if (ex.getCause() instanceof RuntimeException re)
+                throw re;
+            else if (ex.getCause() instanceof Error e)
+                throw e;
+            throw ex;
+        } finally {
+            if (!finished) {
+                // nobody will wait for the classes that are left, so they are not started, and those being assembled stop
+                for (int i = 0; i < assemblers.length; ++i)
+                    if (futures[i] != null) {
+                        futures[i].cancel(false);
+                        assemblers[i].cancel();
+                    }
+            }
+        }
+        return assembled;
+    }
+}
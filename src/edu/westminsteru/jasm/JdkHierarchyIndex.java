@@ -0,0 +1,329 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.JasmParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.constant.ClassDesc;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * An index of the class hierarchy of the running JDK: the superclass of each class in its run-time image, and whether the class is an interface. This is all that stack map generation needs to know about a class, so with the index, resolving a JDK class neither loads it nor parses its class file.
+ * The index is built once, by reading just the headers of the class files in {@code jrt:/}, and saved to a file that later runs memory-map. The file records the version of the JDK it was built from, and is rebuilt when that does not match.
+ * <p>
+ * The file is laid out as follows (all numbers big-endian): a header of the magic number, the format number, and the JDK version (a length-prefixed UTF-8 string); the number of classes; a 12-byte entry for each class, sorted by name, with the offsets of its name and its superclass name (or -1 if it has none) and its flags; and finally the names, each a length-prefixed UTF-8 string. A class is looked up by a binary search of the entries, comparing names in place.
+ */
+final class JdkHierarchyIndex implements ClassHierarchyResolver {
+
+    private static final int MAGIC = 0x4a484958; // "JHIX"
+    private static final int FORMAT = 1;
+    private static final int ENTRY_SIZE = 12;
+    private static final int INTERFACE = 1;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private static final class Holder {
+        private static final JdkHierarchyIndex SHARED = loadShared();
+
+        private static JdkHierarchyIndex loadShared() {
+            try {
+                return load(defaultFile());
+            } catch (IOException | UncheckedIOException | SecurityException _) {
+                return null; // no run-time image to index (or no access to it): classes are resolved some other way
+            }
+        }
+    }
+
+    /** A class read from the run-time image */
+    private record Entry(String name, String superclassName, int flags) {}
+
+    private final MemorySegment data;
+    private final int count;
+    private final long entries, strings;
+
+    private JdkHierarchyIndex(MemorySegment data, int count, long entries) {
+        this.data = data;
+        this.count = count;
+        this.entries = entries;
+        this.strings = entries + (long)count * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns a resolver that looks classes up in the shared index of the running JDK, which is loaded (and if need be, built) in the {@linkplain #defaultFile() default file} the first time a class is looked up. If the index cannot be built, the resolver resolves no classes.
+     * @return the resolver
+     */
+    static ClassHierarchyResolver shared() {
+        return classDesc -> (Holder.SHARED == null) ? null : Holder.SHARED.getClassInfo(classDesc);
+    }
+
+    /**
+     * Returns the file in which the shared index is kept: a file named for the JDK version in {@code .cache/jasm} under the user's home directory.
+     * @return the file
+     */
+    static Path defaultFile() {
+        String version = Runtime.version().toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        return Path.of(System.getProperty("user.home"), ".cache", "jasm", "jdk-" + version + ".idx");
+    }
+
+    /**
+     * Memory-maps an index of the running JDK from a file, first building it (and saving it to the file) if the file does not exist or holds an index of another JDK. If the index cannot be saved, it is kept in memory instead.
+     * @param file the file
+     * @return the index
+     * @throws IOException if the run-time image cannot be read
+     */
+    static JdkHierarchyIndex load(Path file) throws IOException {
+        if (Files.isRegularFile(file)) {
+            var index = open(JasmParser.map(file, Arena.ofAuto()));
+            if (index != null)
+                return index;
+        }
+
+        byte[] bytes = build();
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            var temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temp, bytes);
+            // another process may be building the same index, but both write the same content
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Objects.requireNonNull(open(JasmParser.map(file, Arena.ofAuto())));
+        } catch (IOException | SecurityException _) {
+            return open(MemorySegment.ofArray(bytes));
+        }
+    }
+
+    /** Returns the index held in a segment, or {@code null} if it is not an index of the running JDK */
+    private static JdkHierarchyIndex open(MemorySegment data) {
+        byte[] version = Runtime.version().toString().getBytes(StandardCharsets.UTF_8);
+        long entries = 10 + version.length + 4;
+        if (data.byteSize() < entries
+                || data.get(INT, 0) != MAGIC || data.get(INT, 4) != FORMAT
+                || Short.toUnsignedInt(data.get(SHORT, 8)) != version.length
+                || MemorySegment.mismatch(data, 10, 10 + version.length, MemorySegment.ofArray(version), 0, version.length) >= 0)
+            return null;
+        int count = data.get(INT, entries - 4);
+        if (count < 0 || data.byteSize() < entries + (long)count * ENTRY_SIZE)
+            return null;
+        return new JdkHierarchyIndex(data, count, entries);
+    }
+
+    /**
+     * Builds an index of the running JDK.
+     * @return the content of the index file
+     * @throws IOException if the run-time image cannot be read
+     */
+    static byte[] build() throws IOException {
+        var jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(jrt.getPath("/modules"))) {
+            classFiles = files
+                .filter(p -> p.toString().endsWith(".class") && !p.getFileName().toString().equals("module-info.class"))
+                .toList();
+        }
+        var classes = classFiles.parallelStream()
+            .map(p -> {
+                try {
+                    return readHeader(Files.readAllBytes(p));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            })
+            .filter(Objects::nonNull)
+            .toArray(Entry[]::new);
+        return write(classes);
+    }
+
+    private static byte[] write(Entry[] classes) throws IOException {
+        var names = new byte[classes.length][];
+        for (int i = 0; i < classes.length; ++i)
+            names[i] = classes[i].name().getBytes(StandardCharsets.UTF_8);
+        var order = new Integer[classes.length];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(names[a], names[b]));
+
+        var stringOffsets = new HashMap<String, Integer>();
+        var stringBytes = new ByteArrayOutputStream(classes.length * 32);
+        var stringOut = new DataOutputStream(stringBytes);
+        var out = new ByteArrayOutputStream(classes.length * (ENTRY_SIZE + 32));
+        var header = new DataOutputStream(out);
+        byte[] version = Runtime.version().toString().getBytes(StandardCharsets.UTF_8);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.writeShort(version.length);
+        header.write(version);
+        header.writeInt(classes.length);
+        for (int i : order) {
+            var entry = classes[i];
+            header.writeInt(string(entry.name(), stringOffsets, stringOut));
+            header.writeInt((entry.superclassName() == null) ? -1 : string(entry.superclassName(), stringOffsets, stringOut));
+            header.writeInt(entry.flags());
+        }
+        stringBytes.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static int string(String s, HashMap<String, Integer> offsets, DataOutputStream out) throws IOException {
+        var offset = offsets.get(s);
+        if (offset == null) {
+            offset = out.size();
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            offsets.put(s, offset);
+        }
+        return offset;
+    }
+
+    /** Reads the name, superclass, and flags from the header of a class file, or returns {@code null} if it is malformed */
+    private static Entry readHeader(byte[] classFile) {
+        try {
+            var buffer = ByteBuffer.wrap(classFile);
+            if (buffer.getInt() != 0xcafebabe)
+                return null;
+            buffer.getInt(); // minor and major version
+            int poolSize = Short.toUnsignedInt(buffer.getShort());
+            var utf8s = new int[poolSize];
+            var classNames = new int[poolSize];
+            for (int i = 1; i < poolSize; ++i) {
+                int tag = buffer.get();
+                int skip = switch (tag) {
+                    case 1 -> {
+                        utf8s[i] = buffer.position();
+                        yield 2 + Short.toUnsignedInt(buffer.getShort(buffer.position()));
+                    }
+                    case 7 -> {
+                        classNames[i] = Short.toUnsignedInt(buffer.getShort(buffer.position()));
+                        yield 2;
+                    }
+                    case 8, 16, 19, 20 -> 2;
+                    case 15 -> 3;
+                    case 3, 4, 9, 10, 11, 12, 17, 18 -> 4;
+                    case 5, 6 -> {
+                        ++i; // takes up two entries
+                        yield 8;
+                    }
+                    default -> -1;
+                };
+                if (skip < 0)
+                    return null;
+                buffer.position(buffer.position() + skip);
+            }
+
+            int flags = Short.toUnsignedInt(buffer.getShort());
+            int thisClass = Short.toUnsignedInt(buffer.getShort());
+            int superClass = Short.toUnsignedInt(buffer.getShort());
+            return new Entry(
+                utf8(classFile, utf8s[classNames[thisClass]]),
+                (superClass == 0) ? null : utf8(classFile, utf8s[classNames[superClass]]),
+                ((flags & ClassFile.ACC_INTERFACE) != 0) ? INTERFACE : 0
+            );
+        } catch (RuntimeException | IOException _) {
+            return null;
+        }
+    }
+
+    private static String utf8(byte[] classFile, int offset) throws IOException {
+        int length = 2 + ((classFile[offset] & 0xff) << 8 | (classFile[offset + 1] & 0xff));
+        return new DataInputStream(new ByteArrayInputStream(classFile, offset, length)).readUTF();
+    }
+
+    /**
+     * Returns the number of classes in this index.
+     * @return the number of classes
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Finds a class.
+     * @param internalName the internal name of the class (such as {@code java/lang/String})
+     * @return the index of the class's entry, or -1 if the class is not in the index
+     */
+    int find(String internalName) {
+        var key = MemorySegment.ofArray(internalName.getBytes(StandardCharsets.UTF_8));
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long name = strings + data.get(INT, entries + (long)mid * ENTRY_SIZE);
+            long start = name + 2, end = start + Short.toUnsignedInt(data.get(SHORT, name));
+            long mismatch = MemorySegment.mismatch(data, start, end, key, 0, key.byteSize());
+            if (mismatch < 0)
+                return mid;
+
+            int cmp;
+            if (mismatch == end - start)
+                cmp = -1; // the name is a prefix of the key
+            else if (mismatch == key.byteSize())
+                cmp = 1;
+            else
+                cmp = Byte.toUnsignedInt(data.get(ValueLayout.JAVA_BYTE, start + mismatch)) - Byte.toUnsignedInt(key.get(ValueLayout.JAVA_BYTE, mismatch));
+
+            if (cmp < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether a class is an interface.
+     * @param entry the index of the class's entry
+     * @return whether it is an interface
+     */
+    boolean isInterface(int entry) {
+        return (data.get(INT, entries + (long)entry * ENTRY_SIZE + 8) & INTERFACE) != 0;
+    }
+
+    /**
+     * Returns the internal name of the superclass of a class.
+     * @param entry the index of the class's entry
+     * @return the name, or {@code null} if the class has no superclass
+     */
+    String superclassName(int entry) {
+        int offset = data.get(INT, entries + (long)entry * ENTRY_SIZE + 4);
+        if (offset < 0)
+            return null;
+        long name = strings + offset;
+        int length = Short.toUnsignedInt(data.get(SHORT, name));
+        return new String(data.asSlice(name + 2, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ClassHierarchyInfo getClassInfo(ClassDesc classDesc) {
+        if (!classDesc.isClassOrInterface())
+            return null;
+        String descriptor = classDesc.descriptorString();
+        int entry = find(descriptor.substring(1, descriptor.length() - 1));
+        if (entry < 0)
+            return null;
+        if (isInterface(entry))
+            return ClassHierarchyInfo.ofInterface();
+        String superclassName = superclassName(entry);
+        return ClassHierarchyInfo.ofClass((superclassName == null) ? null : DescriptorCache.shared().internalName(superclassName));
+    }
+}
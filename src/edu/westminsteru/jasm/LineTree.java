@@ -0,0 +1,392 @@
+package edu.westminsteru.jasm;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * The lines of a text, for {@link JasmDocument}, as a persistent tree: a treap ordered by line, with random priorities, whose nodes also count the lines and characters under them. A line, the offset at which it begins, and the line holding an offset are all found in O(log n) expected time, and {@linkplain #replace replacing} some lines returns a new tree that shares all but O(log n) of its nodes with this one, which is left as it was.
+ * <p>
+ * Each line may carry a mark (such as the code block that begins at it). Marks are not numbered: a mark belongs to its line, so lines inserted or removed before it move it without anything being updated.
+ * A mark may also hold a number of items (such as the errors on its line); the items of all the marks are counted in order, so that the line holding an item is found in O(log n) expected time too.
+ * @param <M> the type of the marks
+ */
+final class LineTree<M> {
+
+    private static final class Node<M> {
+        final String line;
+        final M mark;
+        /** The number of items of the mark */
+        final int markItems;
+        final int priority;
+        final Node<M> left, right;
+        /** The number of lines, characters, marks, and items in the subtree */
+        final int lines, chars, marks, items;
+
+        Node(String line, M mark, int markItems, int priority, Node<M> left, Node<M> right) {
+            this.line = line;
+            this.mark = mark;
+            this.markItems = markItems;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.lines = lines(left) + 1 + lines(right);
+            this.chars = chars(left) + line.length() + chars(right);
+            this.marks = marks(left) + ((mark == null) ? 0 : 1) + marks(right);
+            this.items = items(left) + markItems + items(right);
+        }
+
+        Node<M> with(Node<M> left, Node<M> right) {
+            return new Node<>(line, mark, markItems, priority, left, right);
+        }
+    }
+
+    private record Split<M>(Node<M> left, Node<M> right) {}
+
+    /**
+     * An item of a mark.
+     * @param mark the mark
+     * @param index the index of the line of the mark
+     * @param item the index of the item among those of the mark
+     */
+    record Item<M>(M mark, int index, int item) {}
+
+    private final Node<M> root;
+    private final ToIntFunction<? super M> itemCount;
+
+    private LineTree(Node<M> root, ToIntFunction<? super M> itemCount) {
+        this.root = root;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Returns a tree of the given lines, whose marks have no items.
+     * @param lines the lines
+     * @param marks the mark of the line at each index, or {@code null}
+     * @return the tree
+     */
+    static <M> LineTree<M> of(List<String> lines, IntFunction<M> marks) {
+        return of(lines, marks, _ -> 0);
+    }
+
+    /**
+     * Returns a tree of the given lines.
+     * @param lines the lines
+     * @param marks the mark of the line at each index, or {@code null}
+     * @param itemCount the number of items of a mark
+     * @return the tree
+     */
+    static <M> LineTree<M> of(List<String> lines, IntFunction<M> marks, ToIntFunction<? super M> itemCount) {
+        return new LineTree<>(build(lines, marks, itemCount), itemCount);
+    }
+
+    /** Builds a treap of the given lines in linear time, as a Cartesian tree of their priorities */
+    private static <M> Node<M> build(List<String> lines, IntFunction<M> marks, ToIntFunction<? super M> itemCount) {
+        int n = lines.size();
+        int[] priorities = new int[n], left = new int[n], right = new int[n];
+        // the right spine of the tree so far, from the root down
+        int[] spine = new int[n];
+        int depth = 0;
+        for (int i = 0; i < n; ++i) {
+            priorities[i] = priority();
+            left[i] = right[i] = -1;
+            int popped = -1;
+            while (depth > 0 && priorities[spine[depth - 1]] < priorities[i])
+                popped = spine[--depth];
+            left[i] = popped;
+            if (depth > 0)
+                right[spine[depth - 1]] = i;
+            spine[depth++] = i;
+        }
+        return (n == 0) ? null : node(spine[0], lines, marks, itemCount, priorities, left, right);
+    }
+
+    private static <M> Node<M> node(int i, List<String> lines, IntFunction<M> marks, ToIntFunction<? super M> itemCount, int[] priorities, int[] left, int[] right) {
+        var mark = marks.apply(i);
+        return new Node<>(
+            lines.get(i), mark, (mark == null) ? 0 : itemCount.applyAsInt(mark), priorities[i],
+            (left[i] < 0) ? null : node(left[i], lines, marks, itemCount, priorities, left, right),
+            (right[i] < 0) ? null : node(right[i], lines, marks, itemCount, priorities, left, right)
+        );
+    }
+
+    private static int priority() {
+        return ThreadLocalRandom.current().nextInt();
+    }
+
+    private static int lines(Node<?> node) {
+        return (node == null) ? 0 : node.lines;
+    }
+
+    private static int chars(Node<?> node) {
+        return (node == null) ? 0 : node.chars;
+    }
+
+    private static int marks(Node<?> node) {
+        return (node == null) ? 0 : node.marks;
+    }
+
+    private static int items(Node<?> node) {
+        return (node == null) ? 0 : node.items;
+    }
+
+    /**
+     * Returns the number of lines.
+     */
+    int size() {
+        return lines(root);
+    }
+
+    /**
+     * Returns the length of the text.
+     */
+    int length() {
+        return chars(root);
+    }
+
+    /**
+     * Returns a line.
+     */
+    String line(int index) {
+        return find(index).line;
+    }
+
+    /**
+     * Returns the mark of a line, or {@code null}.
+     */
+    M mark(int index) {
+        return find(index).mark;
+    }
+
+    private Node<M> find(int index) {
+        var node = root;
+        while (true) {
+            int before = lines(node.left);
+            if (index < before)
+                node = node.left;
+            else if (index == before)
+                return node;
+            else {
+                index -= before + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the offset within the text at which a line begins, or the length of the text for the index just past the last line.
+     */
+    int start(int index) {
+        int start = 0;
+        for (var node = root; node != null; ) {
+            int before = lines(node.left);
+            if (index <= before)
+                node = node.left;
+            else {
+                start += chars(node.left) + node.line.length();
+                index -= before + 1;
+                node = node.right;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Returns the index of the line holding the given offset, or of the last line for the end of the text.
+     */
+    int lineOf(int offset) {
+        if (offset >= length())
+            return size() - 1;
+        int index = 0;
+        for (var node = root; ; ) {
+            int before = chars(node.left);
+            if (offset < before)
+                node = node.left;
+            else if (offset < before + node.line.length())
+                return index + lines(node.left);
+            else {
+                offset -= before + node.line.length();
+                index += lines(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the last marked line at or before the given one, or -1 if there is none.
+     */
+    int previousMark(int index) {
+        return previousMark(root, index);
+    }
+
+    private static int previousMark(Node<?> node, int index) {
+        if (node == null || node.marks == 0)
+            return -1;
+        int before = lines(node.left);
+        if (index < before)
+            return previousMark(node.left, index);
+        if (index > before) {
+            int found = previousMark(node.right, index - before - 1);
+            if (found >= 0)
+                return before + 1 + found;
+        }
+        return (node.mark != null) ? before : previousMark(node.left, before - 1);
+    }
+
+    /**
+     * Returns the index of a marked line, given the number of marked lines before it.
+     */
+    int markIndex(int ordinal) {
+        int index = 0;
+        for (var node = root; ; ) {
+            int before = marks(node.left);
+            if (ordinal < before)
+                node = node.left;
+            else if (ordinal == before && node.mark != null)
+                return index + lines(node.left);
+            else {
+                ordinal -= before + ((node.mark == null) ? 0 : 1);
+                index += lines(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of items of all the marks.
+     */
+    int itemCount() {
+        return items(root);
+    }
+
+    /**
+     * Returns the number of items of the marks of the lines before the given one.
+     */
+    int itemsBefore(int index) {
+        int items = 0;
+        for (var node = root; node != null; ) {
+            int before = lines(node.left);
+            if (index <= before)
+                node = node.left;
+            else {
+                items += items(node.left) + node.markItems;
+                index -= before + 1;
+                node = node.right;
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns an item, given the number of items before it.
+     */
+    Item<M> item(int item) {
+        int index = 0;
+        for (var node = root; ; ) {
+            int before = items(node.left);
+            if (item < before)
+                node = node.left;
+            else if (item < before + node.markItems)
+                return new Item<>(node.mark, index + lines(node.left), item - before);
+            else {
+                item -= before + node.markItems;
+                index += lines(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Gives each marked line to a consumer, in order, with its index.
+     */
+    void forEachMark(ObjIntConsumer<? super M> consumer) {
+        forEachMark(root, 0, consumer);
+    }
+
+    private static <M> void forEachMark(Node<M> node, int offset, ObjIntConsumer<? super M> consumer) {
+        if (node == null || node.marks == 0)
+            return;
+        forEachMark(node.left, offset, consumer);
+        int index = offset + lines(node.left);
+        if (node.mark != null)
+            consumer.accept(node.mark, index);
+        forEachMark(node.right, index + 1, consumer);
+    }
+
+    /**
+     * Appends the lines from {@code from} (inclusive) to {@code to} (exclusive) to a builder.
+     */
+    void appendTo(StringBuilder text, int from, int to) {
+        appendTo(root, from, to, text);
+    }
+
+    private static void appendTo(Node<?> node, int from, int to, StringBuilder text) {
+        if (node == null || from >= to)
+            return;
+        int before = lines(node.left);
+        if (from < before)
+            appendTo(node.left, from, Math.min(to, before), text);
+        if (from <= before && before < to)
+            text.append(node.line);
+        if (to > before + 1)
+            appendTo(node.right, Math.max(from - before - 1, 0), to - before - 1, text);
+    }
+
+    /**
+     * Returns a tree with the lines from {@code from} (inclusive) to {@code to} (exclusive), and their marks, replaced by the given lines, which have no marks.
+     */
+    LineTree<M> replace(int from, int to, List<String> lines) {
+        var head = split(root, from);
+        var tail = split(head.right(), to - from);
+        return new LineTree<>(merge(merge(head.left(), build(lines, _ -> null, itemCount)), tail.right()), itemCount);
+    }
+
+    /**
+     * Returns a tree with the mark of a line replaced.
+     */
+    LineTree<M> withMark(int index, M mark) {
+        return new LineTree<>(withMark(root, index, mark, (mark == null) ? 0 : itemCount.applyAsInt(mark)), itemCount);
+    }
+
+    private static <M> Node<M> withMark(Node<M> node, int index, M mark, int markItems) {
+        int before = lines(node.left);
+        if (index < before)
+            return node.with(withMark(node.left, index, mark, markItems), node.right);
+        else if (index > before)
+            return node.with(node.left, withMark(node.right, index - before - 1, mark, markItems));
+        return new Node<>(node.line, mark, markItems, node.priority, node.left, node.right);
+    }
+
+    /** Splits a tree into its first {@code count} lines and the rest */
+    private static <M> Split<M> split(Node<M> node, int count) {
+        if (node == null)
+            return new Split<>(null, null);
+        int before = lines(node.left);
+        if (count <= before) {
+            var split = split(node.left, count);
+            return new Split<>(split.left(), node.with(split.right(), node.right));
+        }
+        var split = split(node.right, count - before - 1);
+        return new Split<>(node.with(node.left, split.left()), split.right());
+    }
+
+    /** Joins two trees, all of whose lines in the first come before those of the second */
+    private static <M> Node<M> merge(Node<M> first, Node<M> second) {
+        if (first == null)
+            return second;
+        if (second == null)
+            return first;
+        return (first.priority > second.priority)
+            ? first.with(first.left, merge(first.right, second))
+            : second.with(merge(first, second.left), second.right);
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder(length());
+        appendTo(text, 0, size());
+        return text.toString();
+    }
+}
@@ -0,0 +1,271 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+/**
+ * A single-pass scanner for numeric and character literals. The kind of the literal is determined by its form and suffix, and its value is converted directly from the {@link StringView} without creating any intermediate strings:
+ * <ul>
+ *     <li>{@code 'c'} or {@code '\n'} (character), {@code 123}, {@code -5}, or {@code 0x7F} — {@link Operand.Int}</li>
+ *     <li>{@code 123L} or {@code 0x7FL} — {@link Operand.Long}</li>
+ *     <li>{@code 1.5f}, {@code 2e3F}, or {@code 1069547520fb} (bit pattern) — {@link Operand.Float}</li>
+ *     <li>{@code 1.5}, {@code 2e3}, {@code 1.5d}, or {@code 4609434218613702656db} (bit pattern) — {@link Operand.Double}</li>
+ * </ul>
+ */
+final class LiteralScanner {
+
+    private LiteralScanner() {}
+
+    /** Powers of ten that are exactly representable as {@code double}s */
+    private static final double[] DOUBLE_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Powers of ten that are exactly representable as {@code float}s */
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    /** The largest number of significant digits that is certain to fit in a {@code long} */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    /**
+     * Scans a literal, returning an {@link Operand.Int}, {@link Operand.Long}, {@link Operand.Float}, or {@link Operand.Double} according to its form.
+     * @param text the literal
+     * @return the typed value of the literal
+     * @throws AssemblyException if {@code text} is not a valid literal or its value is out of range
+     */
+    static Operand scan(StringView text) throws AssemblyException {
+        String s = text.source();
+        int start = text.start(), end = text.end();
+        if (start == end)
+            throw new AssemblyException("Missing literal", text);
+        if (s.charAt(start) == '\'')
+            return scanChar(text);
+
+        int i = start;
+        boolean negative = false;
+        if (s.charAt(i) == '+' || s.charAt(i) == '-')
+            negative = s.charAt(i++) == '-';
+
+        if (i == start && i + 2 < end && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X'))
+            return scanHex(text, i + 2);
+
+        // [digits] [. [digits]] [e [+-] digits] [suffix]
+        int intStart = i;
+        while (i < end && isDigit(s.charAt(i)))
+            ++i;
+        int intEnd = i, fracStart = i, fracEnd = i;
+        boolean integral = true;
+        if (i < end && s.charAt(i) == '.') {
+            integral = false;
+            fracStart = ++i;
+            while (i < end && isDigit(s.charAt(i)))
+                ++i;
+            fracEnd = i;
+        }
+        if (intEnd == intStart && fracEnd == fracStart)
+            throw new AssemblyException("Invalid numeric literal", offending(text, i));
+
+        int exponent = 0;
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            integral = false;
+            ++i;
+            boolean negativeExponent = false;
+            if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+                negativeExponent = s.charAt(i++) == '-';
+            if (i == end || !isDigit(s.charAt(i)))
+                throw new AssemblyException("Missing exponent", offending(text, i));
+            for (; i < end && isDigit(s.charAt(i)); ++i)
+                exponent = Math.min(exponent * 10 + (s.charAt(i) - '0'), 100_000); // way past the range of double
+            if (negativeExponent)
+                exponent = -exponent;
+        }
+        int numberEnd = i;
+
+        return switch (suffix(s, numberEnd, end)) {
+            case NONE -> integral
+                ? new Operand.Int((int)scanDecimal(text, intStart, intEnd, negative, Integer.MIN_VALUE, Integer.MAX_VALUE))
+                : new Operand.Double(toDouble(s, start, numberEnd, intStart, intEnd, fracStart, fracEnd, exponent, negative));
+            case LONG -> {
+                if (!integral)
+                    throw new AssemblyException("Invalid long: not an integer", text);
+                yield new Operand.Long(scanDecimal(text, intStart, intEnd, negative, Long.MIN_VALUE, Long.MAX_VALUE));
+            }
+            case FLOAT -> new Operand.Float(toFloat(s, start, numberEnd, intStart, intEnd, fracStart, fracEnd, exponent, negative));
+            case DOUBLE -> new Operand.Double(toDouble(s, start, numberEnd, intStart, intEnd, fracStart, fracEnd, exponent, negative));
+            case FLOAT_BITS -> {
+                if (!integral)
+                    throw new AssemblyException("Invalid float bit pattern: not an integer", text);
+                yield new Operand.Float(Float.intBitsToFloat(
+                    (int)scanDecimal(text, intStart, intEnd, negative, Integer.MIN_VALUE, Integer.MAX_VALUE)
+                ));
+            }
+            case DOUBLE_BITS -> {
+                if (!integral)
+                    throw new AssemblyException("Invalid double bit pattern: not an integer", text);
+                yield new Operand.Double(Double.longBitsToDouble(
+                    scanDecimal(text, intStart, intEnd, negative, Long.MIN_VALUE, Long.MAX_VALUE)
+                ));
+            }
+            case INVALID -> throw new AssemblyException("Invalid numeric literal", offending(text, numberEnd));
+        };
+    }
+
+    private enum Suffix { NONE, LONG, FLOAT, DOUBLE, FLOAT_BITS, DOUBLE_BITS, INVALID }
+
+    private static Suffix suffix(String s, int from, int to) {
+        if (from == to)
+            return Suffix.NONE;
+        char c = Character.toLowerCase(s.charAt(from));
+        if (to - from == 1)
+            return switch (c) {
+                case 'l' -> Suffix.LONG;
+                case 'f' -> Suffix.FLOAT;
+                case 'd' -> Suffix.DOUBLE;
+                default -> Suffix.INVALID;
+            };
+        if (to - from == 2 && Character.toLowerCase(s.charAt(from + 1)) == 'b')
+            return switch (c) {
+                case 'f' -> Suffix.FLOAT_BITS;
+                case 'd' -> Suffix.DOUBLE_BITS;
+                default -> Suffix.INVALID;
+            };
+        return Suffix.INVALID;
+    }
+
+    private static Operand.Int scanChar(StringView text) throws AssemblyException {
+        String s = text.source();
+        int start = text.start(), length = text.length();
+        if (length >= 3 && s.charAt(text.end() - 1) == '\'') {
+            if (length == 3)
+                return new Operand.Int(s.charAt(start + 1));
+            else if (length == 4 && s.charAt(start + 1) == '\\')
+                return new Operand.Int(Operands.unescape(text.substring(1)));
+        }
+        throw new AssemblyException("Invalid character", text);
+    }
+
+    private static Operand scanHex(StringView text, int digitsStart) throws AssemblyException {
+        String s = text.source();
+        int end = text.end();
+        boolean isLong = s.charAt(end - 1) == 'L' || s.charAt(end - 1) == 'l';
+        int digitsEnd = isLong ? end - 1 : end;
+        long max = isLong ? Long.MAX_VALUE : Integer.MAX_VALUE;
+        if (digitsEnd == digitsStart)
+            throw new AssemblyException("Missing hexadecimal digits", offending(text, digitsStart));
+
+        long value = 0;
+        for (int i = digitsStart; i < digitsEnd; ++i) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0)
+                throw new AssemblyException("Invalid hexadecimal digit", offending(text, i));
+            if (value > (max - digit) >>> 4)
+                throw new AssemblyException(isLong ? "Long out of range" : "Integer out of range", text);
+            value = (value << 4) | digit;
+        }
+
+        return isLong ? new Operand.Long(value) : new Operand.Int((int)value);
+    }
+
+    /** Converts decimal digits to an integer value, accumulating negatively (like {@link Long#parseLong(String)}) so that the minimum value is in range */
+    private static long scanDecimal(StringView text, int from, int to, boolean negative, long min, long max) throws AssemblyException {
+        String s = text.source();
+        long limit = negative ? min : -max;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (int i = from; i < to; ++i) {
+            int digit = s.charAt(i) - '0';
+            if (result < multiplyMin || result * 10 < limit + digit)
+                throw new AssemblyException(max == Long.MAX_VALUE ? "Long out of range" : "Integer out of range", text);
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Converts the significant digits to a {@code double} with Clinger's fast path: when the digits and the power of ten are both exactly representable, a single (correctly rounded) multiplication or division gives the right answer. Anything else is handed to {@link Double#parseDouble(String)}.
+     */
+    private static double toDouble(
+        String s, int start, int numberEnd,
+        int intStart, int intEnd, int fracStart, int fracEnd,
+        int exponent, boolean negative
+    ) {
+        long significand = 0;
+        int digits = 0;
+        int exponent10 = exponent;
+        for (int i = intStart; i < fracEnd; ++i) {
+            if (i == intEnd)
+                i = fracStart;
+            if (i == fracEnd)
+                break;
+            int digit = s.charAt(i) - '0';
+            if (i >= fracStart)
+                --exponent10;
+            if (digits == 0 && digit == 0)
+                continue;
+            if (++digits > MAX_LONG_DIGITS)
+                return Double.parseDouble(s.substring(start, numberEnd));
+            significand = significand * 10 + digit;
+        }
+
+        double value;
+        if (significand == 0)
+            value = 0.0;
+        else if (significand < (1L << 53) && exponent10 >= -22 && exponent10 <= 22)
+            value = (exponent10 < 0)
+                ? significand / DOUBLE_POWERS_OF_TEN[-exponent10]
+                : significand * DOUBLE_POWERS_OF_TEN[exponent10];
+        else
+            return Double.parseDouble(s.substring(start, numberEnd));
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * The {@code float} counterpart to {@link #toDouble}, falling back to {@link Float#parseFloat(String)}.
+     */
+    private static float toFloat(
+        String s, int start, int numberEnd,
+        int intStart, int intEnd, int fracStart, int fracEnd,
+        int exponent, boolean negative
+    ) {
+        long significand = 0;
+        int digits = 0;
+        int exponent10 = exponent;
+        for (int i = intStart; i < fracEnd; ++i) {
+            if (i == intEnd)
+                i = fracStart;
+            if (i == fracEnd)
+                break;
+            int digit = s.charAt(i) - '0';
+            if (i >= fracStart)
+                --exponent10;
+            if (digits == 0 && digit == 0)
+                continue;
+            if (++digits > MAX_LONG_DIGITS)
+                return Float.parseFloat(s.substring(start, numberEnd));
+            significand = significand * 10 + digit;
+        }
+
+        float value;
+        if (significand == 0)
+            value = 0.0f;
+        else if (significand < (1L << 24) && exponent10 >= -10 && exponent10 <= 10)
+            value = (exponent10 < 0)
+                ? significand / FLOAT_POWERS_OF_TEN[-exponent10]
+                : significand * FLOAT_POWERS_OF_TEN[exponent10];
+        else
+            return Float.parseFloat(s.substring(start, numberEnd));
+
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static StringView offending(StringView text, int index) {
+        return new StringView(text.source(), index, Math.min(index + 1, text.end()));
+    }
+}
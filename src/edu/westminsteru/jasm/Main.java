@@ -1,21 +1,41 @@
 package edu.westminsteru.jasm;
 
-import edu.westminsteru.jasm.parser.JasmParserListener;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.lang.classfile.ClassFile;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
 
 /**
  * A command-line interface for assembling jasm code. Usage:
  * <pre>
- *     java edu.westminsteru.jasm.Main [options] filename
+ *     java edu.westminsteru.jasm.Main [options] file...
  *
  *     Options:
  *          -h, -help, --help   Show this help message
  *          -d dir              Save output in the given directory (will be created if it does not exist)
+ *          -jar, --jar file    Save output in the given jar file rather than in a directory
+ *          -store              Store classes in the jar without compressing them
+ *          -j threads          Assemble this many files at the same time (the default is the number of processors)
+ *          -target release     Write class files for the given Java release (such as 6 or 21) rather than the latest
+ *          -nostackmaps        Write class files without stack map frames (except those given by .stack directives)
+ *          -watch, --watch     Keep running, and reassemble files whenever they change
+ *          -run class          Run the main method of the given class after assembling (after every change, with -watch)
+ *          -server address     Run as a server listening at the given Unix domain socket path or loopback port, assembling -j requests at a time
+ *          -connect address    Assemble on the server at the given address rather than in this JVM
+ *          -timeout millis     Give the server this long to assemble each file (with -connect)
+ *          -max-request bytes  Refuse requests with more code than this (with -server; the default is 64 MB)
  * </pre>
+ * Each file may also be a directory, which stands for the {@code .jasm} files in it and its subdirectories, or a glob pattern such as {@code 'src/**.jasm'} (see {@link Batch}). Many files are assembled in one run much faster than with one run each; the errors are printed grouped by file, in the order the files were given. The classes of a file are saved once the whole file has been assembled, so a file with errors leaves the classes saved from it before as they were.
+ * <p>
+ * With {@code -jar}, the classes are written straight into a jar as each file is assembled, each compressed on its own and on as many threads as files are assembled (see {@link JarSink}); if any file cannot be assembled, the jar is not written and any previous jar of the same name is left as it was.
+ * <p>
+ * With {@code -watch}, only the files that change are reassembled (see {@link Watch}), and {@code -run} runs the new classes in a fresh class loader each time, without restarting the JVM.
+ * <p>
+ * With {@code -server}, no files are assembled; instead, a {@link Server} keeps running and assembles code sent by clients. With {@code -connect}, the command line works as usual, but the files are assembled by such a server (see {@link Client}), so that only this thin client pays for starting a JVM.
+ * <p>
+ * Large inputs are scanned faster if the classes of the optional {@code jasm-vector} module are on the class path and the JVM is started with {@code --add-modules jdk.incubator.vector}, which lets the parser use SIMD instructions.
  */
 public class Main {
 
@@ -26,8 +46,18 @@ public class Main {
      * @param args          command-line arguments
      */
     public static void main(String... args) {
-        String inputFilename = null;
+        var inputArguments = new ArrayList<String>();
         String outPrefix = ".";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int targetVersion = ClassFile.latestMajorVersion();
+        boolean dropStackMaps = false;
+        boolean watch = false;
+        String runClass = null;
+        String serverAddress = null, connectAddress = null;
+        long timeoutMillis = 0;
+        int maxRequest = Server.DEFAULT_MAX_REQUEST;
+        String jarFile = null;
+        boolean store = false;
 
         for (int i = 0; i < args.length; ++i) {
             if (args[i].equals("-h") || args[i].equals("-help") || args[i].equals("--help")) {
@@ -35,61 +65,180 @@ public class Main {
                 System.exit(0);
             } else if (args[i].equals("-d") && i + 1 < args.length)
                 outPrefix = args[++i];
-            else if (inputFilename == null)
-                inputFilename = args[i];
-            else {
+            else if ((args[i].equals("-jar") || args[i].equals("--jar")) && i + 1 < args.length)
+                jarFile = args[++i];
+            else if (args[i].equals("-store"))
+                store = true;
+            else if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = (int)parseNumber(args[++i]);
+                if (threads < 1) {
+                    System.err.printf("Invalid number of threads: %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-target") && i + 1 < args.length) {
+                targetVersion = majorVersion(args[++i]);
+                if (targetVersion < 0) {
+                    System.err.printf("Unsupported target release: %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-nostackmaps"))
+                dropStackMaps = true;
+            else if (args[i].equals("-watch") || args[i].equals("--watch"))
+                watch = true;
+            else if (args[i].equals("-run") && i + 1 < args.length)
+                runClass = args[++i];
+            else if (args[i].equals("-server") && i + 1 < args.length)
+                serverAddress = args[++i];
+            else if (args[i].equals("-connect") && i + 1 < args.length)
+                connectAddress = args[++i];
+            else if (args[i].equals("-timeout") && i + 1 < args.length) {
+                timeoutMillis = parseNumber(args[++i]);
+                if (timeoutMillis < 1) {
+                    System.err.printf("Invalid timeout: %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-max-request") && i + 1 < args.length) {
+                maxRequest = (int)parseNumber(args[++i]);
+                if (maxRequest < 1) {
+                    System.err.printf("Invalid request size: %s\n", args[i]);
+                    System.exit(1);
+                }
+            }
+            else if (args[i].startsWith("-")) {
                 System.err.printf("Unknown argument: %s\n", args[i]);
                 System.exit(1);
+            } else
+                inputArguments.add(args[i]);
+        }
+
+        if (serverAddress != null) {
+            try (var channel = Server.bind(serverAddress)) {
+                System.out.printf("Listening at %s\n", serverAddress);
+                new Server(threads, maxRequest, System.err).serve(channel);
+            } catch (IOException ex) {
+                System.err.printf("Unable to serve at %s: %s\n", serverAddress, ex.getMessage());
             }
+            System.exit(1);
         }
 
-        if (inputFilename == null) {
+        if (jarFile != null && watch) {
+            System.err.println("-jar cannot be used with -watch.");
+            System.exit(1);
+        }
+
+        if (inputArguments.isEmpty()) {
             System.err.println("No input file specified.");
             printUsage();
             System.exit(1);
         }
 
-        try (BufferedReader in = Files.newBufferedReader(Path.of(inputFilename))) {
-            JasmAssembler assembler = JasmAssembler.reading(in);
-            var status = assembler.assemble();
-            if (status == Status.Failure) {
-                assembler.getErrorMessages().forEach(msg -> {
-                    msg.print(System.err);
-                    System.err.println();
-                });
-            } else {
-                Path outPath = Path.of(outPrefix);
-                Files.createDirectories(outPath);
-                assembler.getAssembledBytecodes().forEach(bc -> saveBytecode(bc, outPath));
+        var engine = JasmEngine.create()
+            .withTargetVersion(targetVersion)
+            .withDropStackMaps(dropStackMaps);
+        BiFunction<Path, BytecodeSink, AssemblyResult> assembler = engine::assemble;
+        if (connectAddress != null) {
+            var client = new Client(connectAddress, targetVersion, dropStackMaps, timeoutMillis);
+            try {
+                client.ping();
+            } catch (IOException ex) {
+                System.err.printf("Unable to reach the server at %s: %s\n", connectAddress, ex.getMessage());
+                System.exit(1);
             }
-        } catch (IOException ex) {
-            System.err.printf("Unable to create output files: %s\n", ex.getMessage());
+            assembler = client::assemble;
+        }
+        Path outPath = Path.of(outPrefix);
+        var harness = (runClass == null) ? null : Watch.runner(runClass, System.err);
+        boolean success;
+        try (var pool = new ForkJoinPool(threads)) {
+            var inputs = Batch.inputs(inputArguments, pool, System.err);
+            if (watch) {
+                try {
+                    new Watch(inputArguments, engine, outPath, pool, System.out, System.err, harness).run(inputs);
+                } catch (IOException ex) {
+                    System.err.printf("Unable to watch for changes: %s\n", ex.getMessage());
+                } catch (InterruptedException _) {
+                    // stop watching
+                }
+                System.exit(1);
+            }
+
+            JarSink jar = null;
+            if (jarFile != null) {
+                try {
+                    jar = JarSink.open(Path.of(jarFile), store, pool);
+                } catch (IOException ex) {
+                    System.err.printf("Unable to write %s: %s\n", jarFile, ex.getMessage());
+                    System.exit(1);
+                }
+            }
+
+            // the classes are only kept in memory if they are to be run
+            var saved = (jar != null) ? jar : BytecodeSink.toDirectory(outPath);
+            var kept = BytecodeSink.inMemory();
+            var sink = (harness == null) ? saved : saved.andThen(kept);
+            var outcomes = Batch.assemble(inputs, assembler, _ -> sink, pool, System.err, inputs.size() > 1);
+            success = !inputs.isEmpty() && outcomes.stream().allMatch(Batch.Outcome::success);
+            if (jar != null)
+                success &= closeJar(jar, Path.of(jarFile), success);
+            if (success && harness != null)
+                harness.accept(new VersionedClassLoader(1, kept.getBytecodes()));
         }
+        if (!success)
+            System.exit(1);
     }
 
     private static void printUsage() {
         System.out.println("""
-                Usage: java edu.westminsteru.jasm.Main [options] filename
+                Usage: java edu.westminsteru.jasm.Main [options] file...
+                
+                Files may be directories (searched for .jasm files) or glob patterns.
                 
                 Options:
-                    -h      Show this help message
-                    -d dir  Save output in the given directory
+                    -h               Show this help message
+                    -d dir           Save output in the given directory
+                    -jar file        Save output in the given jar file
+                    -store           Store classes in the jar without compressing them
+                    -j threads       Assemble this many files at the same time
+                    -target release  Write class files for the given Java release
+                    -nostackmaps     Write class files without stack map frames
+                    -watch           Reassemble files whenever they change
+                    -run class       Run the main method of the given class after assembling
+                    -server address  Run as a server at the given socket path or loopback port
+                    -connect address Assemble on the server at the given address
+                    -timeout millis  Give the server this long for each file
+                    -max-request bytes Refuse server requests with more code than this
                 """);
     }
 
-    private static void saveBytecode(Bytecode bytecode, Path outPath) {
-        Path destPath = outPath.resolve(bytecode.className() + ".class");
-        try {
-            Files.createDirectories(destPath.getParent());
+    /** Finishes a jar, replacing the jar file only if every file was assembled, and returns whether it was written */
+    private static boolean closeJar(JarSink jar, Path jarFile, boolean keep) {
+        try (jar) {
+            if (keep)
+                jar.commit();
+            return keep;
         } catch (IOException ex) {
-            System.err.printf("Unable to create destination directory %s", destPath.getParent());
-            return;
+            System.err.printf("Unable to write %s: %s\n", jarFile, ex.getMessage());
+            return false;
         }
+    }
 
-        try (var out = Files.newOutputStream(destPath)) {
-            out.write(bytecode.data());
-        } catch (IOException ex) {
-            System.err.printf("Unable to write %s\n", destPath);
+    /** Returns the number given to an option such as {@code -j}, or -1 if it is not a number */
+    private static long parseNumber(String number) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException _) {
+            return -1;
+        }
+    }
+
+    /** Returns the class file major version of a Java release (such as {@code 6}, {@code 1.6}, or {@code 21}), or -1 if it is not supported */
+    private static int majorVersion(String release) {
+        try {
+            int number = Integer.parseInt(release.startsWith("1.") ? release.substring(2) : release);
+            int major = (number == 1) ? ClassFile.JAVA_1_VERSION : number + 44;
+            return (number >= 1 && major <= ClassFile.latestMajorVersion()) ? major : -1;
+        } catch (NumberFormatException _) {
+            return -1;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,400 @@
 package edu.westminsteru.jasm;
 
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+import edu.westminsteru.jasm.parser.TokenCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The code of a method, as a compact sequence of items (instructions, tables, and {@code .stack} frames) stored in parallel primitive arrays rather than as an object per instruction.
+ * The source lines of the code are kept in a single {@code String}, and the opcode, operands, and table entries of each item are kept as offsets into it; {@link StringView}s of them are only created on request (e.g. when the code is {@linkplain ClassAssembler lowered}). The opcode of each instruction is kept as the ordinal of its {@link Opcode}, and labels as indexes into a table of label names.
+ * <p>
+ * A {@code MethodCode} is immutable. It is put together by a {@link Builder} as the code is parsed.
+ */
+final class MethodCode {
+
+    /** The opcode of an item that is an instruction with an invalid opcode */
+    private static final int UNKNOWN = -1;
+    /** The opcode of an item that is a table */
+    private static final int TABLE = -2;
+    /** The opcode of an item that is a {@code .stack} frame */
+    private static final int FRAME = -3;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    /** The source lines of the code (instructions and table lines), one after another */
+    private final String text;
+    /** The offset of each source line within the text, plus the length of the text at the end */
+    private final int[] lineStarts;
+
+    private final int size;
+    /** The opcode ordinal of each item, or {@link #UNKNOWN}, {@link #TABLE}, or {@link #FRAME} */
+    private final int[] opcodes;
+    /** The line number of each item in the source (the line of the instruction, or of the {@code .table} or {@code .stack} directive), less {@link #lineOffset} */
+    private final int[] lineNumbers;
+    /** How far the code has been {@linkplain #withLineOffset moved} since it was parsed */
+    private final int lineOffset;
+    /** The index of each item's first source line (in {@link #lineStarts}) */
+    private final int[] sourceLines;
+    /** The index of each item's first token, plus the number of tokens at the end; an instruction's tokens are its opcode and operands, a table's are the label and target of each entry, and a frame's are the operands of its directive */
+    private final int[] firstTokens;
+    private final int[] tokenStarts, tokenEnds;
+    /** The index of the first label bound to each item, plus the number of labels at the end */
+    private final int[] firstLabels;
+    /** The labels bound to the items, as indexes into {@link #labelNames} */
+    private final int[] labels;
+    private final String[] labelNames;
+
+    private MethodCode(
+        String text, int[] lineStarts,
+        int size, int[] opcodes, int[] lineNumbers, int lineOffset, int[] sourceLines,
+        int[] firstTokens, int[] tokenStarts, int[] tokenEnds,
+        int[] firstLabels, int[] labels, String[] labelNames
+    ) {
+        this.text = text;
+        this.lineStarts = lineStarts;
+        this.size = size;
+        this.opcodes = opcodes;
+        this.lineNumbers = lineNumbers;
+        this.lineOffset = lineOffset;
+        this.sourceLines = sourceLines;
+        this.firstTokens = firstTokens;
+        this.tokenStarts = tokenStarts;
+        this.tokenEnds = tokenEnds;
+        this.firstLabels = firstLabels;
+        this.labels = labels;
+        this.labelNames = labelNames;
+    }
+
+    /**
+     * Returns the number of items (instructions, tables, and frames).
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether an item is a table rather than an instruction.
+     */
+    boolean isTable(int item) {
+        return opcodes[item] == TABLE;
+    }
+
+    /**
+     * Returns whether an item is a {@code .stack} frame rather than an instruction.
+     */
+    boolean isFrame(int item) {
+        return opcodes[item] == FRAME;
+    }
+
+    /**
+     * Returns whether any of the items is a {@code .stack} frame.
+     */
+    boolean hasFrames() {
+        for (int i = 0; i < size; ++i) {
+            if (opcodes[i] == FRAME)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the opcode of an instruction, or {@code null} if its opcode is invalid.
+     */
+    Opcode opcode(int item) {
+        int opcode = opcodes[item];
+        return (opcode >= 0) ? OPCODES[opcode] : null;
+    }
+
+    /**
+     * Returns the text of the opcode of an instruction.
+     */
+    StringView opcodeText(int item) {
+        return token(firstTokens[item]);
+    }
+
+    /**
+     * Returns the operands of an instruction.
+     */
+    List<StringView> operands(int item) {
+        return tokens(firstTokens[item] + 1, firstTokens[item + 1]);
+    }
+
+    /**
+     * Returns the operands of the directive of a {@code .stack} frame.
+     */
+    List<StringView> frameOperands(int item) {
+        return tokens(firstTokens[item], firstTokens[item + 1]);
+    }
+
+    private List<StringView> tokens(int first, int end) {
+        return switch (end - first) {
+            case 0 -> List.of();
+            case 1 -> List.of(token(first));
+            default -> {
+                var operands = new StringView[end - first];
+                for (int i = 0; i < operands.length; ++i)
+                    operands[i] = token(first + i);
+                yield List.of(operands);
+            }
+        };
+    }
+
+    /**
+     * Returns the entries of a table.
+     */
+    List<Table.Entry> tableEntries(int item) {
+        var entries = new ArrayList<Table.Entry>((firstTokens[item + 1] - firstTokens[item]) / 2);
+        for (int i = firstTokens[item]; i < firstTokens[item + 1]; i += 2)
+            entries.add(new Table.Entry(token(i), token(i + 1)));
+        return entries;
+    }
+
+    /**
+     * Returns the names of the labels bound to an instruction.
+     */
+    List<String> labels(int item) {
+        int first = firstLabels[item], end = firstLabels[item + 1];
+        if (first == end)
+            return List.of();
+        var names = new String[end - first];
+        for (int i = 0; i < names.length; ++i)
+            names[i] = labelNames[labels[first + i]];
+        return List.of(names);
+    }
+
+    /**
+     * Returns the line number of an item.
+     */
+    int lineNumber(int item) {
+        return lineNumbers[item] + lineOffset;
+    }
+
+    /**
+     * Returns the source line of an instruction.
+     */
+    String sourceLine(int item) {
+        int line = sourceLines[item];
+        return text.substring(lineStarts[line], lineStarts[line + 1]);
+    }
+
+    /**
+     * Returns the column (counted from 1) within its source line of the beginning of a view returned by this {@code MethodCode}.
+     */
+    int column(StringView view) {
+        // source lines are never empty, so the starts are distinct
+        int line = Arrays.binarySearch(lineStarts, view.start());
+        if (line < 0)
+            line = -line - 2;
+        return view.start() - lineStarts[line] + 1;
+    }
+
+    /**
+     * Returns this code as if it began {@code delta} lines further down in the source. The line numbers are not copied, so this takes constant time.
+     */
+    MethodCode withLineOffset(int delta) {
+        if (delta == 0)
+            return this;
+        return new MethodCode(
+            text, lineStarts, size, opcodes, lineNumbers, lineOffset + delta, sourceLines,
+            firstTokens, tokenStarts, tokenEnds, firstLabels, labels, labelNames
+        );
+    }
+
+    private StringView token(int token) {
+        return new StringView(text, tokenStarts[token], tokenEnds[token]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MethodCode other
+            && size == other.size
+            && text.equals(other.text)
+            && Arrays.equals(lineStarts, other.lineStarts)
+            && Arrays.equals(opcodes, other.opcodes)
+            && sameLineNumbers(other)
+            && Arrays.equals(sourceLines, other.sourceLines)
+            && Arrays.equals(firstTokens, other.firstTokens)
+            && Arrays.equals(tokenStarts, other.tokenStarts)
+            && Arrays.equals(tokenEnds, other.tokenEnds)
+            && Arrays.equals(firstLabels, other.firstLabels)
+            && Arrays.equals(labels, other.labels)
+            && Arrays.equals(labelNames, other.labelNames);
+    }
+
+    private boolean sameLineNumbers(MethodCode other) {
+        if (lineOffset == other.lineOffset)
+            return Arrays.equals(lineNumbers, 0, size, other.lineNumbers, 0, size);
+        for (int i = 0; i < size; ++i) {
+            if (lineNumber(i) != other.lineNumber(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // the line numbers are left out, since they are compared with the offset applied
+        return Objects.hash(text, size, Arrays.hashCode(opcodes), Arrays.hashCode(tokenStarts));
+    }
+
+    @Override
+    public String toString() {
+        return "MethodCode[" + size + " items, lines " + (size == 0 ? "-" : lineNumber(0) + "-" + lineNumber(size - 1)) + "]";
+    }
+
+    /**
+     * Puts together a {@link MethodCode} as its code is parsed.
+     */
+    static final class Builder {
+        private final StringBuilder text = new StringBuilder();
+        private int[] lineStarts = new int[16];
+        private int lineCount = 0;
+
+        private int size = 0;
+        private int[] opcodes = new int[16];
+        private int[] lineNumbers = new int[16];
+        private int[] sourceLines = new int[16];
+        private int[] firstTokens = new int[17];
+
+        private int tokenCount = 0;
+        private int[] tokenStarts = new int[32];
+        private int[] tokenEnds = new int[32];
+
+        private int[] firstLabels = new int[17];
+        private int labelCount = 0;
+        private int[] labels = new int[8];
+        private final List<String> labelNames = new ArrayList<>();
+        private final Map<String, Integer> labelIds = new HashMap<>();
+
+        /**
+         * Adds an instruction.
+         * @param labels the labels bound to the instruction, {@linkplain SymbolTable interned}
+         * @param opcode the resolved opcode, or {@code null} if it is invalid
+         * @param tokens the tokens of the source line of the instruction
+         * @param first the index of the opcode's token; the operands are the tokens after it
+         * @param lineNumber the line number of the instruction
+         */
+        void instruction(List<String> labels, Opcode opcode, TokenCursor tokens, int first, int lineNumber) {
+            for (var label : labels)
+                addLabel(label);
+            int offset = addLine(tokens);
+            addItem((opcode == null) ? UNKNOWN : opcode.ordinal(), lineNumber, lineCount - 1);
+            for (int i = first; i < tokens.count(); ++i)
+                addToken(offset + tokens.start(i), offset + tokens.end(i));
+            endItem();
+        }
+
+        /**
+         * Adds a table.
+         * @param entries the entries of the table, each of which is a view of its source line
+         * @param lineNumber the line number of the {@code .table} directive
+         */
+        void table(List<Table.Entry> entries, int lineNumber) {
+            addItem(TABLE, lineNumber, lineCount);
+            for (var entry : entries) {
+                int offset = addLine(entry.label().source());
+                addToken(offset + entry.label().start(), offset + entry.label().end());
+                int targetOffset = (entry.target().source() == entry.label().source()) ? offset : addLine(entry.target().source());
+                addToken(targetOffset + entry.target().start(), targetOffset + entry.target().end());
+            }
+            endItem();
+        }
+
+        /**
+         * Adds a {@code .stack} frame, which applies to the instruction after it.
+         * @param tokens the tokens of the source line of the directive; the operands are the tokens after the first
+         * @param lineNumber the line number of the directive
+         */
+        void frame(TokenCursor tokens, int lineNumber) {
+            int offset = addLine(tokens);
+            addItem(FRAME, lineNumber, lineCount - 1);
+            for (int i = 1; i < tokens.count(); ++i)
+                addToken(offset + tokens.start(i), offset + tokens.end(i));
+            endItem();
+        }
+
+        /**
+         * Returns the number of items added so far.
+         */
+        int size() {
+            return size;
+        }
+
+        MethodCode build() {
+            lineStarts = grow(lineStarts, lineCount + 1);
+            lineStarts[lineCount] = text.length();
+            return new MethodCode(
+                text.toString(), Arrays.copyOf(lineStarts, lineCount + 1),
+                size, Arrays.copyOf(opcodes, size), Arrays.copyOf(lineNumbers, size), 0, Arrays.copyOf(sourceLines, size),
+                Arrays.copyOf(firstTokens, size + 1),
+                Arrays.copyOf(tokenStarts, tokenCount), Arrays.copyOf(tokenEnds, tokenCount),
+                Arrays.copyOf(firstLabels, size + 1), Arrays.copyOf(labels, labelCount),
+                labelNames.toArray(String[]::new)
+            );
+        }
+
+        private int addLine(String line) {
+            int offset = startLine();
+            text.append(line);
+            return offset;
+        }
+
+        private int addLine(TokenCursor tokens) {
+            int offset = startLine();
+            tokens.appendLineTo(text);
+            return offset;
+        }
+
+        private int startLine() {
+            lineStarts = grow(lineStarts, lineCount + 1);
+            int offset = text.length();
+            lineStarts[lineCount++] = offset;
+            return offset;
+        }
+
+        private void addItem(int opcode, int lineNumber, int sourceLine) {
+            opcodes = grow(opcodes, size + 1);
+            lineNumbers = grow(lineNumbers, size + 1);
+            sourceLines = grow(sourceLines, size + 1);
+            opcodes[size] = opcode;
+            lineNumbers[size] = lineNumber;
+            sourceLines[size] = sourceLine;
+        }
+
+        private void endItem() {
+            ++size;
+            firstTokens = grow(firstTokens, size + 1);
+            firstLabels = grow(firstLabels, size + 1);
+            firstTokens[size] = tokenCount;
+            firstLabels[size] = labelCount;
+        }
+
+        private void addToken(int start, int end) {
+            tokenStarts = grow(tokenStarts, tokenCount + 1);
+            tokenEnds = grow(tokenEnds, tokenCount + 1);
+            tokenStarts[tokenCount] = start;
+            tokenEnds[tokenCount] = end;
+            ++tokenCount;
+        }
+
+        private void addLabel(String name) {
+            int id = labelIds.computeIfAbsent(name, _ -> {
+                labelNames.add(name);
+                return labelNames.size() - 1;
+            });
+            labels = grow(labels, labelCount + 1);
+            labels[labelCount++] = id;
+        }
 
-record MethodCode(List<CodeItem> codeItems) {
+        private static int[] grow(int[] array, int length) {
+            return (length <= array.length) ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+        }
+    }
 }
@@ -2,7 +2,8 @@ package edu.westminsteru.jasm;
 
 import edu.westminsteru.jasm.parser.StringView;
 
+import java.lang.constant.MethodTypeDesc;
 import java.util.List;
 
-record MethodDefinition(List<StringView> flags, StringView methodName, StringView descriptor) {
+record MethodDefinition(List<StringView> flags, StringView methodName, StringView descriptor, MethodTypeDesc methodType) {
 }
@@ -1,5 +1,10 @@
 package edu.westminsteru.jasm;
 
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.TokenCursor;
+
+import java.util.Arrays;
+
 import static edu.westminsteru.jasm.OperandType.*;
 
 enum Opcode {
@@ -225,6 +230,83 @@ enum Opcode {
         return name;
     }
 
+    /**
+     * Returns whether this opcode is one of the {@code ldc} variants, all of which are written {@code ldc}.
+     */
+    public boolean isLdc() {
+        return this == ldc__Int || this == ldc__Float || this == ldc__String;
+    }
+
+    /**
+     * Returns whether this opcode is one of the {@code ldc2} variants, all of which are written {@code ldc2}.
+     */
+    public boolean isLdc2() {
+        return this == ldc2__Long || this == ldc2__Double;
+    }
+
+    // Perfect hash table of opcode names: hashing a name with MULTIPLIER gives the index of its opcode in TABLE.
+    // For ldc and ldc2, the table holds the first variant.
+    private static final int TABLE_BITS = 12;
+    private static final Opcode[] TABLE = new Opcode[1 << TABLE_BITS];
+    private static final int MULTIPLIER;
+
+    static {
+        int multiplier = 0x9E3779B9; // must be odd
+        search:
+        for (int attempts = 0; ; ++attempts, multiplier += 2) {
+            if (attempts == 1 << 20)
+                throw new AssertionError("No perfect hash found for opcode names");
+            Arrays.fill(TABLE, null);
+            for (var opcode : values()) {
+                int slot = slot(opcode.name.hashCode(), multiplier);
+                if (TABLE[slot] == null)
+                    TABLE[slot] = opcode;
+                else if (!TABLE[slot].name.equals(opcode.name))
+                    continue search;
+            }
+            break;
+        }
+        MULTIPLIER = multiplier;
+    }
+
+    private static int slot(int hash, int multiplier) {
+        return (hash * multiplier) >>> (Integer.SIZE - TABLE_BITS);
+    }
+
+    /**
+     * Returns the opcode with the given name, matching directly against the characters of the source with no allocation. The names {@code ldc} and {@code ldc2} give {@link #ldc__Int} and {@link #ldc2__Long}; use {@link #isLdc()} and {@link #isLdc2()} to recognize them.
+     * @param text the name of the opcode, as written in jasm code
+     * @return the opcode, or {@code null} if there is no opcode with that name
+     */
+    public static Opcode lookup(StringView text) {
+        return lookup(text.source(), text.start(), text.end());
+    }
+
+    /**
+     * Returns the opcode whose name is the given range of a {@code String}, as {@link #lookup(StringView)} does.
+     * @param source the string holding the name
+     * @param start the beginning index (inclusive) of the name
+     * @param end the ending index (exclusive) of the name
+     * @return the opcode, or {@code null} if there is no opcode with that name
+     */
+    public static Opcode lookup(String source, int start, int end) {
+        var opcode = TABLE[slot(StringView.hash(source, start, end), MULTIPLIER)];
+        return (opcode != null && opcode.name.length() == end - start && source.startsWith(opcode.name, start))
+            ? opcode
+            : null;
+    }
+
+    /**
+     * Returns the opcode whose name is a token of a line, as {@link #lookup(StringView)} does, without decoding the line.
+     * @param tokens the tokens of the line
+     * @param token the index of the token
+     * @return the opcode, or {@code null} if there is no opcode with that name
+     */
+    public static Opcode lookup(TokenCursor tokens, int token) {
+        var opcode = TABLE[slot(tokens.hash(token), MULTIPLIER)];
+        return (opcode != null && tokens.is(token, opcode.name)) ? opcode : null;
+    }
+
     public OperandType[] getOperandTypes() {
         return operands;
     }
@@ -1,5 +1,8 @@
 package edu.westminsteru.jasm;
 
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+
 sealed interface Operand {
 
     record Int(int value) implements Operand {
@@ -27,9 +30,9 @@ sealed interface Operand {
 
     record Identifier(java.lang.String value) implements Operand {}
 
-    record Descriptor(java.lang.String text) implements Operand {}
+    record Descriptor(ClassDesc desc) implements Operand {}
 
-    record MethodDescriptor(java.lang.String text) implements Operand {}
+    record MethodDescriptor(MethodTypeDesc desc) implements Operand {}
 
     record BranchTarget(java.lang.String text) implements Operand {}
 }
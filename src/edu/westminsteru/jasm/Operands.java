@@ -1,73 +1,12 @@
 package edu.westminsteru.jasm;
 
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.DescriptorScanner;
 import edu.westminsteru.jasm.parser.StringView;
-
-import java.util.regex.*;
+import edu.westminsteru.jasm.parser.SymbolTable;
 
 class Operands {
 
-    private static final String INTEGER_REGEX =
-        // decimal
-        "("
-            + "[+-]?[0-9]+"
-        + ")|"
-        // hexadecimal
-        + "("
-            + "0[Xx]([0-9a-fA-F]+)"
-        + ")"
-    ;
-
-    private static final String REAL_REGEX =
-        // digits before .
-        "[+-]?[0-9]+\\.[0-9]*"
-        // digits after .
-        + "|[+-]?[0-9]*\\.[0-9]+"
-        // possibly with exponent
-        + "([Ee][+-]?[0-9]+)?"
-    ;
-
-    private static final Pattern INT_PATTERN = Pattern.compile(
-        "^(" + INTEGER_REGEX + ")$"
-    );
-
-    private static final Pattern LONG_PATTERN = Pattern.compile(
-        "^(" + INTEGER_REGEX + ")[Ll]$"
-    );
-
-    private static final Pattern DOUBLE_PATTERN = Pattern.compile(
-        "^("
-            + "(" + REAL_REGEX + ")" // written as floating-point
-            + "|(" + INTEGER_REGEX + ")[Dd][Bb]" // written as bits
-        + ")$"
-    );
-
-    private static final Pattern FLOAT_PATTERN = Pattern.compile(
-        "^("
-            + "(" + REAL_REGEX + ")[Ff]"
-            + "|(" + INTEGER_REGEX + ")[Ff][Bb]"
-        + ")$"
-    );
-
-    private static final Pattern CLASS_NAME_PATTERN = Pattern.compile(
-        "^([a-zA-Z_$][a-zA-Z0-9$/]+)$"
-    );
-
-    private static final String DESCRIPTOR_REGEX = "(\\[)*([BSIJFDCZ]|L[a-zA-Z0-9_/$]+;)";
-    
-    private static Pattern DESCRIPTOR_PATTERN = Pattern.compile(
-        "^" + DESCRIPTOR_REGEX + "$"
-    );
-
-    private static Pattern METHOD_DESCRIPTOR_PATTERN = Pattern.compile(
-        "^\\(" +
-            "(" + DESCRIPTOR_REGEX + ")*" +
-            "\\)" +
-            "(" +
-            "(" + DESCRIPTOR_REGEX + ")" +
-            "|V" +
-            ")$"
-    );
-
     public static Operand parseOperand(StringView text, OperandType type) throws AssemblyException {
         return switch (type) {
             case Int -> parseInt(text);
@@ -85,72 +24,29 @@ class Operands {
     }
 
     public static Operand.Int parseInt(StringView text) throws AssemblyException {
-        String s = text.toString();
-        if (s.codePointAt(0) == '\'' && s.codePointAt(s.length() - 1) == '\'') {
-            s = s.substring(1, s.length() - 1);
-            if (s.startsWith("\\") && s.length() == 2)
-                return new Operand.Int(unescape(text.substring(1)));
-            else if (s.length() == 1)
-                return new Operand.Int((int)s.codePointAt(0));
-            else
-                throw new AssemblyException("Invalid character", text);
-        }
-
-        var matcher = INT_PATTERN.matcher(text.toString());
-        try {
-            if (matcher.matches()) {
-                if (matcher.group(2) != null)
-                    return new Operand.Int(Integer.parseInt(matcher.group(2)));
-                else if (matcher.group(4) != null)
-                    return new Operand.Int(Integer.parseInt(matcher.group(4), 16));
-            }
-        } catch (NumberFormatException _) {
-            // do nothing
-        }
+        if (LiteralScanner.scan(text) instanceof Operand.Int i)
+            return i;
 
         throw new AssemblyException("Invalid integer", text);
     }
 
     public static Operand.Float parseFloat(StringView text) throws AssemblyException {
-        String s = text.toString().toLowerCase();
-        try {
-            if (s.endsWith("f"))
-                return new Operand.Float(Float.parseFloat(s.substring(0, s.length() - 1)));
-            else if (s.endsWith("fb"))
-                return new Operand.Float(Float.intBitsToFloat(Integer.parseInt(s.substring(0, s.length() - 2))));
-        } catch (NumberFormatException ex) {
-            // do nothing
-        }
+        if (LiteralScanner.scan(text) instanceof Operand.Float f)
+            return f;
 
         throw new AssemblyException("Invalid float", text);
     }
 
     public static Operand.Long parseLong(StringView text) throws AssemblyException {
-        var matcher = LONG_PATTERN.matcher(text.toString());
-        try {
-            if (matcher.matches()) {
-                if (matcher.group(2) != null)
-                    return new Operand.Long(Long.parseLong(matcher.group(2)));
-                else if (matcher.group(4) != null)
-                    return new Operand.Long(Long.parseLong(matcher.group(4), 16));
-            }
-        } catch (NumberFormatException _) {
-            // do nothing
-        }
+        if (LiteralScanner.scan(text) instanceof Operand.Long l)
+            return l;
 
         throw new AssemblyException("Invalid long", text);
     }
 
     public static Operand.Double parseDouble(StringView text) throws AssemblyException {
-        String s = text.toString().toLowerCase();
-        try {
-            if (s.endsWith("db"))
-                return new Operand.Double(Double.longBitsToDouble(Long.parseLong(s.substring(0, s.length() - 2))));
-            else
-                return new Operand.Double(Double.parseDouble(s));
-        } catch (NumberFormatException _) {
-            // do nothing
-        }
+        if (LiteralScanner.scan(text) instanceof Operand.Double d)
+            return d;
 
         throw new AssemblyException("Invalid double", text);
     }
@@ -175,9 +71,17 @@ class Operands {
     }
 
     public static Operand.ClassName parseClassName(StringView text) throws AssemblyException {
-        var matcher = CLASS_NAME_PATTERN.matcher(text.toString());
-        if (matcher.matches())
-            return new Operand.ClassName(matcher.group(1));
+        // [a-zA-Z_$][a-zA-Z0-9$/]+
+        String s = text.source();
+        int start = text.start(), end = text.end();
+        boolean valid = end - start >= 2;
+        for (int i = start; valid && i < end; ++i) {
+            char c = s.charAt(i);
+            valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '$'
+                || ((i == start) ? c == '_' : (c >= '0' && c <= '9') || c == '/');
+        }
+        if (valid)
+            return new Operand.ClassName(SymbolTable.shared().intern(text));
 
         throw new AssemblyException("Invalid class name", text);
     }
@@ -197,30 +101,30 @@ class Operands {
     }
 
     public static Operand.Identifier parseIdentifier(StringView text) throws AssemblyException {
-        return new Operand.Identifier(text.toString());
+        return new Operand.Identifier(SymbolTable.shared().intern(text));
     }
 
     public static Operand.Descriptor parseDescriptor(StringView text) throws AssemblyException {
-        var matcher = DESCRIPTOR_PATTERN.matcher(text.toString());
-        if (matcher.matches())
-            return new Operand.Descriptor(text.toString());
-        
-        throw new AssemblyException("Invalid type descriptor", text);
+        try {
+            return new Operand.Descriptor(DescriptorCache.shared().typeDescriptor(text));
+        } catch (DescriptorScanner.InvalidDescriptorException ex) {
+            throw new AssemblyException("Invalid type descriptor: " + ex.getMessage(), ex.getTarget());
+        }
     }
     
     public static Operand.MethodDescriptor parseMethodDescriptor(StringView text) throws AssemblyException {
-        var matcher = METHOD_DESCRIPTOR_PATTERN.matcher(text.toString());
-        if (matcher.matches())
-            return new Operand.MethodDescriptor(text.toString());
-
-        throw new AssemblyException("Invalid method descriptor", text);
+        try {
+            return new Operand.MethodDescriptor(DescriptorCache.shared().methodDescriptor(text));
+        } catch (DescriptorScanner.InvalidDescriptorException ex) {
+            throw new AssemblyException("Invalid method descriptor: " + ex.getMessage(), ex.getTarget());
+        }
     }
 
     public static Operand.BranchTarget parseBranchTarget(StringView text) throws AssemblyException {
         return new Operand.BranchTarget(text.toString());
     }
 
-    private static char unescape(StringView view) throws AssemblyException{
+    static char unescape(StringView view) throws AssemblyException {
         int c = view.codePointAt(1);
         return switch (c) {
             case '0' -> '\0';
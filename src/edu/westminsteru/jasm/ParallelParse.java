@@ -0,0 +1,56 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.JasmParser;
+
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+
+/**
+ * Parses input holding many classes by splitting it at its {@code .class}/{@code .interface}/{@code .enum} directives (see {@link JasmParser#classRegions(MemorySegment)}) and parsing the regions in parallel on the common {@link java.util.concurrent.ForkJoinPool}, each with its own {@link DefaultJasmParserListener}.
+ * The listeners are then merged in source order, so the class specs and errors are the same as those from parsing the input sequentially.
+ */
+class ParallelParse {
+
+    private record RegionResult(DefaultJasmParserListener listener, boolean aborted) {}
+
+    private ParallelParse() {}
+
+    /**
+     * Parses the input.
+     * @param input the UTF-8 encoded input, which must be accessible from any thread
+     * @return a listener holding the results of parsing the whole input
+     */
+    static DefaultJasmParserListener parse(MemorySegment input) {
+        var regions = JasmParser.classRegions(input);
+        if (regions.size() == 1)
+            return parseSequentially(input);
+
+        List<RegionResult> results = regions.parallelStream()
+            .map(region -> {
+                var listener = new DefaultJasmParserListener();
+                var parser = new JasmParser(input, region, listener);
+                parser.parse();
+                return new RegionResult(listener, parser.getState() == JasmParser.State.Aborted);
+            })
+            .toList();
+
+        var merged = results.getFirst().listener();
+        for (int i = 1; i < results.size(); ++i) {
+            var previous = results.get(i - 1);
+            if (previous.aborted())
+                break; // the sequential parser would not have seen anything after this
+            else if (!previous.listener().endsAtClassBoundary())
+                return parseSequentially(input); // state would have carried over into the next class
+
+            merged.append(results.get(i).listener());
+        }
+
+        return merged;
+    }
+
+    private static DefaultJasmParserListener parseSequentially(MemorySegment input) {
+        var listener = new DefaultJasmParserListener();
+        new JasmParser(input, listener).parse();
+        return listener;
+    }
+}
@@ -0,0 +1,168 @@
+package edu.westminsteru.jasm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The protocol between {@link Server} and {@link Client}. A client sends any number of requests on a connection, and the server answers each in turn.
+ * <p>
+ * A request is the magic number {@code 0x4A41534D}, the protocol version (a byte), the major version of the class files to write (a short), flags (a byte; bit 0 to drop stack maps), the deadline in milliseconds (a long; 0 for none), and the code to assemble (a string).
+ * A response is the status (a byte: 0 for success, 1 for failure) and a count (an int), followed by that many classes (the name as a string, then the length of the bytecode as an int and the bytecode) or error messages (the message and the source line as strings, then the line and column numbers as ints).
+ * A string is its length in UTF-8 bytes as an int, or -1 for {@code null}, followed by the bytes. All numbers are big-endian.
+ * <p>
+ * The code of a request is read only if it is within a limit (see {@link #readRequest}), so that a peer cannot make the server allocate an arbitrary amount of memory.
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x4A41534D;
+    static final int VERSION = 1;
+
+    private static final int DROP_STACK_MAPS = 1;
+
+    /**
+     * A request to assemble code.
+     * @param code the code
+     * @param targetVersion the major version of the class files to write
+     * @param dropStackMaps whether to write class files without stack map frames
+     * @param deadlineMillis how long the server may take to answer, in milliseconds, or 0 for no limit
+     */
+    record Request(String code, int targetVersion, boolean dropStackMaps, long deadlineMillis) {}
+
+    /**
+     * Thrown when the code of a request is longer than the limit. The rest of the request has been skipped, so the next request can be read from the same stream.
+     */
+    static final class RequestTooLargeException extends IOException {
+        RequestTooLargeException(long length, int maxLength) {
+            super(String.format("Request of %d bytes is larger than the limit of %d bytes", length, maxLength));
+        }
+    }
+
+    private Protocol() {}
+
+    /**
+     * Returns the address of a server: a port number on the loopback interface, or otherwise the path of a Unix domain socket.
+     * @param address the port number or path
+     * @return the address
+     */
+    static SocketAddress address(String address) {
+        if (!address.isEmpty() && address.chars().allMatch(Character::isDigit))
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    static void writeRequest(DataOutputStream out, Request request) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeShort(request.targetVersion());
+        out.writeByte(request.dropStackMaps() ? DROP_STACK_MAPS : 0);
+        out.writeLong(request.deadlineMillis());
+        writeString(out, request.code());
+        out.flush();
+    }
+
+    /**
+     * Reads a request.
+     * @param in the stream to read from
+     * @param maxCodeLength the most UTF-8 bytes of code to read
+     * @return the request, or {@code null} if the stream ended before it
+     * @throws RequestTooLargeException if the code is longer than {@code maxCodeLength} bytes
+     * @throws IOException if the stream cannot be read or does not hold a request
+     */
+    static Request readRequest(DataInputStream in, int maxCodeLength) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException _) {
+            return null;
+        }
+        if (magic != MAGIC)
+            throw new IOException("Not a jasm request");
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported protocol version: " + version);
+        int targetVersion = in.readUnsignedShort();
+        int flags = in.readUnsignedByte();
+        long deadlineMillis = in.readLong();
+        int length = in.readInt();
+        if (length > maxCodeLength) {
+            in.skipNBytes(length);
+            throw new RequestTooLargeException(length, maxCodeLength);
+        }
+        String code = readString(in, length);
+        if (code == null)
+            throw new IOException("Missing code");
+        return new Request(code, targetVersion, (flags & DROP_STACK_MAPS) != 0, deadlineMillis);
+    }
+
+    static void writeResult(DataOutputStream out, AssemblyResult result) throws IOException {
+        out.writeByte(result.isSuccess() ? 0 : 1);
+        if (result.isSuccess()) {
+            out.writeInt(result.bytecodes().size());
+            for (var bytecode : result.bytecodes()) {
+                writeString(out, bytecode.className());
+                out.writeInt(bytecode.data().length);
+                out.write(bytecode.data());
+            }
+        } else {
+            out.writeInt(result.errorMessages().size());
+            for (var message : result.errorMessages()) {
+                writeString(out, message.message());
+                writeString(out, message.sourceLine());
+                out.writeInt(message.lineNumber());
+                out.writeInt(message.columnNumber());
+            }
+        }
+        out.flush();
+    }
+
+    static AssemblyResult readResult(DataInputStream in) throws IOException {
+        boolean success = in.readUnsignedByte() == 0;
+        int count = in.readInt();
+        if (success) {
+            var bytecodes = new ArrayList<Bytecode>(count);
+            for (int i = 0; i < count; ++i) {
+                String className = readString(in);
+                var data = new byte[in.readInt()];
+                in.readFully(data);
+                bytecodes.add(new Bytecode(className, data));
+            }
+            return new AssemblyResult(Status.Success, bytecodes, List.of());
+        }
+
+        var errorMessages = new ArrayList<ErrorMessage>(count);
+        for (int i = 0; i < count; ++i)
+            errorMessages.add(new ErrorMessage(readString(in), readString(in), in.readInt(), in.readInt()));
+        return new AssemblyResult(Status.Failure, List.of(), errorMessages);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return readString(in, in.readInt());
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0)
+            return null;
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,255 @@
+package edu.westminsteru.jasm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-running assembler for {@link Main}'s {@code -server} option, so that tools that assemble code often pay for starting and warming up a JVM only once. It listens on a Unix domain socket or a loopback port and answers requests in the {@link Protocol}, such as those of {@link Client}.
+ * <p>
+ * Each connection is handled on a virtual thread, and each request is assembled on a virtual thread of its own. Only a fixed number of requests are assembled at the same time; the others wait, and the smallest of them is admitted first, so that a large request does not hold up many small ones. A request that is not answered within its deadline is answered with an error, and its assembly is {@linkplain JasmEngine cancelled}.
+ * A request with more code than a limit is answered with an error without being read into memory.
+ */
+final class Server {
+
+    /** The default limit on the code of a request, in UTF-8 bytes */
+    static final int DEFAULT_MAX_REQUEST = 64 << 20;
+
+    private final Admission admission;
+    private final int maxRequest;
+    private final PrintStream err;
+
+    /**
+     * Creates a {@code Server}.
+     * @param concurrency how many requests may be assembled at the same time
+     * @param maxRequest the most UTF-8 bytes of code a request may have
+     * @param err where to report failed connections
+     */
+    Server(int concurrency, int maxRequest, PrintStream err) {
+        this.admission = new Admission(concurrency);
+        this.maxRequest = maxRequest;
+        this.err = err;
+    }
+
+    /**
+     * Opens a channel listening at an address (see {@link Protocol#address(String)}). A Unix domain socket left behind by a server that is no longer running is replaced, and the socket is deleted when the JVM exits.
+     * @param address the port number or path of the socket
+     * @return the channel
+     * @throws IOException if the channel cannot be opened
+     */
+    static ServerSocketChannel bind(String address) throws IOException {
+        var socketAddress = Protocol.address(address);
+        if (!(socketAddress instanceof UnixDomainSocketAddress unixAddress))
+            return ServerSocketChannel.open().bind(socketAddress);
+
+        var path = unixAddress.getPath();
+        if (Files.exists(path)) {
+            boolean listening;
+            try (var _ = SocketChannel.open(unixAddress)) {
+                listening = true;
+            } catch (IOException _) {
+                listening = false;
+            }
+            if (listening)
+                throw new IOException("A server is already listening at " + path);
+            Files.deleteIfExists(path);
+        }
+        var channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(unixAddress);
+        path.toFile().deleteOnExit();
+        return channel;
+    }
+
+    /**
+     * Accepts connections until the channel is closed.
+     * @param channel the channel to accept connections from
+     * @throws IOException if a connection cannot be accepted
+     */
+    void serve(ServerSocketChannel channel) throws IOException {
+        var connections = Thread.ofVirtual().name("jasm-connection-", 0);
+        while (channel.isOpen()) {
+            var connection = channel.accept();
+            connections.start(() -> handle(connection));
+        }
+    }
+
+    private void handle(SocketChannel connection) {
+        try (connection) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)));
+            while (true) {
+                Protocol.Request request;
+                try {
+                    request = Protocol.readRequest(in, maxRequest);
+                } catch (Protocol.RequestTooLargeException ex) {
+                    Protocol.writeResult(out, failure(ex.getMessage()));
+                    continue;
+                }
+                if (request == null)
+                    break;
+                Protocol.writeResult(out, assemble(request));
+            }
+        } catch (IOException ex) {
+            err.printf("Connection failed: %s\n", ex.getMessage());
+        } catch (InterruptedException _) {
+            // the server is shutting down
+        }
+    }
+
+    /**
+     * Assembles the code of a request, within its deadline.
+     * @param request the request
+     * @return the result of assembly
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    AssemblyResult assemble(Protocol.Request request) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.deadlineMillis());
+        boolean timed = request.deadlineMillis() > 0;
+        if (!admission.acquire(request.code().length(), timed, deadline))
+            return deadlineExceeded(request);
+
+        JasmEngine engine;
+        try {
+            engine = JasmEngine.create().withTargetVersion(request.targetVersion()).withDropStackMaps(request.dropStackMaps());
+        } catch (IllegalArgumentException ex) {
+            admission.release();
+            return failure(ex.getMessage());
+        }
+
+        var result = new CompletableFuture<AssemblyResult>();
+        var worker = Thread.ofVirtual().name("jasm-assembly").start(() -> {
+            // the permit is held until assembly actually stops, even after the deadline
+            try {
+                result.complete(engine.assemble(request.code()));
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                admission.release();
+            }
+        });
+
+        try {
+            return timed ? result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : result.get();
+        } catch (TimeoutException _) {
+            worker.interrupt();
+            return deadlineExceeded(request);
+        } catch (InterruptedException ex) {
+            worker.interrupt();
+            throw ex;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CancellationException)
+                return deadlineExceeded(request);
+            return failure("Internal error: " + ex.getCause());
+        }
+    }
+
+    private static AssemblyResult deadlineExceeded(Protocol.Request request) {
+        return failure(String.format("Assembly did not finish within %d ms", request.deadlineMillis()));
+    }
+
+    private static AssemblyResult failure(String message) {
+        return new AssemblyResult(Status.Failure, List.of(), List.of(new ErrorMessage(message)));
+    }
+
+    /**
+     * Lets a bounded number of requests be assembled at the same time, admitting the smallest waiting request first (and those of equal size in the order they arrived).
+     */
+    static final class Admission {
+
+        private record Waiter(long size, long sequence, Condition admitted) {}
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+            Comparator.comparingLong(Waiter::size).thenComparingLong(Waiter::sequence)
+        );
+        private int available;
+        private long sequence;
+
+        Admission(int permits) {
+            this.available = permits;
+        }
+
+        /**
+         * Waits until a request may be assembled.
+         * @param size the size of the request
+         * @param timed whether to give up at the deadline
+         * @param deadline the deadline, in terms of {@link System#nanoTime()}
+         * @return whether the request may be assembled, in which case {@link #release()} must be called once it has been
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         */
+        boolean acquire(long size, boolean timed, long deadline) throws InterruptedException {
+            lock.lock();
+            try {
+                if (available > 0 && waiting.isEmpty()) {
+                    --available;
+                    return true;
+                }
+
+                var waiter = new Waiter(size, sequence++, lock.newCondition());
+                waiting.add(waiter);
+                try {
+                    while (waiting.peek() != waiter || available == 0) {
+                        if (!timed)
+                            waiter.admitted().await();
+                        else if (waiter.admitted().awaitNanos(deadline - System.nanoTime()) <= 0
+                                && (waiting.peek() != waiter || available == 0))
+                            return false;
+                    }
+                    --available;
+                    return true;
+                } finally {
+                    waiting.remove(waiter);
+                    signalNext();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns how many requests are waiting.
+         * @return the number of waiting requests
+         */
+        int waiting() {
+            lock.lock();
+            try {
+                return waiting.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                ++available;
+                signalNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void signalNext() {
+            if (available > 0 && !waiting.isEmpty())
+                waiting.peek().admitted().signal();
+        }
+    }
+}
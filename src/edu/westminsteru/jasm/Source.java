@@ -0,0 +1,69 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.JasmParser;
+import edu.westminsteru.jasm.parser.JasmParserListener;
+
+import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Where jasm code to be assembled comes from.
+ */
+sealed interface Source {
+
+    /**
+     * Creates a parser that reads this source from the beginning.
+     * @param listener the listener for the parser
+     * @return the parser
+     */
+    JasmParser parser(JasmParserListener listener);
+
+    /**
+     * Returns the whole content of this source as UTF-8 encoded bytes, e.g. so that it can be split into regions.
+     * @param arena the arena controlling the lifetime of the segment, if one needs to be mapped
+     * @return the bytes
+     * @throws IOException if the source cannot be read
+     */
+    MemorySegment bytes(Arena arena) throws IOException;
+
+    record Text(String text) implements Source {
+        @Override
+        public JasmParser parser(JasmParserListener listener) {
+            return new JasmParser(new BufferedReader(new StringReader(text)), listener);
+        }
+
+        @Override
+        public MemorySegment bytes(Arena arena) {
+            return MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    record Chars(BufferedReader reader) implements Source {
+        @Override
+        public JasmParser parser(JasmParserListener listener) {
+            return new JasmParser(reader, listener);
+        }
+
+        @Override
+        public MemorySegment bytes(Arena arena) throws IOException {
+            var text = new StringWriter();
+            reader.transferTo(text);
+            return MemorySegment.ofArray(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    record File(Path path) implements Source {
+        @Override
+        public JasmParser parser(JasmParserListener listener) {
+            return new JasmParser(path, listener);
+        }
+
+        @Override
+        public MemorySegment bytes(Arena arena) throws IOException {
+            return JasmParser.map(path, arena);
+        }
+    }
+}
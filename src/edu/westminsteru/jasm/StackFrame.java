@@ -0,0 +1,113 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+import edu.westminsteru.jasm.parser.StringView;
+import edu.westminsteru.jasm.parser.SymbolTable;
+
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.attribute.StackMapFrameInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.ObjectVerificationTypeInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.SimpleVerificationTypeInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.UninitializedVerificationTypeInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.VerificationTypeInfo;
+import java.lang.constant.ClassDesc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stack map frame given by a {@code .stack} directive: the types of the locals and of the operand stack at the instruction after the directive.
+ * The directive is written {@code .stack [locals type...] [stack type...]}, where each type is {@code top}, {@code int}, {@code float}, {@code long}, {@code double}, {@code null}, {@code uninitializedThis}, {@code uninitialized} followed by the label of a {@code new} instruction, or a class (an internal name such as {@code java/lang/String}, or a descriptor such as {@code Ljava/lang/String;} or {@code [I}).
+ * As in the class file, a {@code long} or {@code double} is given once, although it takes up two locals.
+ * <p>
+ * The code of a method with {@code .stack} frames is built without stack map generation, so it must give every frame it needs; the frames of the other methods of its class are generated as usual. Frames are not emitted like instructions; {@link ClassAssembler} {@linkplain #resolve resolves} them in order and writes them to the {@code StackMapTable} attribute of the code.
+ * @param locals the types of the locals
+ * @param stack the types on the stack, from the bottom up
+ */
+record StackFrame(List<Type> locals, List<Type> stack) implements Instructions.Lowered {
+
+    /**
+     * A verification type, which may refer to a label of the method.
+     */
+    @FunctionalInterface
+    interface Type {
+        VerificationTypeInfo resolve(CodeBuilder cb, Map<String, Label> labels);
+    }
+
+    /**
+     * Parses the operands of a {@code .stack} directive.
+     * @param operands the operands
+     * @return the frame
+     * @throws AssemblyException if the operands are invalid
+     */
+    static StackFrame lower(List<StringView> operands) throws AssemblyException {
+        var locals = new ArrayList<Type>();
+        var stack = new ArrayList<Type>();
+        List<Type> types = null;
+        for (int i = 0; i < operands.size(); ++i) {
+            var operand = operands.get(i);
+            String text = operand.toString();
+            if (text.equals("locals") || text.equals("stack")) {
+                if (types == stack || (types == locals && text.equals("locals")))
+                    throw new AssemblyException("Unexpected " + text, operand);
+                types = text.equals("locals") ? locals : stack;
+            } else if (types == null)
+                throw new AssemblyException("Expected locals or stack", operand);
+            else if (text.equals("uninitialized")) {
+                if (++i == operands.size())
+                    throw new AssemblyException("Expected label after uninitialized", operand);
+                String label = SymbolTable.shared().intern(operands.get(i));
+                types.add((cb, labels) -> UninitializedVerificationTypeInfo.of(labels.computeIfAbsent(label, _ -> cb.newLabel())));
+            } else {
+                var info = verificationType(operand, text);
+                types.add((cb, labels) -> info);
+            }
+        }
+        return new StackFrame(List.copyOf(locals), List.copyOf(stack));
+    }
+
+    private static VerificationTypeInfo verificationType(StringView operand, String text) throws AssemblyException {
+        if (text.startsWith("[") || (text.startsWith("L") && text.endsWith(";"))) {
+            ClassDesc desc = Operands.parseDescriptor(operand).desc();
+            if (desc.isPrimitive())
+                throw new AssemblyException("Invalid verification type", operand);
+            return ObjectVerificationTypeInfo.of(desc);
+        }
+
+        return switch (text) {
+            case "top" -> SimpleVerificationTypeInfo.TOP;
+            case "int" -> SimpleVerificationTypeInfo.INTEGER;
+            case "float" -> SimpleVerificationTypeInfo.FLOAT;
+            case "long" -> SimpleVerificationTypeInfo.LONG;
+            case "double" -> SimpleVerificationTypeInfo.DOUBLE;
+            case "null" -> SimpleVerificationTypeInfo.NULL;
+            case "uninitializedThis" -> SimpleVerificationTypeInfo.UNINITIALIZED_THIS;
+            default -> {
+                try {
+                    yield ObjectVerificationTypeInfo.of(DescriptorCache.shared().internalName(Operands.parseClassName(operand).value()));
+                } catch (AssemblyException | IllegalArgumentException _) {
+                    throw new AssemblyException("Invalid verification type", operand);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the frame for the current position in the code.
+     * @param cb the {@code CodeBuilder} the code is being emitted to
+     * @param labels the labels of the method so far, by name
+     * @return the frame
+     */
+    StackMapFrameInfo resolve(CodeBuilder cb, Map<String, Label> labels) {
+        var target = cb.newBoundLabel();
+        return StackMapFrameInfo.of(target, resolve(locals, cb, labels), resolve(stack, cb, labels));
+    }
+
+    private static List<VerificationTypeInfo> resolve(List<Type> types, CodeBuilder cb, Map<String, Label> labels) {
+        var infos = new VerificationTypeInfo[types.size()];
+        for (int i = 0; i < infos.length; ++i)
+            infos[i] = types.get(i).resolve(cb, labels);
+        return List.of(infos);
+    }
+}
@@ -0,0 +1,341 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassTransform;
+import java.lang.classfile.attribute.SourceFileAttribute;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Assembles classes while the input is still being parsed. The {@link DefaultJasmParserListener} {@linkplain #submit submits} each class as soon as it is finished, and it is queued for consumer tasks on an executor, which run while there are classes in the queue.
+ * The queue is bounded: when it is full, the parsing thread assembles the class itself, which holds parsing back until the consumers catch up (and cannot deadlock on an executor that is busy with other work or that runs tasks on the calling thread). So no more classes than the queue depth, plus one, are parsed but not yet assembled, and only the bytecode of a class is kept once it has been assembled.
+ * <p>
+ * The results are the same as those of parsing the whole input first. A class whose stack map frames depend on a class that has not been parsed yet (see {@link ClassHierarchy#growing()}) is assembled again once the whole input has been parsed, and classes assembled before a {@code .source} directive get their {@code SourceFile} attribute afterwards.
+ * <p>
+ * Each class is given to the {@link BytecodeSink} as soon as it and the classes declared before it have been assembled, by whichever thread finished the last of them, so that writing the classes overlaps with parsing and assembling the ones after them; its bytecode is dropped then, as is that of a class after one with errors, which is never given to the sink. A class assembled before any {@code .source} directive, or that must be assembled again, is held until the end of the input.
+ * A class cannot be given to the sink without its {@code SourceFile} attribute and then replaced, and only the end of the input shows that there is no {@code .source} directive after it; so for an input with no {@code .source} directive at all, or with one after its classes, the classes are still assembled while the input is parsed, but none is given to the sink before the end.
+ */
+final class StreamingAssembly {
+
+    /** A class to assemble; the results are written by the thread that assembles it and read once it is {@code done} */
+    private static final class Task {
+        DefaultJasmParserListener.ClassSpec spec;
+        final StringView sourceName;
+        Bytecode bytecode;
+        List<ErrorMessage> errorMessages = List.of();
+        Throwable failure;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Task(DefaultJasmParserListener.ClassSpec spec, StringView sourceName) {
+            this.spec = spec;
+            this.sourceName = sourceName;
+        }
+    }
+
+    private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+    /** The places left in the queue */
+    private final Semaphore places;
+    private final int consumers;
+    /** How many consumers are running */
+    private final AtomicInteger active = new AtomicInteger();
+    private final Executor executor;
+    private final BiFunction<DefaultJasmParserListener.ClassSpec, StringView, ClassAssembler> assemblers;
+    private final BytecodeSink sink;
+    /** The classes, in the order they were declared; guarded by itself */
+    private final List<Task> tasks = new ArrayList<>();
+    private boolean missingClass;
+    /** The name from the {@code .source} directive, once it has been parsed */
+    private volatile StringView sourceName;
+    /** Held by the thread giving classes to the sink */
+    private final ReentrantLock delivery = new ReentrantLock();
+    /** How many classes have been given to the sink; written with {@code delivery} held */
+    private volatile int delivered;
+    /** Whether no more classes are given to the sink, because one had errors or the sink failed; written with {@code delivery} held */
+    private volatile boolean stopped;
+    /** Why the sink failed, or {@code null}; guarded by {@code delivery} */
+    private IOException sinkFailure;
+
+    /**
+     * Creates a {@code StreamingAssembly}.
+     * @param queueDepth how many parsed classes may wait to be assembled
+     * @param consumers how many classes may be assembled on the executor at the same time
+     * @param executor the executor to run the consumers on
+     * @param assemblers creates the assembler for a class, given its spec and the name from the {@code .source} directive (or {@code null})
+     * @param sink where to give the classes once they have been assembled
+     */
+    StreamingAssembly(int queueDepth, int consumers, Executor executor, BiFunction<DefaultJasmParserListener.ClassSpec, StringView, ClassAssembler> assemblers, BytecodeSink sink) {
+        this.places = new Semaphore(queueDepth);
+        this.consumers = consumers;
+        this.executor = executor;
+        this.assemblers = assemblers;
+        this.sink = sink;
+    }
+
+    /**
+     * Queues a class to be assembled, or assembles it on the calling thread if the queue is full. Must be called from the parsing thread.
+     * @param spec the class
+     * @param sourceName the name from the {@code .source} directive so far, or {@code null}
+     * @throws java.util.concurrent.CancellationException if the parsing thread has been interrupted
+     */
+    void submit(DefaultJasmParserListener.ClassSpec spec, StringView sourceName) {
+        JasmEngine.checkInterrupted();
+        // classes after one with no name are not assembled
+        if (missingClass)
+            return;
+        else if (spec.className() == null || spec.className().isBlank()) {
+            missingClass = true;
+            return;
+        }
+
+        var task = new Task(spec, sourceName);
+        if (sourceName != null)
+            this.sourceName = sourceName;
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+        if (places.tryAcquire()) {
+            queue.add(task);
+            if (activate()) {
+                try {
+                    executor.execute(this::consume);
+                } catch (RejectedExecutionException _) {
+                    // the task is assembled by another consumer or by finish()
+                    active.decrementAndGet();
+                }
+            }
+        } else
+            run(task);
+    }
+
+    private boolean activate() {
+        for (int n; (n = active.get()) < consumers; ) {
+            if (active.compareAndSet(n, n + 1))
+                return true;
+        }
+        return false;
+    }
+
+    private void consume() {
+        do {
+            for (Task task; (task = queue.poll()) != null; ) {
+                run(task);
+                places.release();
+            }
+            active.decrementAndGet();
+            // a class may have been queued after the queue was found empty but before this consumer stopped
+        } while (!queue.isEmpty() && activate());
+    }
+
+    private void run(Task task) {
+        try {
+            var assembler = assemblers.apply(task.spec, task.sourceName);
+            task.bytecode = assembler.assemble();
+            task.errorMessages = assembler.getErrorMessages();
+            if (!assembler.isIncomplete())
+                task.spec = null;
+            if (stopped)
+                drop(task);
+        } catch (RuntimeException | Error ex) {
+            task.failure = ex;
+        } finally {
+            task.done.countDown();
+        }
+        deliver();
+    }
+
+    /**
+     * Gives the sink the classes that are ready, unless another thread is doing so; that thread checks again for classes that became ready meanwhile.
+     */
+    private void deliver() {
+        do {
+            if (!delivery.tryLock())
+                return;
+            try {
+                drain(false);
+            } finally {
+                delivery.unlock();
+            }
+        } while (!stopped && isReady(next()));
+    }
+
+    /** Returns the next class to give to the sink, or {@code null} */
+    private Task next() {
+        synchronized (tasks) {
+            return (delivered < tasks.size()) ? tasks.get(delivered) : null;
+        }
+    }
+
+    /** Returns whether a class could be given to the sink before the end of the input */
+    private boolean isReady(Task task) {
+        return task != null && task.done.getCount() == 0 && task.failure == null && task.spec == null
+            && (task.sourceName != null || task.bytecode == null || sourceName != null);
+    }
+
+    /**
+     * Gives the sink the classes that are ready, in order, with {@code delivery} held.
+     * @param finishing whether the whole input has been parsed and all the classes have been assembled once, so that no class needs to be held any longer
+     */
+    private void drain(boolean finishing) {
+        for (Task task; !stopped && (task = next()) != null; ) {
+            if (!finishing && !isReady(task))
+                return;
+
+            complete(task);
+            if (task.bytecode == null) {
+                stop();
+                return;
+            }
+            try {
+                sink.accept(task.bytecode);
+            } catch (IOException ex) {
+                sinkFailure = ex;
+                stop();
+                return;
+            }
+            // only the bytecode of classes not yet given to the sink is kept
+            task.bytecode = null;
+            ++delivered;
+        }
+    }
+
+    /** Stops giving classes to the sink, with {@code delivery} held, and drops the bytecode of the classes after the one that stopped it which have been assembled already; the others are dropped as they are assembled */
+    private void stop() {
+        stopped = true;
+        synchronized (tasks) {
+            for (int i = delivered + 1; i < tasks.size(); ++i) {
+                var task = tasks.get(i);
+                if (task.done.getCount() == 0)
+                    drop(task);
+            }
+        }
+    }
+
+    /** Drops the bytecode of a class that will not be given to the sink, unless it may still be assembled again or given its {@code SourceFile} attribute, which may find errors in it */
+    private static void drop(Task task) {
+        if (task.spec == null && task.sourceName != null)
+            task.bytecode = null;
+    }
+
+    /** Assembles a class again if the hierarchy was incomplete, or adds the {@code SourceFile} attribute if it was assembled before the {@code .source} directive */
+    private void complete(Task task) {
+        if (task.spec != null) {
+            var assembler = assemblers.apply(task.spec, sourceName);
+            task.bytecode = assembler.assemble();
+            task.errorMessages = assembler.getErrorMessages();
+            task.spec = null;
+        } else if (task.bytecode != null && task.sourceName == null && sourceName != null)
+            task.bytecode = withSourceFile(task, sourceName);
+    }
+
+    /**
+     * Waits until all the classes have been assembled and given to the sink, once the whole input has been parsed. The class hierarchy must be {@linkplain ClassHierarchy#complete() complete} by then.
+     * @param sourceName the name from the {@code .source} directive, or {@code null}
+     * @return whether all the classes were assembled (otherwise see {@link #getErrorMessages(int)})
+     * @throws UncheckedIOException if the sink could not take a class
+     */
+    boolean finish(StringView sourceName) {
+        for (Task task; (task = queue.poll()) != null; ) {
+            run(task);
+            places.release();
+        }
+
+        boolean interrupted = false;
+        for (var task : tasks) {
+            while (true) {
+                try {
+                    task.done.await();
+                    break;
+                } catch (InterruptedException _) {
+                    interrupted = true;
+                }
+            }
+
+            // ClassAssembler reports errors in the code itself, so this is a cancellation or a bug; rethrow it as is
+            if (task.failure instanceof RuntimeException re)
+                throw re;
+            else if (task.failure instanceof Error e)
+                throw e;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        this.sourceName = sourceName;
+        boolean assembled = true;
+        delivery.lock();
+        try {
+            drain(true);
+            if (sinkFailure != null)
+                throw new UncheckedIOException(sinkFailure);
+
+            // the classes after one with errors are not given to the sink, but their errors are reported all the same
+            for (int i = delivered; i < tasks.size(); ++i) {
+                var task = tasks.get(i);
+                complete(task);
+                assembled &= task.bytecode != null;
+                task.bytecode = null;
+            }
+        } finally {
+            delivery.unlock();
+        }
+        return assembled;
+    }
+
+    /**
+     * Drops the classes left in the queue without assembling them, when parsing has failed.
+     */
+    void cancel() {
+        queue.clear();
+    }
+
+    private static Bytecode withSourceFile(Task task, StringView sourceName) {
+        var classFile = ClassFile.of();
+        try {
+            byte[] data = classFile.transformClass(
+                classFile.parse(task.bytecode.data()),
+                ClassTransform.endHandler(cb -> cb.with(SourceFileAttribute.of(sourceName.toString())))
+            );
+            return new Bytecode(task.bytecode.className(), data);
+        } catch (IllegalArgumentException ex) {
+            task.errorMessages = List.of(new ErrorMessage("Invalid .source: " + ex.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Returns how many classes were submitted to be assembled, not counting those skipped after one without a name.
+     * @return the number of classes
+     */
+    int getClassCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Returns the errors found while assembling a class, once {@link #finish(StringView)} has returned.
+     * @param index the index of the class
+     * @return the error messages (empty if there were none)
+     */
+    List<ErrorMessage> getErrorMessages(int index) {
+        return tasks.get(index).errorMessages;
+    }
+
+    /**
+     * Returns whether a class without a name was submitted, in which case it and all the classes after it were not assembled.
+     * @return whether a class was missing its directive
+     */
+    boolean isMissingClass() {
+        return missingClass;
+    }
+}
@@ -4,6 +4,6 @@ import edu.westminsteru.jasm.parser.StringView;
 
 import java.util.List;
 
-record Table(List<Entry> entries) implements CodeItem {
+record Table(List<Entry> entries) {
     record Entry(StringView label, StringView target) {}
 }
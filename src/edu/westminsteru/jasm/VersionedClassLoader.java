@@ -0,0 +1,57 @@
+package edu.westminsteru.jasm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class loader for one version of a set of assembled classes, so that new versions of the classes can be loaded next to the old ones without restarting the JVM (see {@link Watch}).
+ * Its own classes are loaded from their bytecode, even if classes of the same names can be found on the class path (e.g. because the output directory is on it); all other classes are loaded by the system class loader.
+ */
+final class VersionedClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final int version;
+    /** The bytecode of the classes, by binary name */
+    private final Map<String, byte[]> classes;
+
+    /**
+     * Creates a {@code VersionedClassLoader}.
+     * @param version the version of the classes, counting from 1
+     * @param bytecodes the classes
+     */
+    VersionedClassLoader(int version, List<Bytecode> bytecodes) {
+        super("jasm-" + version, ClassLoader.getSystemClassLoader());
+        this.version = version;
+        this.classes = new HashMap<>(bytecodes.size() * 2);
+        for (var bytecode : bytecodes)
+            classes.putIfAbsent(bytecode.className().replace('/', '.'), bytecode.data());
+    }
+
+    /**
+     * Returns the version of the classes of this loader.
+     * @return the version, counting from 1
+     */
+    int getVersion() {
+        return version;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        byte[] data = classes.get(name);
+        if (data == null)
+            return super.loadClass(name, resolve);
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null)
+                c = defineClass(name, data, 0, data.length);
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the input files for {@link Main}'s {@code --watch} option. After assembling the files once, it waits for changes with a {@link WatchService} and reassembles only the files that changed, rewriting only their classes (and deleting the classes that a file no longer declares).
+ * The JVM, the shared tables of the assembler, and the JDK hierarchy index stay warm between changes, so that a change is assembled in milliseconds rather than the seconds it takes to start a JVM.
+ * <p>
+ * After every change, the classes of all the files can be handed to a harness in a fresh {@link VersionedClassLoader}, so that the new versions of the classes run without restarting the JVM. If a file has errors, the last classes assembled from it are used.
+ */
+final class Watch {
+
+    /** How long to wait for more changes after one, since editors often write a file in several steps */
+    private static final long SETTLE_MILLIS = 50;
+
+    private final List<Batch.Root> roots;
+    private final JasmEngine engine;
+    private final Path outPath;
+    private final ForkJoinPool pool;
+    private final PrintStream out, err;
+    /** What to do with the classes after every change, or {@code null} */
+    private final Consumer<VersionedClassLoader> harness;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /** The classes of each file from the last time it was assembled, by the normalized path of the file */
+    private final Map<Path, List<Bytecode>> classes = new LinkedHashMap<>();
+    private int version;
+
+    /**
+     * Creates a {@code Watch} and starts watching the directories of the input files.
+     * @param arguments the paths, directories, and patterns of the input files (see {@link Batch#root(String)})
+     * @param engine the engine to assemble files with
+     * @param outPath the directory to save classes in
+     * @param pool the pool on which to assemble files
+     * @param out where to report each change
+     * @param err where to print errors
+     * @param harness what to do with the classes after every change, or {@code null}
+     * @throws IOException if a directory cannot be watched
+     */
+    Watch(List<String> arguments, JasmEngine engine, Path outPath, ForkJoinPool pool, PrintStream out, PrintStream err, Consumer<VersionedClassLoader> harness) throws IOException {
+        this.roots = arguments.stream().map(Batch::root).toList();
+        this.engine = engine;
+        this.outPath = outPath;
+        this.pool = pool;
+        this.out = out;
+        this.err = err;
+        this.harness = harness;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        for (var root : roots) {
+            if (root.file() != null)
+                register(root.directory());
+            else if (Files.isDirectory(root.directory()))
+                registerTree(root.directory(), null);
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        var key = directory.register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE
+        );
+        directories.put(key, directory);
+    }
+
+    /** Watches a directory and its subdirectories, adding the input files in them to {@code found} if it is not {@code null} */
+    private void registerTree(Path directory, TreeSet<Path> found) throws IOException {
+        // a directory is watched before it is listed, so that a file created in it meanwhile is either listed or reported
+        register(directory);
+        try (var entries = Files.newDirectoryStream(directory)) {
+            for (var entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+                    registerTree(entry, found);
+                else if (found != null && isInput(entry))
+                    found.add(entry.normalize());
+            }
+        }
+    }
+
+    /**
+     * Assembles the input files, then reassembles them as they change, until the thread is interrupted.
+     * @param inputs the input files
+     * @throws IOException if a new directory cannot be watched
+     * @throws InterruptedException if the thread is interrupted while waiting for changes
+     */
+    void run(List<Batch.Input> inputs) throws IOException, InterruptedException {
+        assemble(inputs, List.of());
+        while (true) {
+            var changed = new TreeSet<Path>();
+            collect(watchService.take(), changed);
+            for (WatchKey key; (key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null; )
+                collect(key, changed);
+
+            inputs = new ArrayList<>();
+            var removed = new ArrayList<Path>();
+            for (var path : changed) {
+                if (Files.isRegularFile(path))
+                    inputs.add(new Batch.Input(path, Batch.size(path)));
+                else if (classes.containsKey(path))
+                    removed.add(path);
+            }
+            if (!inputs.isEmpty() || !removed.isEmpty())
+                assemble(inputs, removed);
+        }
+    }
+
+    private void collect(WatchKey key, TreeSet<Path> changed) throws IOException {
+        Path directory = directories.get(key);
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, so every file may have changed
+                for (var root : roots) {
+                    if (root.file() != null)
+                        changed.add(root.file().normalize());
+                    else if (Files.isDirectory(root.directory()))
+                        registerTree(root.directory(), changed);
+                }
+                changed.addAll(classes.keySet());
+                continue;
+            }
+
+            Path path = directory.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (isUnderRoot(path))
+                    registerTree(path, changed);
+            } else if (isInput(path) || classes.containsKey(path.normalize()))
+                changed.add(path.normalize());
+        }
+        if (!key.reset())
+            directories.remove(key);
+    }
+
+    private boolean isUnderRoot(Path path) {
+        for (var root : roots) {
+            if (root.file() == null && path.startsWith(root.directory()))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isInput(Path path) {
+        for (var root : roots) {
+            if ((root.file() != null || path.startsWith(root.directory())) && root.filter().test(path))
+                return true;
+        }
+        return false;
+    }
+
+    private void assemble(List<Batch.Input> inputs, List<Path> removed) {
+        long start = System.nanoTime();
+        // the classes of each file are also kept, for the harness and to find those it no longer declares
+        var kept = new ConcurrentHashMap<Path, BytecodeSink.InMemory>();
+        var saved = BytecodeSink.toDirectory(outPath);
+        var outcomes = Batch.assemble(inputs, engine::assemble, path -> {
+            var sink = BytecodeSink.inMemory();
+            kept.put(path, sink);
+            return saved.andThen(sink);
+        }, pool, err, true);
+        int assembled = 0;
+        for (int i = 0; i < inputs.size(); ++i) {
+            if (outcomes.get(i).success()) {
+                var bytecodes = kept.get(inputs.get(i).path()).getBytecodes();
+                var previous = classes.put(inputs.get(i).path().normalize(), bytecodes);
+                if (previous != null)
+                    deleteStale(previous, bytecodes);
+                ++assembled;
+            }
+        }
+        for (var path : removed)
+            deleteStale(classes.remove(path), List.of());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        out.printf("Assembled %d of %d files in %d ms", assembled, inputs.size(), millis);
+        if (!removed.isEmpty())
+            out.printf(", removed %d", removed.size());
+        out.println();
+        if (harness != null && (assembled > 0 || !removed.isEmpty())) {
+            var bytecodes = new ArrayList<Bytecode>();
+            classes.values().forEach(bytecodes::addAll);
+            harness.accept(new VersionedClassLoader(++version, bytecodes));
+        }
+    }
+
+    /** Deletes the class files of classes that a file no longer declares */
+    private void deleteStale(List<Bytecode> previous, List<Bytecode> current) {
+        for (var bytecode : previous) {
+            if (current.stream().noneMatch(b -> b.className().equals(bytecode.className()))) {
+                Path destPath = outPath.resolve(bytecode.className() + ".class");
+                try {
+                    Files.deleteIfExists(destPath);
+                } catch (IOException ex) {
+                    err.printf("Unable to delete %s\n", destPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a harness that runs the {@code main} method of a class, with no arguments. The method is run on the watching thread, so it should return before the next change can be assembled.
+     * @param className the binary name of the class
+     * @param err where to report failures
+     * @return the harness
+     */
+    static Consumer<VersionedClassLoader> runner(String className, PrintStream err) {
+        return loader -> {
+            try {
+                Class<?> c = Class.forName(className, true, loader);
+                c.getMethod("main", String[].class).invoke(null, (Object)new String[0]);
+            } catch (InvocationTargetException ex) {
+                err.printf("%s (version %d) threw an exception:\n", className, loader.getVersion());
+                ex.getCause().printStackTrace(err);
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                err.printf("Unable to run %s: %s\n", className, ex);
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Finds line boundaries and whitespace runs in UTF-8 encoded jasm code without decoding it. {@link JasmParser} uses this class to skip over lines that hold nothing for the listener.
+ * <p>
+ * This class is the scalar implementation, which looks at one byte at a time. The vectorized implementation, which uses SIMD instructions to look at many bytes at once, needs the incubating {@code jdk.incubator.vector} module, so it lives in the separate {@code jasm-vector} module (under {@code vector/src}) rather than in the default build. When its class is on the class path and the JVM was started with {@code --add-modules jdk.incubator.vector}, {@link #get()} returns it instead; both give the same results.
+ * All indices are byte offsets into the segment, and every method looks only at the bytes in {@code [from, to)}.
+ */
+class ByteScanner {
+
+    private static final ByteScanner INSTANCE = load();
+
+    ByteScanner() {}
+
+    /**
+     * Returns the fastest available {@code ByteScanner}.
+     * @return the vectorized scanner if the Vector API is available, otherwise the scalar one
+     */
+    static ByteScanner get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the scalar {@code ByteScanner}.
+     * @return the scalar scanner
+     */
+    static ByteScanner scalar() {
+        return new ByteScanner();
+    }
+
+    private static ByteScanner load() {
+        if (Boolean.getBoolean("jasm.scalar") || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return scalar();
+        try {
+            return (ByteScanner)Class.forName("edu.westminsteru.jasm.parser.VectorByteScanner")
+                .getDeclaredConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException | LinkageError _) {
+            return scalar();
+        }
+    }
+
+    /**
+     * Returns the index of the first line terminator ({@code \n} or {@code \r}).
+     * @param bytes the input
+     * @param from the index to start at (inclusive)
+     * @param to the index to stop at (exclusive)
+     * @return the index of the first line terminator, or {@code to} if there is none
+     */
+    long lineEnd(MemorySegment bytes, long from, long to) {
+        for (long i = from; i < to; ++i) {
+            byte b = bytes.get(ValueLayout.JAVA_BYTE, i);
+            if (b == '\n' || b == '\r')
+                return i;
+        }
+        return to;
+    }
+
+    /**
+     * Returns the index of the first byte that is not ASCII whitespace (as defined by {@link Character#isWhitespace(int)}).
+     * Non-ASCII bytes never count as whitespace.
+     * @param bytes the input
+     * @param from the index to start at (inclusive)
+     * @param to the index to stop at (exclusive)
+     * @return the index of the first non-whitespace byte, or {@code to} if there is none
+     */
+    long skipWhitespace(MemorySegment bytes, long from, long to) {
+        for (long i = from; i < to; ++i)
+            if (!isWhitespace(bytes.get(ValueLayout.JAVA_BYTE, i)))
+                return i;
+        return to;
+    }
+
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+    }
+}
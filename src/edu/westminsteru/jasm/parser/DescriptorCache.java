@@ -0,0 +1,240 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of nominal descriptors ({@link ClassDesc}s and {@link MethodTypeDesc}s), so that a descriptor or class name that occurs over and over is validated and built only once.
+ * Descriptors are looked up by hashing and comparing their text in place, as a {@link SymbolTable} does, so a hit costs no allocation. Only valid descriptors are cached, and only their text is {@linkplain SymbolTable interned}; an invalid one is scanned again each time, so that its error points at the exact offending character, and never reaches the symbol table.
+ * <p>
+ * Each kind of descriptor (field type descriptor, method descriptor, internal class name) has its own table holding at most {@link #capacity()} entries. When a table is full, an entry that has not been used since the last sweep is evicted (the "clock" approximation of least recently used).
+ * A {@code DescriptorCache} is safe for concurrent use: lookups take no locks, and adding an entry locks only its table. The {@linkplain #shared() shared} cache is used by all parsers and assemblers, so it stays warm from one assembly to the next; its {@link #stats() statistics} show whether it is big enough.
+ */
+public final class DescriptorCache {
+
+    /** The capacity of each table of the shared cache */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final DescriptorCache SHARED = new DescriptorCache(DEFAULT_CAPACITY);
+
+    /**
+     * The number of lookups that found their descriptor in a {@code DescriptorCache} and that did not, the number of entries evicted to make room for others, and the number of entries currently held.
+     * @param hits      the number of lookups answered from the cache
+     * @param misses    the number of lookups that built a new descriptor
+     * @param evictions the number of entries evicted
+     * @param size      the number of entries in the cache
+     */
+    public record Stats(long hits, long misses, long evictions, int size) {
+
+        /**
+         * Returns the fraction of lookups answered from the cache.
+         * @return the hit rate, between 0 and 1 (0 if there have been no lookups)
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return (lookups == 0) ? 0 : (double)hits / lookups;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Builder<V> {
+        V build() throws DescriptorScanner.InvalidDescriptorException;
+    }
+
+    private static final class Entry<V> {
+        private final int hash;
+        private final String text;
+        private final V value;
+        /** Set on each hit and cleared as the clock hand passes; a benign race, since it only guides eviction */
+        private boolean referenced;
+
+        private Entry(int hash, String text, V value) {
+            this.hash = hash;
+            this.text = text;
+            this.value = value;
+        }
+    }
+
+    private record Node<V>(Entry<V> entry, Node<V> next) {}
+
+    private final class Table<V> {
+        /** The entries by hash; an entry is added at the head of its chain and {@linkplain #remove removed} by copying the nodes before it, so lookups need no lock */
+        private final AtomicReferenceArray<Node<V>> chains;
+        /** The entries in clock order; guarded by this table */
+        private final Entry<?>[] ring = new Entry<?>[capacity];
+        private int hand = 0;
+        private volatile int size = 0;
+
+        private Table() {
+            chains = new AtomicReferenceArray<>(Math.min(Integer.highestOneBit(capacity) << 1, 1 << 30));
+        }
+
+        private V get(String source, int start, int end, Builder<V> builder) throws DescriptorScanner.InvalidDescriptorException {
+            int hash = StringView.hash(source, start, end);
+            var entry = find(hash, source, start, end);
+            if (entry != null) {
+                entry.referenced = true;
+                hits.increment();
+                return entry.value;
+            }
+
+            misses.increment();
+            V value = builder.build(); // outside the lock; at worst two threads build the same descriptor
+            // only now that the descriptor is known to be valid is its text kept
+            String text = (start == 0 && end == source.length()) ? source : SymbolTable.shared().intern(source, start, end);
+            synchronized (this) {
+                var existing = find(hash, source, start, end);
+                if (existing != null)
+                    return existing.value;
+                while (ring[hand] != null && ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                if (ring[hand] != null) {
+                    remove(ring[hand]);
+                    evictions.increment();
+                } else
+                    ++size;
+                var added = new Entry<>(hash, text, value);
+                ring[hand] = added;
+                int index = index(hash);
+                chains.set(index, new Node<>(added, chains.get(index)));
+                hand = (hand + 1) % ring.length;
+            }
+            return value;
+        }
+
+        private int index(int hash) {
+            return (hash ^ (hash >>> 16)) & (chains.length() - 1);
+        }
+
+        private Entry<V> find(int hash, String source, int start, int end) {
+            for (var node = chains.get(index(hash)); node != null; node = node.next) {
+                var entry = node.entry;
+                if (entry.hash == hash && entry.text.length() == end - start && source.startsWith(entry.text, start))
+                    return entry;
+            }
+            return null;
+        }
+
+        /** Removes an entry by copying the nodes before it in its chain; guarded by this table */
+        private void remove(Entry<?> entry) {
+            int index = index(entry.hash);
+            chains.set(index, without(chains.get(index), entry));
+        }
+
+        private Node<V> without(Node<V> node, Entry<?> entry) {
+            return (node.entry == entry) ? node.next : new Node<>(node.entry, without(node.next, entry));
+        }
+
+        private synchronized void clear() {
+            for (int i = 0; i < chains.length(); ++i)
+                chains.set(i, null);
+            Arrays.fill(ring, null);
+            hand = 0;
+            size = 0;
+        }
+    }
+
+    private final int capacity;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    private final Table<ClassDesc> types;
+    private final Table<MethodTypeDesc> methodTypes;
+    private final Table<ClassDesc> internalNames;
+
+    /**
+     * Creates an empty {@code DescriptorCache}.
+     * @param capacity the maximum number of entries of each kind
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    public DescriptorCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.types = new Table<>();
+        this.methodTypes = new Table<>();
+        this.internalNames = new Table<>();
+    }
+
+    /**
+     * Returns the cache shared by default by all parsers and assemblers.
+     * @return the shared cache
+     */
+    public static DescriptorCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the {@code ClassDesc} of a field type descriptor, as {@link DescriptorScanner#typeDescriptor(StringView)} does.
+     * @param text the descriptor
+     * @return the {@code ClassDesc} described
+     * @throws DescriptorScanner.InvalidDescriptorException if {@code text} is not a valid field type descriptor
+     */
+    public ClassDesc typeDescriptor(StringView text) throws DescriptorScanner.InvalidDescriptorException {
+        // scan the view itself, so that an error points into the original source
+        return types.get(text.source(), text.start(), text.end(), () -> DescriptorScanner.typeDescriptor(text));
+    }
+
+    /**
+     * Returns the {@code MethodTypeDesc} of a method descriptor, as {@link DescriptorScanner#methodDescriptor(StringView)} does.
+     * @param text the descriptor
+     * @return the {@code MethodTypeDesc} described
+     * @throws DescriptorScanner.InvalidDescriptorException if {@code text} is not a valid method descriptor
+     */
+    public MethodTypeDesc methodDescriptor(StringView text) throws DescriptorScanner.InvalidDescriptorException {
+        return methodTypes.get(text.source(), text.start(), text.end(), () -> DescriptorScanner.methodDescriptor(text));
+    }
+
+    /**
+     * Returns the {@code ClassDesc} of a class or interface with the given internal name (such as {@code java/lang/String}), as {@link ClassDesc#ofInternalName(String)} does.
+     * @param internalName the internal name
+     * @return the {@code ClassDesc} of the class
+     * @throws IllegalArgumentException if the name is not a valid internal name
+     */
+    public ClassDesc internalName(String internalName) {
+        return internalName(internalName, 0, internalName.length());
+    }
+
+    /** Returns the {@code ClassDesc} of the internal name in a range of a {@code String}, without copying it unless it is new */
+    ClassDesc internalName(String source, int start, int end) {
+        try {
+            return internalNames.get(source, start, end, () -> ClassDesc.ofInternalName(source.substring(start, end)));
+        } catch (DescriptorScanner.InvalidDescriptorException ex) {
+            throw new AssertionError(ex); // not thrown by ofInternalName
+        }
+    }
+
+    /**
+     * Returns the maximum number of entries of each kind.
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the statistics of this cache since it was created or last {@linkplain #clear() cleared}.
+     * @return the statistics
+     */
+    public Stats stats() {
+        return new Stats(
+            hits.sum(), misses.sum(), evictions.sum(),
+            types.size + methodTypes.size + internalNames.size
+        );
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        types.clear();
+        methodTypes.clear();
+        internalNames.clear();
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+}
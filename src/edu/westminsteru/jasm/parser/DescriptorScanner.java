@@ -0,0 +1,172 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.Arrays;
+
+/**
+ * A single-pass recognizer for field type descriptors (such as {@code [Ljava/lang/String;}) and method descriptors (such as {@code (IJ)V}). The descriptor is checked directly on a {@link StringView}, and the corresponding {@link ClassDesc} or {@link MethodTypeDesc} is built in the same pass.
+ * When a descriptor is invalid, the {@link InvalidDescriptorException} points at the exact character where scanning failed.
+ */
+public final class DescriptorScanner {
+
+    /** The maximum number of array dimensions allowed by the JVM */
+    private static final int MAX_ARRAY_RANK = 255;
+
+    private static final ClassDesc[] NO_PARAMETERS = new ClassDesc[0];
+
+    private final String source;
+    private final int end;
+    private int pos;
+
+    private DescriptorScanner(StringView text) {
+        this.source = text.source();
+        this.end = text.end();
+        this.pos = text.start();
+    }
+
+    /**
+     * Scans a field type descriptor.
+     * @param text the descriptor
+     * @return the {@code ClassDesc} described
+     * @throws InvalidDescriptorException if {@code text} is not a valid field type descriptor
+     */
+    public static ClassDesc typeDescriptor(StringView text) throws InvalidDescriptorException {
+        var scanner = new DescriptorScanner(text);
+        ClassDesc type = scanner.type(false);
+        scanner.expectEnd();
+        return type;
+    }
+
+    /**
+     * Scans a method descriptor.
+     * @param text the descriptor
+     * @return the {@code MethodTypeDesc} described
+     * @throws InvalidDescriptorException if {@code text} is not a valid method descriptor
+     */
+    public static MethodTypeDesc methodDescriptor(StringView text) throws InvalidDescriptorException {
+        var scanner = new DescriptorScanner(text);
+        if (scanner.pos == scanner.end || scanner.source.charAt(scanner.pos) != '(')
+            throw scanner.error("expected '(' at start of parameter types");
+        ++scanner.pos;
+
+        ClassDesc[] parameters = NO_PARAMETERS;
+        int count = 0;
+        while (scanner.pos < scanner.end && scanner.source.charAt(scanner.pos) != ')') {
+            if (count == parameters.length)
+                parameters = Arrays.copyOf(parameters, Math.max(4, count * 2));
+            parameters[count++] = scanner.type(false);
+        }
+        if (scanner.pos == scanner.end)
+            throw scanner.error("missing ')' after parameter types");
+        ++scanner.pos;
+
+        ClassDesc returnType = scanner.type(true);
+        scanner.expectEnd();
+        return MethodTypeDesc.of(
+            returnType,
+            count == parameters.length ? parameters : Arrays.copyOf(parameters, count)
+        );
+    }
+
+    private ClassDesc type(boolean allowVoid) throws InvalidDescriptorException {
+        int start = pos;
+        while (pos < end && source.charAt(pos) == '[')
+            ++pos;
+        int rank = pos - start;
+        if (rank > MAX_ARRAY_RANK) {
+            pos = start + MAX_ARRAY_RANK;
+            throw error("too many array dimensions (at most " + MAX_ARRAY_RANK + " allowed)");
+        }
+        if (pos == end)
+            throw error("missing type");
+
+        ClassDesc type = switch (source.charAt(pos)) {
+            case 'B' -> ConstantDescs.CD_byte;
+            case 'S' -> ConstantDescs.CD_short;
+            case 'I' -> ConstantDescs.CD_int;
+            case 'J' -> ConstantDescs.CD_long;
+            case 'F' -> ConstantDescs.CD_float;
+            case 'D' -> ConstantDescs.CD_double;
+            case 'C' -> ConstantDescs.CD_char;
+            case 'Z' -> ConstantDescs.CD_boolean;
+            case 'V' -> {
+                if (!allowVoid || rank > 0)
+                    throw error("V (void) is only allowed as a return type");
+                yield ConstantDescs.CD_void;
+            }
+            case 'L' -> null;
+            default -> throw error("unexpected '" + source.charAt(pos) + "' (expected one of BSIJFDCZ, L, or [)");
+        };
+
+        if (type == null)
+            type = className();
+        else
+            ++pos;
+
+        return (rank == 0) ? type : type.arrayType(rank);
+    }
+
+    private ClassDesc className() throws InvalidDescriptorException {
+        int start = ++pos;
+        int segmentStart = start;
+        for (; pos < end; ++pos) {
+            char c = source.charAt(pos);
+            if (c == ';' || c == '/') {
+                if (pos == segmentStart)
+                    throw error(c == ';' ? "empty class name" : "empty package name");
+                if (c == ';')
+                    return DescriptorCache.shared().internalName(source, start, pos++);
+                segmentStart = pos + 1;
+            } else if (!isClassNameChar(c))
+                throw error("unexpected '" + c + "' in class name");
+        }
+
+        throw error("missing ';' at end of class name");
+    }
+
+    private static boolean isClassNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+            || c == '_' || c == '$';
+    }
+
+    private void expectEnd() throws InvalidDescriptorException {
+        if (pos < end)
+            throw error("unexpected trailing text");
+    }
+
+    private InvalidDescriptorException error(String message) {
+        return new InvalidDescriptorException(
+            message,
+            new StringView(source, pos, Math.min(pos + 1, end))
+        );
+    }
+
+    /**
+     * An exception indicating that a descriptor could not be scanned.
+     */
+    public static class InvalidDescriptorException extends Exception {
+
+        /** The character at which scanning failed */
+        private final StringView target;
+
+        /**
+         * Creates an {@code InvalidDescriptorException}.
+         * @param message the error message
+         * @param target the offending character (or an empty view at the end of the descriptor if it ended too soon)
+         */
+        public InvalidDescriptorException(String message, StringView target) {
+            super(message);
+            this.target = target;
+        }
+
+        /**
+         * Returns a {@link StringView} of the character at which scanning failed. It is empty if the descriptor ended too soon.
+         * @return the offending character
+         */
+        public StringView getTarget() {
+            return target;
+        }
+    }
+}
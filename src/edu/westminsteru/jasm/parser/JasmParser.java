@@ -3,13 +3,24 @@ package edu.westminsteru.jasm.parser;
 import edu.westminsteru.jasm.Flags;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 /**
  * A parser for jasm code. This parser does not construct any sort of parse tree on its own; rather, an implementation of {@link edu.westminsteru.jasm.parser.JasmParserListener} is notified as elements of the code are parsed.
+ * Input can come from a {@link Reader} or, for large inputs, from UTF-8 encoded bytes that are lexed in place (see {@link #JasmParser(Path, JasmParserListener)} and {@link #JasmParser(MemorySegment, JasmParserListener)}).
  */
 public class JasmParser {
 
@@ -29,28 +40,35 @@ public class JasmParser {
         Aborted
     }
 
+    /**
+     * A range of UTF-8 encoded input that can be parsed on its own (see {@link #classRegions(MemorySegment)}).
+     * @param offset the byte offset at which the region begins
+     * @param length the length of the region in bytes
+     * @param firstLineNumber the line number of the first line of the region within the whole input (counted from 1)
+     */
+    public record Region(long offset, long length, int firstLineNumber) {}
+
     private BufferedReader in;
+    private Path file;
+    private MemorySegment input;
     private JasmParserListener listener;
     private int lineNumber = 0; // line numbers start at 1? I guess?
-    private String line;
     private State state = State.Global;
-    private StringBuilder stringBuilder = new StringBuilder(50);
+    private byte[] lineBuffer = new byte[128];
+    private final TokenCursor tokens = new TokenCursor();
+    private final ByteScanner scanner = ByteScanner.get();
     private boolean aborted = false;
 
-    private static final String TYPE_REGEX = "(\\[)*([BSIJFDCZ]|L[a-zA-Z0-9_/$]+;)";
-    private static Pattern TYPE_DESCRIPTOR_PATTERN = Pattern.compile(
-        "^" + TYPE_REGEX + "$"
-    );
-
-    private static Pattern METHOD_SIGNATURE_DESCRIPTOR_PATTERN = Pattern.compile(
-        "^\\(" +
-            "(" + TYPE_REGEX + ")*" +
-            "\\)" +
-            "(" +
-                "(" + TYPE_REGEX + ")" +
-                "|V" +
-            ")$"
-    );
+    private Arena arena;
+    private MemorySegment bytes;
+    private long pos = 0;
+    private boolean started = false, finished = false;
+
+    private static final byte[] END = ".end".getBytes(StandardCharsets.US_ASCII);
+    private static final MemorySegment END_SEGMENT = MemorySegment.ofArray(END);
+
+    private ClassDesc currentTypeDescriptor;
+    private MethodTypeDesc currentMethodTypeDescriptor;
 
     /**
      * Create a new {@code JasmParser}
@@ -62,15 +80,274 @@ public class JasmParser {
         this.listener = listener;
     }
 
+    /**
+     * Create a new {@code JasmParser} that reads a UTF-8 encoded file. The file is memory-mapped when {@link #parse()} is called and lexed in place; a line is only decoded to a {@code String} when the listener asks for its text (or when it has non-ASCII characters outside of a comment).
+     * @param file the file to read from
+     * @param listener the listener to notify of parsing events
+     */
+    public JasmParser(Path file, JasmParserListener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    /**
+     * Create a new {@code JasmParser} that reads UTF-8 encoded code directly from a {@code MemorySegment}. A line is only decoded to a {@code String} when the listener asks for its text (or when it has non-ASCII characters outside of a comment).
+     * @param input the bytes of the code
+     * @param listener the listener to notify of parsing events
+     */
+    public JasmParser(MemorySegment input, JasmParserListener listener) {
+        this.input = input;
+        this.listener = listener;
+    }
+
+    /**
+     * Create a new {@code JasmParser} that reads only one region of UTF-8 encoded code in a {@code MemorySegment}. Line numbers reported to the listener are those within the whole input.
+     * @param input the bytes of the code
+     * @param region the region of {@code input} to parse
+     * @param listener the listener to notify of parsing events
+     * @see #classRegions(MemorySegment)
+     */
+    public JasmParser(MemorySegment input, Region region, JasmParserListener listener) {
+        this.input = input.asSlice(region.offset(), region.length());
+        this.lineNumber = region.firstLineNumber() - 1;
+        this.listener = listener;
+    }
+
+    /**
+     * Memory-maps a file (read-only) so that it can be given to {@link #JasmParser(MemorySegment, JasmParserListener)}.
+     * @param file the file to map
+     * @param arena the arena controlling the lifetime of the mapping
+     * @return a {@code MemorySegment} holding the content of the file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MemorySegment map(Path file, Arena arena) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        }
+    }
+
     /**
      * Parses the input. Callbacks of the supplied {@link edu.westminsteru.jasm.parser.JasmParserListener} will be called as elements of the file are parsed.
+     * @throws UncheckedIOException if the input cannot be read
      */
     public void parse() {
-        if (state != State.Global)
+        if (started)
             throw new IllegalStateException("parse() has already been called");
-        in.lines().map(StringView::of).forEach(this::process);
-        state = State.EndOfInput;
+        while (parseNextLine())
+            ; // keep going
+    }
+
+    /**
+     * Parses the next line of input, calling {@link JasmParserListener#endOfInput(JasmParser)} once there are no more lines (or parsing has been aborted). This lets {@link JasmReader} drive the parser one line at a time.
+     * @return {@code false} once the end of the input has been reached
+     */
+    boolean parseNextLine() {
+        if (finished)
+            return false;
+        if (!started)
+            start();
+        if (!aborted && nextLine())
+            return true;
+
+        finished = true;
+        close();
+        state = aborted ? State.Aborted : State.EndOfInput;
         listener.endOfInput(this);
+        return false;
+    }
+
+    /**
+     * Skips the rest of the current {@code .code} block without parsing it, up to its {@code .end code} directive (which is parsed as usual). Skipped lines are only checked for {@code .end code}, so they are not reported to the listener and any errors in them go unnoticed.
+     * @throws IllegalStateException if the parser is not inside a {@code .code} block
+     */
+    void skipToEndCode() {
+        if (state != State.Code && state != State.Table)
+            throw new IllegalStateException("Not inside a .code block");
+        state = State.Code;
+
+        while (!aborted) {
+            String text;
+            if (in != null) {
+                text = readLine();
+                if (text == null)
+                    return;
+                if (text.indexOf(".end") < 0)
+                    text = null;
+            } else {
+                long length = bytes.byteSize();
+                if (pos >= length)
+                    return;
+                long end = scanner.lineEnd(bytes, pos, length);
+                long first = scanner.skipWhitespace(bytes, pos, end);
+                // only decode lines that could be .end code
+                text = (end - first >= END.length && MemorySegment.mismatch(bytes, first, first + END.length, END_SEGMENT, 0, END.length) < 0)
+                    ? decode(bytes, pos, end)
+                    : null;
+                pos = skipLineTerminator(bytes, end, length);
+            }
+
+            if (text != null && tokens.reset(text).count() == 2 && tokens.is(0, ".end") && tokens.is(1, "code")) {
+                process(text);
+                return;
+            }
+            ++lineNumber;
+        }
+    }
+
+    /**
+     * Releases the input if the parser memory-mapped it itself. This happens automatically once the end of the input is reached.
+     */
+    void close() {
+        if (arena != null) {
+            arena.close();
+            arena = null;
+        }
+    }
+
+    private void start() {
+        started = true;
+        if (file != null) {
+            arena = Arena.ofConfined();
+            try {
+                bytes = map(file, arena);
+            } catch (IOException ex) {
+                close();
+                throw new UncheckedIOException(ex);
+            }
+        } else
+            bytes = input;
+    }
+
+    private boolean nextLine() {
+        if (in != null) {
+            String text = readLine();
+            if (text == null)
+                return false;
+            process(text);
+            return true;
+        }
+
+        long length = bytes.byteSize();
+        if (pos >= length)
+            return false;
+
+        long end = scanner.lineEnd(bytes, pos, length);
+        long first = scanner.skipWhitespace(bytes, pos, end);
+
+        if (first == end || bytes.get(ValueLayout.JAVA_BYTE, first) == '#')
+            ++lineNumber; // blank or comment only: nothing for the listener to see, so don't bother decoding
+        else if (!aborted && tokens.tryReset(bytes, pos, end))
+            processTokens(); // most lines are ASCII, so they are split where they lie and decoded only if asked for
+        else
+            process(decode(bytes, pos, end));
+
+        pos = skipLineTerminator(bytes, end, length);
+        return true;
+    }
+
+    private String readLine() {
+        try {
+            return in.readLine();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Splits UTF-8 encoded code into regions that each hold one {@code .class}/{@code .interface}/{@code .enum} directive and what follows it, so that the regions can be parsed independently (for example, in parallel).
+     * The first region also holds anything before the first class directive.
+     * Parsing the regions in order with a fresh parser for each produces the same callbacks, with the same line numbers, as parsing the whole input with one parser (apart from {@link JasmParserListener#endOfInput(JasmParser)}, which is called once per region).
+     * <p>
+     * This method looks only at lines that begin with a directive (decoding only those with non-ASCII characters) and follows the parser's state so that class directives within {@code .code} blocks are not taken as boundaries. If the input has an error that would make the parser abort, no boundaries are placed after it.
+     * @param input the bytes of the code
+     * @return the regions, in order (never empty)
+     */
+    public static List<Region> classRegions(MemorySegment input) {
+        var scanner = ByteScanner.get();
+        var tokens = new TokenCursor();
+        var starts = new ArrayList<Long>();
+        var lineNumbers = new ArrayList<Integer>();
+        byte[] buffer = new byte[128];
+
+        long length = input.byteSize();
+        long pos = 0;
+        int lineNumber = 0;
+        boolean seenClass = false;
+        State state = State.Global;
+
+        scan:
+        while (pos < length) {
+            ++lineNumber;
+            long end = scanner.lineEnd(input, pos, length);
+            long first = scanner.skipWhitespace(input, pos, end);
+
+            if (first < end && input.get(ValueLayout.JAVA_BYTE, first) == '.') {
+                if (!tokens.tryReset(input, pos, end)) {
+                    int lineLength = Math.toIntExact(end - pos);
+                    if (lineLength > buffer.length)
+                        buffer = new byte[Math.max(lineLength, buffer.length * 2)];
+                    MemorySegment.copy(input, ValueLayout.JAVA_BYTE, pos, buffer, 0, lineLength);
+                    tokens.reset(new String(buffer, 0, lineLength, StandardCharsets.UTF_8));
+                }
+
+                boolean endCode = tokens.is(0, ".end") && tokens.count() == 2 && tokens.is(1, "code");
+                boolean endTable = tokens.is(0, ".end") && tokens.count() == 2 && tokens.is(1, "table");
+
+                // mirrors process(): breaking out of the loop means the parser would abort here
+                if (state == State.Table) {
+                    if (endTable)
+                        state = State.Code;
+                } else if (tokens.is(0, ".class") || tokens.is(0, ".interface") || tokens.is(0, ".enum")) {
+                    if (state != State.Global)
+                        break scan;
+                    if (seenClass) {
+                        starts.add(pos);
+                        lineNumbers.add(lineNumber);
+                    }
+                    seenClass = true;
+                } else if (tokens.is(0, ".source") || tokens.is(0, ".super") || tokens.is(0, ".implements")
+                        || tokens.is(0, ".field") || tokens.is(0, ".method")) {
+                    if (state != State.Global)
+                        break scan;
+                } else if (tokens.is(0, ".code")) {
+                    if (state != State.Global)
+                        break scan;
+                    state = State.Code;
+                } else if (tokens.is(0, ".table")) {
+                    if (state != State.Code)
+                        break scan;
+                    state = State.Table;
+                } else if (endCode) {
+                    if (state != State.Code)
+                        break scan;
+                    state = State.Global;
+                }
+            }
+
+            pos = skipLineTerminator(input, end, length);
+        }
+
+        var regions = new ArrayList<Region>(starts.size() + 1);
+        long regionStart = 0;
+        int regionLine = 1;
+        for (int i = 0; i < starts.size(); ++i) {
+            regions.add(new Region(regionStart, starts.get(i) - regionStart, regionLine));
+            regionStart = starts.get(i);
+            regionLine = lineNumbers.get(i);
+        }
+        regions.add(new Region(regionStart, length - regionStart, regionLine));
+        return regions;
+    }
+
+    private static long skipLineTerminator(MemorySegment bytes, long pos, long length) {
+        // line terminators are \n, \r, or \r\n, as in BufferedReader
+        if (pos < length && bytes.get(ValueLayout.JAVA_BYTE, pos) == '\r') {
+            ++pos;
+            if (pos < length && bytes.get(ValueLayout.JAVA_BYTE, pos) == '\n')
+                ++pos;
+        } else if (pos < length)
+            ++pos;
+        return pos;
     }
 
     /**
@@ -93,10 +370,18 @@ public class JasmParser {
      * @return a {@link java.lang.String} of the current line of text from the file
      */
     public String getCurrentLine() {
-        return line;
+        return tokens.line();
     }
 
 
+    /**
+     * Returns the tokens of the current line being parsed (intended to be used by the {@link edu.westminsteru.jasm.parser.JasmParserListener listener}). The cursor is reused for every line, so its content is only valid during the callback.
+     * @return the {@link TokenCursor} holding the tokens of the current line
+     */
+    public TokenCursor getCurrentTokens() {
+        return tokens;
+    }
+
     /**
      * Returns the number of the current line being parsed (intended to be used by the {@link edu.westminsteru.jasm.parser.JasmParserListener listener}) — the first line of the file is line 1.
      * @return the line number, counted from 1
@@ -105,65 +390,97 @@ public class JasmParser {
         return lineNumber;
     }
 
-    private void process(StringView line) {
+    /**
+     * Returns the field type scanned from the descriptor of the current {@code .field} directive (intended to be used by the {@link edu.westminsteru.jasm.parser.JasmParserListener listener} during {@link JasmParserListener#fieldDirective(JasmParser, List, StringView, StringView) fieldDirective}, so that the descriptor need not be parsed again).
+     * @return the field type, or {@code null} outside of {@code fieldDirective}
+     */
+    public ClassDesc getCurrentTypeDescriptor() {
+        return currentTypeDescriptor;
+    }
+
+    /**
+     * Returns the method type scanned from the descriptor of the current {@code .method} directive (intended to be used by the {@link edu.westminsteru.jasm.parser.JasmParserListener listener} during {@link JasmParserListener#methodDirective(JasmParser, List, StringView, StringView) methodDirective}, so that the descriptor need not be parsed again).
+     * @return the method type, or {@code null} outside of {@code methodDirective}
+     */
+    public MethodTypeDesc getCurrentMethodTypeDescriptor() {
+        return currentMethodTypeDescriptor;
+    }
+
+    private String decode(MemorySegment bytes, long start, long end) {
+        int length = Math.toIntExact(end - start);
+        if (length > lineBuffer.length)
+            lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+        MemorySegment.copy(bytes, ValueLayout.JAVA_BYTE, start, lineBuffer, 0, length);
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void process(String line) {
         if (aborted) {
             state = State.Aborted;
             return;
         }
 
-        this.line = line.source();
-        ++lineNumber;
-
-        // Strip out comment
-        line = line.firstWord('#');
-
-        // Get rid of extraneous whitespace
-        line = line.trim();
+        // Split into tokens, dropping any comment and extraneous whitespace
+        tokens.reset(line);
+        processTokens();
+    }
 
-        if (line.isBlank())
+    /** Processes the line held by the tokens, which have already been split */
+    private void processTokens() {
+        ++lineNumber;
+        if (tokens.isEmpty())
             return;
 
-        StringView head = line.firstWord(' ').trim();
-        StringView tail = line.tail(head).trim();
-
         if (state == State.Table) {
-            if (head.toString().equals(".end") && tail.toString().equals("table"))
-                processEndTableDirective(head, tail);
+            if (tokens.is(0, ".end") && tokens.count() == 2 && tokens.is(1, "table"))
+                processEndTableDirective();
             else
-                processTableLine(head, tail);
-        } else {
-            switch (head.toString()) {
-                case ".source" -> processSourceDirective(head, tail);
-                case ".class", ".interface", ".enum" -> processClassDirective(head, tail);
-                case ".super" -> processSuperDirective(head, tail);
-                case ".implements" -> processImplementsDirective(head, tail);
-                case ".field" -> processFieldDirective(head, tail);
-                case ".method" -> processMethodDirective(head, tail);
-                case ".code" -> processCodeDirective(head, tail);
-                case ".table" -> processTableDirective(head, tail);
-                case ".end" -> {
-                    if (tail.toString().equals("code"))
-                        processEndCodeDirective(head, tail);
-                    else
-                        fireExceptionOccurred(
-                            "Unexpected token: " + tail,
-                            lineNumber, tail.start(),
-                            tail.source()
-                        );
+                processTableLine();
+        } else if (tokens.charAt(0, 0) == '.') {
+            if (tokens.is(0, ".source"))
+                processSourceDirective();
+            else if (tokens.is(0, ".class") || tokens.is(0, ".interface") || tokens.is(0, ".enum"))
+                processClassDirective();
+            else if (tokens.is(0, ".super"))
+                processSuperDirective();
+            else if (tokens.is(0, ".implements"))
+                processImplementsDirective();
+            else if (tokens.is(0, ".field"))
+                processFieldDirective();
+            else if (tokens.is(0, ".method"))
+                processMethodDirective();
+            else if (tokens.is(0, ".code"))
+                processCodeDirective();
+            else if (tokens.is(0, ".table"))
+                processTableDirective();
+            else if (tokens.is(0, ".stack"))
+                processStackDirective();
+            else if (tokens.is(0, ".end")) {
+                if (tokens.count() == 2 && tokens.is(1, "code"))
+                    processEndCodeDirective();
+                else {
+                    StringView tail = tokens.rest(1);
+                    fireExceptionOccurred(
+                        "Unexpected token: " + tail,
+                        lineNumber, tail.start(),
+                        tokens.line()
+                    );
                 }
+            } else
+                processOtherLine();
+        } else
+            processOtherLine();
+    }
 
-                default -> {
-                    if (state == State.Code)
-                        processCodeLine(head, tail);
-                    else
-                        fireExceptionOccurred(
-                            "Unexpected token: " + head,
-                            lineNumber, head.start(),
-                            head.source()
-                        );
-                }
-            }
-        }
+    private void processOtherLine() {
+        if (state == State.Code)
+            processCodeLine(0);
+        else
+            fireExceptionOccurred(
+                "Unexpected token: " + tokens.view(0),
+                lineNumber, tokens.start(0),
+                tokens.line()
+            );
     }
 
     private void fireExceptionOccurred(
@@ -175,297 +492,308 @@ public class JasmParser {
         listener.exceptionOccurred(this, ex);
     }
 
-    private void processSourceDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processSourceDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        StringView filename = tail.firstWord(' ', StringView.Quoted.Keep);
-        var rest = tail.tail(filename);
-        if (!rest.isBlank())
+        StringView filename = tokens.rest(1);
+        if (tokens.count() > 2) {
+            filename = tokens.view(1);
             fireExceptionOccurred(
                 "Unexpected trailing text after .source directive",
-                lineNumber, rest.trim().start(),
-                tail.source()
+                lineNumber, tokens.start(2),
+                tokens.line()
             );
+        }
         listener.sourceDirective(this,
             filename
         );
     }
 
-    private void processClassDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processClassDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        StringView classId = head.substring(1);
-        List<StringView> flags = tail.split(' ').stream()
-            .filter(Predicate.not(StringView::isBlank))
-            .map(StringView::trim)
-            .toList();
-        if (flags.isEmpty())
+        StringView classId = new StringView(tokens.line(), tokens.start(0) + 1, tokens.end(0));
+        if (tokens.count() < 2) {
             fireExceptionOccurred(
                 "Expected class name",
-                lineNumber, tail.trim().start(),
-                tail.source()
+                lineNumber, tokens.rest(1).start(),
+                tokens.line()
             );
+            return;
+        }
 
-        StringView className = flags.getLast();
-        flags = flags.subList(0, flags.size() - 1);
+        List<StringView> flags = tokens.views(1, tokens.count() - 1);
+        StringView className = tokens.view(tokens.count() - 1);
 
         listener.classDirective(this,
             classId, flags, className
         );
     }
 
-    private void processSuperDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processSuperDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        StringView superclassName = tail.firstWord(' ', StringView.Quoted.Keep);
-        StringView rest = tail.tail(superclassName);
-        if (!rest.isBlank())
+        StringView superclassName = tokens.rest(1);
+        if (tokens.count() > 2) {
+            superclassName = tokens.view(1);
             fireExceptionOccurred(
                 "Unexpected trailing text after .super directive",
-                lineNumber, rest.trim().start(),
-                tail.source()
+                lineNumber, tokens.start(2),
+                tokens.line()
             );
+        }
 
         listener.superDirective(this,
             superclassName
         );
     }
 
-    private void processImplementsDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processImplementsDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        StringView interfaceName = tail.firstWord(' ', StringView.Quoted.Keep);
-        StringView rest = tail.tail(interfaceName);
-        if (!rest.isBlank())
+        StringView interfaceName = tokens.rest(1);
+        if (tokens.count() > 2) {
+            interfaceName = tokens.view(1);
             fireExceptionOccurred(
                 "Unexpected trailing text after .super directive",
-                lineNumber, rest.trim().start(),
-                tail.source()
+                lineNumber, tokens.start(2),
+                tokens.line()
             );
+        }
 
         listener.implementsDirective(this,
             interfaceName
         );
     }
 
-    private void processFieldDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processFieldDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        List<StringView> words = tail.split(' ', StringView.Quoted.Keep).stream()
-            .filter(Predicate.not(StringView::isBlank))
-            .map(StringView::trim)
-            .toList();
-        if (words.size() < 2)
+        int count = tokens.count();
+        if (count < 3) {
             fireExceptionOccurred(
                 "Too few operands to .field: expected name and type descriptor",
-                lineNumber, tail.start(),
-                tail.source()
+                lineNumber, tokens.rest(1).start(),
+                tokens.line()
             );
-        StringView fieldName = words.get(words.size() - 2);
-        StringView descriptor = words.getLast();
-        List<StringView> flags = words.subList(0, words.size() - 2);
+            return;
+        }
+        StringView fieldName = tokens.view(count - 2);
+        StringView descriptor = tokens.view(count - 1);
+        List<StringView> flags = tokens.views(1, count - 2);
 
-        boolean ok = validateTypeDescriptor(descriptor);
+        ClassDesc type = scanTypeDescriptor(descriptor);
+        boolean ok = type != null;
 
         ok &= flags.stream().map(Object::toString).allMatch(Flags::isValidFlag);
 
-        if (ok)
+        if (ok) {
+            currentTypeDescriptor = type;
             listener.fieldDirective(this,
                 flags,
                 fieldName,
                 descriptor
             );
+            currentTypeDescriptor = null;
+        }
     }
 
-    private void processMethodDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processMethodDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        List<StringView> words = tail.split(' ', StringView.Quoted.Keep).stream()
-            .filter(Predicate.not(StringView::isBlank))
-            .map(StringView::trim)
-            .toList();
-        if (words.size() < 2)
+        int count = tokens.count();
+        if (count < 3) {
             fireExceptionOccurred(
                 "Too few operands to .method: expected name and type descriptor",
-                lineNumber, tail.start(),
-                tail.source()
+                lineNumber, tokens.rest(1).start(),
+                tokens.line()
             );
-        StringView methodName = words.get(words.size() - 2);
-        StringView descriptor = words.getLast();
-        List<StringView> flags = words.subList(0, words.size() - 2);
+            return;
+        }
+        StringView methodName = tokens.view(count - 2);
+        StringView descriptor = tokens.view(count - 1);
+        List<StringView> flags = tokens.views(1, count - 2);
 
-        boolean ok = validateMethodSignatureDescriptor(descriptor);
+        MethodTypeDesc type = scanMethodDescriptor(descriptor);
+        boolean ok = type != null;
 
         ok &= flags.stream().map(Object::toString).allMatch(Flags::isValidFlag);
 
-        if (ok)
+        if (ok) {
+            currentMethodTypeDescriptor = type;
             listener.methodDirective(this,
                 flags,
                 methodName,
                 descriptor
             );
+            currentMethodTypeDescriptor = null;
+        }
     }
 
-    private void processCodeDirective(StringView head, StringView tail) {
-        if (!checkGlobalState(head)) {
+    private void processCodeDirective() {
+        if (!checkGlobalState()) {
             abortParsing();
             return;
         }
-        else if (!tail.isBlank())
+        else if (tokens.count() > 1)
             fireExceptionOccurred(
                 "Unexpected trailing text after .code",
-                lineNumber, tail.trim().start(),
-                tail.source()
+                lineNumber, tokens.start(1),
+                tokens.line()
             );
 
         listener.codeDirective(this);
         state = State.Code;
     }
 
-    private void processCodeLine(StringView head, StringView tail) {
-        // only called by process() when in Code state
-        if (head.toString().endsWith(":")) {
-            StringView labelName = head.substring(0, head.length() - 1).trim();
-            listener.codeLabel(this, labelName);
-            processCodeLine(tail, StringView.of(""));
-        } else if (head.toString().startsWith(".")) {
+    private void processCodeLine(int first) {
+        // only called by process() when in Code state; tokens before first have already been handled
+        if (first >= tokens.count())
+            return;
+
+        if (tokens.endsWith(first, ':')) {
+            listener.codeLabel(this, tokens, first);
+            processCodeLine(first + 1);
+        } else if (tokens.charAt(first, 0) == '.') {
             fireExceptionOccurred(
                 "Invalid directive",
-                lineNumber, head.start(),
-                head.source()
+                lineNumber, tokens.start(first),
+                tokens.line()
             );
-        } else if (!head.isEmpty() && !Character.isAlphabetic(head.codePointAt(0))) {
+        } else if (!Character.isAlphabetic(tokens.codePointAt(first))) {
             fireExceptionOccurred(
                 "Unexpected token",
-                lineNumber, head.start(),
-                head.source()
+                lineNumber, tokens.start(first),
+                tokens.line()
             );
-        } else if (!head.isBlank()) {
-            List<StringView> operandStrings = tail.split(' ', StringView.Quoted.Ignore);
-            listener.codeInstruction(this, head, operandStrings);
+        } else {
+            listener.codeInstruction(this, tokens, first);
         }
     }
 
-    private void processEndCodeDirective(StringView head, StringView tail) {
+    private void processEndCodeDirective() {
         if (state != State.Code) {
             fireExceptionOccurred(
                 (state == State.Table) ? ".end code unexpected here (missing .end table?)" : ".end code unexpected here",
-                lineNumber, head.start(),
-                head.source()
+                lineNumber, tokens.start(0),
+                tokens.line()
             );
             abortParsing();
             return;
-        } else if (!tail.toString().equals("code"))
-            fireExceptionOccurred(
-                "Unexpected trailing text after .end code",
-                lineNumber, tail.tail(tail.firstWord(' ')).start(),
-                head.source()
-            );
+        }
 
         listener.endCodeDirective(this);
         state = State.Global;
     }
 
-    private void processTableDirective(StringView head, StringView tail) {
+    private void processTableDirective() {
         if (state != State.Code) {
             fireExceptionOccurred(
                 ".table unexpected here",
-                lineNumber, head.start(),
-                head.source()
+                lineNumber, tokens.start(0),
+                tokens.line()
             );
             abortParsing();
             return;
-        } else if (!tail.isBlank())
+        } else if (tokens.count() > 1)
             fireExceptionOccurred(
                 "Unexpected trailing text after .table",
-                lineNumber, tail.trim().start(),
-                tail.source()
+                lineNumber, tokens.start(1),
+                tokens.line()
             );
 
         listener.tableDirective(this);
         state = State.Table;
     }
 
-    private void processTableLine(StringView head, StringView tail) {
-        Runnable fireError = () -> fireExceptionOccurred(
-            "Expected table entry",
-            lineNumber, head.start(),
-            head.source()
-        );
+    private void processStackDirective() {
+        if (state != State.Code) {
+            fireExceptionOccurred(
+                ".stack unexpected here",
+                lineNumber, tokens.start(0),
+                tokens.line()
+            );
+            return;
+        }
 
-        if (!head.toString().endsWith(":")) {
+        listener.stackDirective(this, tokens);
+    }
+
+    private void processTableLine() {
+        if (!tokens.endsWith(0, ':')) {
             return;
-        } else if (tail.isBlank()) {
-            fireError.run();
+        } else if (tokens.count() < 2) {
+            fireExceptionOccurred(
+                "Expected table entry",
+                lineNumber, tokens.start(0),
+                tokens.line()
+            );
             return;
         }
 
-        listener.tableLine(this, head.substring(0, head.length() - 1), tail);
+        listener.tableLine(this, new StringView(tokens.line(), tokens.start(0), tokens.end(0) - 1), tokens.rest(1));
     }
 
-    private void processEndTableDirective(StringView head, StringView tail) {
+    private void processEndTableDirective() {
         if (state != State.Table) {
             fireExceptionOccurred(
                 ".end table unexpected here",
-                lineNumber, head.start(),
-                head.source()
+                lineNumber, tokens.start(0),
+                tokens.line()
             );
             abortParsing();
             return;
-        } else if (!tail.toString().equals("table"))
-            fireExceptionOccurred(
-                "Unexpected trailing text after .end table",
-                lineNumber, tail.tail(tail.firstWord(' ')).start(),
-                head.source()
-            );
+        }
 
         listener.endTableDirective(this);
         state = State.Code;
     }
 
 
-    private boolean validateTypeDescriptor(StringView typeDesc) {
-        if (!TYPE_DESCRIPTOR_PATTERN.matcher(typeDesc.toString()).matches()) {
+    private ClassDesc scanTypeDescriptor(StringView typeDesc) {
+        try {
+            return DescriptorCache.shared().typeDescriptor(typeDesc);
+        } catch (DescriptorScanner.InvalidDescriptorException ex) {
             fireExceptionOccurred(
-                "Invalid type descriptor: '" + typeDesc + "'",
-                lineNumber, typeDesc.start(),
+                "Invalid type descriptor '" + typeDesc + "': " + ex.getMessage(),
+                lineNumber, ex.getTarget().start(),
                 typeDesc.source()
             );
-            return false;
+            return null;
         }
-        return true;
     }
 
-    private boolean validateMethodSignatureDescriptor(StringView typeDesc) {
-        if (!METHOD_SIGNATURE_DESCRIPTOR_PATTERN.matcher(typeDesc.toString()).matches()) {
+    private MethodTypeDesc scanMethodDescriptor(StringView methodDesc) {
+        try {
+            return DescriptorCache.shared().methodDescriptor(methodDesc);
+        } catch (DescriptorScanner.InvalidDescriptorException ex) {
             fireExceptionOccurred(
-                "Invalid method descriptor",
-                lineNumber, typeDesc.start(),
-                typeDesc.source()
+                "Invalid method descriptor '" + methodDesc + "': " + ex.getMessage(),
+                lineNumber, ex.getTarget().start(),
+                methodDesc.source()
             );
-            return false;
+            return null;
         }
-        return true;
     }
 
-    private boolean checkGlobalState(StringView head) {
+    private boolean checkGlobalState() {
         if (state != State.Global) {
             fireExceptionOccurred(
-                head.toString() + " unexpected here (missing .end code?)",
-                lineNumber, head.start(),
-                head.source()
+                tokens.view(0) + " unexpected here (missing .end code?)",
+                lineNumber, tokens.start(0),
+                tokens.line()
             );
             return false;
         }
@@ -77,6 +77,17 @@ public interface JasmParserListener {
      */
     default void codeLabel(JasmParser parser, StringView labelName) {}
 
+    /**
+     * Notifies the listener that the parser has encountered a label, given as a token of the current line so that no {@link StringView} need be created. This method will only be called when the parser is in its {@link JasmParser.State#Code code} state.
+     * The default implementation calls {@link #codeLabel(JasmParser, StringView)} with a view of the label's name.
+     * @param parser the parser
+     * @param tokens the tokens of the current line, which are only valid during this call
+     * @param label the index of the label's token (its name followed by {@code ':'})
+     */
+    default void codeLabel(JasmParser parser, TokenCursor tokens, int label) {
+        codeLabel(parser, new StringView(tokens.line(), tokens.start(label), tokens.end(label) - 1));
+    }
+
     /**
      * Notifies the listener that the parser has encountered an instruction. This method will only be called when the parser is in its {@link JasmParser.State#Code code} state.
      * @param parser    the parser
@@ -85,6 +96,34 @@ public interface JasmParserListener {
      */
     default void codeInstruction(JasmParser parser, StringView opcode, List<StringView> operands) {}
 
+    /**
+     * Notifies the listener that the parser has encountered an instruction, given as tokens of the current line so that no {@link StringView}s or lists need be created. This method will only be called when the parser is in its {@link JasmParser.State#Code code} state.
+     * The default implementation calls {@link #codeInstruction(JasmParser, StringView, List)} with views of the tokens.
+     * @param parser the parser
+     * @param tokens the tokens of the current line, which are only valid during this call
+     * @param opcode the index of the opcode's token; the operands are the tokens after it
+     */
+    default void codeInstruction(JasmParser parser, TokenCursor tokens, int opcode) {
+        codeInstruction(parser, tokens.view(opcode), tokens.views(opcode + 1));
+    }
+
+    /**
+     * Notifies the listener that the parser has encountered a {@code .stack} directive, which gives the stack map frame at the next instruction. This method will only be called when the parser is in its {@link JasmParser.State#Code code} state.
+     * @param parser the parser
+     * @param operands the operands of the directive (may be empty)
+     */
+    default void stackDirective(JasmParser parser, List<StringView> operands) {}
+
+    /**
+     * Notifies the listener that the parser has encountered a {@code .stack} directive, given as the tokens of the current line so that no {@link StringView}s or lists need be created. This method will only be called when the parser is in its {@link JasmParser.State#Code code} state.
+     * The default implementation calls {@link #stackDirective(JasmParser, List)} with views of the operands.
+     * @param parser the parser
+     * @param tokens the tokens of the current line, which are only valid during this call; the operands are the tokens after the first
+     */
+    default void stackDirective(JasmParser parser, TokenCursor tokens) {
+        stackDirective(parser, tokens.views(1));
+    }
+
     /**
      * Notifies the listener that the parser has encountered an {@code .end code} directive. After this call the parser leaves its {@link JasmParser.State#Code code} state and reenters the initial {@link JasmParser.State#Global global} state.
      * @param parser the parser
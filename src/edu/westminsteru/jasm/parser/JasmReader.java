@@ -0,0 +1,390 @@
+package edu.westminsteru.jasm.parser;
+
+import java.io.Reader;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A pull-based alternative to {@link JasmParserListener}: rather than being called back for every element of the code, the consumer asks for one {@link Event} at a time with {@link #next()}, in the manner of a StAX reader.
+ * Input is parsed one line at a time as events are requested, so a consumer can stop early (see {@link #close()}) or {@link #skipCode() skip} {@code .code} blocks it is not interested in, and memory use does not grow with the size of the input.
+ * <p>
+ * Events are flyweights: the {@code Event} returned by {@code next()} is reused, so it is only valid until the following call to {@code next()}. The events (and their order) are exactly the callbacks a {@code JasmParserListener} would receive from {@link JasmParser}, ending with {@link EventType#END_OF_INPUT}.
+ * <pre>{@code
+ * try (var reader = new JasmReader(path)) {
+ *     while (reader.hasNext()) {
+ *         var event = reader.next();
+ *         switch (event.getType()) {
+ *             case METHOD -> System.out.println(event.getName());
+ *             case CODE -> reader.skipCode();
+ *             default -> {}
+ *         }
+ *     }
+ * }
+ * }</pre>
+ */
+public final class JasmReader implements AutoCloseable {
+
+    /**
+     * The types of events, one for each callback of {@link JasmParserListener}.
+     */
+    public enum EventType {
+        /** A syntax error; see {@link Event#getException()} */
+        ERROR,
+        /** A {@code .source} directive; the source filename is the {@linkplain Event#getName() name} */
+        SOURCE,
+        /** A {@code .class}/{@code .interface}/{@code .enum} directive with a {@linkplain Event#getClassId() class ID}, {@linkplain Event#getFlags() flags}, and {@linkplain Event#getName() name} */
+        CLASS,
+        /** A {@code .super} directive; the superclass is the {@linkplain Event#getName() name} */
+        SUPER,
+        /** An {@code .implements} directive; the interface is the {@linkplain Event#getName() name} */
+        IMPLEMENTS,
+        /** A {@code .field} directive with {@linkplain Event#getFlags() flags}, a {@linkplain Event#getName() name}, and a {@linkplain Event#getDescriptor() descriptor} */
+        FIELD,
+        /** A {@code .method} directive with {@linkplain Event#getFlags() flags}, a {@linkplain Event#getName() name}, and a {@linkplain Event#getDescriptor() descriptor} */
+        METHOD,
+        /** A {@code .code} directive */
+        CODE,
+        /** A label within code; the label is the {@linkplain Event#getName() name} */
+        LABEL,
+        /** An instruction; the opcode is the {@linkplain Event#getName() name}, and it has {@linkplain Event#getOperands() operands} */
+        INSTRUCTION,
+        /** A {@code .stack} directive, which has {@linkplain Event#getOperands() operands} */
+        STACK,
+        /** An {@code .end code} directive */
+        END_CODE,
+        /** A {@code .table} directive */
+        TABLE,
+        /** A line of a table; the label is the {@linkplain Event#getName() name}, and it has a {@linkplain Event#getTarget() target} */
+        TABLE_LINE,
+        /** An {@code .end table} directive */
+        END_TABLE,
+        /** The end of the input; this is always the last event */
+        END_OF_INPUT
+    }
+
+    /**
+     * An event read by a {@link JasmReader}. Which properties are meaningful depends on the {@linkplain #getType() type}; the others are {@code null} (or empty).
+     */
+    public static final class Event {
+        private EventType type;
+        private int lineNumber;
+        private String line;
+        private StringView classId, name, descriptor, target;
+        private List<StringView> flags, operands;
+        private ClassDesc typeDescriptor;
+        private MethodTypeDesc methodTypeDescriptor;
+        private JasmSyntaxException exception;
+
+        private Event() {}
+
+        private Event reset(EventType type, JasmParser parser) {
+            this.type = type;
+            this.lineNumber = parser.getCurrentLineNumber();
+            this.line = (type == EventType.END_OF_INPUT) ? null : parser.getCurrentLine();
+            classId = name = descriptor = target = null;
+            flags = operands = List.of();
+            typeDescriptor = null;
+            methodTypeDescriptor = null;
+            exception = null;
+            return this;
+        }
+
+        /**
+         * Returns the type of the event.
+         * @return the type
+         */
+        public EventType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the number of the line that produced the event.
+         * @return the line number, counted from 1
+         */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * Returns the text of the line that produced the event.
+         * @return the line, or {@code null} for {@link EventType#END_OF_INPUT}
+         */
+        public String getLine() {
+            return line;
+        }
+
+        /**
+         * Returns the class ID of a {@link EventType#CLASS} event ({@code .class}, {@code .interface}, or {@code .enum}).
+         * @return the class ID
+         */
+        public StringView getClassId() {
+            return classId;
+        }
+
+        /**
+         * Returns the main name carried by the event: the source filename, class, superclass, interface, field, method, or label name, or the opcode of an instruction (see {@link EventType}).
+         * @return the name
+         */
+        public StringView getName() {
+            return name;
+        }
+
+        /**
+         * Returns the flags of a {@link EventType#CLASS}, {@link EventType#FIELD}, or {@link EventType#METHOD} event.
+         * @return the flags (possibly empty)
+         */
+        public List<StringView> getFlags() {
+            return flags;
+        }
+
+        /**
+         * Returns the descriptor of a {@link EventType#FIELD} or {@link EventType#METHOD} event.
+         * @return the descriptor
+         */
+        public StringView getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * Returns the field type of a {@link EventType#FIELD} event, as scanned from its descriptor.
+         * @return the field type
+         */
+        public ClassDesc getTypeDescriptor() {
+            return typeDescriptor;
+        }
+
+        /**
+         * Returns the method type of a {@link EventType#METHOD} event, as scanned from its descriptor.
+         * @return the method type
+         */
+        public MethodTypeDesc getMethodTypeDescriptor() {
+            return methodTypeDescriptor;
+        }
+
+        /**
+         * Returns the operands of an {@link EventType#INSTRUCTION} or {@link EventType#STACK} event.
+         * @return the operands (possibly empty)
+         */
+        public List<StringView> getOperands() {
+            return operands;
+        }
+
+        /**
+         * Returns the target of a {@link EventType#TABLE_LINE} event.
+         * @return the target
+         */
+        public StringView getTarget() {
+            return target;
+        }
+
+        /**
+         * Returns the error of an {@link EventType#ERROR} event.
+         * @return the error
+         */
+        public JasmSyntaxException getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return type + "@" + lineNumber;
+        }
+    }
+
+    private final JasmParser parser;
+    /** Events produced by the current line; they are recycled once they have all been read */
+    private final List<Event> pool = new ArrayList<>();
+    private int queued = 0, position = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * Creates a {@code JasmReader} that reads from a {@code Reader}.
+     * @param in the {@code Reader} to read from
+     */
+    public JasmReader(Reader in) {
+        this.parser = new JasmParser(in, new Queuer());
+    }
+
+    /**
+     * Creates a {@code JasmReader} that reads a UTF-8 encoded file, which is memory-mapped until the end of input is reached or the reader is closed.
+     * @param file the file to read from
+     */
+    public JasmReader(Path file) {
+        this.parser = new JasmParser(file, new Queuer());
+    }
+
+    /**
+     * Creates a {@code JasmReader} that reads UTF-8 encoded code from a {@code MemorySegment}.
+     * @param input the bytes of the code
+     */
+    public JasmReader(MemorySegment input) {
+        this.parser = new JasmParser(input, new Queuer());
+    }
+
+    /**
+     * Returns whether there are more events, parsing further lines of input if necessary.
+     * @return whether {@link #next()} will return an event
+     * @throws java.io.UncheckedIOException if the input cannot be read
+     */
+    public boolean hasNext() {
+        while (position == queued) {
+            if (endOfInput)
+                return false;
+            position = queued = 0;
+            parser.parseNextLine();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next event. The returned {@code Event} is reused and is only valid until the next call to this method.
+     * @return the next event
+     * @throws NoSuchElementException if there are no more events
+     * @throws java.io.UncheckedIOException if the input cannot be read
+     */
+    public Event next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return pool.get(position++);
+    }
+
+    /**
+     * Skips the rest of the current {@code .code} block, so that the next event is its {@link EventType#END_CODE} (or {@link EventType#END_OF_INPUT} if the block is never closed). The skipped lines are not parsed at all, so they produce no events and any errors in them go unreported.
+     * @throws IllegalStateException if the reader is not inside a {@code .code} block
+     */
+    public void skipCode() {
+        if (endOfInput)
+            throw new IllegalStateException("Not inside a .code block");
+        // anything still queued came from a line inside the block
+        position = queued = 0;
+        parser.skipToEndCode();
+    }
+
+    /**
+     * Returns the state of the underlying {@link JasmParser} after the line that produced the most recent events.
+     * @return the parser state
+     */
+    public JasmParser.State getState() {
+        return parser.getState();
+    }
+
+    /**
+     * Stops reading, releasing the input if it was memory-mapped by this reader. No more events are returned after the reader is closed.
+     */
+    @Override
+    public void close() {
+        parser.close();
+        endOfInput = true;
+        position = queued = 0;
+    }
+
+    private Event queue(EventType type, JasmParser parser) {
+        if (queued == pool.size())
+            pool.add(new Event());
+        return pool.get(queued++).reset(type, parser);
+    }
+
+    private class Queuer implements JasmParserListener {
+
+        @Override
+        public void exceptionOccurred(JasmParser parser, JasmSyntaxException ex) {
+            queue(EventType.ERROR, parser).exception = ex;
+        }
+
+        @Override
+        public void sourceDirective(JasmParser parser, StringView source) {
+            queue(EventType.SOURCE, parser).name = source;
+        }
+
+        @Override
+        public void classDirective(JasmParser parser, StringView classId, List<StringView> flags, StringView className) {
+            var event = queue(EventType.CLASS, parser);
+            event.classId = classId;
+            event.flags = flags;
+            event.name = className;
+        }
+
+        @Override
+        public void superDirective(JasmParser parser, StringView superName) {
+            queue(EventType.SUPER, parser).name = superName;
+        }
+
+        @Override
+        public void implementsDirective(JasmParser parser, StringView interfaceName) {
+            queue(EventType.IMPLEMENTS, parser).name = interfaceName;
+        }
+
+        @Override
+        public void fieldDirective(JasmParser parser, List<StringView> flags, StringView name, StringView descriptor) {
+            var event = queue(EventType.FIELD, parser);
+            event.flags = flags;
+            event.name = name;
+            event.descriptor = descriptor;
+            event.typeDescriptor = parser.getCurrentTypeDescriptor();
+        }
+
+        @Override
+        public void methodDirective(JasmParser parser, List<StringView> flags, StringView name, StringView descriptor) {
+            var event = queue(EventType.METHOD, parser);
+            event.flags = flags;
+            event.name = name;
+            event.descriptor = descriptor;
+            event.methodTypeDescriptor = parser.getCurrentMethodTypeDescriptor();
+        }
+
+        @Override
+        public void codeDirective(JasmParser parser) {
+            queue(EventType.CODE, parser);
+        }
+
+        @Override
+        public void codeLabel(JasmParser parser, StringView labelName) {
+            queue(EventType.LABEL, parser).name = labelName;
+        }
+
+        @Override
+        public void codeInstruction(JasmParser parser, StringView opcode, List<StringView> operands) {
+            var event = queue(EventType.INSTRUCTION, parser);
+            event.name = opcode;
+            event.operands = operands;
+        }
+
+        @Override
+        public void stackDirective(JasmParser parser, List<StringView> operands) {
+            queue(EventType.STACK, parser).operands = operands;
+        }
+
+        @Override
+        public void endCodeDirective(JasmParser parser) {
+            queue(EventType.END_CODE, parser);
+        }
+
+        @Override
+        public void tableDirective(JasmParser parser) {
+            queue(EventType.TABLE, parser);
+        }
+
+        @Override
+        public void tableLine(JasmParser parser, StringView label, StringView target) {
+            var event = queue(EventType.TABLE_LINE, parser);
+            event.name = label;
+            event.target = target;
+        }
+
+        @Override
+        public void endTableDirective(JasmParser parser) {
+            queue(EventType.END_TABLE, parser);
+        }
+
+        @Override
+        public void endOfInput(JasmParser parser) {
+            queue(EventType.END_OF_INPUT, parser);
+            endOfInput = true;
+        }
+    }
+}
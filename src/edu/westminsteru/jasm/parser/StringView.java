@@ -49,6 +49,20 @@ public record StringView(String source, int start, int end) {
         return new StringView(source, 0, source.length());
     }
 
+    /**
+     * Returns the hash of a range of a {@code String} without copying it. The hash is the same as the {@link String#hashCode()} of a {@code String} with the same characters, so tables that look up ranges in place can hold plain {@code String}s.
+     * @param source the string holding the range
+     * @param start the beginning index (inclusive) of the range
+     * @param end the ending index (exclusive) of the range
+     * @return the hash of the range
+     */
+    public static int hash(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i)
+            hash = 31 * hash + source.charAt(i);
+        return hash;
+    }
+
     /**
      * Returns a {@code StringView} consisting of the content of the string up to (but not including) the first occurrence of a given codepoint. (This method is the same as calling {@link #firstWord(int, Quoted)} with {@link Quoted#Ignore} and ignores any occurrences of the delimiter inside quotes.)
      * @param ch the codepoint of the delimiter
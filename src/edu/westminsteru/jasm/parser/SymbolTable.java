@@ -0,0 +1,144 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A table of interned symbols (class names, member names, and descriptors), giving out one canonical {@code String} for each distinct symbol.
+ * A symbol is looked up by hashing and comparing the characters of a {@link StringView} in place, so a symbol that has been seen before costs no allocation at all; memory use grows with the number of distinct symbols, not with the number of times they occur.
+ * <p>
+ * Symbols are held weakly: once nothing else refers to a symbol (no class spec, cached descriptor, or assembled result), it may be collected and its entry dropped, so a long-running process that assembles many unrelated sources keeps only the symbols still in use. A symbol interned again after it has been collected gets a new canonical {@code String}.
+ * <p>
+ * A {@code SymbolTable} is safe for concurrent use by any number of parsers and assemblers. Lookups take no locks; adding a new symbol locks only the one segment of the table it falls in.
+ */
+public final class SymbolTable {
+
+    private static final SymbolTable SHARED = new SymbolTable();
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final class Node extends WeakReference<String> {
+        private final int hash;
+        private final Node next;
+
+        private Node(int hash, String symbol, Node next) {
+            super(symbol);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    private static final class Segment {
+        /** Chains of nodes, which are immutable, so a reader sees either an old or a new chain but never a broken one */
+        private volatile Node[] table = new Node[INITIAL_CAPACITY];
+        /** The number of nodes, including those whose symbols have been collected; guarded by this segment */
+        private int count = 0;
+
+        /** Drops the nodes of collected symbols, doubling the table if it is still at least half full; guarded by this segment */
+        private Node[] rehash() {
+            var old = table;
+            int live = 0;
+            for (var chain : old)
+                for (var node = chain; node != null; node = node.next)
+                    if (!node.refersTo(null))
+                        ++live;
+
+            var rehashed = new Node[(live >= old.length >>> 1) ? old.length * 2 : old.length];
+            count = 0;
+            for (var chain : old)
+                for (var node = chain; node != null; node = node.next) {
+                    String symbol = node.get();
+                    if (symbol != null) {
+                        int index = (node.hash ^ (node.hash >>> 16)) & (rehashed.length - 1);
+                        rehashed[index] = new Node(node.hash, symbol, rehashed[index]);
+                        ++count;
+                    }
+                }
+            return table = rehashed;
+        }
+    }
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * Creates an empty {@code SymbolTable}.
+     */
+    public SymbolTable() {
+        for (int i = 0; i < segments.length; ++i)
+            segments[i] = new Segment();
+    }
+
+    /**
+     * Returns the symbol table shared by default by all parsers and assemblers. It holds only the symbols still in use, so it does not grow with everything the process has ever assembled.
+     * @return the shared table
+     */
+    public static SymbolTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the canonical {@code String} with the content of a {@code StringView}.
+     * @param text the symbol
+     * @return the interned symbol, equal to {@code text.toString()}
+     */
+    public String intern(StringView text) {
+        return intern(text.source(), text.start(), text.end());
+    }
+
+    /**
+     * Returns the canonical {@code String} with the content of a range of a {@code String}.
+     * @param source the string holding the symbol
+     * @param start the beginning index (inclusive) of the symbol
+     * @param end the ending index (exclusive) of the symbol
+     * @return the interned symbol, equal to {@code source.substring(start, end)}
+     */
+    public String intern(String source, int start, int end) {
+        int hash = StringView.hash(source, start, end);
+        int spread = hash ^ (hash >>> 16);
+        var segment = segments[spread >>> (Integer.SIZE - SEGMENT_BITS)];
+
+        var found = find(segment.table, hash, spread, source, start, end);
+        if (found != null)
+            return found;
+
+        synchronized (segment) {
+            var table = segment.table;
+            found = find(table, hash, spread, source, start, end);
+            if (found != null)
+                return found;
+
+            String symbol = source.substring(start, end);
+            if (segment.count >= table.length - (table.length >>> 2))
+                table = segment.rehash();
+            int index = spread & (table.length - 1);
+            table[index] = new Node(hash, symbol, table[index]);
+            ++segment.count;
+            return symbol;
+        }
+    }
+
+    private static String find(Node[] table, int hash, int spread, String source, int start, int end) {
+        for (var node = table[spread & (table.length - 1)]; node != null; node = node.next) {
+            if (node.hash != hash)
+                continue;
+            String symbol = node.get();
+            if (symbol != null && symbol.length() == end - start && source.startsWith(symbol, start))
+                return symbol;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of distinct symbols in the table that have not been collected.
+     * @return the number of symbols
+     */
+    public int size() {
+        int size = 0;
+        for (var segment : segments)
+            for (var chain : segment.table)
+                for (var node = chain; node != null; node = node.next)
+                    if (!node.refersTo(null))
+                        ++size;
+        return size;
+    }
+}
@@ -0,0 +1,333 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A reusable, mutable tokenizer for a single line of jasm code. {@link JasmParser} keeps one {@code TokenCursor} and {@link #reset(String) resets} it for every line, so splitting a line into tokens allocates nothing: the tokens are kept as start and end offsets in primitive arrays.
+ * Tokens are separated by whitespace, except inside double quotes {@code " "} (where a backslash escapes the following character) or a character literal such as {@code ' '}. A {@code #} outside of quotes begins a comment that runs to the end of the line.
+ * <p>
+ * {@link StringView}s are only created on request (see {@link #view(int)}, {@link #rest(int)}, and {@link #views(int)}), so callers can inspect and compare tokens with no allocation at all.
+ * A line may also be given as UTF-8 encoded bytes ({@link #tryReset(MemorySegment, long, long)}), in which case its text is not decoded into a {@code String} until it is asked for.
+ * The content of a {@code TokenCursor} is only valid until the next call to {@code reset}.
+ */
+public final class TokenCursor {
+
+    private String line = "";
+    /** The input holding the current line if it was given as bytes, or {@code null}; {@link #line} is then {@code null} until the line is decoded */
+    private MemorySegment bytes;
+    private long offset;
+    private int length;
+    /** Whether every byte of the current line given as bytes, comment and all, is ASCII */
+    private boolean ascii;
+    /** Where a line given as bytes is copied to be decoded */
+    private byte[] buffer = new byte[128];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count = 0;
+
+    /**
+     * Creates an empty {@code TokenCursor}.
+     */
+    public TokenCursor() {}
+
+    /**
+     * Splits a new line into tokens, discarding whatever tokens were held before.
+     * @param line the text of the line
+     * @return this cursor
+     */
+    public TokenCursor reset(String line) {
+        this.line = line;
+        this.bytes = null;
+        this.length = line.length();
+        split();
+        return this;
+    }
+
+    /**
+     * Splits a new line of UTF-8 encoded bytes into tokens without decoding it, discarding whatever tokens were held before. This is only possible if every byte before any comment is ASCII, so that each byte is one character; otherwise the line must be decoded and given to {@link #reset(String)} instead.
+     * @param bytes the input holding the line
+     * @param from the index of the first byte of the line (inclusive)
+     * @param to the index just past the last byte of the line, not counting its line terminator (exclusive)
+     * @return whether the line was split, or {@code false} (with no tokens held) if it has non-ASCII characters outside of a comment
+     */
+    public boolean tryReset(MemorySegment bytes, long from, long to) {
+        this.line = null;
+        this.bytes = bytes;
+        this.offset = from;
+        this.length = Math.toIntExact(to - from);
+        split();
+
+        int firstNonAscii = 0;
+        while (firstNonAscii < length && bytes.get(ValueLayout.JAVA_BYTE, from + firstNonAscii) >= 0)
+            ++firstNonAscii;
+        ascii = (firstNonAscii == length);
+        if (count > 0 && firstNonAscii < ends[count - 1]) {
+            reset("");
+            return false;
+        }
+        return true;
+    }
+
+    private void split() {
+        count = 0;
+        int i = 0;
+        while (i < length) {
+            char c = at(i);
+            if (Character.isWhitespace(c)) {
+                ++i;
+                continue;
+            } else if (c == '#')
+                break;
+
+            int start = i;
+            boolean insideQuotes = false;
+            if (c == '\'')
+                i = skipCharLiteral(i);
+            while (i < length) {
+                c = at(i);
+                if (insideQuotes) {
+                    if (c == '\\')
+                        ++i;
+                    else if (c == '"')
+                        insideQuotes = false;
+                } else if (c == '"')
+                    insideQuotes = true;
+                else if (c == '#' || Character.isWhitespace(c))
+                    break;
+                ++i;
+            }
+            add(start, Math.min(i, length));
+        }
+    }
+
+    /** Returns a character of the line; a line given as bytes is read a byte at a time, as Latin-1 */
+    private char at(int index) {
+        return (bytes == null) ? line.charAt(index) : (char)(bytes.get(ValueLayout.JAVA_BYTE, offset + index) & 0xFF);
+    }
+
+    private int skipCharLiteral(int i) {
+        // 'c' or '\c'; anything else is left to the usual rules
+        int end = (i + 1 < length && at(i + 1) == '\\') ? i + 3 : i + 2;
+        return (end < length && at(end) == '\'') ? end + 1 : i;
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        ++count;
+    }
+
+    /**
+     * Returns the text of the current line, decoding it if it was given as bytes.
+     * @return the line
+     */
+    public String line() {
+        if (line == null) {
+            if (length > buffer.length)
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            MemorySegment.copy(bytes, ValueLayout.JAVA_BYTE, offset, buffer, 0, length);
+            line = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+        return line;
+    }
+
+    /**
+     * Appends the text of the current line to a {@code StringBuilder}, without decoding it into a {@code String} of its own if it was given as ASCII bytes.
+     * @param text the builder to append to
+     */
+    public void appendLineTo(StringBuilder text) {
+        if (line == null && ascii) {
+            for (int i = 0; i < length; ++i)
+                text.append(at(i));
+        } else
+            text.append(line());
+    }
+
+    /**
+     * Returns the number of tokens on the current line (not counting any comment).
+     * @return the number of tokens
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns whether the current line has no tokens, i.e. it is blank or holds only a comment.
+     * @return whether there are no tokens
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns the index within the line at which a token begins.
+     * @param token the index of the token
+     * @return the beginning index (inclusive) of the token
+     */
+    public int start(int token) {
+        return starts[checkIndex(token)];
+    }
+
+    /**
+     * Returns the index within the line at which a token ends.
+     * @param token the index of the token
+     * @return the ending index (exclusive) of the token
+     */
+    public int end(int token) {
+        return ends[checkIndex(token)];
+    }
+
+    /**
+     * Returns the length of a token.
+     * @param token the index of the token
+     * @return the length
+     */
+    public int length(int token) {
+        return end(token) - start(token);
+    }
+
+    /**
+     * Returns a character of a token.
+     * @param token the index of the token
+     * @param index the index of the character within the token
+     * @return the character
+     */
+    public char charAt(int token, int index) {
+        return at(start(token) + index);
+    }
+
+    /**
+     * Returns the code point at which a token begins.
+     * @param token the index of the token
+     * @return the first code point of the token
+     */
+    public int codePointAt(int token) {
+        return (bytes == null) ? line.codePointAt(start(token)) : at(start(token));
+    }
+
+    /**
+     * Returns the hash of a token, which is the same as the {@link StringView#hash hash} of its text, without decoding the line.
+     * @param token the index of the token
+     * @return the hash of the token
+     */
+    public int hash(int token) {
+        if (bytes == null)
+            return StringView.hash(line, start(token), end(token));
+        int hash = 0;
+        for (int i = start(token), end = end(token); i < end; ++i)
+            hash = 31 * hash + at(i);
+        return hash;
+    }
+
+    /**
+     * Returns whether a token consists of exactly the given text.
+     * @param token the index of the token
+     * @param text the text to compare to
+     * @return whether the token matches
+     */
+    public boolean is(int token, String text) {
+        if (length(token) != text.length())
+            return false;
+        if (bytes == null)
+            return line.startsWith(text, start(token));
+        int start = start(token);
+        for (int i = 0; i < text.length(); ++i)
+            if (at(start + i) != text.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns whether a token ends with the given character.
+     * @param token the index of the token
+     * @param ch the character
+     * @return whether the token is nonempty and ends with {@code ch}
+     */
+    public boolean endsWith(int token, char ch) {
+        return length(token) > 0 && at(end(token) - 1) == ch;
+    }
+
+    /**
+     * Returns a token as a {@link StringView}.
+     * @param token the index of the token
+     * @return a {@code StringView} of the token
+     */
+    public StringView view(int token) {
+        return new StringView(line(), start(token), end(token));
+    }
+
+    /**
+     * Returns a {@link StringView} running from the beginning of a token through the end of the last token on the line.
+     * If there is no such token, the view is empty and positioned just after the last token.
+     * @param token the index of the first token
+     * @return a {@code StringView} of the rest of the line
+     */
+    public StringView rest(int token) {
+        if (token >= count) {
+            int end = (count == 0) ? 0 : ends[count - 1];
+            return new StringView(line(), end, end);
+        }
+        return new StringView(line(), start(token), ends[count - 1]);
+    }
+
+    /**
+     * Returns the tokens from a given token to the end of the line as a list of {@link StringView}s.
+     * @param from the index of the first token
+     * @return the tokens (empty if {@code from} is at or past the end of the line)
+     */
+    public List<StringView> views(int from) {
+        return views(from, count);
+    }
+
+    /**
+     * Returns a range of tokens as a list of {@link StringView}s.
+     * @param from the index of the first token (inclusive)
+     * @param to the index of the last token (exclusive)
+     * @return the tokens
+     */
+    public List<StringView> views(int from, int to) {
+        return switch (Math.max(to - from, 0)) {
+            case 0 -> List.of();
+            case 1 -> List.of(view(from));
+            case 2 -> List.of(view(from), view(from + 1));
+            default -> {
+                var views = new StringView[to - from];
+                for (int i = 0; i < views.length; ++i)
+                    views[i] = view(from + i);
+                yield List.of(views);
+            }
+        };
+    }
+
+    private int checkIndex(int token) {
+        if (token < 0 || token >= count)
+            throw new IndexOutOfBoundsException(String.format(
+                "Invalid token index %d for line with %d tokens", token, count
+            ));
+        return token;
+    }
+
+    /**
+     * Returns the tokens of the current line, separated by spaces.
+     * @return a {@code String} of the tokens
+     */
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            if (i > 0)
+                sb.append(' ');
+            for (int j = starts[i]; j < ends[i]; ++j)
+                sb.append(at(j));
+        }
+        return sb.toString();
+    }
+}
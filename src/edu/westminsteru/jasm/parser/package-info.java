@@ -3,6 +3,7 @@
  * <ul>
  *     <li>{@link edu.westminsteru.jasm.parser.JasmParser} does the actual parsing.</li>
  *     <li>{@link edu.westminsteru.jasm.parser.JasmParserListener} is an interface that must be implemented to be notified of events while the {@code JasmParser} parses.</li>
+ *     <li>{@link edu.westminsteru.jasm.parser.JasmReader} is a pull-based alternative to a listener, returning one event at a time.</li>
  *     <li>{@link edu.westminsteru.jasm.parser.StringView} represents a “slice” of a {@link java.lang.String} and is used extensively by {@code JasmParser}.</li>
  * </ul>
  */
@@ -0,0 +1,120 @@
+package edu.westminsteru.jasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTest {
+
+    private static Path tree() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        Files.createDirectories(dir.resolve("a/b"));
+        Files.createDirectories(dir.resolve("c"));
+        Files.writeString(dir.resolve("z.jasm"), ".class Z\n");
+        Files.writeString(dir.resolve("notes.txt"), "not jasm\n");
+        Files.writeString(dir.resolve("a/one.jasm"), ".class One\n.frobnicate\n");
+        Files.writeString(dir.resolve("a/b/two.jasm"), ".class Two\n" + ".field private x I\n".repeat(100) + ".frobnicate\n");
+        Files.writeString(dir.resolve("c/three.jasm"), ".class Three\n.frobnicate\n.frobnicate\n");
+        return dir;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(file);
+        }
+    }
+
+    private static List<String> names(List<Batch.Input> inputs, Path dir) {
+        return inputs.stream().map(input -> dir.relativize(input.path()).toString().replace('\\', '/')).toList();
+    }
+
+    @org.junit.jupiter.api.Test
+    void inputs() throws IOException {
+        var dir = tree();
+        var err = new ByteArrayOutputStream();
+        try (var pool = new ForkJoinPool(3)) {
+            var inputs = Batch.inputs(List.of(dir.toString()), pool, new PrintStream(err));
+            assertEquals(List.of("a/b/two.jasm", "a/one.jasm", "c/three.jasm", "z.jasm"), names(inputs, dir));
+            assertEquals(Files.size(dir.resolve("a/b/two.jasm")), inputs.getFirst().size());
+
+            // files given more than once count once, in the order they were first given
+            inputs = Batch.inputs(List.of(dir.resolve("z.jasm").toString(), dir.resolve("a").toString(), dir + "/*.jasm"), pool, new PrintStream(err));
+            assertEquals(List.of("z.jasm", "a/b/two.jasm", "a/one.jasm"), names(inputs, dir));
+
+            inputs = Batch.inputs(List.of(dir + "/**/t*.jasm", dir + "/*.txt"), pool, new PrintStream(err));
+            assertEquals(List.of("a/b/two.jasm", "c/three.jasm", "notes.txt"), names(inputs, dir));
+
+            assertEquals("", err.toString());
+            assertEquals(List.of(), Batch.inputs(List.of(dir + "/*.class"), pool, new PrintStream(err)));
+            assertTrue(err.toString().startsWith("No input files in "));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void errorsInOrder() throws IOException {
+        var dir = tree();
+        try (var pool = new ForkJoinPool(2)) {
+            var inputs = Batch.inputs(List.of(dir.resolve("c").toString(), dir.resolve("a").toString(), dir.resolve("missing.jasm").toString()), pool, System.err);
+            var engine = JasmEngine.create();
+            for (int round = 0; round < 10; ++round) {
+                var err = new ByteArrayOutputStream();
+                var outcomes = Batch.assemble(inputs, engine::assemble, _ -> BytecodeSink.toDirectory(dir.resolve("out")), pool, new PrintStream(err, true, StandardCharsets.UTF_8), true);
+                assertEquals(4, outcomes.size());
+                assertTrue(outcomes.stream().noneMatch(Batch.Outcome::success));
+
+                var lines = err.toString(StandardCharsets.UTF_8).lines().filter(line -> line.endsWith(":") || line.startsWith("Error") || line.startsWith("Unable")).toList();
+                assertEquals(9, lines.size(), lines::toString);
+                assertEquals(dir.resolve("c/three.jasm") + ":", lines.get(0));
+                assertTrue(lines.get(1).startsWith("Error at line 2"));
+                assertTrue(lines.get(2).startsWith("Error at line 3"));
+                assertEquals(dir.resolve("a/b/two.jasm") + ":", lines.get(3));
+                assertTrue(lines.get(4).startsWith("Error at line 102"));
+                assertEquals(dir.resolve("a/one.jasm") + ":", lines.get(5));
+                assertEquals(dir.resolve("missing.jasm") + ":", lines.get(7));
+                assertTrue(lines.get(8).startsWith("Unable to read"));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void failedFileSavesNoClasses() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        try (var pool = new ForkJoinPool(2)) {
+            // the first class is assembled, and would be saved, before the second one fails
+            Path file = dir.resolve("two.jasm");
+            Files.writeString(file, TestInputs.simpleClass("First", 1) + TestInputs.simpleClass("Second", 2).replace("sipush 2", "bipush 1000"));
+            Path out = dir.resolve("out");
+            Files.createDirectories(out);
+            Files.writeString(out.resolve("First.class"), "previous");
+
+            var kept = BytecodeSink.inMemory();
+            var inputs = List.of(new Batch.Input(file, Files.size(file)));
+            var outcomes = Batch.assemble(inputs, JasmEngine.create()::assemble, _ -> BytecodeSink.toDirectory(out).andThen(kept), pool, new PrintStream(new ByteArrayOutputStream()), false);
+            assertFalse(outcomes.getFirst().success());
+            assertTrue(outcomes.getFirst().report().contains("BIPUSH"), outcomes.getFirst().report());
+            assertEquals("previous", Files.readString(out.resolve("First.class")));
+            assertFalse(Files.exists(out.resolve("Second.class")));
+            assertEquals(List.of(), kept.getBytecodes());
+
+            Files.writeString(file, TestInputs.simpleClass("First", 1) + TestInputs.simpleClass("Second", 2));
+            assertTrue(Batch.assemble(inputs, JasmEngine.create()::assemble, _ -> BytecodeSink.toDirectory(out).andThen(kept), pool, System.err, false).getFirst().success());
+            assertEquals(List.of("First", "Second"), kept.getBytecodes().stream().map(Bytecode::className).toList());
+            assertArrayEquals(kept.getBytecodes().getFirst().data(), Files.readAllBytes(out.resolve("First.class")));
+        } finally {
+            delete(dir);
+        }
+    }
+}
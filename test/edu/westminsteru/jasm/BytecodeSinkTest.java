@@ -0,0 +1,109 @@
+package edu.westminsteru.jasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static edu.westminsteru.jasm.TestInputs.assertSameClasses;
+import static edu.westminsteru.jasm.TestInputs.simpleClass;
+import static edu.westminsteru.jasm.TestInputs.simpleClasses;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BytecodeSinkTest {
+
+    private static final String MANY_CLASSES = ".source Many.jasm\n" + simpleClasses("pkg/C", 200);
+
+    /** Classes simple enough for the direct backend */
+    private static final JasmEngine ENGINE = JasmEngine.create().withBackend(JasmEngine.Backend.Direct);
+
+    @org.junit.jupiter.api.Test
+    void classesInOrder() {
+        var expected = ENGINE.assemble(MANY_CLASSES).bytecodes();
+        assertEquals(200, expected.size());
+        for (var engine : List.of(ENGINE, ENGINE.withParallelAssembly(true), ENGINE.withStreaming(1), ENGINE.withStreaming(8).withParallelAssembly(true))) {
+            var sink = BytecodeSink.inMemory();
+            var result = engine.assemble(MANY_CLASSES, sink);
+            assertTrue(result.isSuccess());
+            assertTrue(result.bytecodes().isEmpty());
+            assertSameClasses(expected, sink.getBytecodes());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void classesAfterErrorsAreNotGiven() {
+        var input = simpleClass("A", 1) + ".class public B\n.method public static m ()V\n.code\n    goto Missing\n.end code\n" + simpleClass("C", 3);
+        var expected = ENGINE.assemble(input);
+        assertFalse(expected.isSuccess());
+        for (var engine : List.of(ENGINE, ENGINE.withParallelAssembly(true), ENGINE.withStreaming(1))) {
+            var names = new ArrayList<String>();
+            var result = engine.assemble(input, BytecodeSink.of(bytecode -> names.add(bytecode.className())));
+            assertEquals(expected.errorMessages(), result.errorMessages());
+            assertEquals(List.of("A"), names);
+        }
+
+        // nothing is given if the code does not parse
+        var names = new ArrayList<String>();
+        assertFalse(ENGINE.assemble(simpleClass("A", 1) + ".frobnicate\n", BytecodeSink.of(bytecode -> names.add(bytecode.className()))).isSuccess());
+        assertTrue(names.isEmpty());
+    }
+
+    @org.junit.jupiter.api.Test
+    void sinkFailures() {
+        BytecodeSink failing = _ -> { throw new IOException("full"); };
+        for (var engine : List.of(ENGINE, ENGINE.withParallelAssembly(true), ENGINE.withStreaming(2))) {
+            var ex = assertThrows(UncheckedIOException.class, () -> engine.assemble(MANY_CLASSES, failing));
+            assertEquals("full", ex.getCause().getMessage());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void directory() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        try {
+            var kept = BytecodeSink.inMemory();
+            assertTrue(ENGINE.withParallelAssembly(true).assemble(MANY_CLASSES, BytecodeSink.toDirectory(dir).andThen(kept)).isSuccess());
+            assertEquals(200, kept.getBytecodes().size());
+            for (var bytecode : kept.getBytecodes())
+                assertArrayEquals(bytecode.data(), Files.readAllBytes(dir.resolve(bytecode.className() + ".class")));
+        } finally {
+            try (var files = Files.walk(dir)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void channel() {
+        var bytes = new ByteArrayOutputStream();
+        var expected = ENGINE.assemble(MANY_CLASSES).bytecodes();
+        assertTrue(ENGINE.withStreaming(4).withParallelAssembly(true).assemble(MANY_CLASSES, BytecodeSink.toChannel(Channels.newChannel(bytes))).isSuccess());
+
+        var buffer = ByteBuffer.wrap(bytes.toByteArray());
+        var actual = new ArrayList<Bytecode>();
+        while (buffer.hasRemaining()) {
+            var name = new byte[buffer.getInt()];
+            buffer.get(name);
+            var data = new byte[buffer.getInt()];
+            buffer.get(data);
+            actual.add(new Bytecode(new String(name, StandardCharsets.UTF_8), data));
+        }
+        assertSameClasses(expected, actual);
+    }
+
+    @org.junit.jupiter.api.Test
+    void assembler() {
+        var sink = BytecodeSink.inMemory();
+        var assembler = JasmAssembler.reading(simpleClass("A", 1)).withBackend(JasmEngine.Backend.Direct);
+        assertEquals(Status.Success, assembler.assemble(sink));
+        assertEquals("A", sink.getBytecodes().getFirst().className());
+        assertThrows(IllegalStateException.class, assembler::getAssembledBytecodes);
+    }
+}
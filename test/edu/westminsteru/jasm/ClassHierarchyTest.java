@@ -0,0 +1,80 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.lang.classfile.ClassHierarchyResolver.ClassHierarchyInfo;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassHierarchyTest {
+
+    private static final String CLASSES = """
+        .class public Shape
+        .class public Circle
+        .super Shape
+        .implements Round
+        .interface public abstract Round
+        .class public Square
+        .super java/util/AbstractList
+        """;
+
+    @org.junit.jupiter.api.Test
+    void inputClasses() {
+        var document = JasmDocument.parse(CLASSES);
+        var resolver = ClassHierarchy.of(document.getClassSpecs());
+        assertEquals(ClassHierarchyInfo.ofClass(ConstantDescs.CD_Object), resolver.getClassInfo(ClassDesc.of("Shape")));
+        assertEquals(ClassHierarchyInfo.ofClass(ClassDesc.of("Shape")), resolver.getClassInfo(ClassDesc.of("Circle")));
+        assertEquals(ClassHierarchyInfo.ofInterface(), resolver.getClassInfo(ClassDesc.of("Round")));
+        assertEquals(ClassHierarchyInfo.ofClass(ClassDesc.of("java.util.AbstractList")), resolver.getClassInfo(ClassDesc.of("Square")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void jdkIndex() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        try {
+            Path file = dir.resolve("sub").resolve("jdk.idx");
+            var index = JdkHierarchyIndex.load(file);
+            assertTrue(Files.isRegularFile(file));
+            assertTrue(index.size() > 1000, "size " + index.size());
+
+            int string = index.find("java/lang/String");
+            assertTrue(string >= 0);
+            assertFalse(index.isInterface(string));
+            assertEquals("java/lang/Object", index.superclassName(string));
+            assertNull(index.superclassName(index.find("java/lang/Object")));
+            assertTrue(index.isInterface(index.find("java/util/List")));
+            assertEquals("java/util/AbstractList", index.superclassName(index.find("java/util/ArrayList")));
+            assertEquals(-1, index.find("java/lang/Strin"));
+            assertEquals(-1, index.find("java/lang/StringZ"));
+            assertEquals(-1, index.find("Shape"));
+
+            assertEquals(ClassHierarchyInfo.ofClass(ClassDesc.of("java.lang.Number")), index.getClassInfo(ClassDesc.of("java.lang.Integer")));
+            assertNull(index.getClassInfo(ConstantDescs.CD_int));
+
+            // a saved index is mapped as it is
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            assertEquals(index.size(), JdkHierarchyIndex.load(file).size());
+            assertEquals(modified, Files.getLastModifiedTime(file).toMillis());
+
+            // an index of some other JDK (or no index at all) is rebuilt
+            Files.writeString(file, "not an index");
+            assertEquals(string, JdkHierarchyIndex.load(file).find("java/lang/String"));
+        } finally {
+            try (var files = Files.walk(dir)) {
+                for (var path : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(path);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void inputClassesComeFirst() {
+        var document = JasmDocument.parse(".class public java/lang/Thread\n.super java/lang/Number\n");
+        var resolver = ClassHierarchy.of(document.getClassSpecs());
+        assertEquals(ClassHierarchyInfo.ofClass(ClassDesc.of("java.lang.Number")), resolver.getClassInfo(ClassDesc.of("java.lang.Thread")));
+    }
+}
@@ -0,0 +1,197 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.CodeModel;
+import java.lang.classfile.Instruction;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static edu.westminsteru.jasm.TestInputs.assertSameResult;
+import static edu.westminsteru.jasm.TestInputs.corpus;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectClassWriterTest {
+
+    /** Returns a description of a class with everything but the layout of its constant pool */
+    private static List<String> describe(ClassModel model) {
+        var lines = new java.util.ArrayList<String>();
+        lines.add(model.thisClass().asInternalName() + " " + model.flags().flagsMask()
+            + " extends " + model.superclass().map(c -> c.asInternalName()).orElse("-")
+            + " implements " + model.interfaces().stream().map(c -> c.asInternalName()).toList());
+        for (var field : model.fields())
+            lines.add("field " + field.fieldName().stringValue() + " " + field.fieldType().stringValue() + " " + field.flags().flagsMask());
+        for (var method : model.methods()) {
+            lines.add("method " + method.methodName().stringValue() + method.methodType().stringValue() + " " + method.flags().flagsMask());
+            method.code().ifPresent(code -> {
+                var attribute = (CodeAttribute)code;
+                lines.add("  stack " + attribute.maxStack() + ", locals " + attribute.maxLocals());
+                instructions(code).forEach(instruction -> lines.add("  " + instruction));
+            });
+        }
+        return lines;
+    }
+
+    private static Stream<String> instructions(CodeModel code) {
+        return code.elementStream()
+            .filter(e -> e instanceof Instruction)
+            .map(Object::toString);
+    }
+
+    @org.junit.jupiter.api.Test
+    void sameClassesAsClassFileApi() throws IOException {
+        var classFile = ClassFile.of();
+        var engine = JasmEngine.create();
+        for (var input : corpus()) {
+            var expected = engine.assemble(input);
+            var actual = engine.withBackend(JasmEngine.Backend.Direct).assemble(input);
+            assertEquals(expected.status(), actual.status(), input.toString());
+            assertEquals(expected.errorMessages(), actual.errorMessages(), input.toString());
+            assertEquals(expected.bytecodes().size(), actual.bytecodes().size(), input.toString());
+
+            for (int i = 0; i < expected.bytecodes().size(); ++i) {
+                var expectedBytes = expected.bytecodes().get(i).data();
+                var actualBytes = actual.bytecodes().get(i).data();
+                assertEquals(expected.bytecodes().get(i).className(), actual.bytecodes().get(i).className());
+                assertEquals(describe(classFile.parse(expectedBytes)), describe(classFile.parse(actualBytes)), input.toString());
+                assertEquals(
+                    classFile.verify(expectedBytes).isEmpty(), classFile.verify(actualBytes).isEmpty(),
+                    input + ": " + classFile.verify(actualBytes)
+                );
+            }
+        }
+    }
+
+    private static DefaultJasmParserListener.ClassSpec classSpec(String code) {
+        var document = JasmDocument.parse(code);
+        assertEquals(List.of(), document.getErrors());
+        return document.getClassSpecs().getFirst();
+    }
+
+    private static byte[] write(String code) {
+        return DirectClassWriter.write(classSpec(code), ClassFile.latestMajorVersion(), null);
+    }
+
+    private static final String STRAIGHT_LINE = """
+        .class public A
+        .method public static m (JI)J
+        .code
+            lload_0
+            iload_2
+            istore 300
+            iload 300
+            i2l
+            ladd
+            iinc 2 1000
+            ldc2 1234567890123L
+            lmul
+            lreturn
+        .end code
+        """;
+
+    @org.junit.jupiter.api.Test
+    void straightLineCode() {
+        var bytes = write(STRAIGHT_LINE);
+        assertNotNull(bytes);
+        var model = ClassFile.of().parse(bytes);
+        var code = (CodeAttribute)model.methods().getFirst().code().orElseThrow();
+        assertEquals(4, code.maxStack());
+        assertEquals(301, code.maxLocals());
+        assertEquals(List.of(), ClassFile.of().verify(bytes));
+    }
+
+    @org.junit.jupiter.api.Test
+    void unsupportedCode() {
+        // branches need stack map frames
+        assertNull(write(STRAIGHT_LINE.replace("    lreturn", "top:\n    goto top")));
+        // code after a return
+        assertNull(write(STRAIGHT_LINE.replace("    lmul", "    lreturn\n    lmul")));
+        // code that runs off the end
+        assertNull(write(STRAIGHT_LINE.replace("    lreturn", "")));
+        // stack underflow
+        assertNull(write(STRAIGHT_LINE.replace("    lload_0", "")));
+        // errors are left to the ClassFile API
+        assertNull(write(STRAIGHT_LINE.replace("i2l", "frobnicate")));
+        assertNull(write(STRAIGHT_LINE.replace("iload 300", "iload x")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void unverifiedCode() {
+        // code that does not verify is left to the ClassFile API
+        var input = STRAIGHT_LINE.replace("    i2l", "    fconst_1\n    iadd\n    i2l");
+        assertNull(write(input));
+        var engine = JasmEngine.create();
+        assertSameResult(engine.assemble(input), engine.withBackend(JasmEngine.Backend.Direct).assemble(input));
+
+        // a long taken as an int
+        assertNull(write(STRAIGHT_LINE.replace("    iload_2", "    lload_0\n    istore_2\n    iload_2")));
+        // the second half of a long
+        assertNull(write(STRAIGHT_LINE.replace("    iload_2", "    iload_1")));
+        // a local variable that was never set
+        assertNull(write(STRAIGHT_LINE.replace("iload 300", "iload 301")));
+        // a local variable whose long was partly overwritten
+        assertNull(write(STRAIGHT_LINE.replace("    iload_2", "    iconst_0\n    istore_1\n    lload_0\n    pop2\n    iload_2")));
+        // dup of half a long
+        assertNull(write(STRAIGHT_LINE.replace("    lmul", "    dup\n    pop\n    lmul")));
+        // the wrong return type
+        assertNull(write(STRAIGHT_LINE.replace("    lreturn", "    l2i\n    ireturn")));
+        // an object used before it is initialized
+        assertNull(write(CONSTRUCTOR.replace("    dup\n", "    dup\n    dup\n    invokevirtual java/lang/Object hashCode ()I\n    pop\n")));
+        // a constructor that never calls a constructor of its superclass
+        assertNull(write(CONSTRUCTOR.replace("    aload_0\n    invokespecial java/lang/Object <init> ()V\n", "")));
+        // a type that would take the class hierarchy to check
+        assertNull(write(CONSTRUCTOR.replace("invokevirtual java/lang/Object toString", "invokevirtual java/lang/Number toString")));
+    }
+
+    private static final String CONSTRUCTOR = """
+        .class public A
+        .method public <init> ()V
+        .code
+            aload_0
+            invokespecial java/lang/Object <init> ()V
+            new java/lang/StringBuilder
+            dup
+            invokespecial java/lang/StringBuilder <init> ()V
+            astore_1
+            aload_1
+            invokevirtual java/lang/Object toString ()Ljava/lang/String;
+            pop
+            return
+        .end code
+        """;
+
+    @org.junit.jupiter.api.Test
+    void typedCode() {
+        var bytes = write(CONSTRUCTOR);
+        assertNotNull(bytes);
+        assertEquals(List.of(), ClassFile.of().verify(bytes));
+        var code = (CodeAttribute)ClassFile.of().parse(bytes).methods().getFirst().code().orElseThrow();
+        assertEquals(2, code.maxStack());
+        assertEquals(2, code.maxLocals());
+    }
+
+    @org.junit.jupiter.api.Test
+    void directlyWrittenClassesVerify() throws IOException {
+        var classFile = ClassFile.of();
+        for (var input : corpus()) {
+            for (var spec : JasmDocument.parse(Files.readString(input)).getClassSpecs()) {
+                var bytes = DirectClassWriter.write(spec, ClassFile.latestMajorVersion(), null);
+                if (bytes != null)
+                    assertEquals(List.of(), classFile.verify(bytes), input.toString());
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void backendSetting() {
+        var engine = JasmEngine.create();
+        assertEquals(JasmEngine.Backend.ClassFileApi, engine.getBackend());
+        var direct = engine.withBackend(JasmEngine.Backend.Direct);
+        assertEquals(JasmEngine.Backend.Direct, direct.getBackend());
+        assertSame(direct, direct.withBackend(JasmEngine.Backend.Direct));
+        assertThrows(NullPointerException.class, () -> engine.withBackend(null));
+    }
+}
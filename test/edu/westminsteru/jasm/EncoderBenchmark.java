@@ -0,0 +1,137 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the cost of emitting an instruction with {@link Instructions#enter}, comparing the encoder tables with the reflective dispatch ({@code Method.invoke} on {@link CodeBuilder}) they replaced. Each round assembles a method of 50,000 instructions; run with {@code java edu.westminsteru.jasm.EncoderBenchmark [rounds]}.
+ * <p>
+ * Both sides do the same work apart from the dispatch: they parse the operands of every instruction and emit it to the same {@code CodeBuilder}. Since the program needs {@code java.lang.classfile}, it has to be run on JDK 24 or later; record the JDK and machine alongside any results.
+ */
+class EncoderBenchmark {
+
+    private static final int INSTRUCTIONS = 50_000;
+    /** How many times each dispatch is timed, alternately, so that a noisy machine affects both alike; the median is reported */
+    private static final int TRIALS = 7;
+
+    private record Line(Opcode opcode, StringView opcodeText, List<StringView> operands, String label) {}
+
+    public static void main(String[] args) throws Exception {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        var code = method();
+
+        for (int warmup = 0; warmup < 2; ++warmup) {
+            run(code, rounds, false);
+            run(code, rounds, true);
+        }
+        long[] reflective = new long[TRIALS], tables = new long[TRIALS];
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            reflective[trial] = run(code, rounds, true);
+            tables[trial] = run(code, rounds, false);
+        }
+        Arrays.sort(reflective);
+        Arrays.sort(tables);
+
+        long total = (long)rounds * INSTRUCTIONS;
+        System.out.printf("reflective dispatch: %6.1f ns/instruction (median of %d)%n", (double)reflective[TRIALS / 2] / total, TRIALS);
+        System.out.printf("encoder tables:      %6.1f ns/instruction (median of %d)%n", (double)tables[TRIALS / 2] / total, TRIALS);
+    }
+
+    /** Returns the code of a method of {@value #INSTRUCTIONS} instructions: blocks of arithmetic, loads, and stores, each ending in a branch to the next */
+    private static List<Line> method() {
+        String[] block = { "iconst_1", "istore_1", "iload_1", "iconst_2", "iadd", "pop", "nop", "goto" };
+        var lines = new ArrayList<Line>(INSTRUCTIONS);
+        for (int i = 0; lines.size() < INSTRUCTIONS; ++i)
+            for (String name : block) {
+                var text = StringView.of(name);
+                var operands = name.equals("goto") ? List.of(StringView.of("L" + i)) : List.<StringView>of();
+                lines.add(new Line(Opcode.lookup(text), text, operands, name.equals("goto") ? "L" + i : null));
+            }
+        lines.subList(INSTRUCTIONS - 1, lines.size()).clear();
+        lines.add(new Line(Opcode.return_, StringView.of("return"), List.of(), null));
+        return lines;
+    }
+
+    /** Assembles the method the given number of times, returning the total number of nanoseconds spent emitting instructions */
+    private static long run(List<Line> code, int rounds, boolean reflective) throws Exception {
+        long[] elapsed = new long[1];
+        for (int round = 0; round < rounds; ++round)
+            ClassFile.of(ClassFile.StackMapsOption.DROP_STACK_MAPS).build(
+                ClassDesc.of("Benchmark"),
+                clb -> clb.withMethod(
+                    "run", MethodTypeDesc.of(ConstantDescs.CD_void), ClassFile.ACC_STATIC,
+                    mb -> mb.withCode(cb -> elapsed[0] += emit(code, reflective, cb))
+                )
+            );
+        return elapsed[0];
+    }
+
+    private static long emit(List<Line> code, boolean reflective, CodeBuilder cb) {
+        var labels = new HashMap<String, Label>();
+        long start = System.nanoTime();
+        try {
+            for (var line : code) {
+                if (reflective)
+                    enterReflectively(line, labels, cb);
+                else
+                    Instructions.enter(line.opcode(), line.opcodeText(), line.operands(), labels, cb);
+                if (line.label() != null)
+                    cb.labelBinding(labels.get(line.label()));
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static final EnumMap<Opcode, Method> codeBuilderMethods = new EnumMap<>(Opcode.class);
+
+    /** The dispatch used before the encoder tables, as {@code Instructions.enter} had it: parse the operands, then look up (and cache) the {@code CodeBuilder} method of the same name and invoke it, except for loads and stores, which were called directly */
+    private static void enterReflectively(Line line, Map<String, Label> labels, CodeBuilder cb) throws Exception {
+        var opc = line.opcode();
+        var ops = Instructions.checkAndParseOperands(line.opcodeText(), opc, line.operands());
+
+        switch (opc) {
+            case iload_1 -> cb.iload(1);
+            case istore_1 -> cb.istore(1);
+            case goto_ -> {
+                var target = labels.computeIfAbsent(
+                    ((Operand.BranchTarget)ops[0]).text(),
+                    l -> cb.newLabel()
+                );
+
+                Method method;
+                if (codeBuilderMethods.containsKey(opc))
+                    method = codeBuilderMethods.get(opc);
+                else {
+                    method = CodeBuilder.class.getMethod(opc.name(), Label.class);
+                    codeBuilderMethods.put(opc, method);
+                }
+                method.invoke(cb, target);
+            }
+            default -> {
+                Method method;
+                if (codeBuilderMethods.containsKey(opc))
+                    method = codeBuilderMethods.get(opc);
+                else {
+                    method = CodeBuilder.class.getMethod(opc.name());
+                    codeBuilderMethods.put(opc, method);
+                }
+                method.invoke(cb);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+import static edu.westminsteru.jasm.TestInputs.simpleClasses;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarSinkTest {
+
+    /** Classes simple enough for the direct backend */
+    private static final JasmEngine ENGINE = JasmEngine.create().withBackend(JasmEngine.Backend.Direct);
+
+    /** Writes the classes of the input into a jar and checks that they read back the same */
+    private static long roundTrip(String input, boolean store) throws IOException {
+        var expected = ENGINE.assemble(input).bytecodes();
+        var file = Files.createTempFile("jasm", ".jar");
+        try {
+            try (var jar = JarSink.open(file, store, ForkJoinPool.commonPool())) {
+                assertTrue(ENGINE.withParallelAssembly(true).assemble(input, jar).isSuccess());
+                jar.commit();
+            }
+
+            try (var jar = new JarFile(file.toFile())) {
+                assertEquals("1.0", jar.getManifest().getMainAttributes().getValue("Manifest-Version"));
+                assertEquals(expected.size() + 1, jar.size());
+                for (var bytecode : expected) {
+                    var entry = jar.getEntry(bytecode.className() + ".class");
+                    assertNotNull(entry, bytecode.className());
+                    if (store)
+                        assertEquals(ZipEntry.STORED, entry.getMethod());
+                    try (var in = jar.getInputStream(entry)) {
+                        assertArrayEquals(bytecode.data(), in.readAllBytes());
+                    }
+                }
+            }
+
+            // read as a stream too, which relies on the local headers and finds the manifest first
+            var read = new HashMap<String, byte[]>();
+            try (var in = new JarInputStream(Files.newInputStream(file))) {
+                assertNotNull(in.getManifest());
+                for (ZipEntry entry; (entry = in.getNextEntry()) != null; )
+                    read.put(entry.getName(), in.readAllBytes());
+            }
+            assertEquals(expected.size(), read.size());
+            for (var bytecode : expected)
+                assertArrayEquals(bytecode.data(), read.get(bytecode.className() + ".class"));
+            return Files.size(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsBack() throws IOException {
+        long deflated = roundTrip(simpleClasses("pkg/sub/C", 2000), false);
+        long stored = roundTrip(simpleClasses("pkg/sub/C", 2000), true);
+        assertTrue(deflated < stored, deflated + " >= " + stored);
+
+        var file = Files.createTempFile("jasm", ".jar");
+        try {
+            JarSink.open(file, false, ForkJoinPool.commonPool()).commit();
+            try (var jar = new JarFile(file.toFile())) {
+                assertEquals(1, jar.size());
+                assertNotNull(jar.getManifest());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void duplicateClasses() throws IOException {
+        var file = Files.createTempFile("jasm", ".jar");
+        try (var jar = JarSink.open(file, false, ForkJoinPool.commonPool())) {
+            var bytecode = new Bytecode("A", new byte[] { 1, 2, 3 });
+            jar.accept(bytecode);
+            var ex = assertThrows(IOException.class, () -> jar.accept(bytecode));
+            assertEquals("Duplicate class A", ex.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void failedBuildKeepsPreviousJar() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        var file = dir.resolve("out.jar");
+        try {
+            try (var jar = JarSink.open(file, false, ForkJoinPool.commonPool())) {
+                assertTrue(ENGINE.assemble(simpleClasses("pkg/sub/C", 10), jar).isSuccess());
+                jar.commit();
+                assertThrows(IllegalStateException.class, jar::commit);
+            }
+            byte[] previous = Files.readAllBytes(file);
+
+            // a jar that is closed without being committed is discarded
+            try (var jar = JarSink.open(file, false, ForkJoinPool.commonPool())) {
+                assertTrue(ENGINE.assemble(simpleClasses("pkg/sub/C", 20), jar).isSuccess());
+            }
+            assertArrayEquals(previous, Files.readAllBytes(file));
+            try (var files = Files.list(dir)) {
+                assertEquals(List.of(file), files.toList());
+            }
+
+            // as is one that cannot be written
+            try (var jar = JarSink.open(file, false, ForkJoinPool.commonPool())) {
+                jar.accept(new Bytecode("A", new byte[] { 1, 2, 3 }));
+                Files.delete(file);
+                Files.createDirectory(file);
+                assertThrows(IOException.class, jar::commit);
+            }
+            try (var files = Files.list(dir)) {
+                assertEquals(List.of(file), files.toList());
+            }
+            Files.delete(file);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void filesInParallel() throws IOException {
+        var dir = Files.createTempDirectory("jasm");
+        try {
+            var names = new ArrayList<String>();
+            for (int i = 0; i < 4; ++i) {
+                Files.writeString(dir.resolve("f" + i + ".jasm"), simpleClasses("pkg/sub/C", 50).replace("pkg/sub/C", "pkg/F" + i + "C"));
+                for (int c = 0; c < 50; ++c)
+                    names.add("pkg/F" + i + "C" + c + ".class");
+            }
+            var jarPath = dir.resolve("out.jar");
+            try (var pool = new ForkJoinPool(3); var jar = JarSink.open(jarPath, false, pool)) {
+                var inputs = Batch.inputs(List.of(dir.toString()), pool, System.err);
+                var outcomes = Batch.assemble(inputs, ENGINE::assemble, _ -> jar, pool, System.err, true);
+                assertTrue(outcomes.stream().allMatch(Batch.Outcome::success));
+                jar.commit();
+            }
+            try (var jar = new JarFile(jarPath.toFile())) {
+                for (var name : names)
+                    assertNotNull(jar.getEntry(name), name);
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (var file : files.toList())
+                    Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+}
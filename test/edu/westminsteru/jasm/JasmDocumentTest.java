@@ -0,0 +1,166 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JasmDocumentTest {
+
+    private static final String CODE = """
+        .class public A
+        .method public static m ()V
+        .code
+            iconst_0
+            istore_0
+            return
+        .end code
+        .method public static n ()V
+        .code
+            .end what
+            return
+        .end code
+        .class public B
+        .method public static o ()V
+        .code
+            return
+        .end code
+        """;
+
+    private static void assertSameAsFullParse(JasmDocument document) {
+        var expected = JasmDocument.parse(document.getText());
+        assertEquals(expected.getSourceName(), document.getSourceName());
+        assertEquals(expected.getErrors(), document.getErrors());
+        assertEquals(expected.getClassSpecs(), document.getClassSpecs());
+
+        int lineCount = (int)document.getText().lines().count();
+        for (int line = 0; line <= lineCount + 1; ++line) {
+            int first = line, last = line + 2;
+            assertEquals(
+                expected.getErrors().stream().filter(e -> e.lineNumber() >= first && e.lineNumber() <= last).toList(),
+                document.getErrors(first, last)
+            );
+        }
+    }
+
+    private static DefaultJasmParserListener.ClassSpec classSpec(JasmDocument document, int index) {
+        return document.getClassSpecs().get(index);
+    }
+
+    private static MethodCode methodCode(JasmDocument document, int classIndex, String methodName) {
+        var spec = classSpec(document, classIndex);
+        return spec.methodCodes().entrySet().stream()
+            .filter(e -> e.getKey().methodName().toString().equals(methodName))
+            .findFirst().orElseThrow()
+            .getValue();
+    }
+
+    @org.junit.jupiter.api.Test
+    void editWithinLine() {
+        var document = JasmDocument.parse(CODE);
+        int offset = CODE.indexOf("istore_0") + "istore_".length();
+        var edited = document.edit(offset, 1, "1");
+
+        assertTrue(edited.getText().contains("istore_1"));
+        assertSameAsFullParse(edited);
+        // everything but the edited method is reused
+        assertSame(methodCode(document, 0, "n"), methodCode(edited, 0, "n"));
+        assertSame(classSpec(document, 1), classSpec(edited, 1));
+        assertNotSame(methodCode(document, 0, "m"), methodCode(edited, 0, "m"));
+        // the old document is untouched
+        assertTrue(document.getText().contains("istore_0"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void insertLines() {
+        var document = JasmDocument.parse(CODE);
+        var edited = document.edit(CODE.indexOf("    istore_0"), 0, "    nop\n    nop\n");
+
+        assertSameAsFullParse(edited);
+        assertEquals(document.getErrors().getFirst().lineNumber() + 2, edited.getErrors().getFirst().lineNumber());
+        assertSame(classSpec(document, 1).methods(), classSpec(edited, 1).methods());
+    }
+
+    @org.junit.jupiter.api.Test
+    void errorsOnLines() {
+        var document = JasmDocument.parse(CODE);
+        var error = document.getErrors().getFirst();
+        assertEquals(List.of(error), document.getErrors(error.lineNumber(), error.lineNumber()));
+        assertEquals(List.of(), document.getErrors(1, error.lineNumber() - 1));
+        assertEquals(List.of(), document.getErrors(error.lineNumber(), error.lineNumber() - 1));
+
+        // lines inserted before a block's errors move them, but lines inserted after leave them as they were
+        var edited = document.edit(CODE.indexOf("    istore_0"), 0, "    nop\n");
+        edited = edited.edit(edited.getText().indexOf("    return\n.end code\n.class"), 0, "    nop\n");
+        assertEquals(List.of(), edited.getErrors(error.lineNumber(), error.lineNumber()));
+        assertEquals(1, edited.getErrors(error.lineNumber() + 1, error.lineNumber() + 1).size());
+        assertEquals(error.lineNumber() + 1, edited.getErrors().getFirst().lineNumber());
+    }
+
+    @org.junit.jupiter.api.Test
+    void structuralEdits() {
+        var document = JasmDocument.parse(CODE);
+
+        // closing the block early re-parses everything
+        var edited = document.edit(CODE.indexOf("    istore_0"), 0, ".end code\n");
+        assertSameAsFullParse(edited);
+        assertNotEquals(document.getErrors(), edited.getErrors());
+
+        // so does editing a directive
+        edited = document.edit(CODE.indexOf(".class public B") + ".class public ".length(), 1, "C");
+        assertSameAsFullParse(edited);
+        assertEquals("C", classSpec(edited, 1).className().toString());
+
+        // and a label left dangling at the end of a block
+        edited = document.edit(CODE.indexOf("    return\n.end code"), 0, "end:\n");
+        assertSameAsFullParse(edited);
+        assertSameAsFullParse(edited.edit(edited.getText().indexOf(".end what"), 4, ""));
+    }
+
+    @org.junit.jupiter.api.Test
+    void lineTerminators() {
+        String crlf = CODE.replace("\n", "\r\n");
+        var document = JasmDocument.parse(crlf);
+        int offset = crlf.indexOf("istore_0");
+
+        // split a \r\n apart and join it back up
+        var edited = document.edit(offset + "istore_0".length() + 1, 0, "x");
+        assertSameAsFullParse(edited);
+        edited = edited.edit(offset + "istore_0".length() + 1, 1, "");
+        assertEquals(crlf, edited.getText());
+        assertSameAsFullParse(edited);
+
+        edited = document.edit(offset, 0, "nop\r");
+        assertSameAsFullParse(edited);
+        assertSameAsFullParse(edited.edit(offset + 3, 1, "\n"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void randomEdits() throws IOException {
+        String[] replacements = {
+            "", "", "x", " ", "\n", "\r\n", "nop\n", "    iload_1", "label: ", "l:\n", ".end code\n", "# c", "1"
+        };
+        var random = new Random(42);
+
+        for (var file : TestInputs.corpus()) {
+            var document = JasmDocument.parse(Files.readString(file));
+            for (int n = 0; n < 200; ++n) {
+                int textLength = document.getText().length();
+                int offset = random.nextInt(textLength + 1);
+                int length = Math.min(random.nextInt(4), textLength - offset);
+                document = document.edit(offset, length, replacements[random.nextInt(replacements.length)]);
+                assertSameAsFullParse(document);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidEdit() {
+        var document = JasmDocument.parse(CODE);
+        assertThrows(IndexOutOfBoundsException.class, () -> document.edit(CODE.length(), 1, ""));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.edit(-1, 0, ""));
+        assertEquals(CODE + "x", document.edit(CODE.length(), 0, "x").getText());
+    }
+}
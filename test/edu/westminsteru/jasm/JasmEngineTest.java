@@ -0,0 +1,165 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.DescriptorCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static edu.westminsteru.jasm.TestInputs.assertSameResult;
+import static edu.westminsteru.jasm.TestInputs.corpus;
+import static edu.westminsteru.jasm.TestInputs.simpleClasses;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JasmEngineTest {
+
+    @org.junit.jupiter.api.Test
+    void sameAsJasmAssembler() throws IOException {
+        var engine = JasmEngine.create();
+        for (var file : corpus()) {
+            var assembler = JasmAssembler.reading(file);
+            var status = assembler.assemble();
+            var result = engine.assemble(file);
+
+            assertEquals(status, result.status(), file::toString);
+            assertEquals(assembler.getErrorMessages(), result.errorMessages(), file::toString);
+            if (result.isSuccess())
+                assertSameResult(result, engine.assemble(Files.readString(file)));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void concurrentAssemblies() throws IOException, InterruptedException, ExecutionException {
+        var engine = JasmEngine.create();
+        var files = corpus();
+        var expected = new ArrayList<AssemblyResult>();
+        for (var file : files)
+            expected.add(engine.assemble(file));
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            var results = new ArrayList<Future<AssemblyResult>>();
+            for (int round = 0; round < 20; ++round)
+                for (var file : files)
+                    results.add(executor.submit(() -> engine.assemble(file)));
+            for (int i = 0; i < results.size(); ++i)
+                assertSameResult(expected.get(i % files.size()), results.get(i).get());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void parallelAssembly() throws IOException {
+        var all = new StringBuilder();
+        for (var file : corpus())
+            all.append(Files.readString(file).replaceAll("(?m)^\\.source.*$", "")).append('\n');
+        // distinct class names, so that the result does not depend on which duplicate wins
+        var input = new StringBuilder();
+        for (int i = 0; i < 10; ++i)
+            input.append(all.toString().replaceAll("(?m)^(\\.(class|interface|enum).*?)(\\S+)$", "$1$3_" + i));
+
+        var sequential = JasmEngine.create().assemble(input.toString());
+        var parallel = JasmEngine.create().withParallelAssembly(true).assemble(input.toString());
+        assertSameResult(sequential, parallel);
+
+        try (var executor = Executors.newFixedThreadPool(3)) {
+            var onExecutor = JasmEngine.create().withParallelAssembly(true).withExecutor(executor);
+            assertSameResult(sequential, onExecutor.assemble(input.toString()));
+        }
+
+        var broken = ".class A\n.method m ()V\n.code\n    frobnicate\n.end code\n.class B\n.method m ()V\n.code\n    blah\n.end code\n";
+        assertSameResult(
+            JasmEngine.create().assemble(broken),
+            JasmEngine.create().withParallelAssembly(true).assemble(broken)
+        );
+    }
+
+    /** Returns a class with many large methods, so that its methods are lowered in parallel */
+    private static String largeClass(boolean withErrors) {
+        var code = new StringBuilder(".class public Large\n");
+        for (int m = 0; m < 40; ++m) {
+            code.append(".method public static m").append(m).append(" (I)I\n.code\n");
+            for (int i = 0; i < 100; ++i)
+                code.append("L").append(i).append(":\n")
+                    .append("    iload_0\n    ldc ").append(i * m).append("\n    iadd\n    istore_0\n")
+                    .append("    getstatic java/lang/System out Ljava/io/PrintStream;\n    pop\n")
+                    .append("    iload_0\n    ifeq L").append(i).append("\n");
+            if (withErrors && m % 7 == 3)
+                code.append("    bipush x").append(m).append("\n    frobnicate\n");
+            code.append("    iload_0\n    ireturn\n.end code\n");
+        }
+        return code.toString();
+    }
+
+    @org.junit.jupiter.api.Test
+    void failedSinkCancelsTheRest() {
+        // the first class is assembled at once, and the others are held until the sink has failed
+        var held = new ArrayList<Runnable>();
+        int[] submitted = new int[1];
+        Executor executor = task -> {
+            if (submitted[0]++ == 0)
+                task.run();
+            else
+                held.add(task);
+        };
+        var engine = JasmEngine.create().withParallelAssembly(true).withExecutor(executor);
+        var ex = assertThrows(UncheckedIOException.class, () -> engine.assemble(simpleClasses("Unwanted", 8), bytecode -> {
+            throw new IOException("disk full");
+        }));
+        assertEquals("disk full", ex.getCause().getMessage());
+        assertEquals(7, held.size());
+
+        // none of the other classes is assembled when its task runs after all
+        var before = DescriptorCache.shared().stats();
+        for (var task : held)
+            task.run();
+        var after = DescriptorCache.shared().stats();
+        assertEquals(before.hits() + before.misses(), after.hits() + after.misses());
+    }
+
+    @org.junit.jupiter.api.Test
+    void parallelLowering() {
+        var sequential = JasmEngine.create();
+        var parallel = JasmEngine.create().withParallelAssembly(true);
+        for (boolean withErrors : new boolean[] { false, true }) {
+            var input = largeClass(withErrors);
+            var expected = sequential.assemble(input);
+            assertSameResult(expected, parallel.assemble(input));
+            assertEquals(withErrors, !expected.isSuccess());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void failedResult() {
+        var result = JasmEngine.create().assemble("""
+            .class Broken
+            .method m ()V
+            .code
+                frobnicate
+                return
+            .end code
+            """);
+        assertFalse(result.isSuccess());
+        assertEquals(Status.Failure, result.status());
+        assertTrue(result.bytecodes().isEmpty());
+        assertEquals(1, result.errorMessages().size());
+        assertEquals(4, result.errorMessages().getFirst().lineNumber());
+        assertThrows(UnsupportedOperationException.class, () -> result.errorMessages().clear());
+    }
+
+    @org.junit.jupiter.api.Test
+    void settings() {
+        var engine = JasmEngine.create();
+        assertFalse(engine.isParallelParsing());
+        var parallel = engine.withParallelParsing(true);
+        assertTrue(parallel.isParallelParsing());
+        assertFalse(engine.isParallelParsing());
+        assertSame(engine, engine.withParallelParsing(false));
+        assertFalse(engine.isParallelAssembly());
+        assertTrue(engine.withParallelAssembly(true).isParallelAssembly());
+        assertFalse(parallel.withParallelAssembly(true).withParallelParsing(false).isParallelParsing());
+    }
+}
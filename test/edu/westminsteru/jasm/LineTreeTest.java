@@ -0,0 +1,103 @@
+package edu.westminsteru.jasm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineTreeTest {
+
+    /** The number of items of a mark, in the trees tested */
+    private static final ToIntFunction<Integer> ITEMS = mark -> mark % 3;
+
+    /** Checks a tree against the lines and marks it should have */
+    private static void assertTree(List<String> lines, List<Integer> marks, LineTree<Integer> tree) {
+        assertEquals(lines.size(), tree.size());
+        assertEquals(String.join("", lines), tree.toString());
+        assertEquals(tree.toString().length(), tree.length());
+
+        int start = 0, previousMark = -1;
+        for (int i = 0; i < lines.size(); ++i) {
+            assertEquals(lines.get(i), tree.line(i));
+            assertEquals(marks.get(i), tree.mark(i));
+            assertEquals(start, tree.start(i));
+            for (int offset = start; offset < start + lines.get(i).length(); ++offset)
+                assertEquals(i, tree.lineOf(offset));
+            if (marks.get(i) != null)
+                previousMark = i;
+            assertEquals(previousMark, tree.previousMark(i));
+            start += lines.get(i).length();
+        }
+        assertEquals(start, tree.start(lines.size()));
+        assertEquals(lines.size() - 1, tree.lineOf(start));
+
+        var found = new ArrayList<Integer>();
+        tree.forEachMark((mark, index) -> {
+            assertEquals(marks.get(index), mark);
+            found.add(index);
+        });
+        assertEquals(marks.stream().filter(m -> m != null).count(), found.size());
+
+        int items = 0;
+        for (int i = 0; i < lines.size(); ++i) {
+            assertEquals(items, tree.itemsBefore(i));
+            if (marks.get(i) != null) {
+                for (int item = 0; item < ITEMS.applyAsInt(marks.get(i)); ++item)
+                    assertEquals(new LineTree.Item<>(marks.get(i), i, item), tree.item(items + item));
+                items += ITEMS.applyAsInt(marks.get(i));
+            }
+        }
+        assertEquals(items, tree.itemCount());
+        for (int ordinal = 0; ordinal < found.size(); ++ordinal)
+            assertEquals((int)found.get(ordinal), tree.markIndex(ordinal));
+    }
+
+    @org.junit.jupiter.api.Test
+    void randomReplacements() {
+        var random = new Random(8);
+        var lines = new ArrayList<String>();
+        var marks = new ArrayList<Integer>();
+        for (int i = 0; i < 50; ++i) {
+            lines.add("line " + i + "\n");
+            marks.add((i % 7 == 0) ? i : null);
+        }
+        var tree = LineTree.of(lines, marks::get, ITEMS);
+        assertTree(lines, marks, tree);
+
+        for (int round = 0; round < 200; ++round) {
+            var before = tree;
+            var beforeText = before.toString();
+            if (random.nextBoolean()) {
+                int from = random.nextInt(lines.size() + 1), to = from + random.nextInt(Math.min(5, lines.size() - from) + 1);
+                var replacement = new ArrayList<String>();
+                for (int n = random.nextInt(4); n > 0; --n)
+                    replacement.add("new " + round + "." + n + "\n".repeat(random.nextInt(2)));
+                tree = tree.replace(from, to, replacement);
+                lines.subList(from, to).clear();
+                lines.addAll(from, replacement);
+                marks.subList(from, to).clear();
+                marks.addAll(from, replacement.stream().map(_ -> (Integer)null).toList());
+            } else if (!lines.isEmpty()) {
+                int index = random.nextInt(lines.size());
+                tree = tree.withMark(index, round);
+                marks.set(index, round);
+            }
+            assertTree(lines, marks, tree);
+            // the old tree is left as it was
+            assertEquals(beforeText, before.toString());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void empty() {
+        var tree = LineTree.<Integer>of(List.of(), _ -> null);
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.length());
+        assertEquals("", tree.toString());
+        assertEquals(-1, tree.previousMark(0));
+        assertTree(List.of("a"), Arrays.asList((Integer)null), tree.replace(0, 0, List.of("a")));
+    }
+}
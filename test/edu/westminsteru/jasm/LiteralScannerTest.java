@@ -0,0 +1,109 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiteralScannerTest {
+
+    private static Operand scan(String text) throws AssemblyException {
+        // embed the literal in a line so that offsets are exercised too
+        String line = "    ldc " + text + " # comment";
+        return LiteralScanner.scan(new StringView(line, 8, 8 + text.length()));
+    }
+
+    private static void assertInvalid(String text) {
+        assertThrows(AssemblyException.class, () -> scan(text), text);
+    }
+
+    @org.junit.jupiter.api.Test
+    void integers() throws AssemblyException {
+        assertEquals(new Operand.Int(0), scan("0"));
+        assertEquals(new Operand.Int(-17), scan("-17"));
+        assertEquals(new Operand.Int(17), scan("+17"));
+        assertEquals(new Operand.Int(Integer.MAX_VALUE), scan("2147483647"));
+        assertEquals(new Operand.Int(Integer.MIN_VALUE), scan("-2147483648"));
+        assertEquals(new Operand.Int(0x7F), scan("0x7f"));
+        assertEquals(new Operand.Int(0x1F), scan("0X1F"));
+        assertEquals(new Operand.Int('a'), scan("'a'"));
+        assertEquals(new Operand.Int('\n'), scan("'\\n'"));
+        assertInvalid("2147483648");
+        assertInvalid("-2147483649");
+        assertInvalid("0x80000000");
+        assertInvalid("0x");
+        assertInvalid("0xg");
+        assertInvalid("'ab'");
+        assertInvalid("'\\q'");
+        assertInvalid("12a");
+        assertInvalid("-");
+        assertInvalid("");
+    }
+
+    @org.junit.jupiter.api.Test
+    void longs() throws AssemblyException {
+        assertEquals(new Operand.Long(5), scan("5L"));
+        assertEquals(new Operand.Long(-5), scan("-5l"));
+        assertEquals(new Operand.Long(Long.MAX_VALUE), scan("9223372036854775807L"));
+        assertEquals(new Operand.Long(Long.MIN_VALUE), scan("-9223372036854775808L"));
+        assertEquals(new Operand.Long(0xFFFFFFFFL), scan("0xFFFFFFFFL"));
+        assertInvalid("9223372036854775808L");
+        assertInvalid("1.5L");
+        assertInvalid("5LL");
+    }
+
+    @org.junit.jupiter.api.Test
+    void bitPatterns() throws AssemblyException {
+        assertEquals(new Operand.Float(Float.intBitsToFloat(0x7fc00000)), scan(0x7fc00000 + "fb"));
+        assertEquals(new Operand.Float(Float.intBitsToFloat(-1)), scan("-1FB"));
+        assertEquals(new Operand.Double(Double.longBitsToDouble(4609434218613702656L)), scan("4609434218613702656db"));
+        assertInvalid("1.0fb");
+        assertInvalid("1xb");
+    }
+
+    @org.junit.jupiter.api.Test
+    void reals() throws AssemblyException {
+        String[] doubles = {
+            "1.5", ".5", "5.", "-0.0", "1e10", "1E-10", "2.5e+3", "0.1", "3.141592653589793",
+            "123456789012345678901234567890.0", "1e400", "1e-400", "4.9e-324", "1.7976931348623157e308",
+            "0.000000000000000000000000000001", "9007199254740993.0", "2.2250738585072014E-308"
+        };
+        for (var text : doubles) {
+            assertEquals(new Operand.Double(Double.parseDouble(text)), scan(text), text);
+            assertEquals(new Operand.Double(Double.parseDouble(text)), scan(text + "d"), text);
+            assertEquals(new Operand.Float(Float.parseFloat(text)), scan(text + "f"), text);
+        }
+        assertEquals(new Operand.Float(3f), scan("3F"));
+        assertEquals(new Operand.Double(3.0), scan("3D"));
+        assertInvalid(".");
+        assertInvalid("1e");
+        assertInvalid("1e+");
+        assertInvalid("1.5.5");
+        assertInvalid("1.5fd");
+    }
+
+    @org.junit.jupiter.api.Test
+    void randomReals() throws AssemblyException {
+        var random = new Random(1234);
+        for (int n = 0; n < 100_000; ++n) {
+            var sb = new StringBuilder();
+            if (random.nextBoolean())
+                sb.append('-');
+            int intDigits = random.nextInt(10), fracDigits = random.nextInt(10);
+            for (int i = 0; i < intDigits; ++i)
+                sb.append((char)('0' + random.nextInt(10)));
+            sb.append('.');
+            for (int i = 0; i < fracDigits; ++i)
+                sb.append((char)('0' + random.nextInt(10)));
+            if (intDigits + fracDigits == 0)
+                sb.append('0');
+            if (random.nextBoolean())
+                sb.append('e').append(random.nextInt(60) - 30);
+
+            String text = sb.toString();
+            assertEquals(new Operand.Double(Double.parseDouble(text)), scan(text), text);
+            assertEquals(new Operand.Float(Float.parseFloat(text)), scan(text + "f"), text);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package edu.westminsteru.jasm;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MethodCodeTest {
+
+    private static final String CODE = """
+        .class public A
+        .method public static m (I)V
+        .code
+        start:
+            iload_0
+            tableswitch 1 2 other
+            .table
+                1: start
+                2: other
+            .end table
+        other: again:
+            getstatic java/lang/System out Ljava/io/PrintStream;
+            bogus 1
+            return
+        .end code
+        """;
+
+    private static MethodCode methodCode(String code) {
+        var document = JasmDocument.parse(code);
+        assertEquals(List.of(), document.getErrors());
+        return document.getClassSpecs().getFirst().methodCodes().values().iterator().next();
+    }
+
+    @org.junit.jupiter.api.Test
+    void instructions() {
+        var code = methodCode(CODE);
+        assertEquals(6, code.size());
+
+        assertEquals(Opcode.iload_0, code.opcode(0));
+        assertEquals("iload_0", code.opcodeText(0).toString());
+        assertEquals(List.of(), code.operands(0));
+        assertEquals(List.of("start"), code.labels(0));
+        assertEquals("    iload_0", code.sourceLine(0));
+        assertEquals(5, code.lineNumber(0));
+
+        assertEquals(Opcode.getstatic, code.opcode(3));
+        assertEquals(
+            List.of("java/lang/System", "out", "Ljava/io/PrintStream;"),
+            code.operands(3).stream().map(Object::toString).toList()
+        );
+        assertEquals(List.of("other", "again"), code.labels(3));
+        assertEquals(12, code.lineNumber(3));
+
+        assertNull(code.opcode(4));
+        assertEquals("bogus", code.opcodeText(4).toString());
+        assertFalse(code.isTable(4));
+    }
+
+    @org.junit.jupiter.api.Test
+    void tables() {
+        var code = methodCode(CODE);
+        assertFalse(code.isTable(1));
+        assertTrue(code.isTable(2));
+        assertEquals(7, code.lineNumber(2));
+
+        var entries = code.tableEntries(2);
+        assertEquals(2, entries.size());
+        assertEquals("2", entries.get(1).label().toString());
+        assertEquals("other", entries.get(1).target().toString());
+        // columns are counted within each table line
+        assertEquals(9, code.column(entries.get(1).label()));
+        assertEquals(12, code.column(entries.get(1).target()));
+    }
+
+    @org.junit.jupiter.api.Test
+    void columns() {
+        var code = methodCode(CODE);
+        var operands = code.operands(1);
+        assertEquals(17, code.column(operands.getFirst()));
+        assertEquals(5, code.column(code.opcodeText(5)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void lineOffset() {
+        var code = methodCode(CODE);
+        assertSame(code, code.withLineOffset(0));
+
+        var shifted = code.withLineOffset(3);
+        assertNotEquals(code, shifted);
+        assertEquals(code, shifted.withLineOffset(-3));
+        for (int i = 0; i < code.size(); ++i)
+            assertEquals(code.lineNumber(i) + 3, shifted.lineNumber(i));
+    }
+
+    @org.junit.jupiter.api.Test
+    void equalParses() {
+        assertEquals(methodCode(CODE), methodCode(CODE));
+        assertEquals(methodCode(CODE).hashCode(), methodCode(CODE).hashCode());
+        assertNotEquals(methodCode(CODE), methodCode(CODE.replace("bogus 1", "bogus 2")));
+    }
+}
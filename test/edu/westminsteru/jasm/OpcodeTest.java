@@ -0,0 +1,46 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpcodeTest {
+
+    private static Opcode lookup(String text) {
+        // embed the opcode in a line so that offsets are exercised too
+        String line = "  label: " + text + " 1 2";
+        return Opcode.lookup(new StringView(line, 9, 9 + text.length()));
+    }
+
+    @org.junit.jupiter.api.Test
+    void everyNameResolves() {
+        for (var opcode : Opcode.values()) {
+            var found = lookup(opcode.getName());
+            if (opcode.isLdc())
+                assertEquals(Opcode.ldc__Int, found);
+            else if (opcode.isLdc2())
+                assertEquals(Opcode.ldc2__Long, found);
+            else
+                assertEquals(opcode, found);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void specialNames() {
+        assertEquals(Opcode.goto_, lookup("goto"));
+        assertEquals(Opcode.new_, lookup("new"));
+        assertEquals(Opcode.return_, lookup("return"));
+        assertNull(lookup("goto_"));
+        assertNull(lookup("ldc__Int"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void nonOpcodes() {
+        assertNull(lookup(""));
+        assertNull(lookup("ILOAD"));
+        assertNull(lookup("iloa"));
+        assertNull(lookup("iload_"));
+        assertNull(lookup("ldc3"));
+        assertNull(lookup("frobnicate"));
+    }
+}
@@ -0,0 +1,107 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.JasmParser;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelParseTest {
+
+    private static void assertSameAsSequential(String input) {
+        var bytes = MemorySegment.ofArray(input.getBytes(StandardCharsets.UTF_8));
+        var sequential = new DefaultJasmParserListener();
+        new JasmParser(bytes, sequential).parse();
+        var parallel = ParallelParse.parse(bytes);
+
+        assertEquals(sequential.getSourceName(), parallel.getSourceName());
+        assertEquals(sequential.getErrors(), parallel.getErrors());
+        assertEquals(sequential.getClassSpecs(), parallel.getClassSpecs());
+    }
+
+    @org.junit.jupiter.api.Test
+    void corpus() throws IOException {
+        var all = new StringBuilder();
+        for (var file : TestInputs.corpus()) {
+            String text = Files.readString(file);
+            assertSameAsSequential(text);
+            all.append(text).append('\n');
+        }
+        assertSameAsSequential(all.toString());
+        assertSameAsSequential(all.toString().repeat(20));
+    }
+
+    @org.junit.jupiter.api.Test
+    void regions() {
+        var bytes = MemorySegment.ofArray("""
+            .source a.jasm
+            .class A
+            .method m ()V
+            .code
+                .class Ignored
+            .end code
+            .interface B
+            .enum C
+            """.getBytes(StandardCharsets.UTF_8));
+        var regions = JasmParser.classRegions(bytes);
+        assertEquals(1, regions.size()); // .class inside .code makes the parser abort, so no boundaries after it
+
+        bytes = MemorySegment.ofArray(".source a.jasm\n.class A\n.interface B # comment\n\n.enum C\n".getBytes(StandardCharsets.UTF_8));
+        regions = JasmParser.classRegions(bytes);
+        assertEquals(3, regions.size());
+        assertEquals(new JasmParser.Region(0, 24, 1), regions.get(0));
+        assertEquals(new JasmParser.Region(24, 24, 3), regions.get(1));
+        assertEquals(new JasmParser.Region(48, 8, 5), regions.get(2));
+    }
+
+    @org.junit.jupiter.api.Test
+    void errors() {
+        // duplicate .source and .super, a class without a name, trailing text
+        assertSameAsSequential("""
+            .source a.jasm
+            .class A
+            .super java/lang/Object
+            .super java/lang/Object
+            .class
+            .field x I
+            .source b.jasm extra
+            .class public B
+            .source c.jasm
+            .method m ()V
+            .code
+                bogus
+            .end code
+            """);
+
+        // a label left over at the end of a method carries over into the next class
+        assertSameAsSequential("""
+            .class A
+            .method m ()V
+            .code
+                return
+            end:
+            .end code
+            .class B
+            .method n ()V
+            .code
+                return
+            .end code
+            """);
+
+        // the parser aborts in the middle of the second class
+        assertSameAsSequential("""
+            .class A
+            .class B
+            .method m ()V
+            .code
+                .table
+                .end table
+                .end code
+            .end code
+            .class C
+            """);
+    }
+}
@@ -0,0 +1,198 @@
+package edu.westminsteru.jasm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static edu.westminsteru.jasm.TestInputs.assertSameResult;
+import static edu.westminsteru.jasm.TestInputs.corpus;
+import static edu.westminsteru.jasm.TestInputs.largeClass;
+import static edu.westminsteru.jasm.TestInputs.largeClasses;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTest {
+
+    @org.junit.jupiter.api.Test
+    void protocol() throws IOException {
+        var results = List.of(
+            new AssemblyResult(Status.Success, List.of(new Bytecode("a/B", new byte[] { 1, 2, 3 }), new Bytecode("C", new byte[0])), List.of()),
+            new AssemblyResult(Status.Failure, List.of(), List.of(new ErrorMessage("Bad", "    bad ☃", 3, 5), new ErrorMessage("Worse")))
+        );
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        var request = new Protocol.Request(".class A\n", 52, true, 250);
+        Protocol.writeRequest(out, request);
+        for (var result : results)
+            Protocol.writeResult(out, result);
+
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(request, Protocol.readRequest(in, Server.DEFAULT_MAX_REQUEST));
+        for (var result : results)
+            assertSameResult(result, Protocol.readResult(in));
+        assertNull(Protocol.readRequest(in, Server.DEFAULT_MAX_REQUEST));
+    }
+
+    @org.junit.jupiter.api.Test
+    void largeRequests() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        var large = new Protocol.Request(".class A\n" + "# comment\n".repeat(100), 52, false, 0);
+        var small = new Protocol.Request(".class A\n", 52, false, 0);
+        Protocol.writeRequest(out, large);
+        Protocol.writeRequest(out, small);
+
+        // the code of a request over the limit is skipped, and the next request is read as usual
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        var ex = assertThrows(Protocol.RequestTooLargeException.class, () -> Protocol.readRequest(in, 100));
+        assertEquals("Request of 1009 bytes is larger than the limit of 100 bytes", ex.getMessage());
+        assertEquals(small, Protocol.readRequest(in, 100));
+        assertNull(Protocol.readRequest(in, 100));
+
+        // a huge length is not allocated
+        bytes.reset();
+        out.writeInt(Protocol.MAGIC);
+        out.writeByte(Protocol.VERSION);
+        out.writeShort(52);
+        out.writeByte(0);
+        out.writeLong(0);
+        out.writeInt(Integer.MAX_VALUE);
+        var truncated = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(EOFException.class, () -> Protocol.readRequest(truncated, Server.DEFAULT_MAX_REQUEST));
+    }
+
+    @org.junit.jupiter.api.Test
+    void overSocket() throws Exception {
+        var dir = Files.createTempDirectory("jasm");
+        var socket = dir.resolve("jasm.sock").toString();
+        var channel = Server.bind(socket);
+        var thread = Thread.ofVirtual().start(() -> {
+            try {
+                new Server(2, 4096, System.err).serve(channel);
+            } catch (IOException _) {
+                // closed
+            }
+        });
+        try {
+            assertThrows(IOException.class, () -> Server.bind(socket));
+            var client = new Client(socket, ClassFile.latestMajorVersion(), false, 0);
+            client.ping();
+            var engine = JasmEngine.create();
+            for (var file : corpus())
+                assertSameResult(engine.assemble(file), client.assemble(file));
+            assertSameResult(engine.assemble(".class A\n.frobnicate\n"), client.assemble(".class A\n.frobnicate\n"));
+
+            var refused = client.assemble(".class A\n" + "# comment\n".repeat(500));
+            assertFalse(refused.isSuccess());
+            assertEquals("Request of 5009 bytes is larger than the limit of 4096 bytes", refused.errorMessages().getFirst().message());
+        } finally {
+            channel.close();
+            thread.join();
+            Files.deleteIfExists(Path.of(socket));
+            Files.delete(dir);
+        }
+
+        var result = new Client(socket, ClassFile.latestMajorVersion(), false, 0).assemble(corpus().getFirst());
+        assertFalse(result.isSuccess());
+        assertTrue(result.errorMessages().getFirst().message().startsWith("Unable to reach the server"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void deadlines() throws InterruptedException {
+        var server = new Server(1, Server.DEFAULT_MAX_REQUEST, System.err);
+        var code = ".class A\n.frobnicate\n";
+        for (var large : List.of(largeClasses(2000, 50), largeClass("Large", 10_000))) {
+            var result = server.assemble(new Protocol.Request(large, ClassFile.latestMajorVersion(), false, 1));
+            assertFalse(result.isSuccess());
+            assertEquals("Assembly did not finish within 1 ms", result.errorMessages().getFirst().message());
+
+            // the cancelled assembly gives up its place
+            assertSameResult(JasmEngine.create().assemble(code), server.assemble(new Protocol.Request(code, ClassFile.latestMajorVersion(), false, 10_000)));
+        }
+
+        var result = server.assemble(new Protocol.Request(code, 44, false, 0));
+        assertEquals("Unsupported class file version: 44", result.errorMessages().getFirst().message());
+    }
+
+    @org.junit.jupiter.api.Test
+    void interruptedAssembly() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> JasmEngine.create().assemble(".class A\n"));
+            assertThrows(CancellationException.class, () -> JasmEngine.create().withStreaming(4).assemble(".class A\n"));
+            assertTrue(Thread.currentThread().isInterrupted());
+
+            // parsing on its own is not cancelled
+            assertEquals(1, JasmDocument.parse(".class A\n").getClassSpecs().size());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void interruptedClass() {
+        // enough instructions in more than one method to be lowered in parallel
+        var spec = JasmDocument.parse(largeClass("Large", 3000) + ".method public static n ()V\n.code\n    return\n.end code\n").getClassSpecs().getFirst();
+        var noStackMaps = ClassFile.of(ClassFile.StackMapsOption.DROP_STACK_MAPS);
+        for (Executor executor : Arrays.asList(null, ForkJoinPool.commonPool())) {
+            assertNotNull(new ClassAssembler(ClassFile.of(), noStackMaps, JasmEngine.Backend.ClassFileApi, ClassFile.latestMajorVersion(), null, spec, executor, Thread.currentThread()).assemble());
+
+            // the class is cancelled while it is being assembled, not only between classes
+            Thread.currentThread().interrupt();
+            try {
+                var assembler = new ClassAssembler(ClassFile.of(), noStackMaps, JasmEngine.Backend.ClassFileApi, ClassFile.latestMajorVersion(), null, spec, executor, Thread.currentThread());
+                assertThrows(CancellationException.class, assembler::assemble);
+                assertTrue(Thread.currentThread().isInterrupted());
+            } finally {
+                Thread.interrupted();
+            }
+
+            // or by another thread, e.g. because another class failed
+            var assembler = new ClassAssembler(ClassFile.of(), noStackMaps, JasmEngine.Backend.ClassFileApi, ClassFile.latestMajorVersion(), null, spec, executor, Thread.currentThread());
+            assembler.cancel();
+            assertThrows(CancellationException.class, assembler::assemble);
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void smallestFirst() throws InterruptedException {
+        var admission = new Server.Admission(1);
+        assertTrue(admission.acquire(1, false, 0));
+        var order = Collections.synchronizedList(new ArrayList<Long>());
+        var threads = new ArrayList<Thread>();
+        for (long size : new long[] { 300, 100, 200 }) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    assertTrue(admission.acquire(size, false, 0));
+                    order.add(size);
+                    admission.release();
+                } catch (InterruptedException _) {
+                    // fails below
+                }
+            }));
+            while (admission.waiting() < threads.size())
+                Thread.sleep(1);
+        }
+
+        // a request that cannot wait long enough gives up
+        assertFalse(admission.acquire(1, true, System.nanoTime() + 1_000_000));
+        admission.release();
+        for (var thread : threads)
+            thread.join();
+        assertEquals(List.of(100L, 200L, 300L), order);
+    }
+}
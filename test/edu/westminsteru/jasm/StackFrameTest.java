@@ -0,0 +1,173 @@
+package edu.westminsteru.jasm;
+
+import edu.westminsteru.jasm.parser.StringView;
+
+import java.lang.classfile.Attributes;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.attribute.StackMapTableAttribute;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StackFrameTest {
+
+    private static final String LOOP = """
+        .class public Counter
+        .method public static count (I)I
+        .code
+            iconst_0
+            istore_1
+            .stack locals int int
+        top:
+            iload_0
+            ifle done
+            iinc 1 1
+            iinc 0 -1
+            goto top
+            .stack locals int int
+        done:
+            iload_1
+            ireturn
+        .end code
+        """;
+
+    private static MethodCode methodCode(String code) {
+        var document = JasmDocument.parse(code);
+        assertEquals(List.of(), document.getErrors());
+        return document.getClassSpecs().getFirst().methodCodes().values().iterator().next();
+    }
+
+    private static List<StringView> operands(String line) {
+        var views = new ArrayList<StringView>();
+        for (int start = 0, end; start < line.length(); start = end + 1) {
+            end = line.indexOf(' ', start);
+            if (end < 0)
+                end = line.length();
+            views.add(new StringView(line, start, end));
+        }
+        return views;
+    }
+
+    @org.junit.jupiter.api.Test
+    void frameItems() {
+        var code = methodCode(LOOP);
+        assertEquals(11, code.size());
+        assertTrue(code.hasFrames());
+        assertTrue(code.isFrame(2));
+        assertFalse(code.isTable(2));
+        assertNull(code.opcode(2));
+        assertEquals(6, code.lineNumber(2));
+        assertEquals(List.of("locals", "int", "int"), code.frameOperands(2).stream().map(Object::toString).toList());
+        assertEquals(19, code.column(code.frameOperands(2).get(1)));
+
+        // the label after a frame belongs to the next instruction
+        assertEquals(List.of(), code.labels(2));
+        assertEquals(List.of("top"), code.labels(3));
+        assertFalse(methodCode(LOOP.replace("    .stack locals int int\n", "")).hasFrames());
+    }
+
+    @org.junit.jupiter.api.Test
+    void lowering() throws AssemblyException {
+        var frame = StackFrame.lower(operands("locals Counter [I Ljava/lang/String; long top stack uninitialized new1 null"));
+        assertEquals(5, frame.locals().size());
+        assertEquals(2, frame.stack().size());
+
+        var empty = StackFrame.lower(List.of());
+        assertEquals(List.of(), empty.locals());
+        assertEquals(List.of(), empty.stack());
+        assertEquals(1, StackFrame.lower(operands("stack double")).stack().size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void errors() {
+        for (var bad : List.of("int", "stack int locals int", "locals int locals int", "locals I", "locals java.lang.String", "locals [Q", "stack uninitialized")) {
+            var ex = assertThrows(AssemblyException.class, () -> StackFrame.lower(operands(bad)), bad);
+            assertTrue(ex.getTarget().isPresent(), bad);
+        }
+
+        var document = JasmDocument.parse(LOOP.replace(".class public Counter", ".class public Counter\n.stack locals int"));
+        assertEquals(1, document.getErrors().size());
+        assertEquals(".stack unexpected here", document.getErrors().getFirst().message());
+    }
+
+    @org.junit.jupiter.api.Test
+    void lowerErrorsAreReported() {
+        var result = JasmEngine.create().assemble(LOOP.replaceFirst("locals int int", "locals int Q;"));
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.errorMessages().size());
+        var error = result.errorMessages().getFirst();
+        assertEquals(6, error.lineNumber());
+        assertEquals(23, error.columnNumber());
+    }
+
+    @org.junit.jupiter.api.Test
+    void framesAreWrittenVerbatim() {
+        var result = JasmEngine.create().assemble(LOOP);
+        assertTrue(result.isSuccess(), result.errorMessages()::toString);
+        var bytes = result.bytecodes().getFirst().data();
+        assertEquals(List.of(), ClassFile.of().verify(bytes));
+
+        var code = (CodeAttribute)ClassFile.of().parse(bytes).methods().getFirst().code().orElseThrow();
+        StackMapTableAttribute table = code.findAttribute(Attributes.stackMapTable()).orElseThrow();
+        assertEquals(2, table.entries().size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void framesAreGeneratedForOtherMethods() {
+        var input = LOOP + LOOP.substring(LOOP.indexOf(".method")).replace("count", "countAgain").replace("    .stack locals int int\n", "");
+        var result = JasmEngine.create().assemble(input);
+        assertTrue(result.isSuccess(), result.errorMessages()::toString);
+        var bytes = result.bytecodes().getFirst().data();
+        assertEquals(List.of(), ClassFile.of().verify(bytes));
+
+        // the frames of the first method are written as given, and those of the second are generated
+        for (var method : ClassFile.of().parse(bytes).methods()) {
+            var code = (CodeAttribute)method.code().orElseThrow();
+            assertTrue(code.findAttribute(Attributes.stackMapTable()).isPresent(), method.methodName()::stringValue);
+        }
+
+        result = JasmEngine.create().withDropStackMaps(true).assemble(input);
+        var methods = ClassFile.of().parse(result.bytecodes().getFirst().data()).methods();
+        assertTrue(((CodeAttribute)methods.get(0).code().orElseThrow()).findAttribute(Attributes.stackMapTable()).isPresent());
+        assertTrue(((CodeAttribute)methods.get(1).code().orElseThrow()).findAttribute(Attributes.stackMapTable()).isEmpty());
+    }
+
+    @org.junit.jupiter.api.Test
+    void oldVersionsHaveNoStackMaps() {
+        var withoutFrames = LOOP.replace("    .stack locals int int\n", "");
+        // Java 6 class files may have frames, but do not need them
+        for (int version : new int[] { ClassFile.JAVA_5_VERSION, ClassFile.JAVA_6_VERSION, ClassFile.JAVA_7_VERSION }) {
+            var result = JasmEngine.create().withTargetVersion(version).assemble(withoutFrames);
+            assertTrue(result.isSuccess(), result.errorMessages()::toString);
+            var model = ClassFile.of().parse(result.bytecodes().getFirst().data());
+            assertEquals(version, model.majorVersion());
+            var code = (CodeAttribute)model.methods().getFirst().code().orElseThrow();
+            assertEquals(version >= ClassFile.JAVA_7_VERSION, code.findAttribute(Attributes.stackMapTable()).isPresent(), "version " + version);
+        }
+
+        // frames that are given are written for Java 6
+        var given = JasmEngine.create().withTargetVersion(ClassFile.JAVA_6_VERSION).assemble(LOOP);
+        var givenCode = (CodeAttribute)ClassFile.of().parse(given.bytecodes().getFirst().data()).methods().getFirst().code().orElseThrow();
+        assertEquals(2, givenCode.findAttribute(Attributes.stackMapTable()).orElseThrow().entries().size());
+
+        var result = JasmEngine.create().withDropStackMaps(true).assemble(withoutFrames);
+        var model = ClassFile.of().parse(result.bytecodes().getFirst().data());
+        assertEquals(ClassFile.latestMajorVersion(), model.majorVersion());
+        var code = (CodeAttribute)model.methods().getFirst().code().orElseThrow();
+        assertTrue(code.findAttribute(Attributes.stackMapTable()).isEmpty());
+    }
+
+    @org.junit.jupiter.api.Test
+    void settings() {
+        var engine = JasmEngine.create();
+        assertEquals(ClassFile.latestMajorVersion(), engine.getTargetVersion());
+        assertFalse(engine.isDropStackMaps());
+        assertSame(engine, engine.withTargetVersion(ClassFile.latestMajorVersion()));
+        assertEquals(50, engine.withTargetVersion(50).getTargetVersion());
+        assertTrue(engine.withDropStackMaps(true).isDropStackMaps());
+        assertThrows(IllegalArgumentException.class, () -> engine.withTargetVersion(44));
+        assertThrows(IllegalArgumentException.class, () -> engine.withTargetVersion(ClassFile.latestMajorVersion() + 1));
+    }
+}
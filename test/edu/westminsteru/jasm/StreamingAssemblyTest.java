@@ -0,0 +1,169 @@
+package edu.westminsteru.jasm;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.classfile.Attributes;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver.ClassHierarchyInfo;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static edu.westminsteru.jasm.TestInputs.assertSameResult;
+import static edu.westminsteru.jasm.TestInputs.corpus;
+import static edu.westminsteru.jasm.TestInputs.corpusCopies;
+import static edu.westminsteru.jasm.TestInputs.simpleClasses;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingAssemblyTest {
+
+    /** A reader that counts the characters read from it */
+    private static final class CountingReader extends FilterReader {
+        volatile long count;
+
+        CountingReader(String text) {
+            super(new StringReader(text));
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void sameAsAssemblingAfterParsing() throws IOException {
+        var engine = JasmEngine.create();
+        for (var file : corpus()) {
+            assertSameResult(engine.assemble(file), engine.withStreaming(1).assemble(file));
+            assertSameResult(engine.assemble(file), engine.withStreaming(4).withParallelAssembly(true).assemble(file));
+        }
+
+        var input = corpusCopies(10);
+        var expected = engine.assemble(input);
+        for (int depth : new int[] { 1, 2, 16 }) {
+            assertSameResult(expected, engine.withStreaming(depth).assemble(input));
+            assertSameResult(expected, engine.withStreaming(depth).withParallelAssembly(true).assemble(input));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void anyExecutor() throws IOException {
+        var input = corpusCopies(10);
+        var expected = JasmEngine.create().assemble(input);
+
+        // consumers that run on the parsing thread, on a single thread, or not at all
+        var streaming = JasmEngine.create().withStreaming(3).withParallelAssembly(true);
+        assertSameResult(expected, streaming.withExecutor(Runnable::run).assemble(input));
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            assertSameResult(expected, streaming.withExecutor(executor).assemble(input));
+        }
+        assertSameResult(expected, streaming.withExecutor(_ -> {}).assemble(input));
+    }
+
+    @org.junit.jupiter.api.Test
+    void errors() {
+        var streaming = JasmEngine.create().withStreaming(1);
+        for (var input : List.of(
+                ".class A\n.method m ()V\n.code\n    frobnicate\n.end code\n.class B\n.method m ()V\n.code\n    blah\n.end code\n",
+                ".class A\n.method m ()V\n.code\n    return\n.end code\n.class B\n.method m ()V\n.cod\n",
+                ".method m ()V\n",
+                ".class A\n.super 3\n.class B\n.implements ;\n",
+                // the classes after one with errors are dropped as they are assembled, but their errors are still reported
+                ".source Many.jasm\n.class A\n.super 3\n" + simpleClasses("C", 100) + ".class B\n.implements ;\n"
+        ))
+            assertSameResult(JasmEngine.create().assemble(input), streaming.assemble(input));
+    }
+
+    @org.junit.jupiter.api.Test
+    void laterClassesInHierarchy() {
+        // Shape and Circle are both assembled before Round and Square are parsed
+        var input = """
+            .class public Shape
+            .method public static pick (Z)LRound;
+            .code
+                iload_0
+                ifeq square
+                new Circle
+                dup
+                invokespecial Circle <init> ()V
+                goto done
+            square:
+                new Square
+                dup
+                invokespecial Square <init> ()V
+            done:
+                areturn
+            .end code
+            .class public Circle
+            .implements Round
+            .method public <init> ()V
+            .code
+                aload_0
+                invokespecial java/lang/Object <init> ()V
+                return
+            .end code
+            .interface public abstract Round
+            .class public Square
+            .implements Round
+            .method public <init> ()V
+            .code
+                aload_0
+                invokespecial java/lang/Object <init> ()V
+                return
+            .end code
+            .source Shapes.jasm
+            """;
+        var result = JasmEngine.create().withStreaming(1).assemble(input);
+        assertSameResult(JasmEngine.create().assemble(input), result);
+        for (var bytecode : result.bytecodes()) {
+            var model = ClassFile.of().parse(bytecode.data());
+            assertEquals("Shapes.jasm", model.findAttribute(Attributes.sourceFile()).orElseThrow().sourceFile().stringValue());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void heldUntilSource() {
+        for (var input : List.of(".source Many.jasm\n" + simpleClasses("C", 2000), simpleClasses("C", 2000), simpleClasses("C", 2000) + ".source Many.jasm\n")) {
+            var reader = new CountingReader(input);
+            var readBefore = new ArrayList<Long>();
+            assertTrue(JasmEngine.create().withStreaming(1).assemble(reader, BytecodeSink.of(_ -> readBefore.add(reader.count))).isSuccess());
+            assertEquals(2000, readBefore.size());
+
+            // until the end of the input, a .source directive may still come, which the classes must have
+            boolean streamed = readBefore.getFirst() < input.length();
+            assertEquals(input.startsWith(".source"), streamed, () -> "first class given after " + readBefore.getFirst() + " of " + input.length() + " characters");
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void growingHierarchy() {
+        var hierarchy = ClassHierarchy.growing();
+        hierarchy.add(JasmDocument.parse(".class public Shape\n").getClassSpecs().getFirst());
+        var resolver = hierarchy.resolver();
+        assertEquals(ClassHierarchyInfo.ofClass(ConstantDescs.CD_Object), resolver.getClassInfo(ClassDesc.of("Shape")));
+        assertNotNull(resolver.getClassInfo(ConstantDescs.CD_String));
+        assertThrows(ClassHierarchy.IncompleteException.class, () -> resolver.getClassInfo(ClassDesc.of("Circle")));
+
+        hierarchy.add(JasmDocument.parse(".class public Circle\n.super Shape\n").getClassSpecs().getFirst());
+        assertEquals(ClassHierarchyInfo.ofClass(ClassDesc.of("Shape")), resolver.getClassInfo(ClassDesc.of("Circle")));
+        hierarchy.complete();
+        assertNull(resolver.getClassInfo(ClassDesc.of("Square")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void settings() {
+        var engine = JasmEngine.create();
+        assertEquals(0, engine.getStreamingDepth());
+        assertSame(engine, engine.withStreaming(0));
+        assertEquals(8, engine.withStreaming(8).getStreamingDepth());
+        assertEquals(0, engine.withStreaming(8).withStreaming(0).getStreamingDepth());
+        assertThrows(IllegalArgumentException.class, () -> engine.withStreaming(-1));
+    }
+}
@@ -0,0 +1,77 @@
+package edu.westminsteru.jasm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Inputs and assertions shared by the tests of the assembler.
+ */
+final class TestInputs {
+
+    private TestInputs() {}
+
+    /** Returns the files of the test input, in order */
+    static List<Path> corpus() throws IOException {
+        try (var files = Files.list(Path.of("test-input"))) {
+            return files.filter(p -> p.toString().endsWith(".jasm")).sorted().toList();
+        }
+    }
+
+    /** Returns the classes of the test input, without their {@code .source} directives, as many times over as asked, under distinct names */
+    static String corpusCopies(int copies) throws IOException {
+        var all = new StringBuilder();
+        for (var file : corpus())
+            all.append(Files.readString(file).replaceAll("(?m)^\\.source.*$", "")).append('\n');
+        var input = new StringBuilder();
+        for (int i = 0; i < copies; ++i)
+            input.append(all.toString().replaceAll("(?m)^(\\.(class|interface|enum).*?)(\\S+)$", "$1$3_" + i));
+        return input.toString();
+    }
+
+    /** Returns a class with a single method returning a number, simple enough for the direct backend */
+    static String simpleClass(String name, int value) {
+        return ".class public " + name + "\n.method public static get ()I\n.code\n    sipush " + value + "\n    ireturn\n.end code\n";
+    }
+
+    /** Returns {@code count} {@linkplain #simpleClass simple classes}, named {@code prefix} followed by their index */
+    static String simpleClasses(String prefix, int count) {
+        var input = new StringBuilder();
+        for (int i = 0; i < count; ++i)
+            input.append(simpleClass(prefix + i, i));
+        return input.toString();
+    }
+
+    /** Returns a class with a single method of {@code blocks} blocks of arithmetic, which takes a while to assemble */
+    static String largeClass(String name, int blocks) {
+        var code = new StringBuilder(".class public ").append(name).append("\n.method public static m (I)I\n.code\n");
+        for (int i = 0; i < blocks; ++i)
+            code.append("    iload_0\n    ldc ").append(i).append("\n    iadd\n    istore_0\n");
+        return code.append("    iload_0\n    ireturn\n.end code\n").toString();
+    }
+
+    /** Returns {@code count} {@linkplain #largeClass large classes} of {@code blocks} blocks each */
+    static String largeClasses(int count, int blocks) {
+        var input = new StringBuilder();
+        for (int c = 0; c < count; ++c)
+            input.append(largeClass("C" + c, blocks));
+        return input.toString();
+    }
+
+    static void assertSameClasses(List<Bytecode> expected, List<Bytecode> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).className(), actual.get(i).className());
+            assertArrayEquals(expected.get(i).data(), actual.get(i).data());
+        }
+    }
+
+    static void assertSameResult(AssemblyResult expected, AssemblyResult actual) {
+        assertEquals(expected.status(), actual.status());
+        assertEquals(expected.errorMessages(), actual.errorMessages());
+        assertSameClasses(expected.bytecodes(), actual.bytecodes());
+    }
+}
@@ -0,0 +1,127 @@
+package edu.westminsteru.jasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchTest {
+
+    /** Classes simple enough for the direct backend */
+    private static final JasmEngine ENGINE = JasmEngine.create().withBackend(JasmEngine.Backend.Direct);
+
+    private static String versionClass(String name, int value) {
+        return ".class public " + name + "\n.method public static get ()I\n.code\n    bipush " + value + "\n    ireturn\n.end code\n";
+    }
+
+    private static int get(ClassLoader loader, String name) throws ReflectiveOperationException {
+        return (int)Class.forName(name, true, loader).getMethod("get").invoke(null);
+    }
+
+    @org.junit.jupiter.api.Test
+    void versionedLoaders() throws ReflectiveOperationException {
+        var first = new VersionedClassLoader(1, ENGINE.assemble(versionClass("Version", 1)).bytecodes());
+        var second = new VersionedClassLoader(2, ENGINE.assemble(versionClass("Version", 2)).bytecodes());
+        assertEquals(1, get(first, "Version"));
+        assertEquals(2, get(second, "Version"));
+        assertEquals(2, second.getVersion());
+        assertSame(String.class, second.loadClass("java.lang.String"));
+        assertThrows(ClassNotFoundException.class, () -> second.loadClass("Missing"));
+    }
+
+    /** Collects what a {@link Watch} prints, line by line */
+    private static final class Lines extends OutputStream {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                lines.add(line.toString());
+                line.reset();
+            } else
+                line.write(b);
+        }
+
+        String next() throws InterruptedException {
+            var next = lines.poll(20, TimeUnit.SECONDS);
+            assertNotNull(next, "timed out");
+            return next;
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void reassemblesChangedFiles() throws Exception {
+        var dir = Files.createTempDirectory("jasm");
+        var src = Files.createDirectories(dir.resolve("src"));
+        var outPath = dir.resolve("out");
+        Files.writeString(src.resolve("one.jasm"), versionClass("One", 1));
+
+        var out = new Lines();
+        var err = new Lines();
+        var loaders = new LinkedBlockingQueue<VersionedClassLoader>();
+        var thread = new Thread(() -> {
+            try (var pool = new ForkJoinPool(2)) {
+                var arguments = List.of(src.toString());
+                var inputs = Batch.inputs(arguments, pool, System.err);
+                new Watch(arguments, ENGINE, outPath, pool, new PrintStream(out, true), new PrintStream(err, true), loaders::add).run(inputs);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            } catch (InterruptedException _) {
+                // done
+            }
+        });
+        thread.start();
+        try {
+            assertTrue(out.next().startsWith("Assembled 1 of 1 files"));
+            var loader = loaders.poll(20, TimeUnit.SECONDS);
+            assertEquals(1, loader.getVersion());
+            assertEquals(1, get(loader, "One"));
+
+            Files.writeString(src.resolve("one.jasm"), versionClass("One", 2));
+            assertTrue(out.next().startsWith("Assembled 1 of 1 files"));
+            loader = loaders.poll(20, TimeUnit.SECONDS);
+            assertEquals(2, loader.getVersion());
+            assertEquals(2, get(loader, "One"));
+
+            // only the new file is assembled
+            Files.createDirectories(src.resolve("sub"));
+            Files.writeString(src.resolve("sub/two.jasm"), versionClass("Two", 3));
+            assertTrue(out.next().startsWith("Assembled 1 of 1 files"));
+            loader = loaders.poll(20, TimeUnit.SECONDS);
+            assertEquals(2, get(loader, "One"));
+            assertEquals(3, get(loader, "Two"));
+            assertTrue(Files.exists(outPath.resolve("Two.class")));
+
+            Files.writeString(src.resolve("one.jasm"), ".class public One\n.frobnicate\n");
+            assertTrue(out.next().startsWith("Assembled 0 of 1 files"));
+            assertEquals(src.resolve("one.jasm") + ":", err.next());
+            assertTrue(err.next().startsWith("Error at line 2"));
+
+            Files.delete(src.resolve("sub/two.jasm"));
+            assertTrue(out.next().endsWith("removed 1"));
+            loader = loaders.poll(20, TimeUnit.SECONDS);
+            assertEquals(2, get(loader, "One"));
+            var last = loader;
+            assertThrows(ClassNotFoundException.class, () -> last.loadClass("Two"));
+            assertFalse(Files.exists(outPath.resolve("Two.class")));
+        } finally {
+            thread.interrupt();
+            thread.join();
+            try (var files = Files.walk(dir)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+    }
+}
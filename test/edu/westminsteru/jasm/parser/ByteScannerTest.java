@@ -0,0 +1,23 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteScannerTest {
+
+    private static final ByteScanner scalar = ByteScanner.scalar();
+
+    private static MemorySegment bytes(String text) {
+        return MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @org.junit.jupiter.api.Test
+    void scalar() {
+        var text = bytes("  ldc \"a # b\" # comment\n\t\n");
+        assertEquals(23, scalar.lineEnd(text, 0, text.byteSize()));
+        assertEquals(2, scalar.skipWhitespace(text, 0, 23));
+        assertEquals(25, scalar.skipWhitespace(text, 24, 25));
+    }
+}
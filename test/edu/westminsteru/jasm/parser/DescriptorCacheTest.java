@@ -0,0 +1,122 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptorCacheTest {
+
+    @org.junit.jupiter.api.Test
+    void hitsAndMisses() throws Exception {
+        var cache = new DescriptorCache(16);
+        String line = "    getstatic java/lang/System out Ljava/io/PrintStream;";
+        var view = new StringView(line, line.indexOf('L'), line.length());
+
+        var first = cache.typeDescriptor(view);
+        assertEquals(ClassDesc.of("java.io.PrintStream"), first);
+        assertSame(first, cache.typeDescriptor(StringView.of("Ljava/io/PrintStream;")));
+        assertEquals(MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int), cache.methodDescriptor(StringView.of("(I)V")));
+        assertEquals(ClassDesc.of("java.lang.String"), cache.internalName("java/lang/String"));
+        assertSame(cache.internalName("java/lang/String"), cache.internalName("java/lang/String"));
+
+        var stats = cache.stats();
+        assertEquals(3, stats.misses());
+        assertEquals(3, stats.hits());
+        assertEquals(0, stats.evictions());
+        assertEquals(3, stats.size());
+        assertEquals(0.5, stats.hitRate(), 1e-9);
+    }
+
+    @org.junit.jupiter.api.Test
+    void kindsAreSeparate() throws Exception {
+        var cache = new DescriptorCache(16);
+        assertEquals(ConstantDescs.CD_int, cache.typeDescriptor(StringView.of("I")));
+        assertEquals(ClassDesc.ofInternalName("I"), cache.internalName("I"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidDescriptorsAreNotCached() {
+        var cache = new DescriptorCache(16);
+        String line = "    checkcast [[Q";
+        for (int i = 0; i < 2; ++i) {
+            var ex = assertThrows(
+                DescriptorScanner.InvalidDescriptorException.class,
+                () -> cache.typeDescriptor(new StringView(line, 14, line.length()))
+            );
+            assertEquals(16, ex.getTarget().start());
+        }
+        assertThrows(IllegalArgumentException.class, () -> cache.internalName("java.lang.String"));
+        assertEquals(0, cache.stats().size());
+        assertEquals(0, cache.stats().hits());
+    }
+
+    /** Returns whether a symbol was in the shared table, by interning a new copy of it and seeing whether the copy comes back */
+    private static boolean interned(String symbol) {
+        var copy = new String(symbol.toCharArray());
+        return SymbolTable.shared().intern(StringView.of(copy)) != copy;
+    }
+
+    @org.junit.jupiter.api.Test
+    void onlyValidDescriptorsAreInterned() throws Exception {
+        var cache = new DescriptorCache(16);
+        String line = "    checkcast [Lbad.Name;";
+        assertThrows(
+            DescriptorScanner.InvalidDescriptorException.class,
+            () -> cache.typeDescriptor(new StringView(line, 14, line.length()))
+        );
+        assertFalse(interned("[Lbad.Name;"));
+
+        String valid = "    checkcast [LDescriptorCacheTest;";
+        cache.typeDescriptor(new StringView(valid, 14, valid.length()));
+        assertTrue(interned("[LDescriptorCacheTest;"));
+        assertTrue(interned("DescriptorCacheTest"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void bounded() throws Exception {
+        var cache = new DescriptorCache(8);
+        for (int i = 0; i < 100; ++i)
+            cache.internalName("C" + i);
+        var stats = cache.stats();
+        assertEquals(8, stats.size());
+        assertEquals(92, stats.evictions());
+
+        // a class in use survives a sweep over the others
+        cache.clear();
+        for (int i = 0; i < 8; ++i)
+            cache.internalName("C" + i);
+        cache.internalName("C0");
+        cache.internalName("D"); // evicts C1
+        cache.internalName("C0");
+        assertEquals(9, cache.stats().misses());
+        assertEquals(2, cache.stats().hits());
+        cache.internalName("C1");
+        assertEquals(10, cache.stats().misses());
+    }
+
+    @org.junit.jupiter.api.Test
+    void concurrentLookups() throws Exception {
+        var cache = new DescriptorCache(32);
+        try (var pool = Executors.newFixedThreadPool(4)) {
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < 4; ++t)
+                tasks.add(() -> {
+                    for (int i = 0; i < 10_000; ++i) {
+                        String desc = "(L" + "C" + (i % 64) + ";)V";
+                        assertEquals(MethodTypeDesc.ofDescriptor(desc), cache.methodDescriptor(StringView.of(desc)));
+                    }
+                    return null;
+                });
+            for (var future : pool.invokeAll(tasks))
+                future.get();
+        }
+        var stats = cache.stats();
+        assertEquals(40_000, stats.hits() + stats.misses());
+        assertTrue(stats.size() <= 32, "size " + stats.size());
+    }
+}
@@ -0,0 +1,74 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptorScannerTest {
+
+    /** Returns the index within {@code line} at which scanning the descriptor at {@code start} fails */
+    private static int typeErrorAt(String line, int start) {
+        var ex = assertThrows(
+            DescriptorScanner.InvalidDescriptorException.class,
+            () -> DescriptorScanner.typeDescriptor(new StringView(line, start, line.length()))
+        );
+        return ex.getTarget().start();
+    }
+
+    private static int methodErrorAt(String line, int start) {
+        var ex = assertThrows(
+            DescriptorScanner.InvalidDescriptorException.class,
+            () -> DescriptorScanner.methodDescriptor(new StringView(line, start, line.length()))
+        );
+        return ex.getTarget().start();
+    }
+
+    @org.junit.jupiter.api.Test
+    void validTypes() throws Exception {
+        for (var desc : new String[] {
+            "B", "S", "I", "J", "F", "D", "C", "Z",
+            "Ljava/lang/String;", "LHelloJasmWorld;", "Lpkg/Outer$Inner_1;",
+            "[I", "[[Ljava/lang/Object;", "[".repeat(255) + "J"
+        }) {
+            assertEquals(ClassDesc.ofDescriptor(desc), DescriptorScanner.typeDescriptor(StringView.of(desc)), desc);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void validMethods() throws Exception {
+        for (var desc : new String[] {
+            "()V", "([Ljava/lang/String;)V", "(IJ)D", "(Ljava/lang/String;[[ZLa/b/C;)[Ljava/lang/Object;"
+        }) {
+            assertEquals(MethodTypeDesc.ofDescriptor(desc), DescriptorScanner.methodDescriptor(StringView.of(desc)), desc);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidTypes() {
+        assertEquals(9, typeErrorAt(".field x ", 9)); // empty
+        assertEquals(6, typeErrorAt(".field x ", 6)); // blank
+        assertEquals(9, typeErrorAt(".field x Q", 9));
+        assertEquals(9, typeErrorAt(".field x V", 9));
+        assertEquals(10, typeErrorAt(".field x [V", 9));
+        assertEquals(10, typeErrorAt(".field x [", 9));
+        assertEquals(10, typeErrorAt(".field x II", 9));
+        assertEquals(14, typeErrorAt(".field x Ljava.lang.String;", 9));
+        assertEquals(10, typeErrorAt(".field x L;", 9));
+        assertEquals(10, typeErrorAt(".field x L/a;", 9));
+        assertEquals(15, typeErrorAt(".field x Ljava/;", 9));
+        assertEquals(26, typeErrorAt(".field x Ljava/lang/String", 9));
+        assertEquals(264, typeErrorAt(".field x " + "[".repeat(256) + "I", 9));
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidMethods() {
+        assertEquals(10, methodErrorAt(".method m V", 10));
+        assertEquals(12, methodErrorAt(".method m (I", 10));
+        assertEquals(11, methodErrorAt(".method m (V)V", 10));
+        assertEquals(12, methodErrorAt(".method m ()", 10));
+        assertEquals(13, methodErrorAt(".method m ()VV", 10));
+        assertEquals(13, methodErrorAt(".method m ()[V", 10));
+        assertEquals(13, methodErrorAt(".method m (Lx)V", 10));
+    }
+}
@@ -0,0 +1,146 @@
+package edu.westminsteru.jasm.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JasmReaderTest {
+
+    private static final String CODE = """
+        .source a.jasm
+        .class public A
+        .super java/lang/Object
+        .field private x I
+        .method public static m ()V
+        .code
+            iconst_0
+        loop: top: istore_0
+            .table
+                1: loop
+            .end table
+            .stack locals int
+            goto loop
+        .end code
+        .method public n (I)I
+        .code
+            iload_1
+            ireturn
+        .end code
+        .bogus
+        """;
+
+    /** Records listener callbacks in the same form as {@link #describe(JasmReader.Event)} */
+    private static class Recorder implements JasmParserListener {
+        final List<String> events = new ArrayList<>();
+
+        private void add(JasmParser parser, JasmReader.EventType type, Object... details) {
+            events.add(parser.getCurrentLineNumber() + " " + type + " " + List.of(details));
+        }
+
+        @Override public void exceptionOccurred(JasmParser p, JasmSyntaxException ex) { add(p, JasmReader.EventType.ERROR, ex.getMessage(), ex.getColumnNumber()); }
+        @Override public void sourceDirective(JasmParser p, StringView source) { add(p, JasmReader.EventType.SOURCE, source); }
+        @Override public void classDirective(JasmParser p, StringView id, List<StringView> flags, StringView name) { add(p, JasmReader.EventType.CLASS, id, flags, name); }
+        @Override public void superDirective(JasmParser p, StringView name) { add(p, JasmReader.EventType.SUPER, name); }
+        @Override public void implementsDirective(JasmParser p, StringView name) { add(p, JasmReader.EventType.IMPLEMENTS, name); }
+        @Override public void fieldDirective(JasmParser p, List<StringView> flags, StringView name, StringView desc) { add(p, JasmReader.EventType.FIELD, flags, name, desc, p.getCurrentTypeDescriptor()); }
+        @Override public void methodDirective(JasmParser p, List<StringView> flags, StringView name, StringView desc) { add(p, JasmReader.EventType.METHOD, flags, name, desc, p.getCurrentMethodTypeDescriptor()); }
+        @Override public void codeDirective(JasmParser p) { add(p, JasmReader.EventType.CODE); }
+        @Override public void codeLabel(JasmParser p, StringView label) { add(p, JasmReader.EventType.LABEL, label); }
+        @Override public void codeInstruction(JasmParser p, StringView opcode, List<StringView> operands) { add(p, JasmReader.EventType.INSTRUCTION, opcode, operands); }
+        @Override public void stackDirective(JasmParser p, List<StringView> operands) { add(p, JasmReader.EventType.STACK, operands); }
+        @Override public void endCodeDirective(JasmParser p) { add(p, JasmReader.EventType.END_CODE); }
+        @Override public void tableDirective(JasmParser p) { add(p, JasmReader.EventType.TABLE); }
+        @Override public void tableLine(JasmParser p, StringView label, StringView target) { add(p, JasmReader.EventType.TABLE_LINE, label, target); }
+        @Override public void endTableDirective(JasmParser p) { add(p, JasmReader.EventType.END_TABLE); }
+        @Override public void endOfInput(JasmParser p) { add(p, JasmReader.EventType.END_OF_INPUT); }
+    }
+
+    private static String describe(JasmReader.Event e) {
+        List<Object> details = switch (e.getType()) {
+            case ERROR -> List.of(e.getException().getMessage(), e.getException().getColumnNumber());
+            case SOURCE, SUPER, IMPLEMENTS, LABEL -> List.of(e.getName());
+            case CLASS -> List.of(e.getClassId(), e.getFlags(), e.getName());
+            case FIELD -> List.of(e.getFlags(), e.getName(), e.getDescriptor(), e.getTypeDescriptor());
+            case METHOD -> List.of(e.getFlags(), e.getName(), e.getDescriptor(), e.getMethodTypeDescriptor());
+            case INSTRUCTION -> List.of(e.getName(), e.getOperands());
+            case STACK -> List.of(e.getOperands());
+            case TABLE_LINE -> List.of(e.getName(), e.getTarget());
+            case CODE, END_CODE, TABLE, END_TABLE, END_OF_INPUT -> List.of();
+        };
+        return e.getLineNumber() + " " + e.getType() + " " + details;
+    }
+
+    private static List<String> read(JasmReader reader) {
+        var events = new ArrayList<String>();
+        while (reader.hasNext())
+            events.add(describe(reader.next()));
+        return events;
+    }
+
+    private static MemorySegment bytes(String text) {
+        return MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @org.junit.jupiter.api.Test
+    void sameEventsAsListener() throws IOException {
+        var inputs = new ArrayList<String>();
+        inputs.add(CODE);
+        for (var file : TestInputs.corpus())
+            inputs.add(Files.readString(file));
+
+        for (var text : inputs) {
+            var recorder = new Recorder();
+            new JasmParser(new StringReader(text), recorder).parse();
+
+            assertEquals(recorder.events, read(new JasmReader(new StringReader(text))));
+            assertEquals(recorder.events, read(new JasmReader(bytes(text))));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void skipCode() {
+        for (var reader : List.of(new JasmReader(new StringReader(CODE)), new JasmReader(bytes(CODE)))) {
+            var methods = new ArrayList<String>();
+            var types = new ArrayList<JasmReader.EventType>();
+            while (reader.hasNext()) {
+                var event = reader.next();
+                types.add(event.getType());
+                if (event.getType() == JasmReader.EventType.METHOD)
+                    methods.add(event.getName().toString());
+                else if (event.getType() == JasmReader.EventType.CODE) {
+                    reader.skipCode();
+                    assertEquals(JasmParser.State.Global, reader.getState());
+                }
+            }
+
+            assertEquals(List.of("m", "n"), methods);
+            assertFalse(types.contains(JasmReader.EventType.INSTRUCTION));
+            assertEquals(2, types.stream().filter(t -> t == JasmReader.EventType.END_CODE).count());
+            assertEquals(JasmReader.EventType.ERROR, types.get(types.size() - 2)); // .bogus is still parsed
+            assertEquals(JasmReader.EventType.END_OF_INPUT, types.getLast());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void skipCodeOutsideCode() {
+        var reader = new JasmReader(bytes(CODE));
+        assertEquals(JasmReader.EventType.SOURCE, reader.next().getType());
+        assertThrows(IllegalStateException.class, reader::skipCode);
+    }
+
+    @org.junit.jupiter.api.Test
+    void stopEarly() {
+        var reader = new JasmReader(bytes(CODE));
+        var first = reader.next();
+        assertEquals(JasmReader.EventType.SOURCE, first.getType());
+        assertEquals(1, first.getLineNumber());
+        reader.close();
+        assertFalse(reader.hasNext());
+    }
+}
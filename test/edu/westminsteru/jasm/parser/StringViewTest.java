@@ -43,4 +43,12 @@ class StringViewTest {
         assertEquals(List.of("abc", "123", "xyz").toString(), sv("abc 123 xyz").split(' ').toString());
         assertEquals(List.of("", "abc").toString(), sv(" abc").split(' ').toString());
     }
-}
\ No newline at end of file
+
+    @org.junit.jupiter.api.Test
+    void hash() {
+        String line = "    invokevirtual java/io/PrintStream println (I)V";
+        assertEquals("invokevirtual".hashCode(), StringView.hash(line, 4, 17));
+        assertEquals("".hashCode(), StringView.hash(line, 4, 4));
+        assertEquals(line.hashCode(), StringView.hash(line, 0, line.length()));
+    }
+}
@@ -0,0 +1,102 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+
+    @org.junit.jupiter.api.Test
+    void internsByContent() {
+        var table = new SymbolTable();
+        String line1 = "    getstatic java/lang/System out Ljava/io/PrintStream;";
+        String line2 = "java/lang/System";
+
+        String first = table.intern(new StringView(line1, 14, 30));
+        String second = table.intern(StringView.of(line2));
+        assertEquals("java/lang/System", first);
+        assertSame(first, second);
+        assertEquals(1, table.size());
+
+        String out = table.intern(new StringView(line1, 31, 34));
+        String empty = table.intern(new StringView(line1, 0, 0));
+        assertEquals("out", out);
+        assertEquals("", empty);
+        assertEquals(3, table.size());
+        Reference.reachabilityFence(List.of(first, out, empty));
+    }
+
+    @org.junit.jupiter.api.Test
+    void distinguishesCollidingHashes() {
+        // "Aa" and "BB" have the same hash code
+        var table = new SymbolTable();
+        String aa = table.intern(StringView.of("Aa"));
+        String bb = table.intern(StringView.of("BB"));
+        assertEquals("Aa", aa);
+        assertEquals("BB", bb);
+        assertSame(aa, table.intern(StringView.of("xAa").substring(1)));
+        assertSame(bb, table.intern(StringView.of("BBx").substring(0, 2)));
+        assertEquals(2, table.size());
+        Reference.reachabilityFence(List.of(aa, bb));
+    }
+
+    @org.junit.jupiter.api.Test
+    void growsAndKeepsCanonicalInstances() {
+        var table = new SymbolTable();
+        var symbols = new ArrayList<String>();
+        for (int i = 0; i < 20_000; ++i)
+            symbols.add(table.intern(StringView.of("name" + i)));
+        for (int i = 0; i < 20_000; ++i)
+            assertSame(symbols.get(i), table.intern(StringView.of("name" + i)));
+        assertEquals(20_000, table.size());
+        Reference.reachabilityFence(symbols);
+    }
+
+    @org.junit.jupiter.api.Test
+    void concurrentInterningAgrees() throws InterruptedException, ExecutionException {
+        var table = new SymbolTable();
+        int threads = 8, count = 5_000;
+        String[] first;
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            var results = new ArrayList<Future<String[]>>();
+            for (int t = 0; t < threads; ++t)
+                results.add(executor.submit(() -> {
+                    var interned = new String[count];
+                    for (int i = 0; i < count; ++i)
+                        interned[i] = table.intern(StringView.of("(L" + i + ";)V"));
+                    return interned;
+                }));
+
+            first = results.getFirst().get();
+            for (var result : results) {
+                var interned = result.get();
+                for (int i = 0; i < count; ++i)
+                    assertSame(first[i], interned[i]);
+            }
+        }
+        assertEquals(count, table.size());
+        Reference.reachabilityFence(first);
+    }
+
+    @org.junit.jupiter.api.Test
+    void symbolsNoLongerInUseAreDropped() throws InterruptedException {
+        var table = new SymbolTable();
+        String kept = table.intern(StringView.of("kept"));
+        for (int i = 0; i < 100_000; ++i)
+            table.intern(StringView.of("dropped" + i));
+
+        // the table grows with the symbols in use, not with every symbol ever interned
+        for (int i = 0; i < 50 && table.size() > 1; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, table.size());
+        assertSame(kept, table.intern(StringView.of("kept")));
+        Reference.reachabilityFence(kept);
+    }
+}
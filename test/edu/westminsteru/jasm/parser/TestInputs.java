@@ -0,0 +1,21 @@
+package edu.westminsteru.jasm.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Inputs shared by the tests of the parser.
+ */
+final class TestInputs {
+
+    private TestInputs() {}
+
+    /** Returns the files of the test input, in order */
+    static List<Path> corpus() throws IOException {
+        try (var files = Files.list(Path.of("test-input"))) {
+            return files.filter(p -> p.toString().endsWith(".jasm")).sorted().toList();
+        }
+    }
+}
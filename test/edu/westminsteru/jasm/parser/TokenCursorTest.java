@@ -0,0 +1,144 @@
+package edu.westminsteru.jasm.parser;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenCursorTest {
+
+    private static List<String> tokens(TokenCursor cursor) {
+        var tokens = new ArrayList<String>();
+        for (int i = 0; i < cursor.count(); ++i)
+            tokens.add(cursor.line().substring(cursor.start(i), cursor.end(i)));
+        return tokens;
+    }
+
+    @org.junit.jupiter.api.Test
+    void splitsOnWhitespace() {
+        var cursor = new TokenCursor().reset("  top:\tinvokevirtual  java/io/PrintStream println (I)V  ");
+        assertEquals(List.of("top:", "invokevirtual", "java/io/PrintStream", "println", "(I)V"), tokens(cursor));
+        assertEquals(2, cursor.start(0));
+        assertEquals(6, cursor.end(0));
+        assertEquals(13, cursor.length(1));
+        assertTrue(cursor.endsWith(0, ':'));
+        assertFalse(cursor.endsWith(1, ':'));
+        assertTrue(cursor.is(1, "invokevirtual"));
+        assertFalse(cursor.is(1, "invoke"));
+        assertEquals('j', cursor.charAt(2, 0));
+        assertEquals("java/io/PrintStream".hashCode(), cursor.hash(2));
+        assertEquals("top: invokevirtual java/io/PrintStream println (I)V", cursor.toString());
+    }
+
+    @org.junit.jupiter.api.Test
+    void quotesAndComments() {
+        var cursor = new TokenCursor();
+        assertEquals(List.of("ldc", "\"a \\\" # b\""), tokens(cursor.reset("ldc \"a \\\" # b\" # comment")));
+        assertEquals(List.of("bipush", "' '"), tokens(cursor.reset("bipush ' '")));
+        assertEquals(List.of("bipush", "'\\''"), tokens(cursor.reset("bipush '\\''")));
+        assertEquals(List.of("iadd"), tokens(cursor.reset("iadd#comment")));
+        assertTrue(cursor.reset("   # only a comment").isEmpty());
+        assertTrue(cursor.reset("").isEmpty());
+    }
+
+    @org.junit.jupiter.api.Test
+    void views() {
+        String line = "    tableswitch 0 a b c # targets";
+        var cursor = new TokenCursor().reset(line);
+        assertEquals(new StringView(line, 4, 15), cursor.view(0));
+        assertEquals("0 a b c", cursor.rest(1).toString());
+        assertEquals(new StringView(line, 23, 23), cursor.rest(5));
+        assertEquals(List.of("a", "b", "c"), cursor.views(2).stream().map(StringView::toString).toList());
+        assertEquals(List.of("0"), cursor.views(1, 2).stream().map(StringView::toString).toList());
+        assertEquals(List.of(), cursor.views(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> cursor.start(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> cursor.view(-1));
+    }
+
+    @org.junit.jupiter.api.Test
+    void reuse() {
+        var cursor = new TokenCursor();
+        var many = new StringBuilder("lookupswitch");
+        for (int i = 0; i < 50; ++i)
+            many.append(' ').append(i).append(": l").append(i);
+        assertEquals(101, cursor.reset(many.toString()).count());
+        assertEquals(List.of("nop"), tokens(cursor.reset("nop")));
+        assertThrows(IndexOutOfBoundsException.class, () -> cursor.start(1));
+    }
+
+    @org.junit.jupiter.api.Test
+    void bytes() {
+        var cursor = new TokenCursor();
+        var input = MemorySegment.ofArray("  lab: ldc \"a # b\" # comment ≈\nldc \"π\"\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(cursor.tryReset(input, 0, 32));
+        assertEquals(List.of("lab:", "ldc", "\"a # b\""), tokens(cursor));
+        assertTrue(cursor.is(1, "ldc"));
+        assertTrue(cursor.endsWith(0, ':'));
+        assertEquals('l', cursor.codePointAt(1));
+        assertEquals("lab:".hashCode(), cursor.hash(0));
+        assertEquals("  lab: ldc \"a # b\" # comment ≈", cursor.line());
+        var text = new StringBuilder("x");
+        cursor.appendLineTo(text);
+        assertEquals("x  lab: ldc \"a # b\" # comment ≈", text.toString());
+
+        // only a line that is ASCII outside of its comment can be split without decoding it
+        assertFalse(cursor.tryReset(input, 33, input.byteSize() - 1));
+        assertTrue(cursor.isEmpty());
+        assertEquals(List.of("ldc", "\"π\""), tokens(cursor.reset("ldc \"π\"")));
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private static final String[] LINES = {
+        "    iload_0", "loop: iinc 1 -1", "    invokestatic java/lang/Math max (II)I", "    ldc \"some text\" # a comment",
+        "    getstatic java/lang/System out Ljava/io/PrintStream;", "    if_icmplt loop",
+    };
+
+    @org.junit.jupiter.api.Test
+    void resetAllocatesNothing() {
+        var cursor = new TokenCursor();
+        int lines = 100_000, tokens = 0;
+        for (int i = 0; i < lines; ++i)
+            cursor.reset(LINES[i % LINES.length]); // warm up, and grow the arrays once
+
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < lines; ++i)
+            tokens += cursor.reset(LINES[i % LINES.length]).count();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(tokens > lines);
+        assertTrue(allocated < lines, allocated + " bytes allocated for " + lines + " lines");
+    }
+
+    @org.junit.jupiter.api.Test
+    void codeLinesAllocateNothing() {
+        var code = new StringBuilder(".class public A\n.method public static m ()V\n.code\n");
+        int lines = 100_000;
+        for (int i = 0; i < lines; ++i)
+            code.append(LINES[i % LINES.length]).append('\n');
+        var input = MemorySegment.ofArray(code.append(".end code\n").toString().getBytes(StandardCharsets.UTF_8));
+        int[] instructions = new int[1];
+        var listener = new JasmParserListener() {
+            @Override
+            public void codeLabel(JasmParser parser, TokenCursor tokens, int label) {}
+
+            @Override
+            public void codeInstruction(JasmParser parser, TokenCursor tokens, int opcode) {
+                ++instructions[0];
+            }
+        };
+
+        for (int i = 0; i < 20; ++i)
+            new JasmParser(input, listener).parse(); // warm up
+        instructions[0] = 0;
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        new JasmParser(input, listener).parse();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(lines, instructions[0]);
+
+        // the lines are split where they lie, and never decoded since the listener does not ask for their text
+        assertTrue(allocated < lines, allocated + " bytes allocated for " + lines + " lines");
+    }
+}
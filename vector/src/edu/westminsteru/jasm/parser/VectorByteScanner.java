@@ -0,0 +1,54 @@
+package edu.westminsteru.jasm.parser;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ByteScanner} that uses the incubating Vector API to examine {@link ByteVector#SPECIES_PREFERRED a full vector} of bytes (typically 32 or 64) at once.
+ * Kept out of the default build in the {@code jasm-vector} module, and only loaded by {@link ByteScanner#get()} when it is on the class path and the {@code jdk.incubator.vector} module is present; the last partial vector of a range is handled by the scalar code.
+ */
+final class VectorByteScanner extends ByteScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LENGTH = SPECIES.length();
+
+    @Override
+    long lineEnd(MemorySegment bytes, long from, long to) {
+        long i = from;
+        for (; i + LENGTH <= to; i += LENGTH) {
+            var v = load(bytes, i);
+            var mask = v.eq((byte)'\n').or(v.eq((byte)'\r'));
+            if (mask.anyTrue())
+                return i + mask.firstTrue();
+        }
+        return super.lineEnd(bytes, i, to);
+    }
+
+    @Override
+    long skipWhitespace(MemorySegment bytes, long from, long to) {
+        long i = from;
+        for (; i + LENGTH <= to; i += LENGTH) {
+            var mask = whitespace(load(bytes, i)).not();
+            if (mask.anyTrue())
+                return i + mask.firstTrue();
+        }
+        return super.skipWhitespace(bytes, i, to);
+    }
+
+    private static ByteVector load(MemorySegment bytes, long offset) {
+        return ByteVector.fromMemorySegment(SPECIES, bytes, offset, ByteOrder.nativeOrder());
+    }
+
+    private static VectorMask<Byte> whitespace(ByteVector v) {
+        // ' ', '\t'..'\r', and 0x1C..0x1F; bytes are signed, so non-ASCII bytes are negative and never match
+        return v.eq((byte)' ')
+            .or(v.compare(VectorOperators.GE, (byte)'\t').and(v.compare(VectorOperators.LE, (byte)'\r')))
+            .or(v.compare(VectorOperators.GE, (byte)0x1C).and(v.compare(VectorOperators.LE, (byte)0x1F)));
+    }
+}
@@ -0,0 +1,53 @@
+package edu.westminsteru.jasm.parser;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that {@link VectorByteScanner} gives the same results as the scalar {@link ByteScanner}. Run with {@code --add-modules jdk.incubator.vector}.
+ */
+class VectorByteScannerTest {
+
+    private static final ByteScanner scalar = ByteScanner.scalar();
+    private static final ByteScanner vector = new VectorByteScanner();
+
+    private static MemorySegment bytes(String text) {
+        return MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertSameResults(MemorySegment bytes) {
+        long length = bytes.byteSize();
+        for (long from = 0; from <= length; ++from) {
+            assertEquals(scalar.lineEnd(bytes, from, length), vector.lineEnd(bytes, from, length), "lineEnd from " + from);
+            long end = scalar.lineEnd(bytes, from, length);
+            assertEquals(scalar.skipWhitespace(bytes, from, end), vector.skipWhitespace(bytes, from, end), "skipWhitespace from " + from);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void loaded() {
+        assertInstanceOf(VectorByteScanner.class, ByteScanner.get());
+    }
+
+    @org.junit.jupiter.api.Test
+    void longLines() {
+        assertSameResults(bytes(" ".repeat(200) + "x" + "\t".repeat(70) + "#" + "y".repeat(100) + "\r\n"));
+        assertSameResults(bytes("ldc \"" + "#".repeat(100) + "\\\"" + " ".repeat(90) + "\" # done\n" + "π ≈ ".repeat(40)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void corpus() throws IOException {
+        var files = TestInputs.corpus();
+        assertFalse(files.isEmpty());
+
+        for (var file : files) {
+            try (var arena = Arena.ofConfined()) {
+                assertSameResults(JasmParser.map(file, arena));
+            }
+        }
+    }
+}